@@ -23,7 +23,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -52,6 +54,7 @@ import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.ProfileMeasurement;
 import edu.brown.utils.StringUtil;
+import edu.brown.utils.ThreadUtil;
 import edu.brown.workload.AbstractTraceElement;
 import edu.brown.workload.QueryTrace;
 import edu.brown.workload.TransactionTrace;
@@ -115,6 +118,40 @@ public class SingleSitedCostModel extends AbstractCostModel {
 
     private final Set<Long> last_invalidateTxns = new HashSet<Long>();
 
+    /**
+     * Whether estimateWorkloadCost() should ask the PartitionEstimator about the
+     * txns that are missing cache entries in parallel before updating the cache
+     * and histograms in the calling thread
+     */
+    private boolean use_parallel = true;
+    /**
+     * The minimum number of txns that need to be recalculated before we will
+     * bother to split the work up across threads
+     */
+    private int parallel_min_txns = 1000;
+    /**
+     * TransactionTrace Id -> PrecomputedTransaction
+     * Only populated while we are inside of estimateWorkloadCostImpl()
+     */
+    private final Map<Long, PrecomputedTransaction> precomputed = new HashMap<Long, PrecomputedTransaction>();
+
+    /**
+     * The PartitionEstimator's answers for a single TransactionTrace that were
+     * calculated by a worker thread. The base partition is only set if the txn
+     * did not already have one, and the table partitions are only set for the
+     * queries that did not have a valid QueryCacheEntry.
+     */
+    private static class PrecomputedTransaction {
+        private final Integer base_partition;
+        private final Map<String, Set<Integer>> table_partitions[];
+
+        @SuppressWarnings("unchecked")
+        private PrecomputedTransaction(Integer base_partition, int num_queries) {
+            this.base_partition = base_partition;
+            this.table_partitions = (Map<String, Set<Integer>>[])new Map<?, ?>[num_queries];
+        }
+    } // END CLASS
+
     /**
      * Cost Estimate Explanation
      */
@@ -476,6 +513,23 @@ public class SingleSitedCostModel extends AbstractCostModel {
         assert (this.histogram_query_partitions.getValueCount() == 0);
     }
 
+    public boolean isParallelEnabled() {
+        return (this.use_parallel);
+    }
+
+    /**
+     * Enable parallel estimation for workloads where at least min_txns
+     * txns need to be recalculated
+     * @param enable
+     * @param min_txns
+     */
+    public void setParallelEnabled(boolean enable, int min_txns) {
+        if (debug.get())
+            LOG.debug("Parallel Estimation: " + (enable ? "ENABLED [min_txns=" + min_txns + "]" : "DISABLED"));
+        this.use_parallel = enable;
+        this.parallel_min_txns = min_txns;
+    }
+
     public int getWeightedTransactionCount() {
         int ctr = 0;
         for (TransactionCacheEntry txn_entry : this.txn_entries.values()) {
@@ -841,6 +895,168 @@ public class SingleSitedCostModel extends AbstractCostModel {
     // ESTIMATION METHODS
     // --------------------------------------------------------------------------------------------
 
+    /**
+     * We first ask the PartitionEstimator about all of the txns that are not
+     * already in our cache in parallel, and then update our cache entries and
+     * histograms one txn at a time just like before. Only the txns that were
+     * never processed or that touch something that was invalidated since the last
+     * time will need to be recalculated.
+     */
+    @Override
+    protected double estimateWorkloadCostImpl(Database catalog_db, Workload workload, Filter filter, Double upper_bound) throws Exception {
+        if (this.use_parallel) {
+            this.precomputeTransactions(catalog_db, workload, filter);
+            if (filter != null)
+                filter.reset();
+        }
+        try {
+            return (super.estimateWorkloadCostImpl(catalog_db, workload, filter, upper_bound));
+        } finally {
+            this.precomputed.clear();
+        }
+    }
+
+    /**
+     * Split the txns that are missing complete cache entries into chunks and
+     * have the global thread pool ask the PartitionEstimator what they touch
+     * 
+     * @param catalog_db
+     * @param workload
+     * @param filter
+     */
+    private void precomputeTransactions(final Database catalog_db, Workload workload, Filter filter) {
+        final int num_threads = ThreadUtil.getMaxGlobalThreads();
+        if (num_threads <= 1)
+            return;
+
+        final List<TransactionTrace> txns = new ArrayList<TransactionTrace>();
+        Iterator<TransactionTrace> it = workload.iterator(filter);
+        while (it.hasNext()) {
+            TransactionTrace txn_trace = it.next();
+            if (this.use_caching) {
+                TransactionCacheEntry txn_entry = this.txn_entries.get(txn_trace.getTransactionId());
+                if (txn_entry != null && txn_entry.base_partition != null && txn_entry.examined_queries == txn_trace.getQueries().size())
+                    continue;
+            }
+            txns.add(txn_trace);
+        } // WHILE
+        if (txns.size() < this.parallel_min_txns) {
+            if (trace.get())
+                LOG.trace(String.format("Not precomputing %d txns [min_txns=%d]", txns.size(), this.parallel_min_txns));
+            return;
+        }
+
+        // The PartitionEstimator fills in its caches the first time that it sees a Procedure
+        // or a Statement, and those aren't safe to update from multiple threads. So we will
+        // precompute the first txn that uses any Procedure or Statement that we haven't seen
+        // yet in this thread, and then only let the threads have the rest of them.
+        Set<Procedure> warm_procs = new HashSet<Procedure>();
+        Set<Statement> warm_stmts = new HashSet<Statement>();
+        int warm_ctr = 0;
+        for (Iterator<TransactionTrace> txn_it = txns.iterator(); txn_it.hasNext();) {
+            TransactionTrace txn_trace = txn_it.next();
+            TransactionCacheEntry txn_entry = (this.use_caching ? this.txn_entries.get(txn_trace.getTransactionId()) : null);
+            boolean warm = false;
+            if (txn_entry == null || txn_entry.base_partition == null)
+                warm = warm_procs.add(txn_trace.getCatalogItem(catalog_db));
+            List<QueryTrace> queries = txn_trace.getQueries();
+            for (int i = 0, cnt = queries.size(); i < cnt; i++) {
+                if (this.isPrecomputeNeeded(txn_entry, i))
+                    warm = warm_stmts.add(queries.get(i).getCatalogItem(catalog_db)) || warm;
+            } // FOR
+            if (warm == false)
+                continue;
+            try {
+                this.precomputed.put(txn_trace.getTransactionId(), this.precomputeTransaction(catalog_db, txn_trace));
+            } catch (Exception ex) {
+                throw new RuntimeException("Failed to precompute partitions for " + txn_trace, ex);
+            }
+            txn_it.remove();
+            warm_ctr++;
+        } // FOR
+        if (debug.get())
+            LOG.debug(String.format("Precomputed %d txns to warm up the PartitionEstimator's caches", warm_ctr));
+        if (txns.isEmpty())
+            return;
+
+        // Use a few more chunks than threads so that one slow chunk doesn't hold everyone up
+        final int chunk_size = (int) Math.ceil(txns.size() / (double) (num_threads * 4));
+        List<Runnable> runnables = new ArrayList<Runnable>();
+        for (int start = 0; start < txns.size(); start += chunk_size) {
+            final List<TransactionTrace> chunk = txns.subList(start, Math.min(start + chunk_size, txns.size()));
+            runnables.add(new Runnable() {
+                @Override
+                public void run() {
+                    Map<Long, PrecomputedTransaction> results = new HashMap<Long, PrecomputedTransaction>();
+                    for (TransactionTrace txn_trace : chunk) {
+                        try {
+                            results.put(txn_trace.getTransactionId(), precomputeTransaction(catalog_db, txn_trace));
+                        } catch (Exception ex) {
+                            throw new RuntimeException("Failed to precompute partitions for " + txn_trace, ex);
+                        }
+                    } // FOR
+                    synchronized (precomputed) {
+                        precomputed.putAll(results);
+                    } // SYNCH
+                }
+            });
+        } // FOR
+        if (debug.get())
+            LOG.debug(String.format("Precomputing partitions for %d txns using %d chunks", txns.size(), runnables.size()));
+        ThreadUtil.runGlobalPool(runnables); // BLOCKING
+    }
+
+    /**
+     * Ask the PartitionEstimator for the base partition and the table partitions of
+     * each query that processTransaction() will need to recalculate. This does not
+     * modify any of the cache entries or histograms, so it is safe to call from
+     * multiple threads as long as nobody else is modifying them and the
+     * PartitionEstimator has already seen the txn's Procedure and Statements.
+     * 
+     * @param catalog_db
+     * @param txn_trace
+     * @return
+     * @throws Exception
+     */
+    private PrecomputedTransaction precomputeTransaction(Database catalog_db, TransactionTrace txn_trace) throws Exception {
+        TransactionCacheEntry txn_entry = (this.use_caching ? this.txn_entries.get(txn_trace.getTransactionId()) : null);
+        Procedure catalog_proc = txn_trace.getCatalogItem(catalog_db);
+        Integer base_partition = (txn_entry != null ? txn_entry.base_partition : null);
+        Integer new_base_partition = null;
+
+        // This needs to match what processTransaction() and setBasePartition() will do
+        if (base_partition == null && catalog_proc.getPartitionparameter() != NullProcParameter.PARAM_IDX) {
+            try {
+                new_base_partition = this.p_estimator.getBasePartition(catalog_proc, txn_trace.getParams(), true);
+            } catch (Exception ex) {
+                LOG.error("Unexpected error from PartitionEstimator for " + txn_trace, ex);
+            }
+            base_partition = (new_base_partition != null ? new_base_partition : 0);
+        }
+
+        List<QueryTrace> queries = txn_trace.getQueries();
+        PrecomputedTransaction ret = new PrecomputedTransaction(new_base_partition, queries.size());
+        for (int i = 0, cnt = queries.size(); i < cnt; i++) {
+            if (this.isPrecomputeNeeded(txn_entry, i) == false)
+                continue;
+            ret.table_partitions[i] = this.p_estimator.getTablePartitions(queries.get(i), base_partition);
+        } // FOR
+        return (ret);
+    }
+
+    /**
+     * Returns true if processTransaction() will need to recalculate the partitions
+     * for the query at the given offset in the txn
+     * 
+     * @param txn_entry
+     * @param query_idx
+     * @return
+     */
+    private boolean isPrecomputeNeeded(TransactionCacheEntry txn_entry, int query_idx) {
+        QueryCacheEntry query_entry = (txn_entry != null ? txn_entry.query_entries[query_idx] : null);
+        return (this.use_caching == false || query_entry == null || query_entry.isInvalid());
+    }
+
     private final Map<String, Set<Integer>> temp_stmtPartitions = new HashMap<String, Set<Integer>>();
     private final Set<Integer> temp_txnOrigPartitions = new HashSet<Integer>();
     private final Set<Integer> temp_txnNewPartitions = new HashSet<Integer>();
@@ -965,6 +1181,9 @@ public class SingleSitedCostModel extends AbstractCostModel {
         assert (catalog_proc != null);
         final String proc_key = CatalogKey.createKey(catalog_proc);
 
+        // Check whether a worker thread already did the heavy lifting for us
+        final PrecomputedTransaction precomputed_txn = (this.precomputed.isEmpty() ? null : this.precomputed.remove(txn_id));
+
         // Initialize a new Cache entry for this txn
         if (txn_entry == null) {
             txn_entry = this.createTransactionCacheEntry(txn_trace, proc_key);
@@ -991,10 +1210,14 @@ public class SingleSitedCostModel extends AbstractCostModel {
             assert (proc_param_idx < catalog_proc.getParameters().size()) : "Invalid ProcParameter Index " + proc_param_idx;
 
             Integer base_partition = null;
-            try {
-                base_partition = this.p_estimator.getBasePartition(catalog_proc, txn_trace.getParams(), true);
-            } catch (Exception ex) {
-                LOG.error("Unexpected error from PartitionEstimator for " + txn_trace, ex);
+            if (precomputed_txn != null) {
+                base_partition = precomputed_txn.base_partition;
+            } else {
+                try {
+                    base_partition = this.p_estimator.getBasePartition(catalog_proc, txn_trace.getParams(), true);
+                } catch (Exception ex) {
+                    LOG.error("Unexpected error from PartitionEstimator for " + txn_trace, ex);
+                }
             }
             this.setBasePartition(txn_entry, base_partition);
             if (trace.get())
@@ -1102,7 +1325,12 @@ public class SingleSitedCostModel extends AbstractCostModel {
                 // XXX: What should we do if the TransactionCacheEntry's base
                 // partition hasn't been calculated yet?
                 // Let's just throw it at the PartitionEstimator and let it figure out what to do...
-                Map<String, Set<Integer>> table_partitions = this.p_estimator.getTablePartitions(query_trace, txn_entry.base_partition);
+                Map<String, Set<Integer>> table_partitions = null;
+                if (precomputed_txn != null && precomputed_txn.table_partitions[query_idx] != null) {
+                    table_partitions = precomputed_txn.table_partitions[query_idx];
+                } else {
+                    table_partitions = this.p_estimator.getTablePartitions(query_trace, txn_entry.base_partition);
+                }
                 StringBuilder sb = null;
                 if (trace.get()) {
                     sb = new StringBuilder();
@@ -1,34 +1,152 @@
 package edu.brown.hashing;
 
-import org.apache.commons.collections15.map.LRUMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import org.voltdb.catalog.Database;
 
+import edu.brown.hstore.conf.HStoreConf;
+
+/**
+ * DefaultHasher that caches the partitions for String values. Hashing a String
+ * has to encode it into UTF-8 first, so we keep the partitions for the most
+ * recent Strings in a direct-mapped table. Lookups never take a lock and never
+ * allocate, so this is safe to share between all of the threads that use the
+ * PartitionEstimator. A String just replaces whatever was in its slot before.
+ * Numeric values are not cached because hashing them is cheaper than a lookup.
+ */
 public class CachedHasher extends DefaultHasher {
 
-    private final LRUMap<Object, Integer> cache = new LRUMap<Object, Integer>(2048);
+    public static final int DEFAULT_CACHE_SIZE = 2048;
+
+    /**
+     * Each thread updates the hit/miss counters for its stripe. We space
+     * the stripes out so that they end up on different cache lines.
+     */
+    private static final int NUM_STRIPES = 16;
+    private static final int STRIPE_PADDING = 16;
+
+    private static final class Entry {
+        private final String key;
+        private final int partition;
+
+        private Entry(String key, int partition) {
+            this.key = key;
+            this.partition = partition;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> cache;
+    private final int mask;
+    private final AtomicLongArray counters = new AtomicLongArray(NUM_STRIPES * STRIPE_PADDING);
 
     /**
      * Constructor
+     * The size of the cache comes from ${global.hasherCacheSize} if HStoreConf has
+     * been initialized.
      * @param catalog_db
      * @param num_partitions
      */
     public CachedHasher(Database catalog_db, int num_partitions) {
+        this(catalog_db, num_partitions, (HStoreConf.isInitialized() ?
+                                            HStoreConf.singleton().global.hasherCacheSize :
+                                            DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * Constructor
+     * @param catalog_db
+     * @param num_partitions
+     * @param cache_size the number of Strings to cache. This will be rounded up to a power of two
+     */
+    public CachedHasher(Database catalog_db, int num_partitions, int cache_size) {
         super(catalog_db, num_partitions);
+        int size = 1;
+        while (size < cache_size) size <<= 1;
+        this.cache = new AtomicReferenceArray<Entry>(size);
+        this.mask = size - 1;
     }
 
     @Override
     public void init(Database catalogDb) {
         super.init(catalogDb);
-        this.cache.clear();
+        for (int i = 0, cnt = this.cache.length(); i < cnt; i++) {
+            this.cache.set(i, null);
+        } // FOR
+        for (int i = 0, cnt = this.counters.length(); i < cnt; i++) {
+            this.counters.set(i, 0);
+        } // FOR
     }
-    
+
     @Override
     public int hash(Object value, int num_partitions) {
-        Integer hash = this.cache.get(value);
-        if (hash == null) {
-            hash = super.hash(value, num_partitions);
-            this.cache.put(value, hash);
+        // We only cache the partitions for our own partition count
+        if ((value instanceof String) == false || num_partitions != this.num_partitions) {
+            return (super.hash(value, num_partitions));
+        }
+        String key = (String)value;
+        int h = key.hashCode();
+        int idx = (h ^ (h >>> 16)) & this.mask;
+        int stripe = ((int)Thread.currentThread().getId() & (NUM_STRIPES - 1)) * STRIPE_PADDING;
+
+        Entry entry = this.cache.get(idx);
+        if (entry != null && (entry.key == key || entry.key.equals(key))) {
+            this.increment(stripe);
+            return (entry.partition);
         }
-        return (hash.intValue());
+        int partition = super.hash(value, num_partitions);
+        this.cache.lazySet(idx, new Entry(key, partition));
+        this.increment(stripe + 1);
+        return (partition);
+    }
+
+    /**
+     * The counters don't need to be exact, so we avoid a CAS here. Two threads
+     * that share a stripe could lose an update every once in a while.
+     */
+    private void increment(int idx) {
+        this.counters.lazySet(idx, this.counters.get(idx) + 1);
+    }
+
+    private long sum(int offset) {
+        long total = 0;
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            total += this.counters.get(i * STRIPE_PADDING + offset);
+        } // FOR
+        return (total);
+    }
+
+    /**
+     * Returns the number of Strings that we found in the cache
+     */
+    public long getCacheHits() {
+        return (this.sum(0));
+    }
+
+    /**
+     * Returns the number of Strings that we had to hash
+     */
+    public long getCacheMisses() {
+        return (this.sum(1));
+    }
+
+    /**
+     * Returns the fraction of String lookups that were found in the cache
+     */
+    public double getCacheHitRatio() {
+        long hits = this.getCacheHits();
+        long total = hits + this.getCacheMisses();
+        return (total > 0 ? hits / (double)total : 0d);
+    }
+
+    public int getCacheSize() {
+        return (this.cache.length());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[size=%d, hits=%d, misses=%d, hitRatio=%.2f]",
+                             this.getClass().getSimpleName(), this.getCacheSize(),
+                             this.getCacheHits(), this.getCacheMisses(), this.getCacheHitRatio());
     }
 }
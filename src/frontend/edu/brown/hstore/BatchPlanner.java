@@ -37,6 +37,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.collections15.map.LRUMap;
 import org.apache.commons.collections15.map.ListOrderedMap;
 import org.apache.log4j.Logger;
 import org.voltdb.ParameterSet;
@@ -59,6 +60,7 @@ import edu.brown.plannodes.PlanNodeUtil;
 import edu.brown.statistics.Histogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.PartitionEstimator;
+import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProfileMeasurement;
 import edu.brown.utils.StringUtil;
 import edu.uci.ics.jung.graph.DirectedSparseMultigraph;
@@ -93,7 +95,7 @@ public class BatchPlanner implements Loggable {
      * Cache set of single-partition sets
      * PartitionId -> Set<Integer>
      */
-    private static Set<Integer> CACHED_SINGLE_PARTITION_SETS[];
+    private static PartitionSet CACHED_SINGLE_PARTITION_SETS[];
 
     /**
      * Cached set of
@@ -138,6 +140,16 @@ public class BatchPlanner implements Loggable {
 
     private Map<Statement, Map<PlanFragment, Set<Integer>>> cache_singlePartitionFragmentPartitions;
 
+    // DISTRIBUTED PLAN CACHE
+    private final Map<PlanSignature, BatchPlan> cache_multiPartitionPlans;
+    private final PlanSignature cache_multiPartitionProbe;
+    /**
+     * Only the thread that owns this BatchPlanner updates these, but they are
+     * read by other threads (e.g., HStoreSiteStatus), so they need to be volatile
+     */
+    private volatile long cache_multiPartitionHits = 0;
+    private volatile long cache_multiPartitionMisses = 0;
+
     // PROFILING
     private final ProfileMeasurement time_plan;
     private final ProfileMeasurement time_partitionEstimator;
@@ -223,6 +235,84 @@ public class BatchPlanner implements Loggable {
         }
     } // END CLASS
 
+    /**
+     * The base partition and the partitions that each PlanFragment in a BatchPlan
+     * will execute on. Two invocations of the same batch that have the same
+     * PlanSignature will always end up with the same PlanGraph and WorkFragments,
+     * so we can reuse the BatchPlan from the first one.
+     */
+    protected static class PlanSignature {
+        private int base_partition;
+        private boolean singlepartition_bitmap[];
+        private final Set<?> frag_partitions[];
+        private int num_fragments;
+        private int hash_code;
+
+        public PlanSignature(int max_fragments) {
+            this.frag_partitions = new Set<?>[max_fragments];
+        }
+
+        /**
+         * Copy constructor. The new PlanSignature will reference the same
+         * partition sets as the original one.
+         * @param other
+         */
+        public PlanSignature(PlanSignature other) {
+            this.base_partition = other.base_partition;
+            this.singlepartition_bitmap = other.singlepartition_bitmap;
+            this.frag_partitions = Arrays.copyOf(other.frag_partitions, other.num_fragments);
+            this.num_fragments = other.num_fragments;
+            this.hash_code = other.hash_code;
+        }
+
+        /**
+         * Point this PlanSignature at the partitions in the given BatchPlan.
+         * Nothing is copied, so the BatchPlan cannot be modified while this
+         * PlanSignature is in use.
+         * @param plan
+         * @param batch_size
+         * @return
+         */
+        public PlanSignature init(BatchPlan plan, int batch_size) {
+            this.base_partition = plan.base_partition.intValue();
+            this.singlepartition_bitmap = plan.singlepartition_bitmap;
+            this.num_fragments = 0;
+            int hash = this.base_partition;
+            for (int stmt_index = 0; stmt_index < batch_size; stmt_index++) {
+                hash = 31 * hash + (this.singlepartition_bitmap[stmt_index] ? 1 : 0);
+                for (PlanFragment catalog_frag : plan.frag_list[stmt_index]) {
+                    Set<Integer> partitions = plan.frag_partitions[stmt_index].get(catalog_frag);
+                    this.frag_partitions[this.num_fragments++] = partitions;
+                    hash = 31 * hash + partitions.hashCode();
+                } // FOR
+            } // FOR
+            this.hash_code = hash;
+            return (this);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return (true);
+            if ((obj instanceof PlanSignature) == false) return (false);
+            PlanSignature other = (PlanSignature) obj;
+            if (this.hash_code != other.hash_code ||
+                this.base_partition != other.base_partition ||
+                this.num_fragments != other.num_fragments ||
+                Arrays.equals(this.singlepartition_bitmap, other.singlepartition_bitmap) == false) {
+                return (false);
+            }
+            for (int i = 0; i < this.num_fragments; i++) {
+                if (this.frag_partitions[i].equals(other.frag_partitions[i]) == false) return (false);
+            } // FOR
+            return (true);
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.hash_code);
+        }
+    } // END CLASS
+
     // ----------------------------------------------------------------------------
     // BATCH PLAN
     // ----------------------------------------------------------------------------
@@ -247,11 +337,15 @@ public class BatchPlanner implements Loggable {
         private final Collection<PlanVertex> rounds[][];
         private int rounds_length;
 
+        /** The WorkFragments for a cached BatchPlan. These never change so we only build them once */
+        private List<WorkFragment> cached_fragments;
+        private boolean cached_fragments_prefetch;
+
         /**
          * StmtIndex -> Target Partition Ids
          */
-        private final Set<Integer>[] stmt_partitions;
-        private final Set<Integer>[] stmt_partitions_swap;
+        private final PartitionSet[] stmt_partitions;
+        private final PartitionSet[] stmt_partitions_swap;
 
         /**
          * StmtIndex -> Map{PlanFragment, Set<PartitionIds>}
@@ -293,23 +387,21 @@ public class BatchPlanner implements Loggable {
             int num_partitions = BatchPlanner.this.num_partitions;
 
             // Round Data
+            // The lists for each partition are allocated when they are first used
             this.rounds = (Collection<PlanVertex>[][]) new Collection<?>[max_round_size][];
             for (int i = 0; i < this.rounds.length; i++) {
                 this.rounds[i] = (Collection<PlanVertex>[]) new Collection<?>[num_partitions];
-                for (int ii = 0; ii < num_partitions; ii++) {
-                    this.rounds[i][ii] = new ArrayList<PlanVertex>();
-                } // FOR
             } // FOR
 
             // Batch Data
             this.frag_list = (List<PlanFragment>[]) new List<?>[batch_size];
-            this.stmt_partitions = (Set<Integer>[]) new Set<?>[batch_size];
-            this.stmt_partitions_swap = (Set<Integer>[]) new Set<?>[batch_size];
+            this.stmt_partitions = new PartitionSet[batch_size];
+            this.stmt_partitions_swap = new PartitionSet[batch_size];
             this.frag_partitions = (Map<PlanFragment, Set<Integer>>[]) new HashMap<?, ?>[batch_size];
             this.frag_partitions_swap = (Map<PlanFragment, Set<Integer>>[]) new HashMap<?, ?>[batch_size];
             this.singlepartition_bitmap = new boolean[batch_size];
             for (int i = 0; i < batch_size; i++) {
-                this.stmt_partitions[i] = new HashSet<Integer>();
+                this.stmt_partitions[i] = new PartitionSet();
                 this.frag_partitions[i] = new HashMap<PlanFragment, Set<Integer>>();
             } // FOR
         }
@@ -340,13 +432,18 @@ public class BatchPlanner implements Loggable {
                 // } // FOR
                 // }
             } // FOR
+            this.clearRounds();
+
+            return (this);
+        }
+
+        private void clearRounds() {
             for (int i = 0; i < this.rounds.length; i++) {
                 for (int ii = 0; ii < this.rounds[i].length; ii++) {
-                    this.rounds[i][ii].clear();
+                    if (this.rounds[i][ii] != null)
+                        this.rounds[i][ii].clear();
                 } // FOR
             } // FOR
-
-            return (this);
         }
 
         public BatchPlanner getPlanner() {
@@ -366,11 +463,24 @@ public class BatchPlanner implements Loggable {
         }
 
         public void getWorkFragments(Long txn_id, List<WorkFragment> tasks) {
-            BatchPlanner.this.buildWorkFragments(txn_id, this, graph, tasks);
+            if (this.cached) {
+                // A cached BatchPlan will always generate the same WorkFragments,
+                // so we only need to build them the first time that we're asked
+                if (this.cached_fragments == null || this.cached_fragments_prefetch != prefetch) {
+                    List<WorkFragment> fragments = new ArrayList<WorkFragment>();
+                    BatchPlanner.this.buildWorkFragments(txn_id, this, graph, fragments);
+                    this.clearRounds();
+                    this.cached_fragments_prefetch = prefetch;
+                    this.cached_fragments = fragments;
+                }
+                tasks.addAll(this.cached_fragments);
+            } else {
+                BatchPlanner.this.buildWorkFragments(txn_id, this, graph, tasks);
+            }
         }
         
         public void getWorkFragments(Long txn_id, List<WorkFragment> tasks, boolean prefetch) {
-            BatchPlanner.this.buildWorkFragments(txn_id, this, graph, tasks);
+            this.getWorkFragments(txn_id, tasks);
         }
 
         public int getBatchSize() {
@@ -496,6 +606,7 @@ public class BatchPlanner implements Loggable {
 
         this.cache_fastLookups = (this.enable_caching ? new int[this.batchSize][] : null);
         this.cache_singlePartitionPlans = (this.enable_caching ? new BatchPlan[this.num_partitions] : null);
+        int max_fragments = 0;
         for (int i = 0; i < this.batchSize; i++) {
             this.catalog_stmts[i] = batchStmts[i].getStatement();
             this.stmt_is_readonly[i] = batchStmts[i].getStatement().getReadonly();
@@ -514,8 +625,19 @@ public class BatchPlanner implements Loggable {
                     this.cache_fastLookups[i] = CollectionUtil.toIntArray(param_idxs);
                 }
             }
+            max_fragments += Math.max(this.catalog_stmts[i].getFragments().size(),
+                                      this.catalog_stmts[i].getMs_fragments().size());
         } // FOR
 
+        // DISTRIBUTED PLAN CACHE
+        if (this.enable_caching && hstore_conf.site.planner_caching_distributed_size > 0) {
+            this.cache_multiPartitionPlans = new LRUMap<PlanSignature, BatchPlan>(hstore_conf.site.planner_caching_distributed_size);
+            this.cache_multiPartitionProbe = new PlanSignature(max_fragments);
+        } else {
+            this.cache_multiPartitionPlans = null;
+            this.cache_multiPartitionProbe = null;
+        }
+
         // PROFILING
         if (this.enable_profiling) {
             this.time_plan = new ProfileMeasurement("BuildPlan");
@@ -581,6 +703,22 @@ public class BatchPlanner implements Loggable {
         return new ProfileMeasurement[] { this.time_plan, this.time_planGraph, this.time_partitionEstimator, this.time_partitionFragments, };
     }
 
+    /**
+     * Return the number of times that we were able to reuse a cached distributed BatchPlan
+     * @see HStoreConf.SiteConf.planner_caching_distributed_size
+     */
+    public long getDistributedCacheHits() {
+        return (this.cache_multiPartitionHits);
+    }
+
+    /**
+     * Return the number of times that we had to build a new distributed BatchPlan
+     * @see HStoreConf.SiteConf.planner_caching_distributed_size
+     */
+    public long getDistributedCacheMisses() {
+        return (this.cache_multiPartitionMisses);
+    }
+
     @Override
     public void updateLogging() {
         d = debug.get();
@@ -593,11 +731,11 @@ public class BatchPlanner implements Loggable {
      */
     @SuppressWarnings("unchecked")
     public static synchronized void clear(int num_partitions) {
-        CACHED_SINGLE_PARTITION_SETS = (Set<Integer>[]) new Set<?>[num_partitions];
+        CACHED_SINGLE_PARTITION_SETS = new PartitionSet[num_partitions];
         CACHED_FRAGMENT_PARTITION_MAPS = (Map<Statement, Map<PlanFragment, Set<Integer>>>[]) new Map<?, ?>[num_partitions];
 
         for (int i = 0; i < num_partitions; i++) {
-            CACHED_SINGLE_PARTITION_SETS[i] = Collections.unmodifiableSet(Collections.singleton(i));
+            CACHED_SINGLE_PARTITION_SETS[i] = PartitionSet.singleton(i);
             CACHED_FRAGMENT_PARTITION_MAPS[i] = new HashMap<Statement, Map<PlanFragment, Set<Integer>>>();
         } // FOR
     }
@@ -699,7 +837,7 @@ public class BatchPlanner implements Loggable {
                 LOG.trace(String.format("[#%d-%02d] Calculating touched partitions plans for %s", txn_id, stmt_index, catalog_stmt.fullName()));
 
             Map<PlanFragment, Set<Integer>> frag_partitions = plan.frag_partitions[stmt_index];
-            Set<Integer> stmt_all_partitions = plan.stmt_partitions[stmt_index];
+            PartitionSet stmt_all_partitions = plan.stmt_partitions[stmt_index];
 
             boolean has_singlepartition_plan = catalog_stmt.getHas_singlesited();
             boolean is_replicated_only = this.stmt_is_replicatedonly[stmt_index];
@@ -803,7 +941,7 @@ public class BatchPlanner implements Loggable {
                             is_singlepartition = false;
                             continue;
                         }
-                        is_local = (stmt_all_partitions_size == 1 && stmt_all_partitions.contains(base_partition));
+                        is_local = (stmt_all_partitions_size == 1 && stmt_all_partitions.contains(base_partition.intValue()));
                         if (is_local == false && predict_singlepartitioned) {
                             // Again, this is not what was suppose to happen!
                             if (t)
@@ -928,6 +1066,22 @@ public class BatchPlanner implements Loggable {
             }
         } // FOR (Statement)
 
+        // OPTIMIZATION: Check whether we have already built a BatchPlan for a distributed
+        //               batch that sends each of its PlanFragments to the same partitions.
+        //               If we have, then we can reuse it along with its WorkFragments
+        if (this.cache_multiPartitionPlans != null && mispredict_h == null && plan.isSingledPartitionedAndLocal() == false) {
+            BatchPlan cached = this.cache_multiPartitionPlans.get(this.cache_multiPartitionProbe.init(plan, this.batchSize));
+            if (cached != null) {
+                this.cache_multiPartitionHits++;
+                if (d)
+                    LOG.debug(String.format("[#%d] Using cached distributed BatchPlan at partition #%02d: %s", txn_id, base_partition, Arrays.toString(this.catalog_stmts)));
+                if (this.enable_profiling)
+                    time_plan.stop();
+                return (cached);
+            }
+            this.cache_multiPartitionMisses++;
+        }
+
         // Check whether we have an existing graph exists for this batch
         // configuration
         // This is the only place where we need to synchronize
@@ -958,6 +1112,17 @@ public class BatchPlanner implements Loggable {
             plan = new BatchPlan(this.maxRoundSize);
             return cache_singlePartitionPlans[base_partition.intValue()];
         }
+        // Same thing for distributed plans, except that they go into our bounded cache
+        // The probe PlanSignature is still pointing at this plan's partitions
+        else if (this.cache_multiPartitionPlans != null && plan.isSingledPartitionedAndLocal() == false) {
+            BatchPlan cached = plan;
+            cached.cached = true;
+            this.cache_multiPartitionPlans.put(new PlanSignature(this.cache_multiPartitionProbe), cached);
+            plan = new BatchPlan(this.maxRoundSize);
+            if (d)
+                LOG.debug(String.format("[#%d] Cached new distributed BatchPlan at partition #%02d [cacheSize=%d]", txn_id, base_partition, this.cache_multiPartitionPlans.size()));
+            return (cached);
+        }
 
         if (d)
             LOG.debug("Created BatchPlan:\n" + plan.toString());
@@ -975,8 +1140,13 @@ public class BatchPlanner implements Loggable {
 
         for (PlanVertex v : graph.getVertices()) {
             int stmt_index = v.stmt_index;
-            for (Integer partition : plan.frag_partitions[stmt_index].get(v.catalog_frag)) {
-                plan.rounds[v.round][partition.intValue()].add(v);
+            // The PartitionEstimator always gives us back PartitionSets
+            PartitionSet partitions = (PartitionSet)plan.frag_partitions[stmt_index].get(v.catalog_frag);
+            for (int partition = partitions.first(); partition != -1; partition = partitions.next(partition + 1)) {
+                if (plan.rounds[v.round][partition] == null) {
+                    plan.rounds[v.round][partition] = new ArrayList<PlanVertex>();
+                }
+                plan.rounds[v.round][partition].add(v);
             } // FOR
         } // FOR
 
@@ -987,7 +1157,7 @@ public class BatchPlanner implements Loggable {
             if (t) LOG.trace(String.format("Txn #%d - Round %02d", txn_id, round));
             for (int partition = 0; partition < this.num_partitions; partition++) {
                 Collection<PlanVertex> vertices = plan.rounds[round][partition];
-                if (vertices.isEmpty())
+                if (vertices == null || vertices.isEmpty())
                     continue;
 
                 this.round_builders.clear();
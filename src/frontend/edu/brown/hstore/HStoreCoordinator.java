@@ -79,9 +79,13 @@ import edu.brown.hstore.handlers.TransactionReduceHandler;
 import edu.brown.hstore.handlers.TransactionWorkHandler;
 import edu.brown.hstore.interfaces.Shutdownable;
 import edu.brown.hstore.util.PrefetchQueryPlanner;
+import edu.brown.hstore.util.VoltTableTransport;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.protorpc.EventLoop;
 import edu.brown.protorpc.NIOEventLoop;
+import edu.brown.protorpc.NIOEventLoopPool;
+import edu.brown.protorpc.ProtoRpcBatcher;
 import edu.brown.protorpc.ProtoRpcChannel;
 import edu.brown.protorpc.ProtoRpcController;
 import edu.brown.protorpc.ProtoServer;
@@ -113,7 +117,14 @@ public class HStoreCoordinator implements Shutdownable {
     private final Thread listener_thread;
     private final ProtoServer listener;
     private final HStoreService remoteService;
-    private final NIOEventLoop eventLoop = new NIOEventLoop();
+    
+    /**
+     * The first loop in the pool is used for accepting and connecting.
+     * It is run by the listener thread. The other loops each get their own thread.
+     */
+    private final NIOEventLoopPool eventLoops;
+    private final NIOEventLoop eventLoop;
+    private final List<Thread> eventLoopThreads = new ArrayList<Thread>();
     private final TransactionPrefetchCallback transactionPrefetch_callback;
     
     private final TransactionInitHandler transactionInit_handler;
@@ -130,6 +141,9 @@ public class HStoreCoordinator implements Shutdownable {
     private final TransactionRedirectDispatcher transactionRedirect_dispatcher;    
     private final List<Thread> dispatcherThreads = new ArrayList<Thread>();
     
+    /** Coalesces the init/prepare/finish requests that we send to each remote site */
+    private final ProtoRpcBatcher batcher;
+    
     private Shutdownable.ShutdownState state = ShutdownState.INITIALIZED;
     
     private final EventObservable<HStoreCoordinator> ready_observable = new EventObservable<HStoreCoordinator>();
@@ -140,13 +154,19 @@ public class HStoreCoordinator implements Shutdownable {
      * 
      */
     private class MessengerListener implements Runnable {
+        private final NIOEventLoop eventLoop;
+        
+        public MessengerListener(NIOEventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+        
         @Override
         public void run() {
             if (hstore_conf.site.cpu_affinity)
                 hstore_site.getThreadManager().registerProcessingThread();
             Throwable error = null;
             try {
-                HStoreCoordinator.this.eventLoop.run();
+                this.eventLoop.run();
             } catch (RuntimeException ex) {
                 error = ex;
             } catch (AssertionError ex) {
@@ -197,8 +217,11 @@ public class HStoreCoordinator implements Shutdownable {
         // Incoming RPC Handler
         this.remoteService = this.initHStoreService();
         
+        this.eventLoops = new NIOEventLoopPool(Math.max(1, hstore_conf.site.coordinator_event_loops));
+        this.eventLoop = this.eventLoops.get(0);
+        
         // This listener thread will process incoming messages
-        this.listener = new ProtoServer(this.eventLoop);
+        this.listener = new ProtoServer(this.eventLoop, this.eventLoops);
         
         // Special dispatcher threads to handle incoming requests
         // These are used so that we can process messages in a different thread than the main HStoreCoordinator thread
@@ -232,6 +255,20 @@ public class HStoreCoordinator implements Shutdownable {
         } else {
             this.transactionRedirect_dispatcher = null;
         }
+        
+        // ProtoRpcBatcher
+        if (hstore_conf.site.coordinator_batch_messages) {
+            this.batcher = new ProtoRpcBatcher(hstore_conf.site.coordinator_batch_window,
+                                               hstore_conf.site.coordinator_batch_max);
+            for (String method : new String[]{ "TransactionInit", "TransactionPrepare", "TransactionFinish" }) {
+                this.batcher.addMethod(HStoreService.getDescriptor().findMethodByName(method));
+            } // FOR
+            String name = HStoreThreadManager.getThreadName(this.hstore_site, "coord", "batch");
+            Thread t = new Thread(this.batcher, name);
+            this.dispatcherThreads.add(t);
+        } else {
+            this.batcher = null;
+        }
 
         this.transactionInit_handler = new TransactionInitHandler(hstore_site, this, this.transactionInit_dispatcher);
         this.transactionWork_handler = new TransactionWorkHandler(hstore_site, this);
@@ -243,8 +280,14 @@ public class HStoreCoordinator implements Shutdownable {
         this.sendData_handler = new SendDataHandler(hstore_site, this);
         
         // Wrap the listener in a daemon thread
-        this.listener_thread = new Thread(new MessengerListener(), HStoreThreadManager.getThreadName(this.hstore_site, "coord"));
+        this.listener_thread = new Thread(new MessengerListener(this.eventLoop), HStoreThreadManager.getThreadName(this.hstore_site, "coord"));
         this.listener_thread.setDaemon(true);
+        for (int i = 1; i < this.eventLoops.size(); i++) {
+            String name = HStoreThreadManager.getThreadName(this.hstore_site, "coord", "loop" + i);
+            Thread t = new Thread(new MessengerListener(this.eventLoops.get(i)), name);
+            t.setDaemon(true);
+            this.eventLoopThreads.add(t);
+        } // FOR
         this.eventLoop.setExitOnSigInt(true);
         
         // Initialized QueryPrefetchPlanner if we're allowed to execute
@@ -289,6 +332,10 @@ public class HStoreCoordinator implements Shutdownable {
         
         if (debug.get()) LOG.debug("Starting listener thread");
         this.listener_thread.start();
+        for (Thread t : this.eventLoopThreads) {
+            if (debug.get()) LOG.debug("Starting event loop thread: " + t.getName());
+            t.start();
+        } // FOR
         
         // If we're at site zero, then we'll announce our instanceId
         // to everyone in the cluster
@@ -338,14 +385,20 @@ public class HStoreCoordinator implements Shutdownable {
                 t.interrupt();
             } // FOR
             
-            if (trace.get()) LOG.trace("Stopping eventLoop for Site #" + this.getLocalSiteId());
-            this.eventLoop.exitLoop();
+            if (trace.get()) LOG.trace("Stopping eventLoops for Site #" + this.getLocalSiteId());
+            this.eventLoops.exitLoop();
 
             if (trace.get()) LOG.trace("Stopping listener thread for Site #" + this.getLocalSiteId());
             this.listener_thread.interrupt();
+            for (Thread t : this.eventLoopThreads) {
+                t.interrupt();
+            } // FOR
             
             if (trace.get()) LOG.trace("Joining on listener thread for Site #" + this.getLocalSiteId());
             this.listener_thread.join();
+            for (Thread t : this.eventLoopThreads) {
+                t.join();
+            } // FOR
         } catch (InterruptedException ex) {
             // IGNORE
         } catch (Throwable ex) {
@@ -396,6 +449,14 @@ public class HStoreCoordinator implements Shutdownable {
         return (this.ready_observable);
     }
     
+    /**
+     * Returns the ProtoRpcBatcher for outgoing requests.
+     * This will be null if ${site.coordinator_batch_messages} is disabled
+     */
+    public ProtoRpcBatcher getMessageBatcher() {
+        return (this.batcher);
+    }
+    
     public TransactionInitHandler getTransactionInitHandler() {
         return (this.transactionInit_handler);
     }
@@ -453,18 +514,20 @@ public class HStoreCoordinator implements Shutdownable {
             if (debug.get()) LOG.debug("Connecting to " + destinations.size() + " remote site messengers");
             ProtoRpcChannel[] channels = null;
             InetSocketAddress arr[] = new InetSocketAddress[destinations.size()];
+            EventLoop loops[] = new EventLoop[destinations.size()];
             for (int i = 0; i < arr.length; i++) {
                 arr[i] = destinations.get(i).getSecond();
+                loops[i] = this.eventLoops.getLoop(destinations.get(i).getFirst());
                 if (debug.get()) LOG.debug("Attemping to connect to " + arr[i]);
             } // FOR
                     
             try {
-                channels = ProtoRpcChannel.connectParallel(this.eventLoop, arr, 15000);
+                channels = ProtoRpcChannel.connectParallel(this.eventLoop, arr, 15000, loops);
             } catch (RuntimeException ex) {
                 LOG.warn("Failed to connect to remote sites. Going to try again...");
                 // Try again???
                 try {
-                    channels = ProtoRpcChannel.connectParallel(this.eventLoop, arr);
+                    channels = ProtoRpcChannel.connectParallel(this.eventLoop, arr, loops);
                 } catch (Exception ex2) {
                     LOG.fatal("Site #" + this.getLocalSiteId() + " failed to connect to remote sites");
                     this.listener.close();
@@ -474,6 +537,7 @@ public class HStoreCoordinator implements Shutdownable {
             assert channels.length == destinations.size();
             for (int i = 0; i < channels.length; i++) {
                 Pair<Integer, InetSocketAddress> p = destinations.get(i);
+                if (this.batcher != null) channels[i].setBatcher(this.batcher);
                 this.channels.put(p.getFirst(), HStoreService.newStub(channels[i]));
             } // FOR
             
@@ -968,13 +1032,11 @@ public class HStoreCoordinator implements Shutdownable {
                     continue;
                 }
                 ByteString bs = null;
-                byte bytes[] = null;
                 try {
-                    bytes = ByteBuffer.wrap(FastSerializer.serialize(vt)).array();
-                    bs = ByteString.copyFrom(bytes); 
+                    bs = VoltTableTransport.toByteString(vt, null, hstore_conf.site.exec_zerocopy_tables);
                     if (debug.get())
                         LOG.debug(String.format("Outbound data for Partition #%d: RowCount=%d / MD5=%s / Length=%d",
-                                                catalog_part.getId(), vt.getRowCount(), StringUtil.md5sum(bytes), bytes.length));
+                                                catalog_part.getId(), vt.getRowCount(), StringUtil.md5sum(bs.toByteArray()), bs.size()));
                 } catch (Exception ex) {
                     throw new RuntimeException(String.format("Unexpected error when serializing %s data for partition %d",
                                                              ts, catalog_part.getId()), ex);
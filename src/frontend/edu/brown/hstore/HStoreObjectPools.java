@@ -6,6 +6,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.commons.pool.impl.StackObjectPool;
+import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.catalog.Procedure;
 
 import edu.brown.hstore.callbacks.TransactionInitQueueCallback;
@@ -75,6 +76,15 @@ public abstract class HStoreObjectPools {
      */
     public static TypedStackObjectPool<DistributedState> STATES_DISTRIBUTED;
     
+    // ----------------------------------------------------------------------------
+    // MESSAGES
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * StoredProcedureInvocation ObjectPool
+     */
+    public static TypedStackObjectPool<StoredProcedureInvocation> MESSAGES_INVOCATION;
+    
     
     // ----------------------------------------------------------------------------
     // INITIALIZATION
@@ -112,6 +122,10 @@ public abstract class HStoreObjectPools {
                 (int)(hstore_conf.site.pool_dtxnstates_idle * hstore_conf.site.pool_scale_factor),
                 hstore_conf.site.pool_profiling, hstore_site);
         
+        MESSAGES_INVOCATION = TypedStackObjectPool.factory(StoredProcedureInvocation.class,
+                (int)(hstore_conf.site.pool_invocations_idle * hstore_conf.site.pool_scale_factor),
+                hstore_conf.site.pool_profiling);
+        
         // If there are no prefetchable queries or MapReduce procedures in the catalog, then we will not
         // create these special object pools
         STATES_PREFETCH = null;
@@ -32,13 +32,11 @@ import java.nio.channels.CancelledKeyException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -90,7 +88,9 @@ import edu.brown.hstore.estimators.TM1Estimator;
 import edu.brown.hstore.estimators.TPCCEstimator;
 import edu.brown.hstore.interfaces.Loggable;
 import edu.brown.hstore.interfaces.Shutdownable;
+import edu.brown.hstore.util.ConcurrentLongHashMap;
 import edu.brown.hstore.util.MapReduceHelperThread;
+import edu.brown.hstore.util.MarkovRecomputeThread;
 import edu.brown.hstore.util.PartitionExecutorPostProcessor;
 import edu.brown.hstore.util.TxnCounter;
 import edu.brown.hstore.wal.CommandLogWriter;
@@ -113,6 +113,7 @@ import edu.brown.utils.EventObservableExceptionHandler;
 import edu.brown.utils.EventObserver;
 import edu.brown.utils.ParameterMangler;
 import edu.brown.utils.PartitionEstimator;
+import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProfileMeasurement;
 import edu.brown.utils.StringUtil;
 import edu.brown.utils.ThreadUtil;
@@ -218,7 +219,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     /**
      * Keep track of which txns that we have in-flight right now
      */
-    private final Map<Long, AbstractTransaction> inflight_txns = new ConcurrentHashMap<Long, AbstractTransaction>();
+    private final ConcurrentLongHashMap<AbstractTransaction> inflight_txns = new ConcurrentLongHashMap<AbstractTransaction>();
     
     /**
      * ClientResponse Processor Thread
@@ -232,6 +233,12 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     private boolean mr_helper_started = false;
     private final MapReduceHelperThread mr_helper;
     
+    /**
+     * Recomputes MarkovGraph probabilities in the background
+     * This will be null if ${site.markov_async_recompute} is disabled
+     */
+    private final MarkovRecomputeThread markov_recompute;
+    
     private final CommandLogWriter commandLogger;
 
     /**
@@ -348,7 +355,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         this.site_id = this.catalog_site.getId();
         this.site_name = HStoreThreadManager.getThreadName(this.site_id, null);
         
-        this.all_partitions = CatalogUtil.getAllPartitionIds(this.catalog_db);
+        this.all_partitions = PartitionSet.unmodifiable(CatalogUtil.getAllPartitionIds(this.catalog_db));
         final int num_partitions = this.all_partitions.size();
         this.local_partitions.addAll(CatalogUtil.getLocalPartitionIds(catalog_site));
         int num_local_partitions = this.local_partitions.size();
@@ -399,7 +406,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             this.local_partition_reverse[offset] = partition; 
             this.local_partitions_arr[offset] = partition;
             this.partition_serializers[offset] = new FastSerializer(this.buffer_pool);
-            this.single_partition_sets[partition] = Collections.singleton(partition);
+            this.single_partition_sets[partition] = PartitionSet.singleton(partition);
             offset++;
         } // FOR
         this.partition_site_xref = new int[num_partitions];
@@ -421,6 +428,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             this.mr_helper = null;
         }
         
+        // MarkovGraph recompute thread
+        if (hstore_conf.site.markov_async_recompute) {
+            this.markov_recompute = new MarkovRecomputeThread(this);
+        } else {
+            this.markov_recompute = null;
+        }
+        
         // Distributed Transaction Queue Manager
         this.txnQueueManager = new TransactionQueueManager(this);
         
@@ -688,7 +702,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     
     @SuppressWarnings("unchecked")
     public <T extends AbstractTransaction> T getTransaction(Long txn_id) {
-        return ((T)this.inflight_txns.get(txn_id));
+        return ((T)this.inflight_txns.get(txn_id.longValue()));
     }
     /**
      * Get the MapReduce Helper thread 
@@ -696,6 +710,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     public MapReduceHelperThread getMapReduceHelper() {
         return mr_helper;
     }
+    /**
+     * Get the MarkovGraph recompute thread
+     * This will be null if ${site.markov_async_recompute} is disabled
+     */
+    public MarkovRecomputeThread getMarkovRecomputeThread() {
+        return markov_recompute;
+    }
     
     /**
      * Get the total number of transactions inflight for all partitions 
@@ -833,6 +854,16 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             t.start();
         }
         
+        // Start MarkovGraph recompute thread
+        if (this.markov_recompute != null) {
+            if (d) LOG.debug("Starting MarkovGraph recompute thread");
+            t = new Thread(this.markov_recompute);
+            t.setPriority(Thread.MIN_PRIORITY);
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler(handler);
+            t.start();
+        }
+        
         // Start the ExecutionSitePostProcessor
         if (hstore_conf.site.exec_postprocessing_thread) {
             for (PartitionExecutorPostProcessor espp : this.processors) {
@@ -942,6 +973,8 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         if (this.mr_helper != null)
             this.mr_helper.prepareShutdown(error);
+        if (this.markov_recompute != null)
+            this.markov_recompute.prepareShutdown(error);
         if (this.commandLogger != null)
             this.commandLogger.prepareShutdown(error);
         if (this.asyncCompilerWork_thread != null)
@@ -988,6 +1021,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
         // Tell the MapReduceHelperThread to shutdown too
         if (this.mr_helper_started && this.mr_helper != null) this.mr_helper.shutdown();
+        if (this.markov_recompute != null) this.markov_recompute.shutdown();
         if (this.commandLogger != null) this.commandLogger.shutdown();
 
         
@@ -1029,19 +1063,23 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         EstTimeUpdater.update(System.currentTimeMillis());
         long timestamp = (hstore_conf.site.txn_profiling ? ProfileMeasurement.getTime() : -1);
 
+        // Deserialize the request into a StoredProcedureInvocation from our pool.
+        // We use the same FastDeserializer for the ParameterSet so that the only
+        // new objects are the parameters themselves
         StoredProcedureInvocation request = null;
         ByteBuffer buffer = ByteBuffer.wrap(serializedRequest);
         synchronized (this) {
             this.incomingDeserializer.setBuffer(buffer);
             try {
-                request = this.incomingDeserializer.readObject(StoredProcedureInvocation.class);
+                request = HStoreObjectPools.MESSAGES_INVOCATION.borrowObject();
+                request.readExternal(this.incomingDeserializer);
+                request.buildParameterSet(this.incomingDeserializer);
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
             }
         } // SYNCH
         
         // Extract the stuff we need to figure out whether this guy belongs at our site
-        request.buildParameterSet();
         assert(request.getParams() != null) :
             "The parameters object is null for new txn from client #" + request.getClientHandle();
         final Object args[] = request.getParams().toArray(); 
@@ -1109,12 +1147,14 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             assert(request.hasBasePartition() == false) : 
                 "Trying to redirect " + catalog_proc.getName() + " transaction more than once!";
             this.transactionRedirect(catalog_proc, serializedRequest, base_partition, done);
+            HStoreObjectPools.MESSAGES_INVOCATION.returnObject(request);
             return;
         }
         
         // Grab a new LocalTransactionState object from the target base partition's PartitionExecutor object pool
         // This will be the handle that is used all throughout this txn's lifespan to keep track of what it does
-        Long txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
+        // We keep the txnId as a primitive until we hand it to the LocalTransaction
+        long txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
         LocalTransaction ts = null;
         try {
             if (catalog_proc.getMapreduce()) {
@@ -1286,6 +1326,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             ts.init(txn_id, request.getClientHandle(), base_partition,
                     predict_touchedPartitions, predict_readOnly, predict_abortable,
                     catalog_proc, request, done);
+            ts.setPooledInvocation(true);
         }
         if (t_state != null) ts.setEstimatorState(t_state);
         
@@ -1412,13 +1453,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                 
         // For some odd reason we sometimes get duplicate transaction ids from the VoltDB id generator
         // So we'll just double check to make sure that it's unique, and if not, we'll just ask for a new one
-        LocalTransaction dupe = (LocalTransaction)this.inflight_txns.put(txn_id, ts);
+        LocalTransaction dupe = (LocalTransaction)this.inflight_txns.put(txn_id.longValue(), ts);
         if (dupe != null) {
             // HACK!
-            this.inflight_txns.put(txn_id, dupe);
+            this.inflight_txns.put(txn_id.longValue(), dupe);
             // long new_txn_id = this.txnid_managers[base_partition].getNextUniqueTransactionId();
-            Long new_txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
-            if (new_txn_id == txn_id) {
+            long new_txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
+            if (new_txn_id == txn_id.longValue()) {
                 String msg = "Duplicate transaction id #" + txn_id;
                 LOG.fatal("ORIG TRANSACTION:\n" + dupe);
                 LOG.fatal("NEW TRANSACTION:\n" + ts);
@@ -1428,7 +1469,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             LOG.warn(String.format("Had to fix duplicate txn ids: %d -> %d", txn_id, new_txn_id));
             txn_id = new_txn_id;
             ts.setTransactionId(txn_id);
-            this.inflight_txns.put(txn_id, ts);
+            this.inflight_txns.put(txn_id.longValue(), ts);
         }
         if (d) LOG.debug(ts + " - Dispatching new transaction invocation");
         
@@ -1526,7 +1567,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             throw new RuntimeException(ex);
         }
         // We should never already have a transaction handle for this txnId
-        AbstractTransaction dupe = this.inflight_txns.put(txn_id, ts);
+        AbstractTransaction dupe = this.inflight_txns.put(txn_id.longValue(), ts);
         assert(dupe == null) : "Trying to create multiple transaction handles for " + dupe;
 
         ts.init(txn_id, base_partition, catalog_proc, invocation);
@@ -1553,7 +1594,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             LOG.fatal("Failed to construct TransactionState for txn #" + txn_id, ex);
             throw new RuntimeException(ex);
         }
-        AbstractTransaction dupe = this.inflight_txns.put(txn_id, ts);
+        AbstractTransaction dupe = this.inflight_txns.put(txn_id.longValue(), ts);
         assert(dupe == null) : "Trying to create multiple transaction handles for " + dupe;
         
         if (t) LOG.trace(String.format("Stored new transaction state for %s", ts));
@@ -1570,7 +1611,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
      * @param partitions The list of partitions that this transaction needs to access
      * @param callback
      */
-    public void transactionInit(Long txn_id, Collection<Integer> partitions, TransactionInitQueueCallback callback) {
+    public void transactionInit(Long txn_id, PartitionSet partitions, TransactionInitQueueCallback callback) {
         // We should always force a txn from a remote partition into the queue manager
         this.txnQueueManager.lockInsert(txn_id, partitions, callback);
     }
@@ -1631,7 +1672,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         // We could have been asked to participate in a distributed transaction but
         // they never actually sent us anything, so we should just tell the queue manager
         // that the txn is done. There is nothing that we need to do at the PartitionExecutors
-        AbstractTransaction ts = this.inflight_txns.get(txn_id);
+        AbstractTransaction ts = this.inflight_txns.get(txn_id.longValue());
         TransactionPrepareCallback callback = null;
         if (ts instanceof LocalTransaction) {
             callback = ((LocalTransaction)ts).getTransactionPrepareCallback();
@@ -1680,7 +1721,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         // If we don't have a AbstractTransaction handle, then we know that we never did anything
         // for this transaction and we can just ignore this finish request. We do have to tell
         // the TransactionQueue manager that we're done though
-        AbstractTransaction ts = this.inflight_txns.get(txn_id);
+        AbstractTransaction ts = this.inflight_txns.get(txn_id.longValue());
         TransactionFinishCallback finish_callback = null;
         TransactionCleanupCallback cleanup_callback = null;
         if (ts != null) {
@@ -1931,7 +1972,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             }
         }
 
-        Long new_txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
+        long new_txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
         LocalTransaction new_ts = null;
         try {
             new_ts = HStoreObjectPools.STATES_TXN_LOCAL.borrowObject();
@@ -1998,6 +2039,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                     orig_ts.getInvocation(),
                     orig_ts.getClientCallback()
         );
+        // The new txn is now responsible for giving back our pooled invocation
+        new_ts.setPooledInvocation(orig_ts.hasPooledInvocation());
+        orig_ts.setPooledInvocation(false);
         new_ts.setRestartCounter(orig_ts.getRestartCounter() + 1);
         
          if (d) {
@@ -2139,7 +2183,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     public void deleteTransaction(final Long txn_id, final Status status) {
         assert(txn_id != null) : "Unexpected null transaction id";
         if (d) LOG.debug("Deleting internal info for txn #" + txn_id);
-        AbstractTransaction abstract_ts = this.inflight_txns.remove(txn_id);
+        AbstractTransaction abstract_ts = this.inflight_txns.remove(txn_id.longValue());
         
         // It's ok for us to not have a transaction handle, because it could be
         // for a remote transaction that told us that they were going to need one
@@ -2256,11 +2300,15 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         assert(ts.isInitialized()) : "Trying to return uninititlized txn #" + txn_id;
         if (d) LOG.debug(String.format("%s - Returning to ObjectPool [hashCode=%d]", ts, ts.hashCode()));
+        StoredProcedureInvocation invocation = (ts.hasPooledInvocation() ? ts.getInvocation() : null);
         if (ts.isMapReduce()) {
             HStoreObjectPools.STATES_TXN_MAPREDUCE.returnObject((MapReduceTransaction)ts);
         } else {
             HStoreObjectPools.STATES_TXN_LOCAL.returnObject(ts);
         }
+        if (invocation != null) {
+            HStoreObjectPools.MESSAGES_INVOCATION.returnObject(invocation);
+        }
     }
 
     // ----------------------------------------------------------------------------
@@ -2393,7 +2441,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                 // store it and delete it. This is necessary so that we can return
                 // the txn back into the object pool
                 int base_partition = result.ts.getBasePartition();
-                Long txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
+                long txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
                 this.inflight_txns.put(txn_id, result.ts);
                 this.deleteTransaction(txn_id, Status.ABORT_UNEXPECTED);
             }
@@ -2413,8 +2461,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
 
                 // initiate the transaction
                 int base_partition = result.ts.getBasePartition();
-                Long txn_id = this.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
-                result.ts.setTransactionId(txn_id);
+                result.ts.setTransactionId(this.getTransactionIdManager(base_partition).getNextUniqueTransactionId());
                 
                 if (d) LOG.debug("Queuing AdHoc transaction: " + result.ts);
                 this.dispatchInvocation(result.ts);
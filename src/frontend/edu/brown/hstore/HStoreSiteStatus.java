@@ -24,6 +24,7 @@ import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.client.ClientResponse;
 
+import edu.brown.hashing.CachedHasher;
 import edu.brown.hstore.callbacks.TransactionInitQueueCallback;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.dtxn.AbstractTransaction;
@@ -32,12 +33,14 @@ import edu.brown.hstore.dtxn.TransactionProfile;
 import edu.brown.hstore.dtxn.TransactionQueueManager;
 import edu.brown.hstore.interfaces.Shutdownable;
 import edu.brown.hstore.util.PartitionExecutorPostProcessor;
+import edu.brown.hstore.util.QueryCache;
 import edu.brown.hstore.util.ThrottlingQueue;
 import edu.brown.hstore.util.TxnCounter;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.logging.RingBufferAppender;
 import edu.brown.markov.TransactionEstimator;
+import edu.brown.protorpc.ProtoRpcBatcher;
 import edu.brown.statistics.Histogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.EventObservable;
@@ -77,6 +80,18 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
                                                       TxnCounter.MISPREDICTED);
         CollectionUtil.addAll(TXNINFO_EXCLUDES,       TxnCounter.SYSPROCS);
     }
+
+    /**
+     * Labels for the log2(microseconds) buckets used by the PartitionExecutor's
+     * idle wake-up histograms
+     */
+    private static final Map<Integer, String> WAKEUP_LABELS = new HashMap<Integer, String>();
+    static {
+        WAKEUP_LABELS.put(0, "<1us");
+        for (int i = 1; i < 63; i++) {
+            WAKEUP_LABELS.put(i, String.format("<%dus", 1l << i));
+        } // FOR
+    }
     
     private final HStoreSite hstore_site;
     private final HStoreConf hstore_conf;
@@ -362,6 +377,26 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
             
             m_exec.put("Post-Processing Txns", val);
         }
+        
+        if (hstore_site.getHasher() instanceof CachedHasher) {
+            CachedHasher hasher = (CachedHasher)hstore_site.getHasher();
+            m_exec.put("Hasher Cache", String.format("%d hits / %d misses [%.1f%%, size=%d]",
+                                                     hasher.getCacheHits(),
+                                                     hasher.getCacheMisses(),
+                                                     hasher.getCacheHitRatio() * 100,
+                                                     hasher.getCacheSize()));
+        }
+        
+        ProtoRpcBatcher batcher = hstore_site.getHStoreCoordinator().getMessageBatcher();
+        if (batcher != null) {
+            m_exec.put("Message Batching", String.format("%d batches / %d messages [avgSize=%.1f, maxSize=%d, avgLatency=%.1fus, maxLatency=%.1fus]",
+                                                         batcher.getBatchCount(),
+                                                         batcher.getMessageCount(),
+                                                         batcher.getAverageBatchSize(),
+                                                         batcher.getMaxBatchSize(),
+                                                         batcher.getAverageAddedLatency(),
+                                                         batcher.getMaxAddedLatency()));
+        }
         m_exec.put(" ", null);
 
         // EXECUTION ENGINES
@@ -421,6 +456,20 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
             
             // TransactionQueueManager - Requeued Txns
             m.put("Waiting Requeues", queueManagerDebug.getRestartQueueSize());
+
+            // Global Query Cache
+            QueryCache queryCache = es.getQueryCache();
+            if (queryCache.isGlobalCacheEnabled()) {
+                long hits = queryCache.getGlobalHits();
+                long lookups = hits + queryCache.getGlobalMisses();
+                m.put("Query Cache", String.format("%d hits / %d misses [%.1f%%] / %d evictions / %d invalidations / %.2f MB",
+                                                   hits,
+                                                   queryCache.getGlobalMisses(),
+                                                   (lookups > 0 ? (hits / (double)lookups) * 100 : 0d),
+                                                   queryCache.getGlobalEvictions(),
+                                                   queryCache.getGlobalInvalidations(),
+                                                   queryCache.getGlobalSize() / 1048576d));
+            }
             
 //            if (is_throttled && queue_size < queue_release && hstore_site.isShuttingDown() == false) {
 //                LOG.warn(String.format("Partition %d is throttled when it should not be! [inflight=%d, release=%d]",
@@ -451,6 +500,17 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
                 m.put("Idle Time", String.format("%.2fms total / %.2fms avg",
                                                 pm.getTotalThinkTimeMS(),
                                                 pm.getAverageThinkTimeMS()));
+
+                Histogram<Integer> spin = es.getWorkIdleWakeupSpin();
+                Histogram<Integer> yield = es.getWorkIdleWakeupYield();
+                Histogram<Integer> park = es.getWorkIdleWakeupPark();
+                m.put("Idle Wake-ups", String.format("%d spin / %d yield / %d park",
+                                                spin.getSampleCount(),
+                                                yield.getSampleCount(),
+                                                park.getSampleCount()));
+                this.putWakeupLatency(m, "Wake-up Latency\n(spin)", spin);
+                this.putWakeupLatency(m, "Wake-up Latency\n(yield)", yield);
+                this.putWakeupLatency(m, "Wake-up Latency\n(park)", park);
             }
             
             
@@ -563,11 +623,22 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
         } // FOR
         Map<Procedure, ProfileMeasurement[]> proc_totals = new HashMap<Procedure, ProfileMeasurement[]>();
         ProfileMeasurement final_totals[] = null;
+        // Procedure -> [Distributed Cache Hits, Distributed Cache Misses]
+        Map<Procedure, long[]> proc_cache = new HashMap<Procedure, long[]>();
+        long final_cache[] = new long[2];
         int num_cols = 0;
         for (BatchPlanner bp : bps) {
             ProfileMeasurement times[] = bp.getProfileTimes();
             
             Procedure catalog_proc = bp.getProcedure();
+            long cache[] = proc_cache.get(catalog_proc);
+            if (cache == null) {
+                cache = new long[2];
+                proc_cache.put(catalog_proc, cache);
+            }
+            cache[0] += bp.getDistributedCacheHits();
+            cache[1] += bp.getDistributedCacheMisses();
+
             ProfileMeasurement totals[] = proc_totals.get(catalog_proc);
             if (totals == null) {
                 num_cols = times.length+2;
@@ -591,6 +662,8 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
         if (proc_totals.isEmpty()) return (null);
         
         boolean first = true;
+        int cache_col = num_cols;
+        num_cols += 2;
         String header[] = new String[num_cols];
         Object rows[][] = new String[proc_totals.size()+2][];
         String col_delimiters[] = new String[num_cols];
@@ -608,6 +681,15 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
                 rows[i][j] = Long.toString(Math.round(pm.getTotalThinkTimeMS()));
                 j++;
             } // FOR
+            long cache[] = proc_cache.get(proc);
+            if (first) {
+                header[cache_col] = "CacheHits";
+                header[cache_col+1] = "CacheMisses";
+            }
+            rows[i][cache_col] = Long.toString(cache[0]);
+            rows[i][cache_col+1] = Long.toString(cache[1]);
+            final_cache[0] += cache[0];
+            final_cache[1] += cache[1];
             first = false;
         } // FOR
         
@@ -625,6 +707,12 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
             rows[i+1][j] = (final_idx > 0 ? String.format("%.3f", pm.getTotalThinkTimeMS() / final_totals[0].getTotalThinkTimeMS()) : ""); 
             j++;
         } // FOR
+        col_delimiters[cache_col] = " | ";
+        long cache_total = final_cache[0] + final_cache[1];
+        rows[i][cache_col] = Long.toString(final_cache[0]);
+        rows[i][cache_col+1] = Long.toString(final_cache[1]);
+        rows[i+1][cache_col] = (cache_total > 0 ? String.format("%.3f", final_cache[0] / (double)cache_total) : "");
+        rows[i+1][cache_col+1] = "";
         
 //        if (debug.get()) {
 //            for (i = 0; i < rows.length; i++) {
@@ -818,6 +906,19 @@ public class HStoreSiteStatus implements Runnable, Shutdownable {
         return (TableUtil.table(f, this.txn_profiler_header, rows));
     }
     
+    /**
+     * Add a PartitionExecutor's wake-up latency histogram to the status map
+     * if it has anything in it
+     * @param m
+     * @param label
+     * @param h
+     */
+    private void putWakeupLatency(Map<String, Object> m, String label, Histogram<Integer> h) {
+        if (h.isEmpty()) return;
+        h.setDebugLabels(WAKEUP_LABELS);
+        m.put(label, h.toString(30, 8));
+    }
+    
     // ----------------------------------------------------------------------------
     // OBJECT POOL PROFILING
     // ----------------------------------------------------------------------------
@@ -52,6 +52,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.Semaphore;
@@ -131,18 +132,23 @@ import edu.brown.hstore.interfaces.Loggable;
 import edu.brown.hstore.interfaces.Shutdownable;
 import edu.brown.hstore.util.ArrayCache.IntArrayCache;
 import edu.brown.hstore.util.ArrayCache.LongArrayCache;
+import edu.brown.hstore.util.MarkovRecomputeThread;
 import edu.brown.hstore.util.ParameterSetArrayCache;
 import edu.brown.hstore.util.QueryCache;
+import edu.brown.hstore.util.QueryCachePolicy;
 import edu.brown.hstore.util.ThrottlingQueue;
 import edu.brown.hstore.util.TransactionWorkRequestBuilder;
+import edu.brown.hstore.util.VoltTableTransport;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.markov.EstimationThresholds;
 import edu.brown.markov.MarkovEstimate;
 import edu.brown.markov.MarkovGraph;
 import edu.brown.markov.TransactionEstimator;
+import edu.brown.statistics.Histogram;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.EventObservable;
+import edu.brown.utils.EventObserver;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.ProfileMeasurement;
 import edu.brown.utils.StringUtil;
@@ -402,8 +408,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 	 * entries may be either InitiateTaskMessages (i.e., start a stored
 	 * procedure) or FragmentTaskMessage (i.e., execute some fragments on behalf
 	 * of another transaction)
+	 * 
+	 * @see HStoreConf.SiteConf#queue_work_lanes
 	 */
-	private final PartitionExecutorQueue work_queue = new PartitionExecutorQueue();
+	private final BlockingQueue<VoltMessage> work_queue;
 
 	/**
 	 * This is the queue for work deferred .
@@ -418,9 +426,22 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 	private final ThrottlingQueue<VoltMessage> work_throttler;
 
 	/**
-     * 
-     */
-	private final QueryCache queryCache = new QueryCache(10, 10); // FIXME
+	 * Idle strategy: The number of times that we will busy-spin and then yield
+	 * on the work queue before we park the thread until new work arrives
+	 * 
+	 * @see HStoreConf.SiteConf#exec_idle_spin_count
+	 * @see HStoreConf.SiteConf#exec_idle_yield_count
+	 */
+	private final int idle_spin_count;
+	private final int idle_yield_count;
+
+	/**
+	 * Cached query results. The global cache holds results for read-only
+	 * PlanFragments that can be shared across transactions
+	 * 
+	 * @see HStoreConf.SiteConf#exec_query_cache_size
+	 */
+	private final QueryCache queryCache;
 
 	// ----------------------------------------------------------------------------
 	// TEMPORARY DATA COLLECTIONS
@@ -493,6 +514,22 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 	 */
 	private final ProfileMeasurement work_idle_time = new ProfileMeasurement(
 			"EE_IDLE");
+	/**
+	 * How long the message that ended an idle wait sat in the work queue
+	 * before the PartitionExecutor picked it up, bucketed by
+	 * log2(microseconds). There is a separate histogram for each stage of the
+	 * idle strategy (spin, yield, park) so that we can see which stage picked
+	 * up the work and what that cost us. These are only ever updated by the
+	 * PartitionExecutor's thread.
+	 */
+	private final Histogram<Integer> work_idle_wakeup_spin = new Histogram<Integer>();
+	private final Histogram<Integer> work_idle_wakeup_yield = new Histogram<Integer>();
+	private final Histogram<Integer> work_idle_wakeup_park = new Histogram<Integer>();
+	/**
+	 * Set when the wake-up histograms need to be cleared. We let the
+	 * PartitionExecutor's thread do it so that it never races with idleWait()
+	 */
+	private volatile boolean work_idle_wakeup_reset = false;
 	/**
 	 * How much time it takes for this PartitionExecutor to execute a
 	 * transaction
@@ -641,7 +678,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 	 * Dummy constructor...
 	 */
 	protected PartitionExecutor() {
+		this.work_queue = new PartitionExecutorQueue();
 		this.work_throttler = null;
+		this.idle_spin_count = 0;
+		this.idle_yield_count = 0;
 		this.ee = null;
 		this.hsql = null;
 		this.p_estimator = null;
@@ -661,6 +701,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 		this.tmp_transactionRequestBuilders = null;
 		this.aggexecutor = null;
 		this.combexecutor = null;
+		this.queryCache = new QueryCache(10);
 	}
 
 	/**
@@ -679,11 +720,18 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 			TransactionEstimator t_estimator) {
 		this.hstore_conf = HStoreConf.singleton();
 
+		if (hstore_conf.site.queue_work_lanes) {
+			this.work_queue = new PartitionExecutorLaneQueue();
+		} else {
+			this.work_queue = new PartitionExecutorQueue();
+		}
 		this.work_throttler = new ThrottlingQueue<VoltMessage>(this.work_queue,
 				hstore_conf.site.queue_incoming_max_per_partition,
 				hstore_conf.site.queue_incoming_release_factor,
 				hstore_conf.site.queue_incoming_increase,
 				hstore_conf.site.queue_incoming_increase_max);
+		this.idle_spin_count = Math.max(0, hstore_conf.site.exec_idle_spin_count);
+		this.idle_yield_count = Math.max(0, hstore_conf.site.exec_idle_yield_count);
 
 		this.catalog = catalog;
 		this.partition = CatalogUtil
@@ -703,6 +751,19 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 		this.cluster = CatalogUtil.getCluster(catalog);
 		this.database = CatalogUtil.getDatabase(cluster);
 
+		QueryCachePolicy.Type cachePolicy = QueryCachePolicy.Type
+				.get(hstore_conf.site.exec_query_cache_policy);
+		if (cachePolicy == null) {
+			LOG.warn(String.format(
+					"Invalid query cache policy '%s'. Using %s",
+					hstore_conf.site.exec_query_cache_policy,
+					QueryCachePolicy.Type.LRU));
+			cachePolicy = QueryCachePolicy.Type.LRU;
+		}
+		this.queryCache = new QueryCache(this.database,
+				hstore_conf.site.exec_query_cache_size * 1048576l,
+				cachePolicy, 10);
+
 		// The PartitionEstimator is what we use to figure our where our
 		// transactions are going to go
 		this.p_estimator = p_estimator; // t_estimator.getPartitionEstimator();
@@ -761,7 +822,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 
 					@Override
 					public void run() {
-						PartitionExecutor.this.work_queue.add(msg);
+						PartitionExecutor.this.addWork(msg);
 					}
 				});
 			} else {
@@ -848,6 +909,13 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 					.getStartWorkloadObservable();
 			this.work_idle_time.resetOnEvent(eo);
 			this.work_exec_time.resetOnEvent(eo);
+			eo.addObserver(new EventObserver<AbstractTransaction>() {
+				@Override
+				public void update(EventObservable<AbstractTransaction> o,
+						AbstractTransaction arg) {
+					PartitionExecutor.this.work_idle_wakeup_reset = true;
+				}
+			});
 		}
 
 		this.initializeVoltProcedures();
@@ -911,7 +979,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 									+ " queue is empty. Waiting...");
 						if (hstore_conf.site.exec_profiling)
 							this.work_idle_time.start();
-						work = this.work_queue.take();
+						work = this.idleWait();
 						if (hstore_conf.site.exec_profiling)
 							this.work_idle_time.stop();
 					}
@@ -1133,6 +1201,83 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 		}
 	}
 
+	/**
+	 * Block until there is new work in the queue. We will first busy-spin on
+	 * the queue, then yield our time slice, and only then park the thread. Since
+	 * the PartitionExecutor threads are usually pinned to their own cores, this
+	 * avoids paying for a context switch when the lull between txns is short.
+	 * 
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private VoltMessage idleWait() throws InterruptedException {
+		Histogram<Integer> wakeups = this.work_idle_wakeup_spin;
+		VoltMessage work = null;
+
+		// Spin
+		for (int i = 0; i < this.idle_spin_count; i++) {
+			if ((work = this.work_queue.poll()) != null)
+				break;
+		} // FOR
+
+		// Yield
+		if (work == null) {
+			wakeups = this.work_idle_wakeup_yield;
+			for (int i = 0; i < this.idle_yield_count; i++) {
+				Thread.yield();
+				if ((work = this.work_queue.poll()) != null)
+					break;
+			} // FOR
+		}
+
+		// Park
+		if (work == null) {
+			wakeups = this.work_idle_wakeup_park;
+			work = this.work_queue.take();
+		}
+
+		if (hstore_conf.site.exec_profiling) {
+			if (this.work_idle_wakeup_reset) {
+				this.work_idle_wakeup_reset = false;
+				this.work_idle_wakeup_spin.clear();
+				this.work_idle_wakeup_yield.clear();
+				this.work_idle_wakeup_park.clear();
+			}
+			long enqueueTime = work.getEnqueueTime();
+			if (enqueueTime >= 0) {
+				long usec = Math.max(0, System.nanoTime() - enqueueTime) / 1000l;
+				wakeups.put(64 - Long.numberOfLeadingZeros(usec));
+			}
+		}
+		return (work);
+	}
+
+	/**
+	 * Add a message to the work queue. When profiling is enabled, we
+	 * record when the message went in so that idleWait() can measure how
+	 * long it took us to pick it up.
+	 * 
+	 * @param msg
+	 */
+	private void addWork(VoltMessage msg) {
+		if (hstore_conf.site.exec_profiling)
+			msg.setEnqueueTime(System.nanoTime());
+		this.work_queue.add(msg);
+	}
+
+	/**
+	 * Add a message to the work queue through the throttler. Returns false if
+	 * the partition is overloaded and the message was rejected.
+	 * 
+	 * @param msg
+	 * @return
+	 */
+	private boolean offerWork(VoltMessage msg) {
+		if (hstore_conf.site.exec_profiling)
+			msg.setEnqueueTime(System.nanoTime());
+		return (this.work_throttler.offer(msg, false));
+	}
+
 	/**
 	 * Special function that allows us to do some utility work while we are
 	 * waiting for a response or something real to do.
@@ -1205,6 +1350,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 		return (this.t_estimator);
 	}
 
+	public QueryCache getQueryCache() {
+		return (this.queryCache);
+	}
+
 	public ThrottlingQueue<VoltMessage> getThrottlingQueue() {
 		return (this.work_throttler);
 	}
@@ -1340,6 +1489,18 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 		return (this.work_exec_time);
 	}
 
+	public Histogram<Integer> getWorkIdleWakeupSpin() {
+		return (this.work_idle_wakeup_spin);
+	}
+
+	public Histogram<Integer> getWorkIdleWakeupYield() {
+		return (this.work_idle_wakeup_yield);
+	}
+
+	public Histogram<Integer> getWorkIdleWakeupPark() {
+		return (this.work_idle_wakeup_park);
+	}
+
 	/**
 	 * Returns the number of txns that have been invoked on this partition
 	 * 
@@ -1511,7 +1672,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 	 */
 	public void queueWork(AbstractTransaction ts, FragmentTaskMessage task) {
 		assert (ts.isInitialized());
-		this.work_queue.add(task);
+		this.addWork(task);
 		if (d)
 			LOG.debug(String
 					.format("%s - Added distributed txn %s to front of partition %d work queue [size=%d]",
@@ -1529,7 +1690,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 	public void queueFinish(AbstractTransaction ts, Status status) {
 		assert (ts.isInitialized());
 		FinishTaskMessage task = ts.getFinishTaskMessage(status);
-		this.work_queue.add(task);
+		this.addWork(task);
 		if (d)
 			LOG.debug(String
 					.format("%s - Added distributed %s to front of partition %d work queue [size=%d]",
@@ -1564,7 +1725,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 				LOG.debug(String.format(
 						"%s - Adding to work queue at partition %d [size=%d]",
 						ts, this.partitionId, this.work_queue.size()));
-			success = this.work_throttler.offer(task, false);
+			success = this.offerWork(task);
 			// Otherwise figure out whether this txn needs to be blocked or not
 		} else {
 			if (d)
@@ -1585,10 +1746,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 								this.work_queue.size()));
 					// Only use the throttler for single-partition txns
 					if (singlePartitioned) {
-						success = this.work_throttler.offer(task, false);
+						success = this.offerWork(task);
 					} else {
 						// this.work_queue.addFirst(task);
-						this.work_queue.add(task);
+						this.addWork(task);
 					}
 				}
 				// Add the transaction request to the blocked queue
@@ -1767,10 +1928,9 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 			ByteString bs = result.getDepData(i);
 			VoltTable vt = null;
 			if (bs.isEmpty() == false) {
-				FastDeserializer fd = new FastDeserializer(
-						bs.asReadOnlyByteBuffer());
 				try {
-					vt = fd.readObject(VoltTable.class);
+					vt = VoltTableTransport.toVoltTable(bs,
+							hstore_conf.site.exec_zerocopy_tables);
 				} catch (Exception ex) {
 					throw new ServerFaultException(
 							"Failed to deserialize VoltTable from partition "
@@ -2371,46 +2531,43 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 			// REGULAR FRAGMENTS
 			// -------------------------------
 		} else {
-
-			for (int i = 0; i < fragmentCount; i++) {
+			// The fast executors can only handle a WorkFragment that contains
+			// just the aggregate/combine fragment by itself. Everything else
+			// gets sent to the ExecutionEngine together in a single call
+			if (d)
+				LOG.debug("Determine to fast execute in Java:"
+						+ hstore_conf.site.exec_fast_executors);
+			if (hstore_conf.site.exec_fast_executors && fragmentCount == 1) {
 				fastaggre = PlanFragmentIdGenerator
-						.isPlanFragmentFastAggregate(fragmentIds[i]);
+						.isPlanFragmentFastAggregate(fragmentIds[0]);
 				fastcombi = PlanFragmentIdGenerator
-						.isPlanFragmentFastCombine(fragmentIds[i]);
-				// determine to use fast feature
-				if (d)
-					LOG.debug("Determine to fast execute in Java:"
-							+ hstore_conf.site.exec_fast_executors);
-				if (hstore_conf.site.exec_fast_executors) {
+						.isPlanFragmentFastCombine(fragmentIds[0]);
+			}
 
-					if (fastaggre) {
-						// go into Java to execute fast aggregate
+			if (fastaggre) {
+				// go into Java to execute fast aggregate
 
-						// make sure each voltTable just has one column, and do
-						// the
-						// simple summation
-						result = aggexecutor.execute(outputDepIds, inputDepIds,
-								this.tmp_EEdependencies);
+				// make sure each voltTable just has one column, and do the
+				// simple summation
+				result = aggexecutor.execute(outputDepIds, inputDepIds,
+						this.tmp_EEdependencies);
 
-					} else if (fastcombi) {
-						// do fast combine in Java
-						result = combexecutor.execute(outputDepIds,
-								inputDepIds, this.tmp_EEdependencies);
+			} else if (fastcombi) {
+				// do fast combine in Java
+				result = combexecutor.execute(outputDepIds, inputDepIds,
+						this.tmp_EEdependencies);
 
-					} else {
-						// send to ExecutionEngine
-						result = this.executePlanFragments(ts, undoToken,
-								fragmentCount, fragmentIds, parameters,
-								outputDepIds, inputDepIds,
-								this.tmp_EEdependencies);
-					}
-				} else {
-					// donnot use the fast feature
-					result = this.executePlanFragments(ts, undoToken,
-							fragmentCount, fragmentIds, parameters,
-							outputDepIds, inputDepIds, this.tmp_EEdependencies);
-				}
-			}// for
+			} else {
+				// If we're going to serialize the results into a WorkResult
+				// right away, then the EE doesn't need to copy them out of its
+				// buffer for us
+				boolean zeroCopyResults = (hstore_conf.site.exec_ee_zerocopy_results
+						&& ts instanceof RemoteTransaction && fragment
+						.getPrefetch() == false);
+				result = this.executePlanFragments(ts, undoToken,
+						fragmentCount, fragmentIds, parameters, outputDepIds,
+						inputDepIds, this.tmp_EEdependencies, zeroCopyResults);
+			}
 
 			if (result == null) {
 				if (d)
@@ -2506,7 +2663,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 		// entire batch is single-partitioned
 		DependencySet result = this.executePlanFragments(ts, undoToken,
 				fragmentCount, fragmentIds, parameterSets, output_depIds,
-				input_depIds, null);
+				input_depIds, null, false);
 		// assert(result != null) : "Unexpected null DependencySet result for "
 		// + ts;
 		if (t)
@@ -2526,12 +2683,16 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 	 * @param parameterSets
 	 * @param output_depIds
 	 * @param input_depIds
+	 * @param zeroCopyResults
+	 *            if true, then the caller promises that it will be done with
+	 *            the output tables before it calls into the EE again
 	 * @return
 	 */
 	private DependencySet executePlanFragments(AbstractTransaction ts,
 			long undoToken, int batchSize, long fragmentIds[],
 			ParameterSet parameterSets[], int output_depIds[],
-			int input_depIds[], Map<Integer, List<VoltTable>> input_deps) {
+			int input_depIds[], Map<Integer, List<VoltTable>> input_deps,
+			boolean zeroCopyResults) {
 		assert (this.ee != null) : "The EE object is null. This is bad!";
 		Long txn_id = ts.getTransactionId();
 
@@ -2599,6 +2760,41 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 			ts.setSubmittedEE(this.partitionId);
 		}
 
+		// Check whether we can get the results for the entire batch out of the
+		// global query cache. We can only do this if none of the fragments need
+		// input dependencies, since those are not part of the cache key
+		boolean cacheable = false;
+		if (this.queryCache.isGlobalCacheEnabled()) {
+			cacheable = batchSize > 0
+					&& (input_deps == null || input_deps.isEmpty())
+					&& this.queryCache.areFragmentsCacheable(fragmentIds,
+							batchSize);
+			for (int i = 0; cacheable && i < batchSize; i++) {
+				cacheable = (input_depIds[i] == HStoreConstants.NULL_DEPENDENCY_ID);
+			} // FOR
+			if (cacheable) {
+				VoltTable cached[] = new VoltTable[batchSize];
+				for (int i = 0; i < batchSize; i++) {
+					cached[i] = this.queryCache.getGlobalCachedResult(
+							fragmentIds[i], parameterSets[i]);
+					if (cached[i] == null)
+						break;
+				} // FOR
+				if (cached[batchSize - 1] != null) {
+					if (d)
+						LOG.debug(String.format(
+								"%s - Using cached results for fragments %s at partition %d",
+								ts, Arrays.toString(fragmentIds),
+								this.partitionId));
+					return (new DependencySet(Arrays.copyOf(output_depIds,
+							batchSize), cached));
+				}
+			} else {
+				this.queryCache.invalidateFragments(txn_id, fragmentIds,
+						batchSize);
+			}
+		}
+
 		DependencySet result = null;
 		boolean needs_profiling = (hstore_conf.site.txn_profiling && ts
 				.isExecLocal(this.partitionId));
@@ -2614,7 +2810,8 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 			result = this.ee.executeQueryPlanFragmentsAndGetDependencySet(
 					fragmentIds, batchSize, input_depIds, output_depIds,
 					parameterSets, batchSize, txn_id.longValue(),
-					this.lastCommittedTxnId, undoToken);
+					this.lastCommittedTxnId, undoToken,
+					zeroCopyResults && cacheable == false);
 
 		} catch (SerializableException ex) {
 			if (d)
@@ -2639,6 +2836,13 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 			}
 		}
 
+		if (cacheable && result != null && result.size() == batchSize) {
+			for (int i = 0; i < batchSize; i++) {
+				this.queryCache.addGlobalQueryResult(fragmentIds[i],
+						parameterSets[i], result.dependencies[i]);
+			} // FOR
+		}
+
 		// *********************************** DEBUG
 		// ***********************************
 		if (d) {
@@ -2685,6 +2889,8 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 		}
 
 		ts.setSubmittedEE(this.partitionId);
+		this.queryCache.invalidateTable(ts.getTransactionId(),
+				table.getRelativeIndex());
 		ee.loadTable(table.getRelativeIndex(), data, ts.getTransactionId(),
 				lastCommittedTxnId, getNextUndoToken(), allowELT != 0);
 	}
@@ -2777,7 +2983,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 				if (d)
 					LOG.debug("Recomputing MarkovGraph probabilities because "
 							+ ts + " mispredicted");
-				// FIXME this.executor.helper.queueMarkovToRecompute(markov);
+				MarkovRecomputeThread markov_recompute = this.hstore_site
+						.getMarkovRecomputeThread();
+				if (markov_recompute != null)
+					markov_recompute.queue(markov);
 			}
 
 			// Print Misprediction Debug
@@ -2863,11 +3072,10 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 		if (status == Status.OK) {
 			for (int i = 0, cnt = result.size(); i < cnt; i++) {
 				builder.addDepId(result.depIds[i]);
-				this.fs.clear();
 				try {
-					result.dependencies[i].writeExternal(this.fs);
-					ByteString bs = ByteString.copyFrom(this.fs
-							.getBBContainer().b);
+					ByteString bs = VoltTableTransport.toByteString(
+							result.dependencies[i], this.fs,
+							hstore_conf.site.exec_zerocopy_tables);
 					builder.addDepData(bs);
 				} catch (Exception ex) {
 					throw new ServerFaultException(String.format(
@@ -2992,12 +3200,11 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 										HStoreThreadManager
 												.formatSiteName(target_site)));
 					for (VoltTable vt : e.getValue()) {
-						this.fs.clear();
 						try {
-							this.fs.writeObject(vt);
+							ByteString bs = VoltTableTransport.toByteString(vt,
+									this.fs, hstore_conf.site.exec_zerocopy_tables);
 							builder.addAttachedDepId(e.getKey().intValue());
-							builder.addAttachedData(ByteString.copyFrom(this.fs
-									.getBBContainer().b));
+							builder.addAttachedData(bs);
 						} catch (Exception ex) {
 							String msg = String
 									.format("Failed to serialize input dependency %d for %s",
@@ -3404,6 +3611,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 								}
 							}
 						} // FOR
+						serializedParams = true;
 						if (hstore_conf.site.txn_profiling)
 							ts.profiler.stopSerialization();
 					}
@@ -3793,6 +4001,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 
 		// We always need to do the following things regardless if we hit up the
 		// EE or not
+		this.queryCache.finishTransaction(ts.getTransactionId(), commit);
 		if (commit)
 			this.lastCommittedTxnId = ts.getTransactionId();
 		ts.setFinishedEE(this.partitionId);
@@ -3905,7 +4114,7 @@ public class PartitionExecutor implements Runnable, Shutdownable, Loggable {
 								this.partitionId, ts));
 			int released = 0;
 			for (VoltMessage msg : this.currentBlockedTxns) {
-				this.work_queue.add(msg);
+				this.addWork(msg);
 				released++;
 			} // FOR
 			this.currentBlockedTxns.clear();
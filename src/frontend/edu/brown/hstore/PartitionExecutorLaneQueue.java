@@ -0,0 +1,352 @@
+package edu.brown.hstore;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.voltdb.messaging.FinishTaskMessage;
+import org.voltdb.messaging.FragmentTaskMessage;
+import org.voltdb.messaging.InitiateTaskMessage;
+import org.voltdb.messaging.TransactionInfoBaseMessage;
+import org.voltdb.messaging.VoltMessage;
+
+/**
+ * Lock-free replacement for the PartitionExecutorQueue. Instead of keeping every
+ * message in a single PriorityBlockingQueue, each message type gets its own lane
+ * and the lanes are always polled in the same order that the PartitionExecutorQueue
+ * comparator would have sorted them:
+ * <ol>
+ *   <li>Non-transactional messages (FIFO)</li>
+ *   <li>FinishTaskMessages (FIFO)</li>
+ *   <li>Sysproc messages (FIFO)</li>
+ *   <li>FragmentTaskMessages (by txnId)</li>
+ *   <li>InitiateTaskMessages (by txnId)</li>
+ * </ol>
+ * Nothing depends on the order of the finish and sysproc messages, so only the
+ * last two lanes pay for sorting. Messages in a sorted lane with the same txnId
+ * come out in the order that they were added.
+ * Any number of threads can add to the queue, but only a single thread (i.e., the
+ * PartitionExecutor) is expected to block in take() at a time.
+ */
+public class PartitionExecutorLaneQueue extends AbstractQueue<VoltMessage> implements BlockingQueue<VoltMessage> {
+
+    private final Queue<VoltMessage> utilityLane = new ConcurrentLinkedQueue<VoltMessage>();
+    private final Queue<VoltMessage> finishLane = new ConcurrentLinkedQueue<VoltMessage>();
+    private final Queue<VoltMessage> sysprocLane = new ConcurrentLinkedQueue<VoltMessage>();
+    private final ConcurrentSkipListSet<LaneEntry> fragmentLane = new ConcurrentSkipListSet<LaneEntry>();
+    private final ConcurrentSkipListSet<LaneEntry> initLane = new ConcurrentSkipListSet<LaneEntry>();
+
+    /**
+     * Every message that goes into a sorted lane gets the next sequence number so that
+     * two different messages never look like duplicates to the ConcurrentSkipListSet
+     */
+    private final AtomicLong nextSequence = new AtomicLong(0);
+
+    /**
+     * The total number of messages across all lanes.
+     * ConcurrentLinkedQueue.size() is O(n), so we have to keep our own count.
+     * We always count a message before it goes into its lane and only uncount
+     * it once it has been taken out, so this can never go negative.
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * The thread that is parked waiting for a new message (if any)
+     */
+    private volatile Thread waiter = null;
+
+    public PartitionExecutorLaneQueue() {
+        super();
+    }
+
+    // ----------------------------------------------------------------------------
+    // QUEUE API
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public boolean offer(VoltMessage msg) {
+        assert(msg != null);
+        this.size.incrementAndGet();
+        boolean ret;
+        if ((msg instanceof TransactionInfoBaseMessage) == false) {
+            ret = this.utilityLane.offer(msg);
+        } else if (msg instanceof FinishTaskMessage) {
+            ret = this.finishLane.offer(msg);
+        } else if (((TransactionInfoBaseMessage)msg).isSysProc()) {
+            ret = this.sysprocLane.offer(msg);
+        } else {
+            LaneEntry entry = new LaneEntry((TransactionInfoBaseMessage)msg, this.nextSequence.getAndIncrement());
+            ret = (entry.isWork ? this.fragmentLane : this.initLane).add(entry);
+        }
+        if (ret) {
+            Thread t = this.waiter;
+            if (t != null) LockSupport.unpark(t);
+        } else {
+            this.removed();
+        }
+        return (ret);
+    }
+
+    @Override
+    public VoltMessage poll() {
+        if (this.size.get() <= 0) return (null);
+        VoltMessage msg = this.utilityLane.poll();
+        if (msg == null) msg = this.finishLane.poll();
+        if (msg == null) msg = this.sysprocLane.poll();
+        if (msg == null) msg = poll(this.fragmentLane);
+        if (msg == null) msg = poll(this.initLane);
+        if (msg != null) this.removed();
+        return (msg);
+    }
+
+    @Override
+    public VoltMessage peek() {
+        VoltMessage msg = this.utilityLane.peek();
+        if (msg == null) msg = this.finishLane.peek();
+        if (msg == null) msg = this.sysprocLane.peek();
+        if (msg == null) msg = first(this.fragmentLane);
+        if (msg == null) msg = first(this.initLane);
+        return (msg);
+    }
+
+    /**
+     * Remove the given message from the lane that offer() would have put it in.
+     * For the sorted lanes we only have to look at the entries with the same txnId.
+     */
+    @Override
+    public boolean remove(Object o) {
+        boolean ret;
+        if ((o instanceof TransactionInfoBaseMessage) == false) {
+            ret = this.utilityLane.remove(o);
+        } else if (o instanceof FinishTaskMessage) {
+            ret = this.finishLane.remove(o);
+        } else {
+            TransactionInfoBaseMessage msg = (TransactionInfoBaseMessage)o;
+            if (msg.isSysProc()) {
+                ret = this.sysprocLane.remove(msg);
+            } else {
+                boolean isWork = (msg instanceof FragmentTaskMessage);
+                ret = remove(isWork ? this.fragmentLane : this.initLane, msg, isWork);
+            }
+        }
+        if (ret) this.removed();
+        return (ret);
+    }
+
+    @Override
+    public void clear() {
+        // Go through poll() so that the counter stays in sync with the lanes
+        while (this.poll() != null) {
+            // Nothing to do...
+        } // WHILE
+    }
+
+    @Override
+    public int size() {
+        return (this.size.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (this.size.get() <= 0);
+    }
+
+    /**
+     * Returns a snapshot of the queue's contents in the order that they
+     * would be returned by poll()
+     */
+    @Override
+    public Iterator<VoltMessage> iterator() {
+        List<VoltMessage> snapshot = new ArrayList<VoltMessage>(this.size());
+        snapshot.addAll(this.utilityLane);
+        snapshot.addAll(this.finishLane);
+        snapshot.addAll(this.sysprocLane);
+        for (LaneEntry entry : this.fragmentLane) snapshot.add(entry.msg);
+        for (LaneEntry entry : this.initLane) snapshot.add(entry.msg);
+        final Iterator<VoltMessage> it = snapshot.iterator();
+        return new Iterator<VoltMessage>() {
+            private VoltMessage last = null;
+            @Override
+            public boolean hasNext() {
+                return (it.hasNext());
+            }
+            @Override
+            public VoltMessage next() {
+                this.last = it.next();
+                return (this.last);
+            }
+            @Override
+            public void remove() {
+                if (this.last == null) throw new IllegalStateException();
+                PartitionExecutorLaneQueue.this.remove(this.last);
+                this.last = null;
+            }
+        };
+    }
+
+    // ----------------------------------------------------------------------------
+    // BLOCKING QUEUE API
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void put(VoltMessage msg) throws InterruptedException {
+        this.offer(msg);
+    }
+
+    @Override
+    public boolean offer(VoltMessage msg, long timeout, TimeUnit unit) throws InterruptedException {
+        return (this.offer(msg));
+    }
+
+    @Override
+    public VoltMessage take() throws InterruptedException {
+        VoltMessage msg = null;
+        while ((msg = this.poll()) == null) {
+            this.waiter = Thread.currentThread();
+            // We have to check the counter again after we set the waiter
+            // to avoid missing a wake-up from an offer() that raced with us
+            if (this.size.get() <= 0) LockSupport.park(this);
+            this.waiter = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        } // WHILE
+        return (msg);
+    }
+
+    @Override
+    public VoltMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        VoltMessage msg = null;
+        long nanos = unit.toNanos(timeout);
+        final long deadline = System.nanoTime() + nanos;
+        while ((msg = this.poll()) == null) {
+            if (nanos <= 0) return (null);
+            this.waiter = Thread.currentThread();
+            if (this.size.get() <= 0) LockSupport.parkNanos(this, nanos);
+            this.waiter = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+            nanos = deadline - System.nanoTime();
+        } // WHILE
+        return (msg);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return (Integer.MAX_VALUE);
+    }
+
+    /**
+     * Just like PartitionExecutorQueue.drainTo(), this will only remove the
+     * InitiateTaskMessages from the queue. Everything else stays where it is.
+     */
+    @Override
+    public int drainTo(Collection<? super VoltMessage> c) {
+        return (this.drainTo(c, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public int drainTo(Collection<? super VoltMessage> c, int maxElements) {
+        assert(c != null);
+        int ctr = 0;
+
+        // Sysproc InitiateTaskMessages share their lane with the sysproc
+        // FragmentTaskMessages, so we have to pick them out one at a time
+        if (this.sysprocLane.isEmpty() == false) {
+            Iterator<VoltMessage> it = this.sysprocLane.iterator();
+            while (ctr < maxElements && it.hasNext()) {
+                VoltMessage msg = it.next();
+                if (msg instanceof InitiateTaskMessage && this.sysprocLane.remove(msg)) {
+                    this.removed();
+                    c.add(msg);
+                    ctr++;
+                }
+            } // WHILE
+        }
+
+        LaneEntry entry = null;
+        while (ctr < maxElements && (entry = this.initLane.pollFirst()) != null) {
+            this.removed();
+            c.add(entry.msg);
+            ctr++;
+        } // WHILE
+        return (ctr);
+    }
+
+    /**
+     * Uncount a message that was taken out of one of the lanes
+     */
+    private void removed() {
+        int size = this.size.decrementAndGet();
+        assert(size >= 0) : "Negative queue size " + size;
+    }
+
+    private static VoltMessage poll(ConcurrentSkipListSet<LaneEntry> lane) {
+        LaneEntry entry = lane.pollFirst();
+        return (entry != null ? entry.msg : null);
+    }
+
+    private static VoltMessage first(ConcurrentSkipListSet<LaneEntry> lane) {
+        try {
+            return (lane.isEmpty() ? null : lane.first().msg);
+        } catch (NoSuchElementException ex) {
+            // Somebody else got to it first
+            return (null);
+        }
+    }
+
+    private static boolean remove(ConcurrentSkipListSet<LaneEntry> lane, TransactionInfoBaseMessage msg, boolean isWork) {
+        long txnId = msg.getTxnId().longValue();
+        LaneEntry from = new LaneEntry(isWork, txnId, Long.MIN_VALUE);
+        LaneEntry to = new LaneEntry(isWork, txnId, Long.MAX_VALUE);
+        for (LaneEntry entry : lane.subSet(from, true, to, true)) {
+            if (entry.msg == msg) return (lane.remove(entry));
+        } // FOR
+        return (false);
+    }
+
+    /**
+     * A transactional message in one of the sorted lanes. FragmentTaskMessages always
+     * go before anything else, and then we go by txnId. Ties are broken by the order that
+     * the messages were added to the queue.
+     */
+    private static final class LaneEntry implements Comparable<LaneEntry> {
+        private final TransactionInfoBaseMessage msg;
+        private final boolean isWork;
+        private final long txnId;
+        private final long sequence;
+
+        private LaneEntry(TransactionInfoBaseMessage msg, long sequence) {
+            this.msg = msg;
+            this.isWork = (msg instanceof FragmentTaskMessage);
+            this.txnId = msg.getTxnId().longValue();
+            this.sequence = sequence;
+        }
+
+        /**
+         * Search key for the range of entries with the given txnId
+         */
+        private LaneEntry(boolean isWork, long txnId, long sequence) {
+            this.msg = null;
+            this.isWork = isWork;
+            this.txnId = txnId;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(LaneEntry other) {
+            if (this == other) return (0);
+            if (this.isWork != other.isWork) return (this.isWork ? -1 : 1);
+            if (this.txnId != other.txnId) return (this.txnId < other.txnId ? -1 : 1);
+            return (this.sequence < other.sequence ? -1 : (this.sequence == other.sequence ? 0 : 1));
+        }
+    }
+}
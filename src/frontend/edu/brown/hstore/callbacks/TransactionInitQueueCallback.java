@@ -116,21 +116,25 @@ public class TransactionInitQueueCallback extends BlockingCallback<TransactionIn
             // Use txn_id to get the AbstractTransaction handle from the HStoreSite
             if (this.prefetch) {
                 AbstractTransaction ts = hstore_site.getTransaction(this.txn_id);
-                if (ts != null && ts.hasPrefetchQueries()) {
+                if (ts != null && ts.hasPrefetchQueries() && ts.getPrefetchFragments() != null) {
                     // We need to convert our raw ByteString ParameterSets into the actual objects
-                    List<ByteString> rawParams = ts.getPrefetchRawParameterSets(); 
-                    int num_parameters = rawParams.size();
-                    ParameterSet params[] = new ParameterSet[num_parameters]; 
-                    for (int i = 0; i < params.length; i++) {
-                        this.fd.setBuffer(rawParams.get(i).asReadOnlyByteBuffer());
-                        try {
-                            params[i] = this.fd.readObject(ParameterSet.class);
-                        } catch (IOException ex) {
-                            String msg = "Failed to deserialize pre-fetch ParameterSet at offset #" + i;
-                            throw new ServerFaultException(msg, ex, this.txn_id);
-                        }
-                    } // FOR
-                    ts.attachPrefetchParameters(params);
+                    // If this is the txn's base HStoreSite, then the PrefetchQueryPlanner already
+                    // attached the original ParameterSets and never serialized them for us.
+                    if (ts.hasPrefetchParameters() == false) {
+                        List<ByteString> rawParams = ts.getPrefetchRawParameterSets(); 
+                        int num_parameters = rawParams.size();
+                        ParameterSet params[] = new ParameterSet[num_parameters]; 
+                        for (int i = 0; i < params.length; i++) {
+                            this.fd.setBuffer(rawParams.get(i).asReadOnlyByteBuffer());
+                            try {
+                                params[i] = this.fd.readObject(ParameterSet.class);
+                            } catch (IOException ex) {
+                                String msg = "Failed to deserialize pre-fetch ParameterSet at offset #" + i;
+                                throw new ServerFaultException(msg, ex, this.txn_id);
+                            }
+                        } // FOR
+                        ts.attachPrefetchParameters(params);
+                    }
                     
                     // Go through all the prefetch WorkFragments and send them off to 
                     // the right PartitionExecutor at this HStoreSite.
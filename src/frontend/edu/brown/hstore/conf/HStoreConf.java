@@ -60,6 +60,10 @@ public final class HStoreConf {
 		@ConfigProperty(description = "The name of the AbstractHasher class to use to figure out what partitions "
 				+ "transactions and queries need to go to. We should not need to change this.", defaultString = "edu.brown.hashing.DefaultHasher", experimental = true)
 		public String hasherClass;
+
+		@ConfigProperty(description = "The number of partitioning values that the edu.brown.hashing.CachedHasher will "
+				+ "cache the partition ids for. This is only used if ${global.hasherClass} is the CachedHasher.", defaultInt = 2048, experimental = true)
+		public int hasherCacheSize;
 	}
 
 	// ============================================================================
@@ -105,6 +109,17 @@ public final class HStoreConf {
 				+ "waiting for work to be added to its queue).", defaultBoolean = false, experimental = false)
 		public boolean exec_profiling;
 
+		@ConfigProperty(description = "The number of times that an idle PartitionExecutor will busy-spin polling its work queue "
+				+ "before it starts to yield its time slice. This avoids the cost of parking and waking up the thread "
+				+ "when there is only a short lull between transactions. This is best used together with "
+				+ "${site.cpu_affinity}.", defaultInt = 0, experimental = true)
+		public int exec_idle_spin_count;
+
+		@ConfigProperty(description = "The number of times that an idle PartitionExecutor will yield and then poll its work queue "
+				+ "after it is done spinning (see ${site.exec_idle_spin_count}). Once this limit is reached, the thread will "
+				+ "be parked until new work arrives.", defaultInt = 0, experimental = true)
+		public int exec_idle_yield_count;
+
 		@ConfigProperty(description = "If this feature is enabled, then each HStoreSite will attempt to speculatively execute "
 				+ "single-partition transactions whenever it completes a work request for a multi-partition "
 				+ "transaction running on a different node.", defaultBoolean = true, experimental = true)
@@ -198,6 +213,15 @@ public final class HStoreConf {
 		@ConfigProperty(description = "Timeout in milliseconds before group commit buffer flushes, if it does not fill", defaultInt = 1000, experimental = true)
 		public int exec_command_logging_group_commit_timeout;
 
+		@ConfigProperty(description = "If enabled, the number of transactions in each group commit will be adjusted "
+				+ "based on how long it takes to sync the command log to disk. The value of ${site.exec_command_logging_group_commit} "
+				+ "will be used as the maximum batch size.", defaultBoolean = false, experimental = true)
+		public boolean exec_command_logging_group_commit_adaptive;
+
+		@ConfigProperty(description = "Size in megabytes of each preallocated command logging segment file. "
+				+ "The log rolls over to a new segment whenever the current one fills up.", defaultInt = 64, experimental = true)
+		public int exec_command_logging_segment_size;
+
 		@ConfigProperty(description = "Setting this configuration parameter to true allows clients to "
 				+ "issue ad hoc query requests use the @AdHoc sysproc.", defaultBoolean = true, experimental = true)
 		public boolean exec_adhoc_sql;
@@ -209,6 +233,29 @@ public final class HStoreConf {
 		@ConfigProperty(description = "If this parameter is enabled, then the DBMS will queue up any single-partitioned "
 				+ "queries for later execution if they are marked as deferrable.", defaultBoolean = false, experimental = true)
 		public boolean exec_deferrable_queries;
+
+		@ConfigProperty(description = "Size in megabytes of the result cache at each partition for read-only PlanFragments. "
+				+ "Cached results are shared across transactions and are invalidated whenever a transaction "
+				+ "modifies one of the tables that they read from (0 = disabled).", defaultInt = 0, experimental = true)
+		public int exec_query_cache_size;
+
+		@ConfigProperty(description = "Eviction policy for the partition result cache. "
+				+ "Valid options are 'LRU', 'LFU', and 'WTINYLFU'.", defaultString = "WTINYLFU", experimental = true)
+		public String exec_query_cache_policy;
+
+		@ConfigProperty(description = "If this enabled, the VoltTables that are sent between partitions in WorkResults, "
+				+ "TransactionWorkRequests, and SendDataRequests will be copied straight out of their buffers "
+				+ "and the receiving partition will get a read-only view of the network message's bytes instead "
+				+ "of deserializing a copy. This must be the same at every HStoreSite in the cluster.", defaultBoolean = false, experimental = true)
+		public boolean exec_zerocopy_tables;
+
+		@ConfigProperty(description = "If this enabled, the output tables of WorkFragments for remote transactions will be "
+				+ "read-only views of the ExecutionEngine's shared result buffer instead of copies. This is only used when "
+				+ "the results are going to be serialized into a WorkResult before the partition makes another call into "
+				+ "the ExecutionEngine. Results for local transactions, prefetch queries, and anything that can go "
+				+ "into the query cache are always copied out.", defaultBoolean = false, experimental = true)
+		public boolean exec_ee_zerocopy_results;
+
 		@ConfigProperty(description = "PartitionExecutor will determine whether to use the fast execute in Java instead of ExecutionEngine", defaultBoolean = false, experimental = true)
 		public boolean exec_fast_executors; // mimosally
 
@@ -283,6 +330,12 @@ public final class HStoreConf {
 				+ "ABORT_REJECT status response and will be allowed to queue another transaction immediately.", defaultBoolean = false, experimental = false)
 		public boolean queue_incoming_throttle;
 
+		@ConfigProperty(description = "If this parameter is enabled, then each PartitionExecutor will use a lock-free work queue "
+				+ "that keeps a separate lane for each message type (e.g., FinishTaskMessage, FragmentTaskMessage, "
+				+ "InitiateTaskMessage) instead of a single PriorityBlockingQueue. Only the lanes that need to be "
+				+ "ordered by transaction id are kept sorted.", defaultBoolean = false, experimental = true)
+		public boolean queue_work_lanes;
+
 		@ConfigProperty(description = "Max size of queued transactions before an HStoreSite will stop accepting new requests "
 				+ "from clients and will send back a ClientResponse with the throttle flag enabled.", defaultInt = 100, experimental = false)
 		public int queue_dtxn_max_per_partition;
@@ -315,6 +368,12 @@ public final class HStoreConf {
 				+ "ABORT_REJECT status response and will be allowed to queue another transaction immediately.", defaultBoolean = false, experimental = false)
 		public boolean queue_dtxn_throttle;
 
+		@ConfigProperty(description = "The number of threads that the TransactionQueueManager will use to release distributed "
+				+ "transactions from the partitions' lock queues. Each thread is responsible for a separate subset of the "
+				+ "HStoreSite's local partitions. If this is set to zero, then the TransactionQueueManager's main thread "
+				+ "will check all of the lock queues by itself.", defaultInt = 0, experimental = true)
+		public int queue_lock_shards;
+
 		// ----------------------------------------------------------------------------
 		// Parameter Mapping Options
 		// ----------------------------------------------------------------------------
@@ -332,12 +391,19 @@ public final class HStoreConf {
 				+ "for processing rather than being executed directly within the PartitionExecutor's thread.", defaultBoolean = true, experimental = false)
 		public boolean markov_mispredict_recompute;
 
+		@ConfigProperty(description = "Start a separate MarkovRecomputeThread at each HStoreSite that recomputes Markov models' "
+				+ "probabilities in the background. The PartitionExecutors queue a Markov model in this thread when "
+				+ "a transaction mispredicts (see ${site.markov_mispredict_recompute}) and then keep on going "
+				+ "without waiting for it.", defaultBoolean = false, experimental = true)
+		public boolean markov_async_recompute;
+
 		@ConfigProperty(description = "", // TODO
 		defaultNull = true, experimental = false)
 		public String markov_path;
 
-		@ConfigProperty(description = "If this is set to true, TransactionEstimator will try to reuse MarkovPathEstimators"
-				+ "for transactions running at the same partition.", defaultBoolean = true, experimental = true)
+		@ConfigProperty(description = "If this is set to true, TransactionEstimator will try to reuse MarkovPathEstimators "
+				+ "for transactions running at the same partition with the same parameter features. "
+				+ "See edu.brown.markov.MarkovPathEstimatorCache", defaultBoolean = true, experimental = true)
 		public boolean markov_path_caching;
 
 		@ConfigProperty(description = "This threshold defines how accurate our cached MarkovPathEstimators have to be in order "
@@ -345,11 +411,22 @@ public final class HStoreConf {
 				+ "goes below this threshold, then we will disable the caching", defaultDouble = 1.0, experimental = true)
 		public double markov_path_caching_threshold;
 
+		@ConfigProperty(description = "The maximum number of MarkovPathEstimators that the TransactionEstimator will cache. "
+				+ "Once the cache is full, any estimator that has not been reused since the last time that it was "
+				+ "full will be evicted.", defaultInt = 10000, experimental = true)
+		public int markov_path_caching_size;
+
 		@ConfigProperty(description = "The minimum number of queries that must be in a batch for the TransactionEstimator "
 				+ "to cache the path segment in the procedure's MarkovGraph. Provides a minor speed improvement "
 				+ "for large batches with little variability in their execution paths.", defaultInt = 3, experimental = true)
 		public int markov_batch_caching_min;
 
+		@ConfigProperty(description = "If this is set to true, the TransactionEstimator and MarkovPathEstimator will walk a "
+				+ "compiled, array-based copy of each MarkovGraph instead of the graph itself. The copy is rebuilt "
+				+ "the next time that it is needed after the graph gets a new vertex or edge or its probabilities "
+				+ "are recomputed, so this works best when the graphs are not changing much.", defaultBoolean = false, experimental = true)
+		public boolean markov_compiled_graphs;
+
 		@ConfigProperty(description = "Enable a hack for TPC-C where we inspect the arguments of the TPC-C neworder transaction and figure "
 				+ "out what partitions it needs without having to use the TransactionEstimator. This will crash the "
 				+ "system when used with other benchmarks. See edu.brown.hstore.util.NewOrderInspector", defaultBoolean = false, experimental = true)
@@ -370,6 +447,13 @@ public final class HStoreConf {
 				+ "believe me and want to see how slow things go with out this...", defaultBoolean = true, experimental = false)
 		public boolean planner_caching;
 
+		@ConfigProperty(description = "The maximum number of distributed BatchPlans that each BatchPlanner will cache. "
+				+ "If a distributed batch has the same base partition and sends each of its PlanFragments to the same "
+				+ "partitions as a batch that the BatchPlanner has seen before, then it will reuse that BatchPlan "
+				+ "and its WorkFragments instead of building new ones. Setting this to zero will disable the cache. "
+				+ "This requires ${site.planner_caching} to be enabled.", defaultInt = 128, experimental = false)
+		public int planner_caching_distributed_size;
+
 		@ConfigProperty(description = "The maximum number of execution rounds allowed per batch.", defaultInt = 10, experimental = false)
 		public int planner_max_round_size;
 
@@ -400,6 +484,24 @@ public final class HStoreConf {
 				+ "between sites.", defaultBoolean = true, experimental = false)
 		public boolean coordinator_sync_time;
 
+		@ConfigProperty(description = "The number of event loop threads that HStoreCoordinator will use for its network I/O. "
+				+ "The connection to each remote HStoreSite is always handled by the same thread.", defaultInt = 1, experimental = true)
+		public int coordinator_event_loops;
+
+		@ConfigProperty(description = "If this enabled, HStoreCoordinator will coalesce the TransactionInit, TransactionPrepare, "
+				+ "and TransactionFinish requests that it sends to the same remote HStoreSite so that they are written out "
+				+ "to the network together. A batch is sent once it has ${site.coordinator_batch_max} requests or once its "
+				+ "first request has waited for ${site.coordinator_batch_window} microseconds.", defaultBoolean = false, experimental = true)
+		public boolean coordinator_batch_messages;
+
+		@ConfigProperty(description = "The max amount of time in microseconds that HStoreCoordinator will hold on to a request "
+				+ "before sending it when ${site.coordinator_batch_messages} is enabled.", defaultInt = 100, experimental = true)
+		public int coordinator_batch_window;
+
+		@ConfigProperty(description = "The max number of requests that HStoreCoordinator will put in a single batch when "
+				+ "${site.coordinator_batch_messages} is enabled.", defaultInt = 32, experimental = true)
+		public int coordinator_batch_max;
+
 		// ----------------------------------------------------------------------------
 		// PartitionExecutorHelper
 		// ----------------------------------------------------------------------------
@@ -498,6 +600,10 @@ public final class HStoreConf {
 		@ConfigProperty(description = "The max number of PrefetchStates to keep in the pool.", defaultInt = 100, experimental = false)
 		public int pool_prefetchstates_idle;
 
+		@ConfigProperty(description = "The max number of StoredProcedureInvocations to keep in the pool. "
+				+ "Should be the same as the number of LocalTransactionStates.", defaultInt = 5000, experimental = true)
+		public int pool_invocations_idle;
+
 		@ConfigProperty(description = "The max number of TransactionRedirectCallbacks to keep idle in the pool", defaultInt = 10000, experimental = false)
 		public int pool_txnredirect_idle;
 
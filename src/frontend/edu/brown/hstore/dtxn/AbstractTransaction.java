@@ -685,6 +685,15 @@ public abstract class AbstractTransaction implements Poolable, Loggable {
         this.prefetch.params = params;
     }
     
+    /**
+     * Returns true if the deserialized prefetch ParameterSets are already attached.
+     * This is the case at the txn's base HStoreSite, since it never serializes them
+     * for its own partitions.
+     */
+    public final boolean hasPrefetchParameters() {
+        return (this.prefetch != null && this.prefetch.params != null);
+    }
+    
     public final List<WorkFragment> getPrefetchFragments() {
         return (this.prefetch.fragments);
     }
@@ -103,6 +103,12 @@ public class LocalTransaction extends AbstractTransaction {
      */
     protected StoredProcedureInvocation invocation;
     
+    /**
+     * If true, then our StoredProcedureInvocation was borrowed from HStoreObjectPools
+     * and this txn has to give it back when it is deleted
+     */
+    private boolean invocation_pooled = false;
+    
     /**
      * Catalog object of the Procedure that this transaction is currently executing
      */
@@ -354,6 +360,7 @@ public class LocalTransaction extends AbstractTransaction {
         
         this.catalog_proc = null;
         this.invocation = null;
+        this.invocation_pooled = false;
         this.client_callback = null;
         this.initiateTime = 0;
         
@@ -754,6 +761,25 @@ public class LocalTransaction extends AbstractTransaction {
     public StoredProcedureInvocation getInvocation() {
         return (this.invocation);
     }
+    
+    /**
+     * Returns true if this txn is responsible for returning its StoredProcedureInvocation
+     * back into HStoreObjectPools when it is deleted
+     * @return
+     */
+    public boolean hasPooledInvocation() {
+        return (this.invocation_pooled);
+    }
+    
+    /**
+     * Mark whether this txn owns a StoredProcedureInvocation that was borrowed
+     * from HStoreObjectPools. If a restarted txn reuses our invocation, then it
+     * has to take this over from us.
+     * @param pooled
+     */
+    public void setPooledInvocation(boolean pooled) {
+        this.invocation_pooled = pooled;
+    }
 
     /**
      * Return the number of times that this transaction was restarted
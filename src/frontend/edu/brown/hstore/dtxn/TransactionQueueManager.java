@@ -1,5 +1,6 @@
 package edu.brown.hstore.dtxn;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Map;
@@ -8,6 +9,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
 import org.apache.log4j.Logger;
@@ -28,6 +30,7 @@ import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.statistics.Histogram;
 import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionSet;
 import edu.brown.utils.StringUtil;
 
 public class TransactionQueueManager implements Runnable, Loggable, Shutdownable {
@@ -52,6 +55,12 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     
     private final Semaphore checkFlag = new Semaphore(1);
     
+    /**
+     * The threads that release txns from the lock queues. This is empty if 
+     * the main queue manager thread checks all of the lock queues by itself.
+     */
+    private final LockQueueShard lockQueueShards[];
+    
     /**
      * 
      */
@@ -69,11 +78,14 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     /**
      * The last txn ID that was executed for each partition
      * Our local partitions must be accurate, but we can be off for the remote ones
+     * A local partition's entry is only changed while holding the lock on its lock queue
      */
-    private final Long[] lockQueuesLastTxn;
+    private final AtomicLongArray lockQueuesLastTxn;
     
     /**
      * Indicates which partitions are currently executing a distributed transaction
+     * A partition's entry is only read or changed while holding the lock on its lock queue,
+     * since the LockQueueShard that polls it and the threads that abort txns can all touch it
      */
     private final boolean[] lockQueuesBlocked;
     
@@ -82,6 +94,22 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
      */
     private final Map<Long, TransactionInitQueueCallback> lockQueuesCallbacks = new ConcurrentHashMap<Long, TransactionInitQueueCallback>();
     
+    /**
+     * The flag that we need to poke to get a partition's lock queue checked.
+     * This will either be the flag for its LockQueueShard or our own checkFlag
+     */
+    private final Semaphore lockQueuesCheckFlags[];
+    
+    /**
+     * The number of txns that were released at each partition
+     */
+    private final AtomicLongArray lockQueuesReleased;
+    
+    /**
+     * The number of txns that were rejected at each partition
+     */
+    private final AtomicLongArray lockQueuesRejected;
+    
     // ----------------------------------------------------------------------------
     // BLOCKED DISTRIBUTED TRANSACTIONS
     // ----------------------------------------------------------------------------
@@ -153,20 +181,38 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         int num_ids = allPartitions.size();
         this.lockQueues = new TransactionInitPriorityQueue[num_ids];
         this.lockQueuesBlocked = new boolean[this.lockQueues.length];
-        this.lockQueuesLastTxn = new Long[this.lockQueues.length];
+        this.lockQueuesLastTxn = new AtomicLongArray(this.lockQueues.length);
+        this.lockQueuesCheckFlags = new Semaphore[this.lockQueues.length];
+        this.lockQueuesReleased = new AtomicLongArray(this.lockQueues.length);
+        this.lockQueuesRejected = new AtomicLongArray(this.lockQueues.length);
         this.localPartitionsArray = CollectionUtil.toIntArray(hstore_site.getLocalPartitionIds());
         this.wait_time = hstore_conf.site.txn_incoming_delay;
         
         // Allocate transaction queues
         for (int partition : allPartitions) {
-            this.lockQueuesLastTxn[partition] = -1l;
+            this.lockQueuesLastTxn.set(partition, -1l);
             if (this.hstore_site.isLocalPartition(partition)) {
                 this.lockQueues[partition] = new TransactionInitPriorityQueue(hstore_site, partition, this.wait_time);
                 this.lockQueuesBlocked[partition] = false;
                 hstore_site.getStartWorkloadObservable().addObserver(this.lockQueues[partition]);
+                this.lockQueuesCheckFlags[partition] = this.checkFlag;
             }
         } // FOR
         
+        // Split up the local partitions amongst the LockQueueShards 
+        int num_shards = Math.min(hstore_conf.site.queue_lock_shards, this.localPartitionsArray.length);
+        this.lockQueueShards = new LockQueueShard[Math.max(0, num_shards)];
+        for (int i = 0; i < this.lockQueueShards.length; i++) {
+            int shard_partitions[] = new int[(this.localPartitionsArray.length - i + num_shards - 1) / num_shards];
+            for (int j = 0; j < shard_partitions.length; j++) {
+                shard_partitions[j] = this.localPartitionsArray[i + (j * num_shards)];
+            } // FOR
+            this.lockQueueShards[i] = new LockQueueShard(i, shard_partitions);
+            for (int partition : shard_partitions) {
+                this.lockQueuesCheckFlags[partition] = this.lockQueueShards[i].checkFlag;
+            } // FOR
+        } // FOR
+        
         if (d) LOG.debug(String.format("Created %d TransactionInitQueues for %s",
                                        num_ids, hstore_site.getSiteName()));
     }
@@ -195,6 +241,13 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         
         if (d) LOG.debug("Starting distributed transaction queue manager thread");
         
+        for (LockQueueShard shard : this.lockQueueShards) {
+            Thread thread = new Thread(shard);
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler(self.getUncaughtExceptionHandler());
+            thread.start();
+        } // FOR
+        
         while (this.stop == false) {
             try {
                 this.checkFlag.tryAcquire(this.wait_time*2, TimeUnit.MILLISECONDS);
@@ -202,10 +255,12 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
                 // Nothing...
             }
             
-            if (t) LOG.trace("Checking partition queues for dtxns to release!");
-            while (this.checkLockQueues()) {
-                // Keep checking the queue as long as they have more stuff in there
-                // for us to process
+            if (this.lockQueueShards.length == 0) {
+                if (t) LOG.trace("Checking partition queues for dtxns to release!");
+                while (this.checkLockQueues(this.localPartitionsArray)) {
+                    // Keep checking the queue as long as they have more stuff in there
+                    // for us to process
+                }
             }
             
             // Release transactions for initialization to the HStoreCoordinator
@@ -219,6 +274,45 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         } // WHILE
     }
     
+    /**
+     * A separate thread that releases txns from the lock queues for a subset
+     * of the local partitions. Every local partition belongs to exactly one
+     * shard, so only one thread ever polls a partition's lock queue.
+     */
+    protected class LockQueueShard implements Runnable {
+        private final int id;
+        private final int partitions[];
+        private final Semaphore checkFlag = new Semaphore(1);
+        
+        public LockQueueShard(int id, int partitions[]) {
+            this.id = id;
+            this.partitions = partitions;
+        }
+        
+        @Override
+        public void run() {
+            Thread self = Thread.currentThread();
+            self.setName(HStoreThreadManager.getThreadName(hstore_site, "queue", "lock" + this.id));
+            if (hstore_conf.site.cpu_affinity) {
+                hstore_site.getThreadManager().registerProcessingThread();
+            }
+            if (d) LOG.debug(String.format("Starting lock queue shard #%d for partitions %s",
+                                           this.id, Arrays.toString(this.partitions)));
+            
+            while (stop == false) {
+                try {
+                    this.checkFlag.tryAcquire(wait_time*2, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Nothing...
+                }
+                while (checkLockQueues(this.partitions)) {
+                    // Keep checking the queue as long as they have more stuff in there
+                    // for us to process
+                }
+            } // WHILE
+        }
+    }
+    
     // ----------------------------------------------------------------------------
     // INIT QUEUES
     // ----------------------------------------------------------------------------
@@ -229,59 +323,78 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
      * Returns true if we released a transaction at at least one partition
      */
     protected boolean checkLockQueues() {
-        if (t) LOG.trace("Checking initQueues for " + this.localPartitionsArray.length + " partitions");
+        return (this.checkLockQueues(this.localPartitionsArray));
+    }
+    
+    /**
+     * Check whether there are any transactions that need to be released for execution
+     * at the given partitions. Only one thread can check a partition at a time.
+     * Returns true if we released a transaction at at least one partition
+     * @param partitions
+     */
+    private boolean checkLockQueues(int partitions[]) {
+        if (t) LOG.trace("Checking initQueues for " + partitions.length + " partitions");
         
         boolean txn_released = false;
-        for (int partition : this.localPartitionsArray) {
+        for (int partition : partitions) {
+            TransactionInitPriorityQueue queue = this.lockQueues[partition];
             TransactionInitQueueCallback callback = null;
             Long next_id = null;
+            long last_id = -1;
             int counter = -1;
+            boolean reject = false;
             
-            if (this.lockQueuesBlocked[partition]) {
-                if (t) LOG.trace(String.format("Partition #%d is already executing a transaction. Skipping...", partition));
-                continue;
-            }
-
-            // Poll the queue and get the next value. We need
-            // a lock in case somebody is looking for this txnId to remove
-            synchronized (this.lockQueues[partition]) {
-                next_id = this.lockQueues[partition].poll();    
+            // Poll the queue and get the next value. We need the queue's lock
+            // for the whole thing in case somebody is trying to abort this txnId
+            // or release this partition while we are doing this
+            synchronized (queue) {
+                if (this.lockQueuesBlocked[partition]) {
+                    if (t) LOG.trace(String.format("Partition #%d is already executing a transaction. Skipping...", partition));
+                    continue;
+                }
+                next_id = queue.poll();
+                
+                // If null, then there is nothing that is ready to run at this partition,
+                // so we'll just skip to the next one
+                if (next_id == null) {
+                    if (t) LOG.trace(String.format("Partition #%d initQueue does not have a transaction ready to run. Skipping... [queueSize=%d]",
+                                                   partition, queue.size()));
+                    continue;
+                }
+                
+                callback = this.lockQueuesCallbacks.get(next_id);
+                assert(callback != null) : "Unexpected null callback for txn #" + next_id;
+                last_id = this.lockQueuesLastTxn.get(partition);
+                
+                // If this callback has already been aborted, then there is nothing we need to
+                // do. Somebody else will make sure that this txn is removed from the queue
+                // We will always want to return true to keep trying to get the next transaction
+                if (callback.isAborted()) {
+                    if (d) LOG.debug(String.format("The next id for partition #%d is txn #%d but its callback is marked as aborted. [queueSize=%d]",
+                                                   partition, next_id, queue.size()));
+                    queue.remove(next_id);
+                    txn_released = true;
+                    continue;
+                }
+                else if (last_id > next_id.longValue()) {
+                    reject = true;
+                }
+                else {
+                    this.lockQueuesLastTxn.set(partition, next_id.longValue());
+                    this.lockQueuesBlocked[partition] = true;
+                }
             } // SYNCH
             
-            // If null, then there is nothing that is ready to run at this partition,
-            // so we'll just skip to the next one
-            if (next_id == null) {
-                if (t) LOG.trace(String.format("Partition #%d initQueue does not have a transaction ready to run. Skipping... [queueSize=%d]",
-                                               partition, this.lockQueues[partition].size()));
-                continue;
-            }
-            
-            callback = this.lockQueuesCallbacks.get(next_id);
-            assert(callback != null) : "Unexpected null callback for txn #" + next_id;
-            
-            // If this callback has already been aborted, then there is nothing we need to
-            // do. Somebody else will make sure that this txn is removed from the queue
-            // We will always want to return true to keep trying to get the next transaction
-            if (callback.isAborted()) {
-                if (d) LOG.debug(String.format("The next id for partition #%d is txn #%d but its callback is marked as aborted. [queueSize=%d]",
-                                               partition, next_id, this.lockQueuesLastTxn[partition], lockQueues[partition].size()));
-                this.lockQueues[partition].remove(next_id);
-                txn_released = true;
-                continue;
-            }
-            // We don't need to acquire lock here because we know that our partition isn't doing
-            // anything at this moment. 
-            else if (this.lockQueuesLastTxn[partition].compareTo(next_id) > 0) {
+            if (reject) {
                 if (d) LOG.debug(String.format("The next id for partition #%d is txn #%d but this is less than the previous txn #%d. Rejecting... [queueSize=%d]",
-                                               partition, next_id, this.lockQueuesLastTxn[partition], lockQueues[partition].size()));
-                this.rejectTransaction(next_id, callback, Status.ABORT_RESTART, partition, this.lockQueuesLastTxn[partition]);
+                                               partition, next_id, last_id, queue.size()));
+                this.rejectTransaction(next_id, callback, Status.ABORT_RESTART, partition, last_id);
                 continue;
             }
 
             if (d) LOG.debug(String.format("Good news! Partition #%d is ready to execute txn #%d! Invoking initQueue callback!",
                                            partition, next_id));
-            this.lockQueuesLastTxn[partition] = next_id;
-            this.lockQueuesBlocked[partition] = true;
+            this.lockQueuesReleased.incrementAndGet(partition);
             
             // Send the init request for the specified partition
             try {
@@ -296,6 +409,15 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
                                                          callback.getClass().getSimpleName(), next_id, partition), ex);
             }
             txn_released = true;
+            
+            // Another thread may have aborted this txn after we polled it but before we
+            // marked this partition as blocked. Nobody is going to tell us that this txn
+            // is finished here, so we have to release the partition ourselves
+            if (callback.isAborted()) {
+                if (d) LOG.debug(String.format("Txn #%d was aborted after it was released at partition %d. Unlocking...",
+                                               next_id, partition));
+                if (this.unlockPartition(partition, next_id)) this.pokeLockQueue(partition);
+            }
                 
             // remove the callback when this partition is the last one to start the job
             if (counter == 0) {
@@ -314,7 +436,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
      * @param callback
      * @return
      */
-    public boolean lockInsert(Long txn_id, Collection<Integer> partitions, TransactionInitQueueCallback callback) {
+    public boolean lockInsert(Long txn_id, PartitionSet partitions, TransactionInitQueueCallback callback) {
         if (d) LOG.debug(String.format("Adding new distributed txn #%d into initQueue [partitions=%s]",
                                        txn_id, partitions));
         
@@ -322,18 +444,18 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         // this txnId in the loop below
         this.lockQueuesCallbacks.put(txn_id, callback);
         
-        boolean should_notify = false;
         boolean ret = true;
-        for (int partition : partitions) {
+        for (int partition = partitions.first(); partition != -1; partition = partitions.next(partition + 1)) {
             // We can pre-emptively check whether this txnId is greater than
             // the largest one that we know about at a partition
             // We don't need to acquire the lock on last_txns at this partition because 
             // all that we care about is that whatever value is in there now is greater than
             // the what the transaction was trying to use.
-            if (this.lockQueuesLastTxn[partition].compareTo(txn_id) > 0) {
+            long last_id = this.lockQueuesLastTxn.get(partition);
+            if (last_id > txn_id.longValue()) {
                 if (d) LOG.debug(String.format("The last initQueue txnId for remote partition is #%d but this is greater than our txn #%d. Rejecting...",
-                                               partition, this.lockQueuesLastTxn[partition], txn_id));
-                this.rejectTransaction(txn_id, callback, Status.ABORT_RESTART, partition, this.lockQueuesLastTxn[partition]);
+                                               partition, last_id, txn_id));
+                this.rejectTransaction(txn_id, callback, Status.ABORT_RESTART, partition, last_id);
                 ret = false;
                 break;
             }
@@ -363,17 +485,20 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
                 ret = false;
                 break;
             }
+            
             // If our queue is currently idle, poke the thread so that it wakes up and tries to
             // schedule our boys!
-            else if (this.lockQueuesBlocked[partition] == false) {
-                should_notify = true;
+            boolean blocked;
+            synchronized (queue) {
+                blocked = this.lockQueuesBlocked[partition];
+            } // SYNCH
+            if (blocked == false) {
+                this.pokeLockQueue(partition);
             }
             
             if (d) LOG.debug(String.format("Added txn #%d to initQueue for partition %d [locked=%s, queueSize=%d]",
-                                           txn_id, partition, this.lockQueuesBlocked[partition], this.lockQueues[partition].size()));
+                                           txn_id, partition, blocked, queue.size()));
         } // FOR
-        if (should_notify && this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
         return (ret);
     }
     
@@ -393,15 +518,12 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         
         // If the given txnId is the current transaction at this partition and still holds
         // the lock on the partition, then we will want to release it
-        boolean poke = false;
-        if (this.lockQueuesBlocked[partition] && this.lockQueuesLastTxn[partition].equals(txn_id)) {
-            if (d) LOG.debug(String.format("Unlocking partition %d because txn #%d is finished [status=%s]",
-                                           partition, txn_id, status));
-            this.lockQueuesBlocked[partition] = false;
-            poke = true;
-        } else if (d) {
-            LOG.debug(String.format("Not unlocking partition %d for txn #%d [current=%d, locked=%s, status=%s]",
-                                    partition, txn_id, this.lockQueuesLastTxn[partition], this.lockQueuesBlocked[partition], status));
+        boolean poke = this.unlockPartition(partition, txn_id);
+        if (d) {
+            if (poke) LOG.debug(String.format("Unlocking partition %d because txn #%d is finished [status=%s]",
+                                              partition, txn_id, status));
+            else LOG.debug(String.format("Not unlocking partition %d for txn #%d [current=%d, status=%s]",
+                                         partition, txn_id, this.lockQueuesLastTxn.get(partition), status));
         }
         
         // Always attempt to remove it from this partition's queue
@@ -432,8 +554,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
                 this.cleanupTransaction(txn_id);
             }
         }
-        if (poke && this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
+        if (poke) this.pokeLockQueue(partition);
     }
     
 
@@ -441,10 +562,24 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
      * Get the last tranasction id that was initialized at the given partition
      */
     public Long getLastLockTransaction(int partition) {
-        return (this.lockQueuesLastTxn[partition]);
+        return (this.lockQueuesLastTxn.get(partition));
     }
     
     
+    /**
+     * Get the number of txns that have been released at the given partition
+     */
+    public long getLockReleasedCount(int partition) {
+        return (this.lockQueuesReleased.get(partition));
+    }
+    
+    /**
+     * Get the number of txns that have been rejected at the given partition
+     */
+    public long getLockRejectedCount(int partition) {
+        return (this.lockQueuesRejected.get(partition));
+    }
+    
     protected boolean isLockQueuesEmpty() {
         for (int i = 0; i < this.lockQueues.length; ++i) {
             if (this.lockQueues[i].isEmpty() == false) return (false);
@@ -456,6 +591,33 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     // INTERNAL METHODS
     // ----------------------------------------------------------------------------
     
+    /**
+     * Wake up whatever thread is responsible for checking the given partition's lock queue
+     * @param partition
+     */
+    private void pokeLockQueue(int partition) {
+        Semaphore flag = this.lockQueuesCheckFlags[partition];
+        if (flag.availablePermits() == 0) flag.release();
+    }
+    
+    /**
+     * Release the lock on the given local partition if it is currently held by the given txn.
+     * Returns true if the partition was unlocked. The caller should poke the partition's
+     * lock queue afterwards so that the next txn can be released.
+     * @param partition
+     * @param txn_id
+     * @return
+     */
+    private boolean unlockPartition(int partition, Long txn_id) {
+        synchronized (this.lockQueues[partition]) {
+            if (this.lockQueuesBlocked[partition] && this.lockQueuesLastTxn.get(partition) == txn_id.longValue()) {
+                this.lockQueuesBlocked[partition] = false;
+                return (true);
+            }
+        } // SYNCH
+        return (false);
+    }
+    
     /**
      * Remove the transaction from our internal queues
      * We will also put their TransactionInitQueueCallback back into the
@@ -485,6 +647,7 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
     private void rejectTransaction(Long txn_id, TransactionInitQueueCallback callback, Status status, int reject_partition, Long reject_txnId) {
         if (d) LOG.debug(String.format("Rejecting txn #%d on partition %d. Blocking until a txnId greater than #%d",
                                        txn_id, reject_partition, reject_txnId));
+        this.lockQueuesRejected.incrementAndGet(reject_partition);
 
         
         // First send back an ABORT message to the initiating HStoreSite (if we haven't already)
@@ -504,26 +667,19 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         
         // Then make sure that our txnId is removed from all of the local partitions
         // that we queued it on.
-        boolean poke = false;
         for (int partition : callback.getPartitions()) {
             if (hstore_site.isLocalPartition(partition) == false) continue;
             // Try to remove it from our queue. If we can't then it might
             // be that we're the current transaction at this partition, so that
             // we need to make sure that we release the locks
-            boolean removed = false;
+            boolean unlocked = false;
             synchronized (this.lockQueues[partition]) {
-                removed = this.lockQueues[partition].remove(txn_id);
+                if (this.lockQueues[partition].remove(txn_id) == false) {
+                    unlocked = this.unlockPartition(partition, txn_id);
+                }
             } // SYNCH
-            
-            // We don't need to acquire a lock here because we know that
-            // nobody else can update us unless the lock flag is false
-            if (removed == false && this.lockQueuesBlocked[partition] && this.lockQueuesLastTxn[partition].equals(txn_id)) {
-                this.lockQueuesBlocked[partition] = false;
-                poke = true;
-            }
+            if (unlocked) this.pokeLockQueue(partition);
         } // FOR
-        if (poke && this.checkFlag.availablePermits() == 0)
-            this.checkFlag.release();
         this.cleanupTransaction(txn_id);
     }
 
@@ -559,14 +715,13 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         assert(this.hstore_site.isLocalPartition(partition) == false) :
             "Trying to mark the last seen txnId for local partition #" + partition;
         
-        // This lock is low-contention because we don't update the last txnId seen
-        // at partitions very often.
-        synchronized (this.lockQueuesLastTxn[partition]) {
-            if (this.lockQueuesLastTxn[partition].compareTo(txn_id) < 0) {
-                if (d) LOG.debug(String.format("Marking txn #%d as last txnId for remote partition %d", txn_id, partition));
-                this.lockQueuesLastTxn[partition] = txn_id;
-            }
-        } // SYNCH
+        // We only ever move the last txnId forward
+        long last_id;
+        do {
+            last_id = this.lockQueuesLastTxn.get(partition);
+            if (last_id >= txn_id.longValue()) return;
+        } while (this.lockQueuesLastTxn.compareAndSet(partition, last_id, txn_id.longValue()) == false);
+        if (d) LOG.debug(String.format("Marking txn #%d as last txnId for remote partition %d", txn_id, partition));
     }
     
     /**
@@ -628,8 +783,8 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
             // Check whether the last txnId issued by the TransactionIdManager at the transactions'
             // base partition is greater than the one that we can be released on 
             TransactionIdManager txnIdManager = hstore_site.getTransactionIdManager(ts.getBasePartition());
-            Long last_txn_id = txnIdManager.getLastTxnId();
-            if (releaseTxnId.compareTo(last_txn_id) < 0) {
+            long last_txn_id = txnIdManager.getLastTxnId();
+            if (releaseTxnId.longValue() < last_txn_id) {
                 if (d) LOG.debug(String.format("Releasing blocked %s because the lastest txnId was #%d [release=%d]",
                                                ts, last_txn_id, releaseTxnId));
                 this.blockedQueue.remove();
@@ -691,9 +846,11 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
      * @return
      */
     public Long getCurrentTransaction(int partition) {
-        if (this.lockQueuesBlocked[partition]) {
-            return (this.lockQueuesLastTxn[partition]);
-        }
+        synchronized (this.lockQueues[partition]) {
+            if (this.lockQueuesBlocked[partition]) {
+                return (this.lockQueuesLastTxn.get(partition));
+            }
+        } // SYNCH
         return (null);
     }
     
@@ -739,6 +896,9 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         public int getRestartQueueSize() {
             return (restartQueue.size());
         }
+        public int getLockQueueShardCount() {
+            return (lockQueueShards.length);
+        }
         public Histogram<Integer> getBlockedDtxnHistogram() {
             return (blockedQueueHistogram);
         }
@@ -759,15 +919,18 @@ public class TransactionQueueManager implements Runnable, Loggable, Shutdownable
         m[idx].put("Wait Time", this.wait_time + " ms");
         m[idx].put("# of Callbacks", this.lockQueuesCallbacks.size());
         m[idx].put("# of Blocked Txns", this.blockedQueue.size());
+        m[idx].put("# of Lock Queue Shards", this.lockQueueShards.length);
         
         // Local Partitions
         m[++idx] = new ListOrderedMap<String, Object>();
-        for (int p = 0; p < this.lockQueuesLastTxn.length; p++) {
+        for (int p = 0; p < this.lockQueuesLastTxn.length(); p++) {
             Map<String, Object> inner = new ListOrderedMap<String, Object>();
-            inner.put("Current Txn", this.lockQueuesLastTxn[p]);
+            inner.put("Current Txn", this.lockQueuesLastTxn.get(p));
             if (hstore_site.isLocalPartition(p)) {
-                inner.put("Locked?", this.lockQueuesBlocked[p]);
+                inner.put("Locked?", this.getCurrentTransaction(p) != null);
                 inner.put("Queue Size", this.lockQueues[p].size());
+                inner.put("Released", this.lockQueuesReleased.get(p));
+                inner.put("Rejected", this.lockQueuesRejected.get(p));
             }
             m[idx].put(String.format("Partition #%02d", p), inner);
         } // FOR
@@ -1,12 +1,11 @@
 package edu.brown.hstore.handlers;
 
-import java.nio.ByteBuffer;
 import java.util.Collection;
 
 import org.apache.log4j.Logger;
 import org.voltdb.VoltTable;
-import org.voltdb.messaging.FastDeserializer;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.RpcCallback;
 import com.google.protobuf.RpcController;
 
@@ -18,6 +17,7 @@ import edu.brown.hstore.Hstoreservice.SendDataRequest;
 import edu.brown.hstore.Hstoreservice.SendDataResponse;
 import edu.brown.hstore.dtxn.AbstractTransaction;
 import edu.brown.hstore.dtxn.LocalTransaction;
+import edu.brown.hstore.util.VoltTableTransport;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.protorpc.ProtoRpcController;
@@ -74,13 +74,13 @@ public class SendDataHandler extends AbstractTransactionHandler<SendDataRequest,
             int partition = request.getDepId(i);
             assert(hstore_site.getLocalPartitionIds().contains(partition));
             
-            ByteBuffer data = request.getData(i).asReadOnlyByteBuffer();
+            ByteString data = request.getData(i);
             assert(data != null);
                 
             // Deserialize the VoltTable object for the given byte array
             VoltTable vt = null;
             try {
-                vt = FastDeserializer.deserialize(data, VoltTable.class);
+                vt = VoltTableTransport.toVoltTable(data, hstore_site.getHStoreConf().site.exec_zerocopy_tables);
             } catch (Exception ex) {
                 LOG.warn("Unexpected error when deserializing VoltTable", ex);
             }
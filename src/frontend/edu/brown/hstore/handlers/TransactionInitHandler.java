@@ -21,6 +21,7 @@ import edu.brown.hstore.dtxn.LocalTransaction;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.protorpc.ProtoRpcController;
+import edu.brown.utils.PartitionSet;
 
 public class TransactionInitHandler extends AbstractTransactionHandler<TransactionInitRequest, TransactionInitResponse> {
     private static final Logger LOG = Logger.getLogger(TransactionInitHandler.class);
@@ -103,7 +104,7 @@ public class TransactionInitHandler extends AbstractTransactionHandler<Transacti
         }
         
         
-        hstore_site.transactionInit(txn_id, request.getPartitionsList(), wrapper);
+        hstore_site.transactionInit(txn_id, new PartitionSet(request.getPartitionsList()), wrapper);
         
         // We don't need to send back a response right here.
         // TransactionInitWrapperCallback will wait until it has results from all of the partitions 
@@ -27,11 +27,6 @@ public class TransactionPrepareHandler extends AbstractTransactionHandler<Transa
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
     
-    /**
-     * XXX: I think this is thread safe
-     */
-    private final Collection<Integer> updatedPartitions = new HashSet<Integer>();
-    
     public TransactionPrepareHandler(HStoreSite hstore_site, HStoreCoordinator hstore_coord) {
         super(hstore_site, hstore_coord);
     }
@@ -62,17 +57,18 @@ public class TransactionPrepareHandler extends AbstractTransactionHandler<Transa
         if (debug.get())
             LOG.debug(String.format("Got %s for txn #%d", request.getClass().getSimpleName(), txn_id));
         
-        // XXX: Check whether this thread safe. I think it is
-        this.updatedPartitions.clear();
-        hstore_site.transactionPrepare(txn_id, request.getPartitionsList(), this.updatedPartitions);
-        assert(this.updatedPartitions.isEmpty() == false) :
+        // This can be invoked by more than one of the HStoreCoordinator's event loops
+        // at the same time, so we can't share the set of updated partitions
+        Collection<Integer> updatedPartitions = new HashSet<Integer>();
+        hstore_site.transactionPrepare(txn_id, request.getPartitionsList(), updatedPartitions);
+        assert(updatedPartitions.isEmpty() == false) :
             "Unexpected empty list of updated partitions for txn #" + txn_id;
         
         if (debug.get()) LOG.debug(String.format("Finished PREPARE phase for txn #%d [updatedPartitions=%s]",
-                                                 txn_id, this.updatedPartitions));
+                                                 txn_id, updatedPartitions));
         TransactionPrepareResponse response = TransactionPrepareResponse.newBuilder()
                                                                .setTransactionId(txn_id)
-                                                               .addAllPartitions(this.updatedPartitions)
+                                                               .addAllPartitions(updatedPartitions)
                                                                .setStatus(Hstoreservice.Status.OK)
                                                                .build();
         callback.run(response);
@@ -21,6 +21,7 @@ import edu.brown.hstore.Hstoreservice.WorkFragment;
 import edu.brown.hstore.callbacks.TransactionWorkCallback;
 import edu.brown.hstore.dtxn.LocalTransaction;
 import edu.brown.hstore.dtxn.RemoteTransaction;
+import edu.brown.hstore.util.VoltTableTransport;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.protorpc.ProtoRpcController;
@@ -94,7 +95,7 @@ public class TransactionWorkHandler extends AbstractTransactionHandler<Transacti
         ts.attachParameterSets(parameterSets);
         
         // Deserialize attached VoltTable input dependencies
-        FastDeserializer fds = null;
+        boolean zeroCopy = hstore_site.getHStoreConf().site.exec_zerocopy_tables;
         VoltTable vt = null;
         for (int i = 0, cnt = request.getAttachedDataCount(); i < cnt; i++) {
             int input_dep_id = request.getAttachedDepId(i);
@@ -105,12 +106,9 @@ public class TransactionWorkHandler extends AbstractTransactionHandler<Transacti
                 throw new ServerFaultException(msg, txn_id);
             }
             
-            if (fds == null) fds = new FastDeserializer(data.asReadOnlyByteBuffer());
-            else fds.setBuffer(data.asReadOnlyByteBuffer());
-
             vt = null;
             try {
-                vt = fds.readObject(VoltTable.class);
+                vt = VoltTableTransport.toVoltTable(data, zeroCopy);
             } catch (Exception ex) {
                 String msg = String.format("Failed to deserialize VoltTable[%d] for txn #%d", input_dep_id, txn_id); 
                 throw new ServerFaultException(msg, ex, txn_id);
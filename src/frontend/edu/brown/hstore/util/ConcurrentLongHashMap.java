@@ -0,0 +1,268 @@
+package edu.brown.hstore.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent hash map with primitive long keys. The map is split into segments
+ * that each use open addressing with linear probing, so get(), put() and remove()
+ * never box the key or allocate an entry node. Writers lock their segment, but
+ * readers never take a lock.
+ * <B>NOTE:</B> Long.MIN_VALUE cannot be used as a key and null values are not allowed
+ * @param <V>
+ */
+public class ConcurrentLongHashMap<V> {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    /**
+     * An open addressing hash table for one segment. A slot is empty when its key
+     * is EMPTY. A slot with a key but a null value is a tombstone that was left
+     * behind by remove() so that we don't break the probe sequence of other keys.
+     * Once a Table has been replaced by a resize, it is never modified again.
+     */
+    private static final class Table<V> {
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<V> values;
+        private final int mask;
+
+        private Table(int capacity) {
+            assert(Integer.bitCount(capacity) == 1);
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<V>(capacity);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                this.keys.lazySet(i, EMPTY);
+            } // FOR
+        }
+        private int capacity() {
+            return (this.mask + 1);
+        }
+    }
+
+    private static final class Segment<V> {
+        private volatile Table<V> table;
+        /** The number of live entries */
+        private volatile int size = 0;
+        /** The number of slots that are not empty (live entries + tombstones) */
+        private int used = 0;
+
+        private Segment(int capacity) {
+            this.table = new Table<V>(capacity);
+        }
+
+        private V get(long key, int hash) {
+            while (true) {
+                Table<V> t = this.table;
+                int idx = hash & t.mask;
+                boolean retry = false;
+                for (int i = 0; i <= t.mask; i++) {
+                    long k = t.keys.get(idx);
+                    if (k == EMPTY) return (null);
+                    if (k == key) {
+                        V value = t.values.get(idx);
+                        // Make sure that somebody didn't reuse this slot for a
+                        // different key while we were reading the value
+                        if (t.keys.get(idx) == key) return (value);
+                        retry = true;
+                        break;
+                    }
+                    idx = (idx + 1) & t.mask;
+                } // FOR
+                if (retry == false) return (null);
+            } // WHILE
+        }
+
+        private synchronized V put(long key, int hash, V value) {
+            Table<V> t = this.table;
+            int idx = hash & t.mask;
+            int tombstone = -1;
+            for (int i = 0; i <= t.mask; i++) {
+                long k = t.keys.get(idx);
+                if (k == EMPTY) break;
+                if (k == key) {
+                    V prev = t.values.get(idx);
+                    t.values.set(idx, value);
+                    if (prev == null) this.size++;
+                    return (prev);
+                }
+                if (tombstone == -1 && t.values.get(idx) == null) tombstone = idx;
+                idx = (idx + 1) & t.mask;
+            } // FOR
+
+            if (tombstone != -1) {
+                // The key has to be written before the value so that a reader
+                // that is looking for the old key will notice the change
+                t.keys.set(tombstone, key);
+                t.values.set(tombstone, value);
+            } else {
+                t.keys.set(idx, key);
+                t.values.set(idx, value);
+                this.used++;
+            }
+            this.size++;
+            if (this.used * 2 > t.capacity()) this.rehash();
+            return (null);
+        }
+
+        private synchronized V remove(long key, int hash) {
+            Table<V> t = this.table;
+            int idx = hash & t.mask;
+            for (int i = 0; i <= t.mask; i++) {
+                long k = t.keys.get(idx);
+                if (k == EMPTY) return (null);
+                if (k == key) {
+                    V prev = t.values.get(idx);
+                    if (prev != null) {
+                        t.values.set(idx, null);
+                        this.size--;
+                    }
+                    return (prev);
+                }
+                idx = (idx + 1) & t.mask;
+            } // FOR
+            return (null);
+        }
+
+        /**
+         * Copy all of the live entries into a new table. The table only grows if
+         * it is more than a quarter full of live entries. Otherwise we just
+         * get rid of the tombstones.
+         */
+        private void rehash() {
+            Table<V> old = this.table;
+            int capacity = old.capacity();
+            if (this.size * 4 > capacity) capacity *= 2;
+            Table<V> t = new Table<V>(capacity);
+            for (int i = 0; i <= old.mask; i++) {
+                V value = old.values.get(i);
+                if (value == null) continue;
+                long key = old.keys.get(i);
+                int idx = hash(key) & t.mask;
+                while (t.keys.get(idx) != EMPTY) {
+                    idx = (idx + 1) & t.mask;
+                } // WHILE
+                t.keys.lazySet(idx, key);
+                t.values.lazySet(idx, value);
+            } // FOR
+            this.used = this.size;
+            this.table = t;
+        }
+    }
+
+    private final Segment<V> segments[];
+    private final int segmentShift;
+
+    public ConcurrentLongHashMap() {
+        this(DEFAULT_SEGMENTS, 1024);
+    }
+
+    /**
+     * Constructor
+     * @param num_segments the number of independently locked segments. This will be rounded up to a power of two
+     * @param initial_capacity the total number of entries that we expect to hold
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ConcurrentLongHashMap(int num_segments, int initial_capacity) {
+        int n = 1;
+        while (n < num_segments) n <<= 1;
+        int capacity = MIN_SEGMENT_CAPACITY;
+        while (capacity < (initial_capacity * 2) / n) capacity <<= 1;
+
+        this.segments = (Segment<V>[])new Segment[n];
+        for (int i = 0; i < n; i++) {
+            this.segments[i] = new Segment<V>(capacity);
+        } // FOR
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(n);
+    }
+
+    /**
+     * Mix up the bits of the key. Txn ids have most of their entropy in the middle
+     * bits, so we can't just use the lower ones.
+     */
+    private static int hash(long key) {
+        key ^= (key >>> 33);
+        key *= 0xff51afd7ed558ccdL;
+        key ^= (key >>> 33);
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= (key >>> 33);
+        return ((int)key);
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        // Use the upper bits for the segment and the lower bits for the slot
+        return (this.segmentShift == 32 ? this.segments[0] : this.segments[hash >>> this.segmentShift]);
+    }
+
+    public V get(long key) {
+        int hash = hash(key);
+        return (this.segmentFor(hash).get(key, hash));
+    }
+
+    /**
+     * Associate the value with the given key.
+     * Returns the previous value for the key or null if there wasn't one
+     * @param key
+     * @param value
+     * @return
+     */
+    public V put(long key, V value) {
+        assert(key != EMPTY) : "Invalid key " + key;
+        assert(value != null) : "Unexpected null value for key " + key;
+        int hash = hash(key);
+        return (this.segmentFor(hash).put(key, hash, value));
+    }
+
+    /**
+     * Remove the given key.
+     * Returns the value that was removed or null if the key was not in the map
+     * @param key
+     * @return
+     */
+    public V remove(long key) {
+        int hash = hash(key);
+        return (this.segmentFor(hash).remove(key, hash));
+    }
+
+    public boolean containsKey(long key) {
+        return (this.get(key) != null);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> s : this.segments) {
+            size += s.size;
+        } // FOR
+        return (size);
+    }
+
+    public boolean isEmpty() {
+        return (this.size() == 0);
+    }
+
+    /**
+     * Returns a snapshot of the values in the map. This is not cheap!
+     * @return
+     */
+    public Collection<V> values() {
+        Collection<V> values = new ArrayList<V>();
+        for (Segment<V> s : this.segments) {
+            Table<V> t = s.table;
+            for (int i = 0; i <= t.mask; i++) {
+                V value = t.values.get(i);
+                if (value != null) values.add(value);
+            } // FOR
+        } // FOR
+        return (values);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[size=%d, segments=%d]",
+                             this.getClass().getSimpleName(), this.size(), this.segments.length);
+    }
+}
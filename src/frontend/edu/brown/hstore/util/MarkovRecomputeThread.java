@@ -0,0 +1,101 @@
+package edu.brown.hstore.util;
+
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.interfaces.Shutdownable;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.markov.MarkovGraph;
+
+/**
+ * Background thread that recomputes the probabilities of MarkovGraphs so that
+ * the PartitionExecutors and TransactionEstimators never have to wait for it.
+ * A MarkovGraph is only queued once until it has been recomputed.
+ * See ${site.markov_async_recompute}
+ */
+public class MarkovRecomputeThread implements Runnable, Shutdownable {
+    private static final Logger LOG = Logger.getLogger(MarkovRecomputeThread.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    private final LinkedBlockingDeque<MarkovGraph> queue = new LinkedBlockingDeque<MarkovGraph>();
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private Thread self = null;
+    private boolean stop = false;
+
+    public MarkovRecomputeThread(HStoreSite hstore_site) {
+        this.hstore_site = hstore_site;
+        this.hstore_conf = hstore_site.getHStoreConf();
+    }
+
+    /**
+     * Queue the given MarkovGraph to have its probabilities recomputed.
+     * Returns false if the graph is already waiting to be recomputed.
+     * @param markov
+     * @return
+     */
+    public boolean queue(MarkovGraph markov) {
+        if (markov.markRecomputePending() == false) return (false);
+        this.queue.offer(markov);
+        return (true);
+    }
+
+    @Override
+    public void run() {
+        this.self = Thread.currentThread();
+        this.self.setName(HStoreThreadManager.getThreadName(hstore_site, "markov"));
+        if (hstore_conf.site.cpu_affinity) {
+            hstore_site.getThreadManager().registerProcessingThread();
+        }
+        if (debug.get())
+            LOG.debug("Starting MarkovGraph recompute thread");
+
+        MarkovGraph markov = null;
+        while (this.self.isInterrupted() == false) {
+            try {
+                markov = this.queue.take();
+            } catch (InterruptedException ex) {
+                // Ignore!
+                break;
+            }
+            assert(markov != null);
+            if (debug.get())
+                LOG.debug(String.format("Recomputing MarkovGraph for %s [recomputed=%d, hashCode=%d]",
+                                        markov.getProcedure().getName(), markov.getRecomputeCount(), markov.hashCode()));
+            markov.calculateProbabilities();
+            if (debug.get() && markov.isValid() == false) {
+                LOG.error("Invalid MarkovGraph after recomputing! Crashing...");
+                Exception error = new Exception(String.format("Invalid %s MarkovGraph for after recomputing", markov.getProcedure().getName()));
+                this.hstore_site.getHStoreCoordinator().shutdownCluster(error);
+            }
+        } // WHILE
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return (this.stop);
+    }
+
+    @Override
+    public void prepareShutdown(boolean error) {
+        this.queue.clear();
+    }
+
+    @Override
+    public void shutdown() {
+        if (debug.get())
+            LOG.debug("MarkovGraph recompute thread should be shutdown now ...");
+        this.stop = true;
+        if (this.self != null)
+            this.self.interrupt();
+    }
+}
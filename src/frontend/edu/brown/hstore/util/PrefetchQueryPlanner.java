@@ -121,11 +121,10 @@ public class PrefetchQueryPlanner implements Loggable {
         BatchPlanner planner = this.planners.get(catalog_proc);
         assert (planner != null) : "Missing BatchPlanner for " + catalog_proc;
         ParameterSet prefetchParams[] = new ParameterSet[planner.getBatchSize()];
-        ByteString prefetchParamsSerialized[] = new ByteString[prefetchParams.length];
+        ByteString prefetchParamsSerialized[] = null;
 
-        // Makes a list of ByteStrings containing the ParameterSets that we need
-        // to send over to the remote sites so that they can execute our
-        // prefetchable queries
+        // Makes the ParameterSets that we need to execute our prefetchable queries.
+        // We will only serialize them if we need to send them to a remote site
         for (int i = 0; i < prefetchParams.length; i++) {
             Statement catalog_stmt = planner.getStatement(i);
             if (debug.get()) LOG.debug(String.format("%s - Building ParameterSet for prefetchable query %s",
@@ -145,15 +144,6 @@ public class PrefetchQueryPlanner implements Loggable {
 
             if (debug.get()) LOG.debug(String.format("%s - [%02d] Prefetch %s -> %s",
                                                      ts, i, catalog_stmt.getName(), prefetchParams[i]));
-
-            // Serialize this ParameterSet for the TransactionInitRequests
-            try {
-                if (i > 0) this.fs.clear();
-                prefetchParams[i].writeExternal(this.fs);
-                prefetchParamsSerialized[i] = ByteString.copyFrom(this.fs.getBBContainer().b);
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to serialize ParameterSet " + i + " for " + ts, ex);
-            }
         } // FOR (Statement)
 
         // Generate the WorkFragments that we will need to send in our
@@ -175,6 +165,9 @@ public class PrefetchQueryPlanner implements Loggable {
         // we will try to execute it before we actually need it whenever the
         // PartitionExecutor is idle That means, we don't want to serialize all this
         // if it's only going to the base partition.
+        // The partitions at our own site get the ParameterSets directly from the LocalTransaction
+        // handle, so the TransactionInitRequest for it only needs the WorkFragments.
+        int base_site = this.partitionSiteXref[ts.getBasePartition()];
         TransactionInitRequest.Builder[] builders = new TransactionInitRequest.Builder[this.num_sites];
         for (WorkFragment frag : fragments) {
             int site_id = this.partitionSiteXref[frag.getPartitionId()];
@@ -184,12 +177,18 @@ public class PrefetchQueryPlanner implements Loggable {
                                             .setProcedureId(ts.getProcedure().getId())
                                             .setBasePartition(ts.getBasePartition())
                                             .addAllPartitions(ts.getPredictTouchedPartitions());
-                for (ByteString bs : prefetchParamsSerialized) {
-                    builders[site_id].addPrefetchParams(bs);
-                } // FOR
+                if (site_id != base_site) {
+                    if (prefetchParamsSerialized == null) {
+                        prefetchParamsSerialized = this.serializeParameterSets(ts, prefetchParams);
+                    }
+                    for (ByteString bs : prefetchParamsSerialized) {
+                        builders[site_id].addPrefetchParams(bs);
+                    } // FOR
+                }
             }
             builders[site_id].addPrefetchFragments(frag);
         } // FOR (WorkFragment)
+        if (ts.hasPrefetchQueries()) ts.attachPrefetchParameters(prefetchParams);
 
         Collection<Integer> touched_partitions = ts.getPredictTouchedPartitions();
         this.touched_sites.clear();
@@ -231,6 +230,27 @@ public class PrefetchQueryPlanner implements Loggable {
         return (init_requests);
     }
 
+    /**
+     * Serialize the prefetch ParameterSets so that they can be included in
+     * the TransactionInitRequests for remote sites
+     * @param ts
+     * @param prefetchParams
+     * @return
+     */
+    private ByteString[] serializeParameterSets(LocalTransaction ts, ParameterSet prefetchParams[]) {
+        ByteString serialized[] = new ByteString[prefetchParams.length];
+        for (int i = 0; i < prefetchParams.length; i++) {
+            try {
+                this.fs.clear();
+                prefetchParams[i].writeExternal(this.fs);
+                serialized[i] = ByteString.copyFrom(this.fs.getBBContainer().b);
+            } catch (Exception ex) {
+                throw new RuntimeException("Failed to serialize ParameterSet " + i + " for " + ts, ex);
+            }
+        } // FOR
+        return (serialized);
+    }
+
     @Override
     public void updateLogging() {
         // TODO Auto-generated method stub
@@ -1,20 +1,35 @@
 package edu.brown.hstore.util;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.pool.BasePoolableObjectFactory;
 import org.apache.commons.pool.ObjectPool;
 import org.apache.commons.pool.impl.StackObjectPool;
 import org.apache.log4j.Logger;
 import org.voltdb.ParameterSet;
+import org.voltdb.PrivateVoltTableFactory;
 import org.voltdb.VoltTable;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
 import org.voltdb.utils.EstTime;
 
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.catalog.PlanFragmentIdGenerator;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.utils.StringUtil;
@@ -114,7 +129,85 @@ public class QueryCache {
             return (this.buffer[idx.intValue()]);
         }
     } // CLASS
-    
+
+    // ----------------------------------------------------------------------------
+    // GLOBAL CACHE MEMBERS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Rough number of bytes that each GlobalCacheEntry uses on top of its result
+     */
+    private static final int GLOBAL_ENTRY_OVERHEAD = 128;
+    private static final int GLOBAL_PARAM_OVERHEAD = 24;
+
+    /**
+     * Returns the number of bytes that the global cache charges against its
+     * capacity for a result of the given size that was keyed on numParams parameters
+     * @param resultSize
+     * @param numParams
+     * @return
+     */
+    static long getGlobalEntrySize(int resultSize, int numParams) {
+        return (resultSize + GLOBAL_ENTRY_OVERHEAD + (numParams * GLOBAL_PARAM_OVERHEAD));
+    }
+
+    /**
+     * What we know about a PlanFragment from the catalog
+     */
+    private static class FragmentInfo {
+        final boolean readonly;
+        final boolean cacheable;
+        final int tableIds[];
+
+        FragmentInfo(boolean readonly, int tableIds[]) {
+            this.readonly = readonly;
+            this.cacheable = (readonly && tableIds != null);
+            this.tableIds = tableIds;
+        }
+    } // CLASS
+
+    /**
+     * Lookup key for the global cache. The parameters are compared by value.
+     */
+    private static class GlobalCacheKey {
+        long fragmentId;
+        Object params[];
+        int hash;
+
+        void set(long fragmentId, Object params[]) {
+            this.fragmentId = fragmentId;
+            this.params = params;
+            this.hash = (int)(fragmentId ^ (fragmentId >>> 32)) * 31 + Arrays.deepHashCode(params);
+        }
+        @Override
+        public int hashCode() {
+            return (this.hash);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return (true);
+            if ((obj instanceof GlobalCacheKey) == false) return (false);
+            GlobalCacheKey other = (GlobalCacheKey)obj;
+            return (this.hash == other.hash &&
+                    this.fragmentId == other.fragmentId &&
+                    Arrays.deepEquals(this.params, other.params));
+        }
+    } // CLASS
+
+    private static class GlobalCacheEntry extends QueryCachePolicy.Entry {
+        final GlobalCacheKey key;
+        final int tableIds[];
+        final ByteBuffer buffer;
+
+        GlobalCacheEntry(GlobalCacheKey key, int tableIds[], ByteBuffer buffer) {
+            this.key = key;
+            this.tableIds = tableIds;
+            this.buffer = buffer;
+            this.keyHash = key.hash;
+            this.size = getGlobalEntrySize(buffer.capacity(), key.params.length);
+        }
+    } // CLASS
+
     /**
      * List<Integer> pool used by txnCache
      */
@@ -135,28 +228,365 @@ public class QueryCache {
     // INITIALIZATION
     // ----------------------------------------------------------------------------
 
-    private final Cache globalCache;
     private final Cache txnCache;
     private final IdentityHashMap<Long, List<Integer>> txnCacheXref = new IdentityHashMap<Long, List<Integer>>();
-    
+
+    /**
+     * The global cache is only used by the PartitionExecutor's thread, so
+     * none of these are synchronized. The counters can be read by anybody.
+     */
+    private final QueryCachePolicy globalPolicy;
+    private final ConcurrentLongHashMap<FragmentInfo> globalFragments;
+    private final Map<GlobalCacheKey, GlobalCacheEntry> globalCache;
+    private final GlobalCacheKey globalLookupKey = new GlobalCacheKey();
+    private final List<QueryCachePolicy.Entry> globalEvicted = new ArrayList<QueryCachePolicy.Entry>();
+
+    /**
+     * TableId -> Cached results that read from that table
+     */
+    private final Map<Integer, Set<GlobalCacheEntry>> globalTableXref = new HashMap<Integer, Set<GlobalCacheEntry>>();
+
+    /**
+     * TxnId -> TableIds that the txn has modified but not committed yet
+     */
+    private final Map<Long, BitSet> globalPendingWrites = new HashMap<Long, BitSet>();
+
+    private long globalHits = 0;
+    private long globalMisses = 0;
+    private long globalEvictions = 0;
+    private long globalInvalidations = 0;
+
     /**
      * Constructor
+     * The global cache is disabled
      */
-    public QueryCache(int globalBufferSize, int txnBufferSize) {
-        this.globalCache = new Cache(globalBufferSize);
+    public QueryCache(int txnBufferSize) {
+        this(null, 0, null, txnBufferSize);
+    }
+
+    /**
+     * Constructor
+     * @param catalog_db
+     * @param globalCacheSize The maximum number of bytes of results to keep in the global cache (0 = disabled)
+     * @param globalPolicy The eviction policy for the global cache
+     * @param txnBufferSize
+     */
+    public QueryCache(Database catalog_db, long globalCacheSize, QueryCachePolicy.Type globalPolicy, int txnBufferSize) {
         this.txnCache = new Cache(txnBufferSize);
+
+        if (catalog_db != null && globalCacheSize > 0) {
+            assert(globalPolicy != null);
+            this.globalPolicy = QueryCachePolicy.create(globalPolicy, globalCacheSize);
+            this.globalFragments = new ConcurrentLongHashMap<FragmentInfo>();
+            this.globalCache = new HashMap<GlobalCacheKey, GlobalCacheEntry>();
+            this.initFragments(catalog_db);
+        } else {
+            this.globalPolicy = null;
+            this.globalFragments = null;
+            this.globalCache = null;
+        }
     }
-    
-    
+
+    /**
+     * Figure out which tables each PlanFragment touches. A PlanFragment's results can be
+     * cached if it is read-only and we know what tables it reads from. We use all of
+     * the tables in the fragment's Statement so that we're always conservative.
+     * @param catalog_db
+     */
+    private void initFragments(Database catalog_db) {
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                Collection<Table> tables = null;
+                try {
+                    tables = CatalogUtil.getAllTables(catalog_stmt);
+                } catch (Throwable ex) {
+                    LOG.warn("Failed to get the tables referenced by " + catalog_stmt.fullName(), ex);
+                }
+                int tableIds[] = null;
+                if (tables != null && tables.isEmpty() == false) {
+                    tableIds = new int[tables.size()];
+                    int i = 0;
+                    for (Table catalog_tbl : tables) {
+                        tableIds[i++] = catalog_tbl.getRelativeIndex();
+                    } // FOR
+                }
+
+                List<PlanFragment> fragments = new ArrayList<PlanFragment>();
+                fragments.addAll(catalog_stmt.getFragments());
+                fragments.addAll(catalog_stmt.getMs_fragments());
+                for (PlanFragment catalog_frag : fragments) {
+                    boolean readonly = (catalog_frag.getReadonly() && catalog_stmt.getReadonly());
+                    this.globalFragments.put(catalog_frag.getId(), new FragmentInfo(readonly, tableIds));
+                } // FOR
+            } // FOR
+        } // FOR
+        if (debug.get()) LOG.debug(String.format("Initialized global cache with %d PlanFragments [policy=%s, capacity=%d]",
+                                                 this.globalFragments.size(),
+                                                 this.globalPolicy.getClass().getSimpleName(),
+                                                 this.globalPolicy.getCapacity()));
+    }
+
+
     // ----------------------------------------------------------------------------
-    // API
+    // GLOBAL CACHE API
     // ----------------------------------------------------------------------------
 
-    
-    public void addGlobalQueryResult(int fragmentId, ParameterSet params, VoltTable result) {
-        
+    public boolean isGlobalCacheEnabled() {
+        return (this.globalCache != null);
     }
-    
+
+    /**
+     * Returns true if the results of all of the given PlanFragments can be
+     * stored in the global cache
+     * @param fragmentIds
+     * @param cnt
+     * @return
+     */
+    public boolean areFragmentsCacheable(long fragmentIds[], int cnt) {
+        if (this.globalCache == null) return (false);
+        for (int i = 0; i < cnt; i++) {
+            FragmentInfo info = this.globalFragments.get(fragmentIds[i]);
+            if (info == null || info.cacheable == false) return (false);
+        } // FOR
+        return (true);
+    }
+
+    /**
+     * Returns the cached result for the PlanFragment with the given parameters.
+     * The VoltTable is a new read-only view on the cached data, so the caller can
+     * do whatever it wants with its position.
+     * Returns null if there is nothing in the cache.
+     * @param fragmentId
+     * @param params
+     * @return
+     */
+    public VoltTable getGlobalCachedResult(long fragmentId, ParameterSet params) {
+        this.globalLookupKey.set(fragmentId, params.toArray());
+        GlobalCacheEntry entry = this.globalCache.get(this.globalLookupKey);
+        this.globalLookupKey.params = null;
+        if (entry == null) {
+            this.globalMisses++;
+            return (null);
+        }
+        this.globalHits++;
+        this.globalPolicy.recordAccess(entry);
+        return (PrivateVoltTableFactory.createVoltTableFromBuffer(entry.buffer.duplicate(), true));
+    }
+
+    /**
+     * Store the result of a read-only PlanFragment in the global cache so that
+     * other transactions can use it. The result is copied.
+     * @param fragmentId
+     * @param params
+     * @param result
+     */
+    public void addGlobalQueryResult(long fragmentId, ParameterSet params, VoltTable result) {
+        FragmentInfo info = this.globalFragments.get(fragmentId);
+        if (info == null || info.cacheable == false) return;
+
+        Object values[] = copyParameters(params.toArray());
+        if (values == null) return;
+        GlobalCacheKey key = new GlobalCacheKey();
+        key.set(fragmentId, values);
+        if (this.globalCache.containsKey(key)) return;
+
+        ByteBuffer src = result.getTableDataReference();
+        src.limit(result.getUnderlyingBufferSize());
+        ByteBuffer buffer = ByteBuffer.allocate(src.remaining());
+        buffer.put(src);
+        buffer.flip();
+
+        GlobalCacheEntry entry = new GlobalCacheEntry(key, info.tableIds, buffer);
+        this.globalCache.put(key, entry);
+        for (int tableId : entry.tableIds) {
+            Set<GlobalCacheEntry> entries = this.globalTableXref.get(tableId);
+            if (entries == null) {
+                entries = new HashSet<GlobalCacheEntry>();
+                this.globalTableXref.put(tableId, entries);
+            }
+            entries.add(entry);
+        } // FOR
+
+        this.globalPolicy.add(entry, this.globalEvicted);
+        for (int i = 0, cnt = this.globalEvicted.size(); i < cnt; i++) {
+            this.removeGlobalEntry((GlobalCacheEntry)this.globalEvicted.get(i));
+            if (this.globalEvicted.get(i) != entry) this.globalEvictions++;
+        } // FOR
+        this.globalEvicted.clear();
+        if (trace.get()) LOG.trace(String.format("Stored result for FragmentId %d - %s [size=%d]",
+                                                 fragmentId, params, entry.getSize()));
+    }
+
+    /**
+     * Invalidate all of the cached results that read from tables that are
+     * modified by the given PlanFragments. Any PlanFragment that could modify
+     * something that we don't know about (e.g., from a sysproc) clears out
+     * the entire cache.
+     * @param txnId
+     * @param fragmentIds
+     * @param cnt
+     */
+    public void invalidateFragments(Long txnId, long fragmentIds[], int cnt) {
+        if (this.globalCache == null) return;
+        for (int i = 0; i < cnt; i++) {
+            FragmentInfo info = this.globalFragments.get(fragmentIds[i]);
+            if (info == null) {
+                if (PlanFragmentIdGenerator.isPlanFragmentReadOnly(fragmentIds[i])) continue;
+            } else if (info.readonly) {
+                continue;
+            }
+            if (info == null || info.tableIds == null) {
+                this.recordWrite(txnId, null);
+                this.invalidateAll();
+                return;
+            }
+            for (int tableId : info.tableIds) {
+                this.invalidateTable(txnId, tableId);
+            } // FOR
+        } // FOR
+    }
+
+    /**
+     * Invalidate all of the cached results that read from the given table
+     * @param txnId The txn that is modifying the table
+     * @param tableId The table's relative index in the catalog
+     */
+    public void invalidateTable(Long txnId, int tableId) {
+        if (this.globalCache == null) return;
+        this.recordWrite(txnId, tableId);
+        Set<GlobalCacheEntry> entries = this.globalTableXref.get(tableId);
+        if (entries == null || entries.isEmpty()) return;
+
+        if (debug.get()) LOG.debug(String.format("#%d - Invalidating %d cached results for TableId %d",
+                                                 txnId, entries.size(), tableId));
+        for (GlobalCacheEntry entry : entries.toArray(new GlobalCacheEntry[entries.size()])) {
+            this.globalPolicy.remove(entry);
+            this.removeGlobalEntry(entry);
+            this.globalInvalidations++;
+        } // FOR
+    }
+
+    /**
+     * The given txn is finished at this partition. If it aborted, then anything that
+     * we cached since it modified a table could have been computed from data that was
+     * just rolled back. Since an abort rolls back everything that came after it,
+     * we invalidate the tables of every txn that hasn't committed yet.
+     * @param txnId
+     * @param commit
+     */
+    public void finishTransaction(Long txnId, boolean commit) {
+        if (this.globalCache == null || this.globalPendingWrites.isEmpty()) return;
+        BitSet tables = this.globalPendingWrites.remove(txnId);
+        if (tables == null || commit) return;
+
+        BitSet all = new BitSet();
+        all.or(tables);
+        for (BitSet other : this.globalPendingWrites.values()) {
+            all.or(other);
+        } // FOR
+        if (all.get(0)) {
+            this.invalidateAll();
+            return;
+        }
+        for (int tableId = all.nextSetBit(1); tableId >= 0; tableId = all.nextSetBit(tableId + 1)) {
+            Set<GlobalCacheEntry> entries = this.globalTableXref.get(tableId);
+            if (entries == null) continue;
+            for (GlobalCacheEntry entry : entries.toArray(new GlobalCacheEntry[entries.size()])) {
+                this.globalPolicy.remove(entry);
+                this.removeGlobalEntry(entry);
+                this.globalInvalidations++;
+            } // FOR
+        } // FOR
+    }
+
+    /**
+     * Remember that the txn modified the table. Relative indexes start at one, so
+     * we use bit zero to mean that the txn could have modified anything.
+     */
+    private void recordWrite(Long txnId, Integer tableId) {
+        if (txnId == null) return;
+        BitSet tables = this.globalPendingWrites.get(txnId);
+        if (tables == null) {
+            tables = new BitSet();
+            this.globalPendingWrites.put(txnId, tables);
+        }
+        tables.set(tableId != null ? tableId.intValue() : 0);
+    }
+
+    private void invalidateAll() {
+        if (debug.get()) LOG.debug(String.format("Invalidating all %d cached results", this.globalCache.size()));
+        this.globalInvalidations += this.globalCache.size();
+        this.globalCache.clear();
+        this.globalTableXref.clear();
+        this.globalPolicy.clear();
+    }
+
+    private void removeGlobalEntry(GlobalCacheEntry entry) {
+        this.globalCache.remove(entry.key);
+        for (int tableId : entry.tableIds) {
+            Set<GlobalCacheEntry> entries = this.globalTableXref.get(tableId);
+            if (entries != null) entries.remove(entry);
+        } // FOR
+    }
+
+    /**
+     * Make a copy of the parameters that we can use as a key in the global cache.
+     * Returns null if one of the parameters is something that we can't compare by value.
+     * @param params
+     * @return
+     */
+    private static Object[] copyParameters(Object params[]) {
+        Object copy[] = new Object[params.length];
+        for (int i = 0; i < params.length; i++) {
+            Object obj = params[i];
+            if (obj == null || obj instanceof Number || obj instanceof String) {
+                // Immutable
+            } else if (obj instanceof Object[]) {
+                obj = copyParameters((Object[])obj);
+                if (obj == null) return (null);
+            } else if (obj instanceof byte[]) {
+                obj = ((byte[])obj).clone();
+            } else if (obj instanceof short[]) {
+                obj = ((short[])obj).clone();
+            } else if (obj instanceof int[]) {
+                obj = ((int[])obj).clone();
+            } else if (obj instanceof long[]) {
+                obj = ((long[])obj).clone();
+            } else if (obj instanceof double[]) {
+                obj = ((double[])obj).clone();
+            } else if (obj instanceof java.util.Date) {
+                obj = ((java.util.Date)obj).clone();
+            } else {
+                return (null);
+            }
+            copy[i] = obj;
+        } // FOR
+        return (copy);
+    }
+
+    public long getGlobalHits() {
+        return (this.globalHits);
+    }
+    public long getGlobalMisses() {
+        return (this.globalMisses);
+    }
+    public long getGlobalEvictions() {
+        return (this.globalEvictions);
+    }
+    public long getGlobalInvalidations() {
+        return (this.globalInvalidations);
+    }
+    /**
+     * Returns the estimated number of bytes used by the global cache
+     */
+    public long getGlobalSize() {
+        return (this.globalPolicy != null ? this.globalPolicy.getSize() : 0);
+    }
+
+    // ----------------------------------------------------------------------------
+    // TRANSACTION CACHE API
+    // ----------------------------------------------------------------------------
+
     /**
      * Store a new cache entry for a query that is specific to a transaction
      * This cached result is not be available to other transactions
@@ -263,7 +693,19 @@ public class QueryCache {
         
         // Global Cache
         m[idx] = new LinkedHashMap<String, Object>();
-        m[idx].put("Global Cache", null);
+        if (this.globalCache != null) {
+            m[idx].put("Global Cache", String.format("%d entries / %d bytes [capacity=%d, policy=%s]",
+                                                     this.globalCache.size(),
+                                                     this.globalPolicy.getSize(),
+                                                     this.globalPolicy.getCapacity(),
+                                                     this.globalPolicy.getClass().getSimpleName()));
+            m[idx].put("Hits", this.globalHits);
+            m[idx].put("Misses", this.globalMisses);
+            m[idx].put("Evictions", this.globalEvictions);
+            m[idx].put("Invalidations", this.globalInvalidations);
+        } else {
+            m[idx].put("Global Cache", "<DISABLED>");
+        }
         
         // TxnCache
         m[++idx] = new LinkedHashMap<String, Object>();
@@ -0,0 +1,430 @@
+package edu.brown.hstore.util;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Eviction policy for QueryCache's global result cache. The policy keeps track of
+ * the order of the entries in the cache and decides which ones to throw out when
+ * the total size of the cached results goes over the budget. All of the sizes are
+ * in bytes. The QueryCache owns the lookup table, so a policy only ever sees Entry
+ * handles. None of these are thread-safe.
+ */
+public abstract class QueryCachePolicy {
+
+    public enum Type {
+        /** Evict the least recently used entry */
+        LRU,
+        /** Evict the least frequently used entry */
+        LFU,
+        /** Window LRU in front of a segmented LRU with TinyLFU admission */
+        WTINYLFU;
+
+        public static Type get(String name) {
+            for (Type t : Type.values()) {
+                if (t.name().equalsIgnoreCase(name)) return (t);
+            } // FOR
+            return (null);
+        }
+    }
+
+    /**
+     * A single cached item. The links and counters are owned by the policy.
+     */
+    public static class Entry {
+        private Entry prev;
+        private Entry next;
+        private int segment = -1;
+        private int frequency;
+        private long tick;
+        protected int keyHash;
+        protected long size;
+
+        public long getSize() {
+            return (this.size);
+        }
+        public int getFrequency() {
+            return (this.frequency);
+        }
+    }
+
+    public static QueryCachePolicy create(Type type, long capacity) {
+        switch (type) {
+            case LRU:
+                return new LRU(capacity);
+            case LFU:
+                return new LFU(capacity);
+            case WTINYLFU:
+                return new WTinyLFU(capacity);
+            default:
+                throw new IllegalArgumentException("Unexpected QueryCachePolicy type " + type);
+        } // SWITCH
+    }
+
+    protected final long capacity;
+    protected long size = 0;
+
+    protected QueryCachePolicy(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * The entry was found in the cache
+     * @param entry
+     */
+    public abstract void recordAccess(Entry entry);
+
+    /**
+     * Add a new entry to the cache. Any entries that had to be thrown out to
+     * make room for it are added to the evicted collection. This may include the
+     * new entry itself if the policy decided that it was not worth keeping.
+     * @param entry
+     * @param evicted
+     */
+    public abstract void add(Entry entry, Collection<Entry> evicted);
+
+    /**
+     * Remove an entry that was invalidated
+     * @param entry
+     */
+    public abstract void remove(Entry entry);
+
+    /**
+     * Remove all entries
+     */
+    public abstract void clear();
+
+    public long getCapacity() {
+        return (this.capacity);
+    }
+    public long getSize() {
+        return (this.size);
+    }
+
+    // ----------------------------------------------------------------------------
+    // LINKED LIST
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Doubly-linked list of entries with the most recently used at the head
+     */
+    protected static class EntryList {
+        private final int id;
+        private final Entry head = new Entry();
+        private long size = 0;
+
+        EntryList(int id) {
+            this.id = id;
+            this.head.prev = this.head;
+            this.head.next = this.head;
+        }
+        void addFirst(Entry e) {
+            assert(e.segment == -1);
+            e.segment = this.id;
+            e.next = this.head.next;
+            e.prev = this.head;
+            this.head.next.prev = e;
+            this.head.next = e;
+            this.size += e.size;
+        }
+        void remove(Entry e) {
+            assert(e.segment == this.id);
+            e.prev.next = e.next;
+            e.next.prev = e.prev;
+            e.prev = null;
+            e.next = null;
+            e.segment = -1;
+            this.size -= e.size;
+        }
+        void moveToFirst(Entry e) {
+            this.remove(e);
+            this.addFirst(e);
+        }
+        Entry last() {
+            return (this.head.prev == this.head ? null : this.head.prev);
+        }
+        boolean contains(Entry e) {
+            return (e.segment == this.id);
+        }
+        void clear() {
+            Entry e = this.head.next;
+            while (e != this.head) {
+                Entry next = e.next;
+                e.prev = null;
+                e.next = null;
+                e.segment = -1;
+                e = next;
+            } // WHILE
+            this.head.prev = this.head;
+            this.head.next = this.head;
+            this.size = 0;
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // LRU
+    // ----------------------------------------------------------------------------
+
+    public static class LRU extends QueryCachePolicy {
+        private final EntryList list = new EntryList(0);
+
+        public LRU(long capacity) {
+            super(capacity);
+        }
+        @Override
+        public void recordAccess(Entry entry) {
+            this.list.moveToFirst(entry);
+        }
+        @Override
+        public void add(Entry entry, Collection<Entry> evicted) {
+            if (entry.size > this.capacity) {
+                evicted.add(entry);
+                return;
+            }
+            this.list.addFirst(entry);
+            while (this.list.size > this.capacity) {
+                Entry victim = this.list.last();
+                this.list.remove(victim);
+                evicted.add(victim);
+            } // WHILE
+            this.size = this.list.size;
+        }
+        @Override
+        public void remove(Entry entry) {
+            if (this.list.contains(entry)) this.list.remove(entry);
+            this.size = this.list.size;
+        }
+        @Override
+        public void clear() {
+            this.list.clear();
+            this.size = 0;
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // LFU
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Entries are kept sorted by their access count. Ties are broken by
+     * evicting whichever one was used least recently.
+     */
+    public static class LFU extends QueryCachePolicy {
+        private final TreeSet<Entry> entries = new TreeSet<Entry>(new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e0, Entry e1) {
+                if (e0.frequency != e1.frequency) return (e0.frequency < e1.frequency ? -1 : 1);
+                if (e0.tick != e1.tick) return (e0.tick < e1.tick ? -1 : 1);
+                return (0);
+            }
+        });
+        private long tick = 0;
+
+        public LFU(long capacity) {
+            super(capacity);
+        }
+        @Override
+        public void recordAccess(Entry entry) {
+            this.entries.remove(entry);
+            entry.frequency++;
+            entry.tick = this.tick++;
+            this.entries.add(entry);
+        }
+        @Override
+        public void add(Entry entry, Collection<Entry> evicted) {
+            if (entry.size > this.capacity) {
+                evicted.add(entry);
+                return;
+            }
+            // Make room before we add the new entry so that it does not
+            // get thrown out right away just because its count is low
+            while (this.size + entry.size > this.capacity) {
+                Entry victim = this.entries.pollFirst();
+                this.size -= victim.size;
+                evicted.add(victim);
+            } // WHILE
+            entry.frequency = 1;
+            entry.tick = this.tick++;
+            this.entries.add(entry);
+            this.size += entry.size;
+        }
+        @Override
+        public void remove(Entry entry) {
+            if (this.entries.remove(entry)) this.size -= entry.size;
+        }
+        @Override
+        public void clear() {
+            this.entries.clear();
+            this.size = 0;
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // W-TinyLFU
+    // ----------------------------------------------------------------------------
+
+    /**
+     * New entries go into a small LRU window. When an entry falls out of the
+     * window, it has to beat the main cache's next victim in the frequency sketch
+     * in order to be admitted. The main cache is a segmented LRU, where entries
+     * get promoted from the probation segment to the protected segment when they
+     * are hit a second time.
+     */
+    public static class WTinyLFU extends QueryCachePolicy {
+        private static final int WINDOW = 0;
+        private static final int PROBATION = 1;
+        private static final int PROTECTED = 2;
+
+        private final EntryList window = new EntryList(WINDOW);
+        private final EntryList probation = new EntryList(PROBATION);
+        private final EntryList protect = new EntryList(PROTECTED);
+        private final FrequencySketch sketch;
+        private final long windowCapacity;
+        private final long mainCapacity;
+        private final long protectedCapacity;
+
+        public WTinyLFU(long capacity) {
+            super(capacity);
+            this.windowCapacity = Math.max(1, capacity / 100);
+            this.mainCapacity = capacity - this.windowCapacity;
+            this.protectedCapacity = (long)(this.mainCapacity * 0.8);
+            // We don't know how many entries we will have, so we size the sketch
+            // for the smallest entry that we could get. The counters are only a
+            // byte each, so this is about 3% of the cache's capacity.
+            this.sketch = new FrequencySketch((int)Math.min(1 << 22, Math.max(64, capacity / 128)));
+        }
+        @Override
+        public void recordAccess(Entry entry) {
+            this.sketch.increment(entry.keyHash);
+            if (this.window.contains(entry)) {
+                this.window.moveToFirst(entry);
+            } else if (this.probation.contains(entry)) {
+                this.probation.remove(entry);
+                this.protect.addFirst(entry);
+                while (this.protect.size > this.protectedCapacity) {
+                    Entry demoted = this.protect.last();
+                    this.protect.remove(demoted);
+                    this.probation.addFirst(demoted);
+                } // WHILE
+            } else {
+                this.protect.moveToFirst(entry);
+            }
+        }
+        @Override
+        public void add(Entry entry, Collection<Entry> evicted) {
+            this.sketch.increment(entry.keyHash);
+            if (entry.size > this.mainCapacity) {
+                evicted.add(entry);
+                return;
+            }
+            this.window.addFirst(entry);
+            while (this.window.size > this.windowCapacity) {
+                Entry candidate = this.window.last();
+                this.window.remove(candidate);
+                this.admit(candidate, evicted);
+            } // WHILE
+            this.size = this.window.size + this.probation.size + this.protect.size;
+        }
+        /**
+         * Try to move an entry that fell out of the window into the main cache
+         */
+        private void admit(Entry candidate, Collection<Entry> evicted) {
+            int candidateFreq = this.sketch.frequency(candidate.keyHash);
+            while (this.probation.size + this.protect.size + candidate.size > this.mainCapacity) {
+                Entry victim = this.probation.last();
+                EntryList victimList = this.probation;
+                if (victim == null) {
+                    victim = this.protect.last();
+                    victimList = this.protect;
+                }
+                if (candidateFreq <= this.sketch.frequency(victim.keyHash)) {
+                    evicted.add(candidate);
+                    return;
+                }
+                victimList.remove(victim);
+                evicted.add(victim);
+            } // WHILE
+            this.probation.addFirst(candidate);
+        }
+        @Override
+        public void remove(Entry entry) {
+            switch (entry.segment) {
+                case WINDOW:
+                    this.window.remove(entry);
+                    break;
+                case PROBATION:
+                    this.probation.remove(entry);
+                    break;
+                case PROTECTED:
+                    this.protect.remove(entry);
+                    break;
+            } // SWITCH
+            this.size = this.window.size + this.probation.size + this.protect.size;
+        }
+        @Override
+        public void clear() {
+            this.window.clear();
+            this.probation.clear();
+            this.protect.clear();
+            this.size = 0;
+        }
+    }
+
+    /**
+     * Count-min sketch with four rows that estimates how often a key has been
+     * used recently. All of the counters are cut in half after we have recorded
+     * ten times as many accesses as there are counters in a row, so that
+     * keys that were popular a long time ago do not stick around forever.
+     */
+    protected static class FrequencySketch {
+        private static final int SEEDS[] = { 0x97cb3127, 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35 };
+        private static final int MAX_COUNT = 15;
+        private final byte table[][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        public FrequencySketch(int width) {
+            int w = 1;
+            while (w < width) w <<= 1;
+            this.table = new byte[SEEDS.length][w];
+            this.mask = w - 1;
+            this.sampleSize = 10 * w;
+        }
+        private int index(int hash, int row) {
+            int h = (hash + SEEDS[row]) * SEEDS[row];
+            h ^= (h >>> 16);
+            return (h & this.mask);
+        }
+        /**
+         * Only the counters that are at the current minimum get incremented
+         * (conservative update), which keeps the collisions from inflating
+         * the estimates for keys that we have only seen once.
+         */
+        public void increment(int hash) {
+            int min = this.frequency(hash);
+            if (min == MAX_COUNT) return;
+            for (int row = 0; row < this.table.length; row++) {
+                int idx = this.index(hash, row);
+                if (this.table[row][idx] == min) this.table[row][idx]++;
+            } // FOR
+            if (++this.additions == this.sampleSize) this.reset();
+        }
+        public int frequency(int hash) {
+            int min = MAX_COUNT;
+            for (int row = 0; row < this.table.length; row++) {
+                min = Math.min(min, this.table[row][this.index(hash, row)]);
+            } // FOR
+            return (min);
+        }
+        private void reset() {
+            for (byte row[] : this.table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                } // FOR
+            } // FOR
+            this.additions /= 2;
+        }
+    }
+}
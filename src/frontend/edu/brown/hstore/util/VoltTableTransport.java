@@ -0,0 +1,70 @@
+package edu.brown.hstore.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Converts the VoltTables that we send between partitions (output dependencies in
+ * WorkResults, attached input dependencies in TransactionWorkRequests, and the
+ * tables in SendDataRequests) to and from the ByteStrings in our protobuf messages.
+ * <p>
+ * The normal format is what FastSerializer writes out (i.e., a length prefix and then the
+ * table's buffer). That means that the sender copies the table into a FastSerializer and
+ * then copies it again into the ByteString, and the receiver copies it a third time when
+ * FastDeserializer reads it back in.
+ * <p>
+ * The zero-copy format is just the table's buffer. The sender copies it straight out
+ * of the VoltTable into the ByteString, and the receiver gets back a read-only VoltTable
+ * that is a view over the ByteString's bytes. Every HStoreSite in the cluster has to be using
+ * the same format. See ${site.exec_zerocopy_tables}.
+ */
+public abstract class VoltTableTransport {
+
+    /**
+     * Serialize a VoltTable into a ByteString
+     * @param vt
+     * @param fs the FastSerializer to use for the normal format. This will be cleared first.
+     *           If it is null, then we will make a new one.
+     * @param zeroCopy
+     * @return
+     * @throws IOException
+     */
+    public static ByteString toByteString(VoltTable vt, FastSerializer fs, boolean zeroCopy) throws IOException {
+        if (zeroCopy) {
+            ByteBuffer buffer = vt.getTableDataReference();
+            buffer.limit(vt.getUnderlyingBufferSize());
+            return (ByteString.copyFrom(buffer));
+        }
+        if (fs == null) {
+            fs = new FastSerializer();
+        } else {
+            fs.clear();
+        }
+        vt.writeExternal(fs);
+        return (ByteString.copyFrom(fs.getBBContainer().b));
+    }
+
+    /**
+     * Deserialize a VoltTable from a ByteString that was created by toByteString().
+     * If zeroCopy is true, then the VoltTable will be read-only and share the ByteString's bytes.
+     * @param bs
+     * @param zeroCopy
+     * @return
+     * @throws IOException
+     */
+    public static VoltTable toVoltTable(ByteString bs, boolean zeroCopy) throws IOException {
+        ByteBuffer buffer = bs.asReadOnlyByteBuffer();
+        if (zeroCopy) {
+            return (PrivateVoltTableFactory.createVoltTableFromBuffer(buffer, true));
+        }
+        FastDeserializer fds = new FastDeserializer(buffer);
+        return (fds.readObject(VoltTable.class));
+    }
+}
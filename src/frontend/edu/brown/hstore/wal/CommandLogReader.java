@@ -6,8 +6,10 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -18,33 +20,116 @@ import org.voltdb.utils.DBBPool;
 import org.voltdb.utils.NotImplementedException;
 import org.voltdb.utils.DBBPool.BBContainer;
 
+/**
+ * Reads the LogEntries back out of a command log. If the log was written out
+ * into LogSegments, then we will iterate through each of the segments listed in
+ * the log's index in order. Otherwise we treat the path as a single log file.
+ */
 public class CommandLogReader implements Iterable<LogEntry> {
     
-    final FastDeserializer fd;
+    final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
     final Map<Integer, String> procedures;
     boolean groupCommit;
     
+    /**
+     * The LogEntry layout that the log was written with
+     */
+    int version;
+    
+    /**
+     * Whether each record in the log is prefixed by its length.
+     * This is always true for segmented logs.
+     */
+    final boolean framed;
+    
     public CommandLogReader(String path) {
-        FileChannel roChannel = null;
-        ByteBuffer readonlybuffer = null;
-        
         File f = new File(path);
         try {
-            roChannel = new RandomAccessFile(f, "r").getChannel();
-            readonlybuffer = roChannel.map(FileChannel.MapMode.READ_ONLY, 0, (int)roChannel.size());
+            List<File> segments = LogSegment.readIndex(f);
+            if (segments != null) {
+                for (File segment : segments) {
+                    this.buffers.add(map(segment));
+                } // FOR
+                this.framed = true;
+            } else {
+                this.buffers.add(map(f));
+                this.framed = false;
+            }
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
-        assert(readonlybuffer != null);
-        this.fd = new FastDeserializer(readonlybuffer);
+        assert(this.buffers.isEmpty() == false);
+        this.procedures = this.readHeader(new FastDeserializer(this.buffers.get(0).duplicate()));
+    }
+    
+    private static ByteBuffer map(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel roChannel = raf.getChannel();
+            return (roChannel.map(FileChannel.MapMode.READ_ONLY, 0, (int)roChannel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+    
+    public Map<Integer, String> getProcedures() {
+        return (this.procedures);
+    }
+    
+    /**
+     * Returns the version of the LogEntry layout in this log.
+     * This is LogEntry.LEGACY_VERSION for logs that don't have one.
+     * @return
+     */
+    public int getVersion() {
+        return (this.version);
+    }
+    
+    /**
+     * Returns true if the log was written with group commit, which means
+     * that every record is a compressed block of LogEntries
+     * @return
+     */
+    public boolean isGroupCommit() {
+        return (this.groupCommit);
+    }
+    
+    /**
+     * Returns every record in the log as a separate buffer, in the order that
+     * they were written. For group commit logs, each record is a compressed block
+     * with all of the LogEntries from a single partition's batch. Otherwise 
+     * each record is one serialized LogEntry. The buffers are slices of the 
+     * mapped segments, so nothing is copied.
+     * Returns null if the log's records are not prefixed by their length.
+     * @return
+     */
+    public List<ByteBuffer> getRecords() {
+        if (this.framed == false && this.groupCommit == false) return (null);
         
-        this.procedures = this.readHeader();
+        List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+        for (ByteBuffer b : this.buffers) {
+            FastDeserializer fd = new FastDeserializer(b.duplicate());
+            this.readHeader(fd);
+            ByteBuffer buffer = fd.buffer();
+            while (buffer.remaining() >= 4) {
+                int size = buffer.getInt();
+                // A zero length means that we have reached the unused part of a segment
+                if (size <= 0 || size > buffer.remaining()) break;
+                ByteBuffer record = buffer.slice();
+                record.limit(size);
+                records.add(record);
+                buffer.position(buffer.position() + size);
+            } // WHILE
+        } // FOR
+        return (records);
     }
     
     @Override
     public Iterator<LogEntry> iterator() {
         Iterator<LogEntry> it = new Iterator<LogEntry>() {
-            FastDeserializer decompressedFd;
+            private int segment = -1;
+            private FastDeserializer fd;
+            private FastDeserializer decompressedFd;
             private LogEntry _next;
             {
                 decompressedFd = new FastDeserializer(ByteBuffer.allocate(0));
@@ -54,44 +139,65 @@ public class CommandLogReader implements Iterable<LogEntry> {
             @Override
             public boolean hasNext() {
                 return _next != null;
-                //return fd.buffer().hasRemaining();
             }
 
             @Override
             public LogEntry next() {
                 LogEntry ret = _next;
-                _next = null;
-                
-                //Fill the decompressed buffer if it is empty
-                if (groupCommit && !decompressedFd.buffer().hasRemaining()) {
-                    try {
-                        int sizeCompressed = fd.readInt();
-                        byte[] b = new byte[sizeCompressed];
-                        fd.readFully(b);
-                        byte[] decompressed = CompressionService.decompressBytes(b);
-                        this.decompressedFd.setBuffer(ByteBuffer.wrap(decompressed));
-                    } catch (IOException ex) {
-                        throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
-                    } catch (BufferUnderflowException ex) {
-                        this.decompressedFd.setBuffer(ByteBuffer.allocate(0));
-                    }
-                }
-                
                 try {
-                    if (groupCommit) {
-                        _next.finish();
-                        _next.readExternal(decompressedFd);
-                    }
-                    else {
-                        _next = fd.readObject(LogEntry.class);
-                    }
+                    _next = this.readNext();
                 } catch (IOException ex) {
                     throw new RuntimeException("Failed to deserialize LogEntry!", ex);
-                } catch (BufferUnderflowException ex) {
-                    _next = null;
                 }
                 return (ret);
             }
+            
+            /**
+             * Move on to the next buffer and skip over its header.
+             * Returns false if there are no more buffers. 
+             */
+            private boolean nextSegment() {
+                if (++this.segment >= buffers.size()) return (false);
+                this.fd = new FastDeserializer(buffers.get(this.segment).duplicate());
+                readHeader(this.fd);
+                return (true);
+            }
+            
+            private LogEntry readNext() throws IOException {
+                while (true) {
+                    // Entries left over from the last compressed block
+                    if (groupCommit && decompressedFd.buffer().hasRemaining()) {
+                        return (readEntry(decompressedFd));
+                    }
+                    if (this.fd == null || this.fd.buffer().remaining() < 4) {
+                        if (this.nextSegment() == false) return (null);
+                        continue;
+                    }
+                    
+                    int size = -1;
+                    if (framed || groupCommit) {
+                        size = this.fd.readInt();
+                        // A zero length means that we have reached the unused part of a segment
+                        if (size <= 0 || size > this.fd.buffer().remaining()) {
+                            this.fd = null;
+                            continue;
+                        }
+                    }
+                    
+                    try {
+                        if (groupCommit) {
+                            byte[] b = new byte[size];
+                            this.fd.readFully(b);
+                            byte[] decompressed = CompressionService.decompressBytes(b);
+                            this.decompressedFd.setBuffer(ByteBuffer.wrap(decompressed));
+                        } else {
+                            return (readEntry(this.fd));
+                        }
+                    } catch (BufferUnderflowException ex) {
+                        this.fd = null;
+                    }
+                } // WHILE
+            }
 
             @Override
             public void remove() {
@@ -110,13 +216,34 @@ public class CommandLogReader implements Iterable<LogEntry> {
     }
     
     /**
-     * 
+     * Deserialize the next LogEntry using this log's version of the layout
+     * @param fd
      * @return
+     * @throws IOException
      */
-    protected Map<Integer, String> readHeader() {
+    public LogEntry readEntry(FastDeserializer fd) throws IOException {
+        LogEntry entry = new LogEntry();
+        entry.readExternal(fd, this.version);
+        return (entry);
+    }
+    
+    /**
+     * Read the header at the beginning of a segment. Logs that were written
+     * before entries had a version start with the group commit flag instead
+     * of the version marker.
+     * @return
+     */
+    protected Map<Integer, String> readHeader(FastDeserializer fd) {
         Map<Integer, String> procedures = new HashMap<Integer, String>();
         
         try {
+            ByteBuffer buffer = fd.buffer();
+            if (buffer.get(buffer.position()) == CommandLogWriter.HEADER_VERSION_MARKER) {
+                fd.readByte();
+                this.version = fd.readInt();
+            } else {
+                this.version = LogEntry.LEGACY_VERSION;
+            }
             this.groupCommit = fd.readBoolean();
             int num_procs = fd.readInt();
             for (int i = 0; i < num_procs; i++)
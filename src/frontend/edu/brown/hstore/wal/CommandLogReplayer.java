@@ -0,0 +1,349 @@
+package edu.brown.hstore.wal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.utils.CompressionService;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Replays a command log in parallel. The log's records are decompressed and
+ * deserialized by a pool of threads, and then each LogEntry is routed to a
+ * separate replay thread for its base partition. Single-partition txns at
+ * different partitions are replayed at the same time, but the entries for the
+ * same partition are always replayed in order. Group commit writes a separate
+ * record for each partition in a batch, so we sort each batch by txnId first.
+ * A multi-partition txn is a barrier: we wait for every partition to finish
+ * everything in front of it, replay it by itself, and then keep going.
+ */
+public class CommandLogReplayer {
+    private static final Logger LOG = Logger.getLogger(CommandLogReplayer.class);
+    private final static LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private final static LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Callback for executing each LogEntry. For single-partition txns this is invoked
+     * from the replay thread for the entry's base partition. Multi-partition txns
+     * are invoked from the thread that called replay() while all of the
+     * partitions are idle.
+     */
+    public interface Handler {
+        public void replay(LogEntry entry);
+    }
+
+    /**
+     * How many decoded records each PartitionReplayer's queue can hold. We don't know
+     * how many entries are in each record, so this just assumes a typical group commit batch.
+     */
+    private static final int QUEUE_ENTRIES_PER_RECORD = 64;
+
+    /**
+     * Special entry that tells a PartitionReplayer to stop
+     */
+    private static final LogEntry STOP = new LogEntry();
+
+    /**
+     * Orders LogEntries by their txnIds
+     */
+    private static final Comparator<LogEntry> TXNID_COMPARATOR = new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry e0, LogEntry e1) {
+            return (e0.getTransactionId().compareTo(e1.getTransactionId()));
+        }
+    };
+
+    /**
+     * Reusable output buffer for each decompression thread
+     */
+    private static final ThreadLocal<ByteBuffer> DECOMPRESS_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(1024 * 32);
+        }
+    };
+
+    /**
+     * Replays the entries for a single partition in order
+     */
+    private class PartitionReplayer extends Thread {
+        private final BlockingQueue<LogEntry> queue = new ArrayBlockingQueue<LogEntry>(window * QUEUE_ENTRIES_PER_RECORD);
+
+        public PartitionReplayer(int partition) {
+            this.setName("wal-replay-" + partition);
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                LogEntry entry = null;
+                try {
+                    entry = this.queue.take();
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                if (entry == STOP) break;
+                try {
+                    if (error.get() == null) handler.replay(entry);
+                } catch (Throwable ex) {
+                    error.compareAndSet(null, ex);
+                } finally {
+                    if (outstanding.decrementAndGet() == 0) {
+                        synchronized (outstanding) {
+                            outstanding.notifyAll();
+                        } // SYNCH
+                    }
+                }
+            } // WHILE
+        }
+    }
+
+    /**
+     * Decompresses and deserializes a single record from the log
+     */
+    private class RecordDecoder implements Callable<List<LogEntry>> {
+        private final ByteBuffer record;
+
+        public RecordDecoder(ByteBuffer record) {
+            this.record = record;
+        }
+
+        @Override
+        public List<LogEntry> call() throws Exception {
+            List<LogEntry> entries = new ArrayList<LogEntry>();
+            FastDeserializer fd = null;
+            if (groupCommit) {
+                ByteBuffer output = DECOMPRESS_BUFFER.get();
+                int length = CompressionService.uncompressedLength(this.record);
+                if (output.capacity() < length) {
+                    output = ByteBuffer.allocateDirect(Math.max(output.capacity() * 2, length));
+                    DECOMPRESS_BUFFER.set(output);
+                }
+                output.clear();
+                CompressionService.decompressBuffer(this.record, output);
+                fd = new FastDeserializer(output);
+            } else {
+                fd = new FastDeserializer(this.record);
+            }
+            while (fd.buffer().hasRemaining()) {
+                entries.add(reader.readEntry(fd));
+            } // WHILE
+            return (entries);
+        }
+    }
+
+    private final CommandLogReader reader;
+    private final int num_threads;
+    private final boolean groupCommit;
+
+    /**
+     * How many records we decode ahead of the dispatcher
+     */
+    private final int window;
+    private final Map<Integer, PartitionReplayer> replayers = new HashMap<Integer, PartitionReplayer>();
+
+    /**
+     * The number of entries that have been handed to a PartitionReplayer
+     * but have not been replayed yet
+     */
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    private Handler handler;
+
+    /**
+     * Constructor
+     * @param reader
+     * @param num_threads the number of threads used to decompress the log's records
+     */
+    public CommandLogReplayer(CommandLogReader reader, int num_threads) {
+        assert(num_threads > 0);
+        this.reader = reader;
+        this.num_threads = num_threads;
+        this.groupCommit = reader.isGroupCommit();
+        this.window = num_threads * 4;
+    }
+
+    /**
+     * Replay every entry in the log with the given handler.
+     * Returns the number of entries that were replayed.
+     * @param handler
+     * @return
+     * @throws InterruptedException
+     */
+    public synchronized long replay(Handler handler) throws InterruptedException {
+        this.handler = handler;
+        this.error.set(null);
+
+        List<ByteBuffer> records = this.reader.getRecords();
+        if (records == null) {
+            // We can't split up old logs, so all we can do is route the entries
+            if (debug.get()) LOG.debug("WAL records are not framed. Reading log sequentially");
+            long ctr = 0;
+            try {
+                for (LogEntry entry : this.reader) {
+                    this.dispatch(entry);
+                    ctr++;
+                } // FOR
+                this.barrier();
+            } finally {
+                this.stopReplayers();
+            }
+            return (ctr);
+        }
+        if (debug.get()) LOG.debug(String.format("Replaying %d WAL records with %d decompression threads",
+                                                 records.size(), this.num_threads));
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.num_threads, new ThreadFactory() {
+            private int ctr = 0;
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "wal-decompress-" + (ctr++));
+                t.setDaemon(true);
+                return (t);
+            }
+        });
+        // Only decode a few records ahead of the dispatcher so that we
+        // don't end up with the entire log in memory. The PartitionReplayers'
+        // queues are bounded too, so a slow partition will block the dispatcher
+        LinkedList<Future<List<LogEntry>>> pending = new LinkedList<Future<List<LogEntry>>>();
+        List<LogEntry> batch = new ArrayList<LogEntry>();
+        int lastPartition = -1;
+        long ctr = 0;
+        try {
+            int next = 0;
+            while (next < records.size() || pending.isEmpty() == false) {
+                while (next < records.size() && pending.size() < this.window) {
+                    pending.add(pool.submit(new RecordDecoder(records.get(next++))));
+                } // WHILE
+                List<LogEntry> entries = null;
+                try {
+                    entries = pending.removeFirst().get();
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException("Failed to decode WAL record", ex.getCause());
+                }
+                if (entries.isEmpty()) continue;
+                
+                // Each group commit batch writes one record per partition in partition
+                // order, so a record for the same or a lower partition starts a new batch.
+                // We only ever merge batches here, never split one, and so sorting 
+                // what we have by txnId puts every batch into txn order.
+                int partition = entries.get(0).getBasePartition();
+                if (partition <= lastPartition) this.dispatchBatch(batch);
+                batch.addAll(entries);
+                lastPartition = partition;
+                ctr += entries.size();
+                this.checkError();
+            } // WHILE
+            this.dispatchBatch(batch);
+            this.barrier();
+        } finally {
+            pool.shutdownNow();
+            this.stopReplayers();
+        }
+        return (ctr);
+    }
+
+    /**
+     * Dispatch all of the entries from a group commit batch in txnId order
+     * so that multi-partition txns are barriers at the right place.
+     * The list is cleared afterwards.
+     * @param batch
+     * @throws InterruptedException
+     */
+    private void dispatchBatch(List<LogEntry> batch) throws InterruptedException {
+        if (this.groupCommit) Collections.sort(batch, TXNID_COMPARATOR);
+        for (int i = 0, cnt = batch.size(); i < cnt; i++) {
+            this.dispatch(batch.get(i));
+        } // FOR
+        batch.clear();
+    }
+
+    /**
+     * Send the entry to the replay thread for its base partition. If it's a
+     * multi-partition txn, then we wait for all of the partitions to be idle
+     * and then replay it ourselves.
+     * @param entry
+     * @throws InterruptedException
+     */
+    private void dispatch(LogEntry entry) throws InterruptedException {
+        if (entry.isSinglePartitioned() == false) {
+            if (trace.get()) LOG.trace("Waiting for all partitions before replaying " + entry);
+            this.barrier();
+            try {
+                this.handler.replay(entry);
+            } catch (Throwable ex) {
+                this.error.compareAndSet(null, ex);
+            }
+            this.checkError();
+            return;
+        }
+
+        Integer partition = Integer.valueOf(entry.getBasePartition());
+        PartitionReplayer replayer = this.replayers.get(partition);
+        if (replayer == null) {
+            replayer = new PartitionReplayer(partition.intValue());
+            replayer.start();
+            this.replayers.put(partition, replayer);
+        }
+        this.outstanding.incrementAndGet();
+        replayer.queue.put(entry);
+    }
+
+    /**
+     * Block until every entry that has been dispatched has been replayed
+     * @throws InterruptedException
+     */
+    private void barrier() throws InterruptedException {
+        synchronized (this.outstanding) {
+            while (this.outstanding.get() > 0) {
+                this.outstanding.wait();
+            } // WHILE
+        } // SYNCH
+        this.checkError();
+    }
+
+    private void checkError() {
+        Throwable ex = this.error.get();
+        if (ex != null) {
+            throw new RuntimeException("Failed to replay WAL entry", ex);
+        }
+    }
+
+    /**
+     * Tell all of the replay threads to stop once they have finished
+     * whatever is still in their queues and then wait for them
+     * @throws InterruptedException
+     */
+    private void stopReplayers() throws InterruptedException {
+        for (PartitionReplayer replayer : this.replayers.values()) {
+            replayer.queue.put(STOP);
+        } // FOR
+        for (PartitionReplayer replayer : this.replayers.values()) {
+            replayer.join();
+        } // FOR
+        this.replayers.clear();
+    }
+}
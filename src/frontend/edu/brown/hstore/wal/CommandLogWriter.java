@@ -26,16 +26,25 @@
 package edu.brown.hstore.wal;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Exchanger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.Deflater;
 
 import org.apache.log4j.Logger;
 import org.voltdb.ClientResponseImpl;
@@ -69,6 +78,13 @@ public class CommandLogWriter implements Shutdownable {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
     
+    /**
+     * The number of sets of EntryBuffers that we cycle through in group commit mode.
+     * One is being filled, one is being written out, and the rest are waiting to be 
+     * synced or are ready to be used again.
+     */
+    private static final int PIPELINE_DEPTH = 4;
+    
     
     /**
      * Special LogEntry that holds additional data that we
@@ -100,12 +116,22 @@ public class CommandLogWriter implements Shutdownable {
     
     /**
      * Circular Buffer of Log Entries
+     * Each entry is serialized into the buffer's FastSerializer as soon as it
+     * is added, so the writer thread only has to compress and write out the bytes
      */
     protected class EntryBuffer {
         private final FastSerializer fs;
         private final WriterLogEntry buffer[];
         private int startPos;
         private int nextPos;
+        private int size;
+        private long maxTxnId = -1;
+        
+        /**
+         * Where we put the compressed version of the serialized entries.
+         * This is reused for every flush and only replaced if it is too small.
+         */
+        private BBContainer compressed;
         
         public EntryBuffer(int size, FastSerializer serializer) {
             this.fs = serializer;
@@ -128,24 +154,73 @@ public class CommandLogWriter implements Shutdownable {
             // in theory be able to keep filling their buffers right up until the exchange.
             // I'm not sure it's possible though.
             LogEntry ret = this.buffer[nextPos].init(ts, cresponse); 
+            try {
+                this.fs.writeObject(ret);
+            } catch (IOException ex) {
+                String message = "Failed to serialize WAL entry for " + ts;
+                throw new ServerFaultException(message, ex, ts.getTransactionId());
+            }
+            this.maxTxnId = Math.max(this.maxTxnId, ts.getTransactionId().longValue());
             nextPos = (nextPos + 1) % this.buffer.length;
+            size++;
             return ret;
         }
+        /**
+         * Compress all of the serialized entries in this buffer.
+         * The returned buffer is prefixed with the compressed length and is 
+         * only valid until the next call to flushCleanup()
+         * @return
+         * @throws IOException
+         */
+        public ByteBuffer compress() throws IOException {
+            ByteBuffer input = this.fs.getBBContainer().b;
+            int maxSize = 4 + Snappy.maxCompressedLength(input.remaining());
+            if (this.compressed == null || this.compressed.b.capacity() < maxSize) {
+                if (this.compressed != null) this.compressed.discard();
+                this.compressed = hstore_site.getBufferPool().acquire(maxSize);
+            }
+            ByteBuffer output = this.compressed.b;
+            output.clear();
+            
+            int size;
+            if (input.isDirect() && output.isDirect()) {
+                output.position(4);
+                size = Snappy.compress(input, output);
+            } else {
+                size = Snappy.compress(input.array(), input.arrayOffset() + input.position(), input.remaining(),
+                                       output.array(), output.arrayOffset() + 4);
+            }
+            output.putInt(0, size);
+            output.position(0);
+            output.limit(4 + size);
+            return (output);
+        }
         public void flushCleanup() {
-            for (int i = 0; i < Math.abs(this.nextPos - this.startPos); i++)
+            for (int i = 0; i < this.size; i++)
                 this.buffer[(this.startPos + i) % this.buffer.length].finish();
             this.startPos = this.nextPos;
+            this.size = 0;
+            this.maxTxnId = -1;
+            this.fs.clear();
+        }
+        public long getMaxTxnId() {
+            return (this.maxTxnId);
         }
         public int getStart() {
             return startPos;
         }
         public int getSize() {
-            return ((nextPos + this.buffer.length) - startPos) % this.buffer.length;
+            // We can't compute this from the positions because they are the
+            // same when the buffer is completely full
+            return (this.size);
         }
     } // CLASS
     
     /**
      * Separate thread for writing out entries to the log
+     * This is the first stage of the group commit pipeline. It collects the
+     * next batch of entries, compresses them, and writes them out to the
+     * current segment. It then hands the batch off to the SyncThread.
      */
     protected class WriterThread extends Thread {
         {
@@ -157,52 +232,197 @@ public class CommandLogWriter implements Shutdownable {
             Thread self = Thread.currentThread();
             self.setName(HStoreThreadManager.getThreadName(hstore_site, "wal"));
             
+            EntryBuffer empty[] = null;
+            EntryBuffer full[] = null;
+            long lastBatch = System.nanoTime();
             while (!stop) {
                 try {
-                    entriesFlushing = bufferExchange.exchange(entriesFlushing, hstore_conf.site.exec_command_logging_group_commit_timeout, TimeUnit.MILLISECONDS);
-                    //entriesFlushing = bufferExchange.exchange(entriesFlushing);
-                    groupCommit(entriesFlushing); //Group commit is responsible for sending responses, and cleaning up the buffer before its next use
+                    if (empty == null) empty = freeEntries.take();
+                    try {
+                        full = bufferExchange.exchange(empty, hstore_conf.site.exec_command_logging_group_commit_timeout, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        //ON TIMEOUT, LOCK DOWN AND GROUP COMMIT NORMAL BUFFER
+                        // That ensures that if there is only one client thread issuing txn requests (as is
+                        // often the case in testing), then it won't be blocked indefinitely.
+                        int permsFree = swapInProgress.drainPermits(); //Locks out other threads from starting the process
+                        int inUse = batchSize - permsFree;
+                        if (inUse == 0 || permsFree == 0) {
+                            // Either there is nothing to flush or the last partition to
+                            // fill up the batch is about to hand it to us
+                            swapInProgress.release(permsFree);
+                            continue;
+                        }
+                        while (flushReady.get() < inUse) {} //Wait for the in progress slots to fill
+                        full = entries;
+                        entries = empty;
+                        //Release IN THE RIGHT ORDER
+                        batchSize = groupCommitController.getBatchSize();
+                        flushReady.set(0);
+                        swapInProgress.release(batchSize);
+                    }
+                    empty = null;
+                    
+                    long now = System.nanoTime();
+                    int num_entries = writeBatch(full);
+                    groupCommitController.recordBatch(num_entries, now - lastBatch);
+                    lastBatch = now;
+                    syncEntries.put(full);
                 } catch (InterruptedException e) {
-                    throw new RuntimeException("WAL writer thread interrupted while waiting for a new buffer" + e.getStackTrace().toString());
-                } catch (TimeoutException e) {
-                    //ON TIMEOUT, LOCK DOWN AND GROUP COMMIT NORMAL BUFFER
-                    // XXX: Need to have the ability to check how long it's been since we've flushed
-                    // the log to disk. If it's longer than our limit, then we'll want to do that now
-                    // That ensures that if there is only one client thread issuing txn requests (as is
-                    // often the case in testing), then it won't be blocked indefinitely.
-                    // Added a new HStoreConf parameter that defines the time in milliseconds
-                    // Use EstTime.currentTimeMillis() to get the current time
-                    int permsFree = swapInProgress.drainPermits(); //Locks out other threads from starting the process
-                    while (flushReady.get() < (group_commit_size - permsFree)) {} //Wait for the in progress slots to fill
-                    groupCommit(entries);
-                    //Release IN THE RIGHT ORDER
-                    assert(flushReady.compareAndSet((group_commit_size - permsFree), 0));
-                    swapInProgress.release(group_commit_size);
+                    if (stop) break;
+                    throw new RuntimeException("WAL writer thread interrupted while waiting for a new buffer", e);
                 }
             } // WHILE
         }
     }
     
+    /**
+     * Second stage of the group commit pipeline. This waits for batches that 
+     * have been written out, syncs them to disk, and then sends back the responses 
+     * for all of the transactions in them. If more than one batch is waiting, 
+     * then they will all get synced together.
+     */
+    protected class SyncThread extends Thread {
+        {
+            this.setDaemon(true);
+        }
+        
+        @Override
+        public void run() {
+            Thread self = Thread.currentThread();
+            self.setName(HStoreThreadManager.getThreadName(hstore_site, "wal", "sync"));
+            
+            List<EntryBuffer[]> batches = new ArrayList<EntryBuffer[]>(PIPELINE_DEPTH);
+            while (!stop) {
+                try {
+                    batches.add(syncEntries.take());
+                } catch (InterruptedException e) {
+                    if (stop) break;
+                    throw new RuntimeException("WAL sync thread interrupted while waiting for a new buffer", e);
+                }
+                syncEntries.drainTo(batches);
+                
+                long start = System.nanoTime();
+                sync();
+                groupCommitController.recordSync(System.nanoTime() - start);
+                
+                for (int i = 0, cnt = batches.size(); i < cnt; i++) {
+                    EntryBuffer eb[] = batches.get(i);
+                    releaseBatch(eb);
+                    freeEntries.offer(eb);
+                } // FOR
+                batches.clear();
+            } // WHILE
+        }
+    }
+    
+    /**
+     * Allocates the next LogSegment in the background so that we always
+     * have a preallocated segment ready to go when the current one fills up
+     */
+    protected class SegmentAllocator implements Callable<LogSegment>, ThreadFactory {
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(this);
+        private int nextId = 0;
+        private Future<LogSegment> next = null;
+        
+        /**
+         * Return the preallocated segment and start allocating the one after it
+         */
+        public LogSegment next() throws IOException {
+            LogSegment ret = null;
+            if (this.next == null) {
+                ret = this.call();
+            } else {
+                try {
+                    ret = this.next.get();
+                } catch (InterruptedException ex) {
+                    throw new ServerFaultException("Interrupted while waiting for next WAL segment", ex);
+                } catch (ExecutionException ex) {
+                    throw new IOException("Failed to allocate WAL segment", ex.getCause());
+                }
+            }
+            this.next = this.executor.submit(this);
+            return (ret);
+        }
+        
+        @Override
+        public LogSegment call() throws IOException {
+            LogSegment segment = LogSegment.create(outputFile, this.nextId++, segment_size);
+            if (debug.get()) LOG.debug("Allocated new WAL segment " + segment);
+            return (segment);
+        }
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, HStoreThreadManager.getThreadName(hstore_site, "wal", "alloc"));
+            t.setDaemon(true);
+            return (t);
+        }
+        
+        /**
+         * Stop allocating segments and remove the one that we didn't use
+         */
+        public void shutdown() {
+            this.executor.shutdown();
+            if (this.next == null) return;
+            try {
+                LogSegment unused = this.next.get();
+                unused.close();
+                unused.getFile().delete();
+            } catch (Exception ex) {
+                // Nothing we can do about it now...
+                if (debug.get()) LOG.debug("Failed to clean up unused WAL segment", ex);
+            }
+        }
+    }
     
     final HStoreSite hstore_site;
     final HStoreConf hstore_conf;
     final File outputFile;
-    final FileChannel fstream;
+    final long segment_size;
     final int group_commit_size;
     final FastSerializer singletonSerializer;
     final LogEntry singletonLogEntry;
-    final Deflater compresser = new Deflater();
     boolean stop = false;
     private final Semaphore swapInProgress;
     private final AtomicInteger flushReady;
     private final WriterThread flushThread;
+    private final SyncThread syncThread;
     protected Exchanger<EntryBuffer[]> bufferExchange;
     
+    /**
+     * Sets of EntryBuffers that are ready to be filled
+     */
+    private final BlockingQueue<EntryBuffer[]> freeEntries;
+    
+    /**
+     * Sets of EntryBuffers that have been written but not synced to disk
+     */
+    private final BlockingQueue<EntryBuffer[]> syncEntries;
+    
+    private final GroupCommitController groupCommitController;
+    
+    /**
+     * The number of entries that go into the current batch
+     */
+    private volatile int batchSize;
+    
+    /**
+     * The header that we write at the start of every segment
+     */
+    private final ByteBuffer header;
+    private final SegmentAllocator allocator;
+    private final List<LogSegment> segments = new ArrayList<LogSegment>();
+    private LogSegment segment;
+    
+    /**
+     * The compressed EntryBuffers that we will write out in a single group commit
+     */
+    private final ByteBuffer flushBuffers[];
+    
     /**
      * The log entry buffers (one per partition) 
      */
     EntryBuffer entries[];
-    EntryBuffer entriesFlushing[];
     
     /**
      * Constructor
@@ -210,52 +430,87 @@ public class CommandLogWriter implements Shutdownable {
      * @param path
      */
     public CommandLogWriter(HStoreSite hstore_site, File outputFile) {
+        this(hstore_site, outputFile, hstore_site.getHStoreConf().site.exec_command_logging_segment_size * 1048576l);
+    }
+    
+    /**
+     * Constructor
+     * @param hstore_site
+     * @param outputFile the base path of the log. Each segment file will have a sequence number appended to it.
+     * @param segmentSize the size of each log segment file in bytes
+     */
+    protected CommandLogWriter(HStoreSite hstore_site, File outputFile, long segmentSize) {
         this.hstore_site = hstore_site;
         this.hstore_conf = hstore_site.getHStoreConf();
         this.outputFile = outputFile;
+        this.segment_size = segmentSize;
+        assert(this.segment_size > 0) : "Invalid WAL segment size " + this.segment_size;
         this.singletonSerializer = new FastSerializer();
         this.group_commit_size = Math.max(1, hstore_conf.site.exec_command_logging_group_commit); //Group commit threshold, or 1 if group commit is turned off
         if (hstore_conf.site.exec_command_logging_group_commit > 0) {
-            this.swapInProgress = new Semaphore(group_commit_size, false); //False = not fair
+            this.groupCommitController = new GroupCommitController(1, group_commit_size,
+                                                                   hstore_conf.site.exec_command_logging_group_commit_adaptive);
+            this.batchSize = this.groupCommitController.getBatchSize();
+            this.swapInProgress = new Semaphore(this.batchSize, false); //False = not fair
             this.flushReady = new AtomicInteger(0);
             this.bufferExchange = new Exchanger<EntryBuffer[]>();
+            this.freeEntries = new ArrayBlockingQueue<EntryBuffer[]>(PIPELINE_DEPTH);
+            this.syncEntries = new ArrayBlockingQueue<EntryBuffer[]>(PIPELINE_DEPTH);
             // Make one entry buffer per partition SO THAT SYNCHRONIZATION ON EACH BUFFER IS NOT REQUIRED
+            // We need one set of buffers for each stage of the pipeline, plus one that is being filled
             int num_partitions = CatalogUtil.getNumberOfPartitions(hstore_site.getDatabase());
-            this.entries = new EntryBuffer[num_partitions];
-            this.entriesFlushing = new EntryBuffer[num_partitions];
-            for (int partition = 0; partition < num_partitions; partition++) {
-                if (hstore_site.isLocalPartition(partition)) {
-                    this.entries[partition] = new EntryBuffer(group_commit_size, new FastSerializer(hstore_site.getBufferPool()));
-                    this.entriesFlushing[partition] = new EntryBuffer(group_commit_size, new FastSerializer(hstore_site.getBufferPool()));
+            for (int i = 0; i < PIPELINE_DEPTH; i++) {
+                EntryBuffer eb[] = new EntryBuffer[num_partitions];
+                for (int partition = 0; partition < num_partitions; partition++) {
+                    if (hstore_site.isLocalPartition(partition)) {
+                        eb[partition] = new EntryBuffer(group_commit_size, new FastSerializer(hstore_site.getBufferPool()));
+                    }
+                } // FOR
+                if (i == 0) {
+                    this.entries = eb;
+                } else {
+                    this.freeEntries.add(eb);
                 }
             } // FOR
             this.flushThread = new WriterThread();
+            this.syncThread = new SyncThread();
+            this.flushBuffers = new ByteBuffer[num_partitions];
             this.singletonLogEntry = null;
         } else {
+            this.groupCommitController = null;
             this.swapInProgress = null;
             this.flushReady = null;
             this.bufferExchange = null;
+            this.freeEntries = null;
+            this.syncEntries = null;
             this.flushThread = null;
+            this.syncThread = null;
+            this.flushBuffers = null;
             this.singletonLogEntry = new LogEntry();
         }
         
-        
-        FileOutputStream f = null;
+        // Build the header that goes at the front of each segment 
+        this.header = this.createHeader();
+        this.allocator = new SegmentAllocator();
         try {
             this.outputFile.getParentFile().mkdirs();
             LOG.info("Command Log File: " + this.outputFile.getParentFile().toString());
-            this.outputFile.createNewFile();
-            f = new FileOutputStream(this.outputFile, false);
+            
+            // Remove any segments left over from a previous log with the same name
+            List<File> oldSegments = LogSegment.readIndex(this.outputFile);
+            if (oldSegments != null) {
+                for (File f : oldSegments) {
+                    f.delete();
+                } // FOR
+            }
+            this.rollover();
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
-        this.fstream = f.getChannel();
-        
-        // Write out a header to the file 
-        this.writeHeader();
         
         if (hstore_conf.site.exec_command_logging_group_commit > 0) {
             this.flushThread.start();
+            this.syncThread.start();
         }
     }
     
@@ -263,14 +518,19 @@ public class CommandLogWriter implements Shutdownable {
     @Override
     public void prepareShutdown(boolean error) {
         this.stop = true;
-        this.flushThread.interrupt();
+        if (this.flushThread != null) this.flushThread.interrupt();
+        if (this.syncThread != null) this.syncThread.interrupt();
     }
 
     @Override
     public void shutdown() {
         if (debug.get()) LOG.debug("Closing WAL file");
+        this.allocator.shutdown();
         try {
-            this.fstream.close();
+            synchronized (this) {
+                this.segment.force();
+                this.segment.close();
+            } // SYNCH
         } catch (IOException ex) {
             String message = "Failed to close WAL file";
             throw new ServerFaultException(message, ex);
@@ -283,93 +543,209 @@ public class CommandLogWriter implements Shutdownable {
         return (this.stop);
     }
     
-    public boolean writeHeader() {
-        if (debug.get()) LOG.debug("Writing out WAL header");
-        assert(this.singletonSerializer != null);
+    /**
+     * Returns the controller that picks the size of each group commit batch.
+     * This will be null if group commit is disabled.
+     * @return
+     */
+    public GroupCommitController getGroupCommitController() {
+        return (this.groupCommitController);
+    }
+    
+    /**
+     * Returns the list of segments that make up this log 
+     * @return
+     */
+    public synchronized List<LogSegment> getSegments() {
+        return (new ArrayList<LogSegment>(this.segments));
+    }
+    
+    /**
+     * The first byte of the header for logs whose entries have a version.
+     * Logs written before that start with the group commit flag instead, which
+     * is always a zero or a one.
+     */
+    static final byte HEADER_VERSION_MARKER = (byte)0xFF;
+    
+    /**
+     * Build the log header that is written at the beginning of every segment
+     * @return
+     */
+    private ByteBuffer createHeader() {
+        if (debug.get()) LOG.debug("Creating WAL header");
+        FastSerializer fs = new FastSerializer();
         try {
-            this.singletonSerializer.clear();
-            this.singletonSerializer.writeBoolean(hstore_conf.site.exec_command_logging_group_commit > 0);//Using group commit
-            this.singletonSerializer.writeInt(hstore_site.getDatabase().getProcedures().size());
-            
-            for (Procedure catalog_proc : hstore_site.getDatabase().getProcedures()) {
-                int procId = catalog_proc.getId();
-                this.singletonSerializer.writeInt(procId);
-                this.singletonSerializer.writeString(catalog_proc.getName());
-            } // FOR
-            
-            BBContainer b = this.singletonSerializer.getBBContainer();
-            fstream.write(b.b.asReadOnlyBuffer());
-            fstream.force(true);
+            writeHeader(fs, hstore_conf.site.exec_command_logging_group_commit > 0,
+                        hstore_site.getDatabase().getProcedures());
         } catch (Exception e) {
             String message = "Failed to write log headers";
             throw new ServerFaultException(message, e);
         }
-        
-        return (true);
+        return (fs.getBuffer());
     }
     
-    private ByteBuffer compressBufferForMessaging(ByteBuffer buffer) throws IOException {
-        //assert(buffer.isDirect());
-        byte[] input = buffer.array();
-        byte[] output = new byte[4 + Snappy.maxCompressedLength(input.length)];
-        final int compressedSize = Snappy.compress(input, 0, input.length, output, 4);
-        ByteBuffer result = ByteBuffer.wrap(output);
-        result.putInt(0, compressedSize);
-        return result;
+    /**
+     * Serialize a log header for the current LogEntry version
+     * @param fs
+     * @param groupCommit
+     * @param procedures
+     * @throws IOException
+     */
+    static void writeHeader(FastSerializer fs, boolean groupCommit, Collection<Procedure> procedures) throws IOException {
+        fs.writeByte(HEADER_VERSION_MARKER);
+        fs.writeInt(LogEntry.CURRENT_VERSION);
+        fs.writeBoolean(groupCommit);
+        fs.writeInt(procedures.size());
+        for (Procedure catalog_proc : procedures) {
+            fs.writeInt(catalog_proc.getId());
+            fs.writeString(catalog_proc.getName());
+        } // FOR
     }
     
     /**
-     * GroupCommits the given buffer set all at once
-     * @param eb
+     * Switch over to the next preallocated segment and add it to the log's index
+     * @throws IOException
      */
-    public void groupCommit(EntryBuffer[] eb) {
-        //Write all to a single FastSerializer buffer
-        this.singletonSerializer.clear();
-        for (int i = 0; i < eb.length; i++) {
-            EntryBuffer buffer = eb[i];
-            try {
-                assert(this.singletonSerializer != null);
-                int start = buffer.getStart();
-                for (int j = 0; j < buffer.getSize(); j++) {
-                    WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
-                    this.singletonSerializer.writeObject(entry);
-                }
-                
-            } catch (Exception e) {
-                String message = "Failed to serialize buffer during group commit";
-                throw new ServerFaultException(message, e);
-            }
+    private void rollover() throws IOException {
+        LogSegment next = this.allocator.next();
+        next.writeHeader(this.header.duplicate());
+        if (this.segment != null) {
+            this.segment.force();
+            this.segment.close();
+        }
+        this.segments.add(next);
+        LogSegment.writeIndex(this.outputFile, this.segments);
+        if (debug.get()) LOG.debug(String.format("Rolling over WAL from %s to %s", this.segment, next));
+        this.segment = next;
+    }
+    
+    /**
+     * Append a record to the current segment and flush it out to disk.
+     * The record must start with its length
+     * @param record
+     * @param txnId the largest txnId in the record
+     * @throws IOException
+     */
+    private synchronized void write(ByteBuffer record, long txnId) throws IOException {
+        if (this.segment.hasRoom(record.remaining()) == false && this.segment.isEmpty() == false) {
+            this.rollover();
+        }
+        this.segment.append(record, txnId);
+        this.segment.force();
+    }
+    
+    /**
+     * Append a group of records to the current segment with a single gathering write.
+     * The caller has to use sync() to make sure that they are durable.
+     * Each record must start with its length
+     * @param records
+     * @param length the number of records in the array to write
+     * @param txnId the largest txnId in the records
+     * @throws IOException
+     */
+    private synchronized void write(ByteBuffer records[], int length, long txnId) throws IOException {
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            size += records[i].remaining();
         } // FOR
-        
-        if (true) { //Compress
-            //Compress and force out to disk
-            this.singletonSerializer.getBBContainer().b.flip();
-            ByteBuffer compressed;
+        if (this.segment.hasRoom(size) == false && this.segment.isEmpty() == false) {
+            this.rollover();
+        }
+        this.segment.append(records, length, txnId);
+    }
+    
+    /**
+     * Flush everything that has been written to the log out to disk.
+     * We don't hold the lock while we wait for the disk so that the next
+     * batch can be written out at the same time. 
+     */
+    private void sync() {
+        LogSegment s = null;
+        synchronized (this) {
+            s = this.segment;
+        } // SYNCH
+        try {
+            s.force();
+        } catch (ClosedChannelException ex) {
+            // The segment was closed after we grabbed it. That's fine because
+            // we always sync a segment before we close it
+        } catch (IOException ex) {
+            String message = "Failed to sync WAL segment " + s;
+            throw new ServerFaultException(message, ex);
+        }
+    }
+    
+    /**
+     * Remove all of the segments in this log that only contain transactions
+     * that came before the given txnId (e.g., because they are now part of a snapshot)
+     * The current segment is never removed.
+     * @param txnId
+     * @return the number of segments removed
+     */
+    public synchronized int truncate(long txnId) {
+        int ctr = 0;
+        while (this.segments.size() > 1 && this.segments.get(0).getMaxTxnId() < txnId) {
+            LogSegment s = this.segments.remove(0);
+            if (debug.get()) LOG.debug("Removing WAL segment " + s);
+            s.getFile().delete();
+            ctr++;
+        } // WHILE
+        if (ctr > 0) {
             try {
-                compressed = compressBufferForMessaging(this.singletonSerializer.getBBContainer().b);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to compress WAL buffer");
+                LogSegment.writeIndex(this.outputFile, this.segments);
+            } catch (IOException ex) {
+                throw new ServerFaultException("Failed to update WAL index", ex);
             }
-            
+        }
+        return (ctr);
+    }
+    
+    /**
+     * Compress the given buffer set and write it all out at once.
+     * The records are always written in partition order, which is how the
+     * CommandLogReplayer finds where each batch starts.
+     * Returns the number of entries that were written
+     * @param eb
+     */
+    private int writeBatch(EntryBuffer[] eb) {
+        // Compress each partition's entries and then write them all out together
+        int num_buffers = 0;
+        int num_entries = 0;
+        long maxTxnId = -1;
+        for (int i = 0; i < eb.length; i++) {
+            EntryBuffer buffer = eb[i];
+            if (buffer == null || buffer.getSize() == 0) continue;
             try {
-                fstream.write(compressed);
-                fstream.force(true);
+                this.flushBuffers[num_buffers++] = buffer.compress();
             } catch (IOException ex) {
-                String message = "Failed to group commit for buffer";
+                String message = "Failed to compress WAL buffer for partition " + i;
                 throw new ServerFaultException(message, ex);
             }
-        } else {
+            num_entries += buffer.getSize();
+            maxTxnId = Math.max(maxTxnId, buffer.getMaxTxnId());
+        } // FOR
+        
+        if (num_buffers > 0) {
             try {
-                fstream.write(this.singletonSerializer.getBuffer());
-                fstream.force(true);
+                this.write(this.flushBuffers, num_buffers, maxTxnId);
             } catch (IOException ex) {
                 String message = "Failed to group commit for buffer";
                 throw new ServerFaultException(message, ex);
             }
         }
-        //Send responses
+        return (num_entries);
+    }
+    
+    /**
+     * Send back the responses for all of the entries in the given buffer set
+     * and clean it up so that it can be used again. 
+     * This can only be called once the entries are durable.
+     * @param eb
+     */
+    private void releaseBatch(EntryBuffer[] eb) {
         for (int i = 0; i < eb.length; i++) {
             EntryBuffer buffer = eb[i];
+            if (buffer == null) continue;
             int start = buffer.getStart();
             for (int j = 0; j < buffer.getSize(); j++) {
                 WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
@@ -414,7 +790,7 @@ public class CommandLogWriter implements Shutdownable {
             
             int place = 1 + flushReady.getAndIncrement(); //See how quick we were to finish
             
-            if (place == hstore_conf.site.exec_command_logging_group_commit) {
+            if (place == this.batchSize) {
                 //XXX: We were the last in the group to finish, so we will poke the writer.
                 //We know that none of the buffers are currently being written to
                 //because we have reached the threshold for acquiring slots AND the
@@ -425,8 +801,10 @@ public class CommandLogWriter implements Shutdownable {
                     //XXX: As soon as we have a new empty buffer, we can reset the count
                     //and release the semaphore permits to continue. NOTE: THESE MUST GO 
                     //IN THE CORRECT ORDER FOR PROPER REASONING
-                    assert(flushReady.compareAndSet(hstore_conf.site.exec_command_logging_group_commit, 0) == true); //Sanity check
-                    swapInProgress.release(hstore_conf.site.exec_command_logging_group_commit);
+                    //This is also the only safe time to change the size of the next batch
+                    this.batchSize = this.groupCommitController.getBatchSize();
+                    flushReady.set(0);
+                    swapInProgress.release(this.batchSize);
                 } catch (InterruptedException e) {
                     throw new RuntimeException("[WAL] Thread interrupted while waiting for WriterThread to finish writing");
                 }
@@ -436,15 +814,15 @@ public class CommandLogWriter implements Shutdownable {
             sendResponse = false;
         } else { //NO GROUP COMMIT -- FINISH AND RETURN TRUE
             try {
-                FastSerializer fs = this.singletonSerializer;
-                assert(fs != null);
-                fs.clear();
-                this.singletonLogEntry.init(ts);
-                fs.writeObject(this.singletonLogEntry);
-                BBContainer b = fs.getBBContainer();
-                fstream.write(b.b.asReadOnlyBuffer());
-                fstream.force(true);
-                this.singletonLogEntry.finish();
+                synchronized (this) {
+                    FastSerializer fs = this.singletonSerializer;
+                    assert(fs != null);
+                    fs.clear();
+                    this.singletonLogEntry.init(ts);
+                    BBContainer b = fs.writeObjectForMessaging(this.singletonLogEntry);
+                    this.write(b.b.asReadOnlyBuffer(), ts.getTransactionId().longValue());
+                    this.singletonLogEntry.finish();
+                } // SYNCH
             } catch (Exception e) {
                 String message = "Failed to write single log entry for " + ts.toString();
                 throw new ServerFaultException(message, e, ts.getTransactionId());
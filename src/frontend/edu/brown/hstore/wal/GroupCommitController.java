@@ -0,0 +1,112 @@
+package edu.brown.hstore.wal;
+
+/**
+ * Decides how many log entries the CommandLogWriter should collect before it
+ * hands a batch off to be written out. When adaptive mode is enabled, we
+ * pick the batch size so that a new batch fills up in about the same amount
+ * of time that it takes to fsync the previous one. That way the log keeps up
+ * when the disk is slow without holding up responses when the disk is fast.
+ * Otherwise the batch size is always the maximum.
+ */
+public class GroupCommitController {
+
+    /**
+     * How much weight to give to each new observation in the moving averages
+     */
+    private static final double ALPHA = 0.2;
+
+    private final int minSize;
+    private final int maxSize;
+    private final boolean adaptive;
+
+    /**
+     * Moving average of the number of nanoseconds that it takes to fsync the log
+     */
+    private double syncNanos = -1;
+
+    /**
+     * Moving average of the number of nanoseconds between new log entries
+     */
+    private double arrivalNanos = -1;
+
+    private volatile int batchSize;
+    private long syncCount = 0;
+
+    /**
+     * Constructor
+     * @param minSize the smallest batch size that we will use
+     * @param maxSize the largest batch size that we will use
+     * @param adaptive if false, then the batch size will always be maxSize
+     */
+    public GroupCommitController(int minSize, int maxSize, boolean adaptive) {
+        assert(minSize > 0);
+        assert(minSize <= maxSize);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.adaptive = adaptive;
+        this.batchSize = (adaptive ? minSize : maxSize);
+    }
+
+    /**
+     * Record that a batch with the given number of entries was filled
+     * @param entries
+     * @param fillNanos how long it took to collect the entries
+     */
+    public synchronized void recordBatch(int entries, long fillNanos) {
+        if (entries <= 0) return;
+        double perEntry = fillNanos / (double)entries;
+        this.arrivalNanos = (this.arrivalNanos < 0 ? perEntry : ALPHA * perEntry + (1 - ALPHA) * this.arrivalNanos);
+        this.update();
+    }
+
+    /**
+     * Record how long it took to fsync the log
+     * @param nanos
+     */
+    public synchronized void recordSync(long nanos) {
+        this.syncNanos = (this.syncNanos < 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * this.syncNanos);
+        this.syncCount++;
+        this.update();
+    }
+
+    private void update() {
+        if (this.adaptive == false || this.syncNanos < 0 || this.arrivalNanos < 0) return;
+        long target = (this.arrivalNanos == 0 ? this.maxSize : (long)Math.ceil(this.syncNanos / this.arrivalNanos));
+        this.batchSize = (int)Math.max(this.minSize, Math.min(this.maxSize, target));
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of entries that the next batch should hold
+     * @return
+     */
+    public int getBatchSize() {
+        return (this.batchSize);
+    }
+    public int getMaxBatchSize() {
+        return (this.maxSize);
+    }
+    public boolean isAdaptive() {
+        return (this.adaptive);
+    }
+    /**
+     * Returns the average fsync latency in milliseconds
+     * @return
+     */
+    public synchronized double getAverageSyncTime() {
+        return (this.syncNanos < 0 ? 0 : this.syncNanos / 1000000d);
+    }
+    public synchronized long getSyncCount() {
+        return (this.syncCount);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("GroupCommit[batchSize=%d, max=%d, adaptive=%s, avgSync=%.2fms, avgArrival=%.3fms]",
+                             this.batchSize, this.maxSize, this.adaptive,
+                             this.getAverageSyncTime(), (this.arrivalNanos < 0 ? 0 : this.arrivalNanos / 1000000d));
+    }
+}
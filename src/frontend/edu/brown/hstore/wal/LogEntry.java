@@ -3,6 +3,7 @@ package edu.brown.hstore.wal;
 import java.io.IOException;
 
 import org.voltdb.ParameterSet;
+import org.voltdb.TransactionIdManager;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FastSerializable;
 import org.voltdb.messaging.FastSerializer;
@@ -13,14 +14,29 @@ import edu.brown.utils.Poolable;
 
 public class LogEntry implements FastSerializable, Poolable {
     
+    /**
+     * Entries in logs without a version do not have the base partition
+     * or the single-partition flag
+     */
+    public static final int LEGACY_VERSION = 0;
+    
+    /**
+     * The version of the layout that writeExternal() uses
+     */
+    public static final int CURRENT_VERSION = 1;
+    
     protected Long txnId;
     protected long timestamp;
+    protected int basePartition;
+    protected boolean singlePartitioned;
     protected int procId;
     protected ParameterSet procParams;
     
     public LogEntry init(LocalTransaction ts) {
         this.txnId = ts.getTransactionId();
         assert(this.txnId != null);
+        this.basePartition = ts.getBasePartition();
+        this.singlePartitioned = ts.isPredictSinglePartition();
         this.procId = ts.getProcedure().getId();
         this.procParams = ts.getProcedureParameters();
         return (this);
@@ -35,14 +51,36 @@ public class LogEntry implements FastSerializable, Poolable {
     public void finish() {
         this.txnId = null;
         this.timestamp = -1;
+        this.basePartition = -1;
+        this.singlePartitioned = false;
         this.procId = -1;
         this.procParams = null;
     }
 
     @Override
     public void readExternal(FastDeserializer in) throws IOException {
+        this.readExternal(in, CURRENT_VERSION);
+    }
+    
+    /**
+     * Deserialize an entry that was written with the given version of the layout.
+     * Legacy entries did not record whether the txn was single-partitioned, so
+     * we have to treat them as multi-partition txns. Their base partition is the
+     * one that generated their txnId. 
+     * @param in
+     * @param version
+     * @throws IOException
+     */
+    public void readExternal(FastDeserializer in, int version) throws IOException {
         this.txnId = Long.valueOf(in.readLong());
         this.timestamp = in.readLong();
+        if (version >= CURRENT_VERSION) {
+            this.basePartition = in.readInt();
+            this.singlePartitioned = in.readBoolean();
+        } else {
+            this.basePartition = (int)TransactionIdManager.getInitiatorIdFromTransactionId(this.txnId.longValue());
+            this.singlePartitioned = false;
+        }
         this.procId = in.readInt();
         this.procParams = in.readObject(ParameterSet.class);
         
@@ -59,12 +97,34 @@ public class LogEntry implements FastSerializable, Poolable {
     public void writeExternal(FastSerializer out) throws IOException {
         out.writeLong(this.txnId.longValue());
         out.writeLong(EstTime.currentTimeMillis());
+        out.writeInt(this.basePartition);
+        out.writeBoolean(this.singlePartitioned);
         out.writeInt(this.procId);
         out.writeObject(this.procParams);
         
         //throw new RuntimeException("txnId : " + txnId + " timestamp : " + EstTime.currentTimeMillis() + " procId : " + procId + " procParams : " + procParams.toString());
     }
     
+    public Long getTransactionId() {
+        return (this.txnId);
+    }
+    public int getBasePartition() {
+        return (this.basePartition);
+    }
+    /**
+     * Returns true if this txn only touched its base partition
+     * @return
+     */
+    public boolean isSinglePartitioned() {
+        return (this.singlePartitioned);
+    }
+    public int getProcedureId() {
+        return (this.procId);
+    }
+    public ParameterSet getProcedureParams() {
+        return (this.procParams);
+    }
+    
     public String toString() {
         return ("Txn #" + this.txnId + " / Proc #" + this.procId);
     }
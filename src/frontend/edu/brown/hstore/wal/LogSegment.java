@@ -0,0 +1,300 @@
+package edu.brown.hstore.wal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single fixed-size, preallocated command log segment file.
+ * The file is completely zeroed out when it is created so that the
+ * file system has already allocated all of its blocks before we ever
+ * write to it. That means that flushing a segment only requires us to
+ * sync the data and not the file's metadata, unless a record that was too big
+ * for an empty segment made the file grow. Every record in a segment
+ * has to start with its length as a four byte int, so a length of zero
+ * marks the end of the segment's data.
+ */
+public class LogSegment {
+
+    public static final String INDEX_SUFFIX = ".index";
+    private static final int ZERO_BUFFER_SIZE = 1048576; // 1MB
+
+    private final int id;
+    private final File file;
+    private final FileChannel channel;
+    private final long capacity;
+    private long position = 0;
+    private int records = 0;
+    private long maxTxnId = -1;
+
+    /**
+     * Set when a write went past the preallocated size of the file, which means
+     * that the next force() has to sync the file's metadata too
+     */
+    private volatile boolean extended = false;
+
+    private LogSegment(int id, File file, FileChannel channel, long capacity) {
+        this.id = id;
+        this.file = file;
+        this.channel = channel;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Create a new segment file for the given log and fill it with zeroes
+     * @param base the path of the command log
+     * @param id the segment's sequence number
+     * @param capacity the size of the segment in bytes
+     * @return
+     * @throws IOException
+     */
+    public static LogSegment create(File base, int id, long capacity) throws IOException {
+        File file = getSegmentFile(base, id);
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        // Throw away anything that was left over from an old segment with the same name
+        channel.truncate(0);
+        ByteBuffer zeroes = ByteBuffer.allocateDirect((int)Math.min(ZERO_BUFFER_SIZE, capacity));
+        long written = 0;
+        while (written < capacity) {
+            zeroes.clear();
+            zeroes.limit((int)Math.min(zeroes.capacity(), capacity - written));
+            written += channel.write(zeroes, written);
+        } // WHILE
+        // This is the only time that we need to sync the file's metadata
+        channel.force(true);
+        return (new LogSegment(id, file, channel, capacity));
+    }
+
+    // ----------------------------------------------------------------------------
+    // FILE NAMING
+    // ----------------------------------------------------------------------------
+
+    public static File getSegmentFile(File base, int id) {
+        return new File(String.format("%s.%06d", base.getPath(), id));
+    }
+
+    public static File getIndexFile(File base) {
+        return new File(base.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Atomically replace the index for the given log with the list of segments
+     * @param base
+     * @param segments
+     * @throws IOException
+     */
+    public static void writeIndex(File base, List<LogSegment> segments) throws IOException {
+        File index = getIndexFile(base);
+        File temp = new File(index.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp, false);
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (LogSegment s : segments) {
+                sb.append(s.file.getName()).append("\n");
+            } // FOR
+            out.write(sb.toString().getBytes());
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        if (temp.renameTo(index) == false) {
+            throw new IOException("Failed to update command log index " + index);
+        }
+        // The rename is not durable until the directory entry is on disk
+        syncDirectory(index.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Sync the given directory so that any files that were created or renamed in
+     * it survive a crash. The Java 6 API has no way to open a directory, so we go
+     * through java.nio.file by reflection. If the JVM is too old to have it, then
+     * this does nothing.
+     * @param dir
+     * @throws IOException
+     */
+    static void syncDirectory(File dir) throws IOException {
+        FileChannel channel = null;
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+            Object options = Array.newInstance(optionClass, 1);
+            Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+            Object path = File.class.getMethod("toPath").invoke(dir);
+            Method open = FileChannel.class.getMethod("open", pathClass, options.getClass());
+            channel = (FileChannel)open.invoke(null, path, options);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+            throw new IOException("Failed to open directory " + dir, ex.getCause());
+        } catch (Exception ex) {
+            // Not available in this JVM
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read the index for the given log and return the list of segment files in
+     * the order that they were written. Returns null if the log does not have an index.
+     * @param base
+     * @return
+     * @throws IOException
+     */
+    public static List<File> readIndex(File base) throws IOException {
+        File index = getIndexFile(base);
+        if (index.exists() == false) return (null);
+        List<File> files = new ArrayList<File>();
+        BufferedReader in = new BufferedReader(new FileReader(index));
+        try {
+            String line = null;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                files.add(new File(index.getParentFile(), line));
+            } // WHILE
+        } finally {
+            in.close();
+        }
+        return (files);
+    }
+
+    // ----------------------------------------------------------------------------
+    // WRITING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Write the log header at the beginning of this segment. This must be
+     * called before any records are appended
+     * @param header
+     * @throws IOException
+     */
+    public void writeHeader(ByteBuffer header) throws IOException {
+        assert(this.position == 0);
+        while (header.hasRemaining()) {
+            this.position += this.channel.write(header, this.position);
+        } // WHILE
+    }
+
+    /**
+     * Returns true if this segment has enough room left for a record
+     * of the given size. We always leave room for the zero length at the end.
+     * @param size
+     * @return
+     */
+    public boolean hasRoom(int size) {
+        return (this.position + size + 4 <= this.capacity);
+    }
+
+    /**
+     * Append a record to this segment. The buffer should contain exactly one
+     * record (including its length prefix) between its position and limit
+     * @param record
+     * @param txnId the largest txnId in the record
+     * @throws IOException
+     */
+    public void append(ByteBuffer record, long txnId) throws IOException {
+        assert(record.remaining() > 4);
+        assert(record.getInt(record.position()) > 0);
+        while (record.hasRemaining()) {
+            this.position += this.channel.write(record, this.position);
+        } // WHILE
+        this.records++;
+        if (txnId > this.maxTxnId) this.maxTxnId = txnId;
+        if (this.position > this.capacity) this.extended = true;
+    }
+
+    /**
+     * Append multiple records to this segment with a single gathering write.
+     * Each buffer should contain exactly one record (including its length prefix)
+     * @param records
+     * @param length the number of buffers in the array to write
+     * @param txnId the largest txnId in the records
+     * @throws IOException
+     */
+    public void append(ByteBuffer records[], int length, long txnId) throws IOException {
+        long remaining = 0;
+        for (int i = 0; i < length; i++) {
+            assert(records[i].remaining() > 4);
+            assert(records[i].getInt(records[i].position()) > 0);
+            remaining += records[i].remaining();
+        } // FOR
+        this.channel.position(this.position);
+        while (remaining > 0) {
+            long written = this.channel.write(records, 0, length);
+            this.position += written;
+            remaining -= written;
+        } // WHILE
+        this.records += length;
+        if (txnId > this.maxTxnId) this.maxTxnId = txnId;
+        if (this.position > this.capacity) this.extended = true;
+    }
+
+    /**
+     * Flush all of the data written to this segment out to disk.
+     * We don't need to sync the metadata because the file was preallocated,
+     * unless a write made the file bigger than that.
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        if (this.extended) {
+            // Clear it first so that we don't miss a write that extends it again
+            this.extended = false;
+            this.channel.force(true);
+        } else {
+            this.channel.force(false);
+        }
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    public int getId() {
+        return (this.id);
+    }
+    public File getFile() {
+        return (this.file);
+    }
+    public long getCapacity() {
+        return (this.capacity);
+    }
+    public long getPosition() {
+        return (this.position);
+    }
+    /**
+     * Returns true if no records have been appended to this segment
+     * @return
+     */
+    public boolean isEmpty() {
+        return (this.records == 0);
+    }
+    /**
+     * Returns the largest txnId that was written to this segment
+     * @return
+     */
+    public long getMaxTxnId() {
+        return (this.maxTxnId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%d / %d bytes]", this.file.getName(), this.position, this.capacity);
+    }
+}
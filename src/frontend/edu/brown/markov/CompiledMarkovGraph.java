@@ -0,0 +1,223 @@
+package edu.brown.markov;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.catalog.Statement;
+
+/**
+ * A read-only, array-based copy of a MarkovGraph that the TransactionEstimator and
+ * MarkovPathEstimator can walk without allocating any iterators or going through
+ * the graph's collections.
+ * <p>
+ * The outgoing edges are stored in compressed sparse row form. The edges for the vertex
+ * at index i are at positions edge_offsets[i] up to (but not including) edge_offsets[i+1]
+ * in the edge arrays. Each vertex's edges are sorted by MarkovEdge.compareTo(), so the
+ * most likely edge comes first. This is the same order that the MarkovPathEstimator gets
+ * out of its TreeSet of candidate edges.
+ * <p>
+ * We also take a snapshot of the edges' probabilities when we compile the graph.
+ * A CompiledMarkovGraph is never modified. MarkovGraph.calculateProbabilities() will make
+ * a new one every time that the probabilities are recomputed, so it may be missing any
+ * vertices or edges that were added to the graph since then.
+ */
+public class CompiledMarkovGraph {
+
+    /** The MarkovGraph version that we were compiled from */
+    private final int version;
+
+    private final Map<MarkovVertex, Integer> vertex_idxs;
+    private final MarkovVertex vertices[];
+    /** The sum of the probabilities of all the outgoing edges for each vertex */
+    private final float vertex_total_probabilities[];
+    private final int max_outdegree;
+
+    private final int edge_offsets[];
+    private final MarkovEdge edges[];
+    private final int edge_dests[];
+    private final float edge_probabilities[];
+    /**
+     * True if this is the first outgoing edge of its source vertex that goes to
+     * its destination's Statement+StatementInstanceIndex
+     */
+    private final boolean edge_first_stmts[];
+
+    /**
+     * Constructor
+     * The caller should make sure that nobody modifies the graph while we are compiling it
+     * @param markov
+     * @param version
+     */
+    protected CompiledMarkovGraph(MarkovGraph markov, int version) {
+        this.version = version;
+
+        Collection<MarkovVertex> all_vertices = markov.getVertices();
+        int num_vertices = all_vertices.size();
+        int num_edges = markov.getEdgeCount();
+        this.vertex_idxs = new IdentityHashMap<MarkovVertex, Integer>(num_vertices);
+        this.vertices = new MarkovVertex[num_vertices];
+        this.vertex_total_probabilities = new float[num_vertices];
+        this.edge_offsets = new int[num_vertices + 1];
+        this.edges = new MarkovEdge[num_edges];
+        this.edge_dests = new int[num_edges];
+        this.edge_probabilities = new float[num_edges];
+        this.edge_first_stmts = new boolean[num_edges];
+
+        int v_idx = 0;
+        for (MarkovVertex v : all_vertices) {
+            this.vertices[v_idx] = v;
+            this.vertex_idxs.put(v, v_idx);
+            v_idx++;
+        } // FOR
+
+        int max_outdegree = 0;
+        int pos = 0;
+        List<MarkovEdge> out_edges = new ArrayList<MarkovEdge>();
+        for (v_idx = 0; v_idx < num_vertices; v_idx++) {
+            MarkovVertex v = this.vertices[v_idx];
+            this.edge_offsets[v_idx] = pos;
+            out_edges.clear();
+            out_edges.addAll(markov.getOutEdges(v));
+            Collections.sort(out_edges);
+            max_outdegree = Math.max(max_outdegree, out_edges.size());
+
+            float total = 0.0f;
+            for (MarkovEdge e : out_edges) {
+                MarkovVertex dest = markov.getDest(e);
+                this.edges[pos] = e;
+                this.edge_dests[pos] = this.vertex_idxs.get(dest);
+                this.edge_probabilities[pos] = e.getProbability();
+                this.edge_first_stmts[pos] = true;
+                for (int prev = this.edge_offsets[v_idx]; prev < pos; prev++) {
+                    MarkovVertex other = this.vertices[this.edge_dests[prev]];
+                    if (other.getQueryInstanceIndex() == dest.getQueryInstanceIndex() &&
+                        other.getCatalogItem().equals(dest.getCatalogItem())) {
+                        this.edge_first_stmts[pos] = false;
+                        break;
+                    }
+                } // FOR
+                total += this.edge_probabilities[pos];
+                pos++;
+            } // FOR
+            this.vertex_total_probabilities[v_idx] = total;
+        } // FOR
+        assert(pos == num_edges) : String.format("Compiled %d edges but %s has %d", pos, markov, num_edges);
+        this.edge_offsets[num_vertices] = pos;
+        this.max_outdegree = max_outdegree;
+    }
+
+    public int getVersion() {
+        return (this.version);
+    }
+
+    /**
+     * Return the largest number of outgoing edges that any vertex has
+     * @return
+     */
+    public int getMaxOutDegree() {
+        return (this.max_outdegree);
+    }
+
+    // ----------------------------------------------------------------------------
+    // VERTEX METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return the index of the given vertex, or -1 if it was added to the
+     * MarkovGraph after we were compiled
+     * @param v
+     * @return
+     */
+    public int getVertexIndex(MarkovVertex v) {
+        Integer idx = this.vertex_idxs.get(v);
+        return (idx != null ? idx.intValue() : -1);
+    }
+
+    public MarkovVertex getVertex(int v_idx) {
+        return (this.vertices[v_idx]);
+    }
+
+    /**
+     * Return the sum of the probabilities of the given vertex's outgoing edges
+     * @param v_idx
+     * @return
+     */
+    public float getTotalProbability(int v_idx) {
+        return (this.vertex_total_probabilities[v_idx]);
+    }
+
+    // ----------------------------------------------------------------------------
+    // EDGE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The position of the first outgoing edge for the given vertex
+     * @param v_idx
+     * @return
+     */
+    public int getEdgeStart(int v_idx) {
+        return (this.edge_offsets[v_idx]);
+    }
+
+    /**
+     * The position after the last outgoing edge for the given vertex
+     * @param v_idx
+     * @return
+     */
+    public int getEdgeEnd(int v_idx) {
+        return (this.edge_offsets[v_idx + 1]);
+    }
+
+    public MarkovEdge getEdge(int pos) {
+        return (this.edges[pos]);
+    }
+
+    public MarkovVertex getEdgeDest(int pos) {
+        return (this.vertices[this.edge_dests[pos]]);
+    }
+
+    public float getEdgeProbability(int pos) {
+        return (this.edge_probabilities[pos]);
+    }
+
+    /**
+     * Returns true if the edge at the given position is the first outgoing edge of its
+     * source vertex that goes to its destination's Statement+StatementInstanceIndex.
+     * @param pos
+     * @return
+     */
+    public boolean isFirstStatementEdge(int pos) {
+        return (this.edge_first_stmts[pos]);
+    }
+
+    /**
+     * Find the position of the outgoing edge of the given vertex that goes
+     * to a vertex with the given Statement information.
+     * Returns -1 if there is no such edge.
+     * @param v_idx
+     * @param catalog_stmt
+     * @param partitions
+     * @param past_partitions
+     * @param queryInstanceIndex
+     * @return
+     */
+    public int findEdge(int v_idx, Statement catalog_stmt, Collection<Integer> partitions, Collection<Integer> past_partitions, int queryInstanceIndex) {
+        if (v_idx < 0) return (-1);
+        for (int pos = this.edge_offsets[v_idx], end = this.edge_offsets[v_idx + 1]; pos < end; pos++) {
+            if (this.vertices[this.edge_dests[pos]].isEqual(catalog_stmt, partitions, past_partitions, queryInstanceIndex)) {
+                return (pos);
+            }
+        } // FOR
+        return (-1);
+    }
+
+    @Override
+    public String toString() {
+        return (String.format("%s[version=%d, vertices=%d, edges=%d]",
+                              this.getClass().getSimpleName(), this.version, this.vertices.length, this.edges.length));
+    }
+}
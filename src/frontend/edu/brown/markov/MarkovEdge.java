@@ -1,5 +1,7 @@
 package edu.brown.markov;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
@@ -42,8 +44,11 @@ public class MarkovEdge extends AbstractEdge implements MarkovHitTrackable {
      * This is the temporary number of times that we have traversed over this edge in the current "period" of the
      * MarkovGraph. This will eventually get folded into the global hits count, but we need to keep it separate so that
      * we can determine whether the current workload is deviating from the training set
+     * This is updated without locking by the TransactionEstimators. See INSTANCEHITS_UPDATER
      */
-    public transient int instancehits = 0;
+    public transient volatile int instancehits = 0;
+    private static final AtomicIntegerFieldUpdater<MarkovEdge> INSTANCEHITS_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(MarkovEdge.class, "instancehits");
 
     /**
      * Constructor
@@ -132,8 +137,7 @@ public class MarkovEdge extends AbstractEdge implements MarkovHitTrackable {
     
     @Override
     public void applyInstanceHitsToTotalHits() {
-        this.totalhits += this.instancehits;
-        this.instancehits = 0;
+        this.totalhits += INSTANCEHITS_UPDATER.getAndSet(this, 0);
     }
     @Override
     public void incrementTotalHits() {
@@ -153,7 +157,7 @@ public class MarkovEdge extends AbstractEdge implements MarkovHitTrackable {
     }
     @Override
     public int incrementInstanceHits() {
-        return (++this.instancehits);
+        return (INSTANCEHITS_UPDATER.incrementAndGet(this));
     }
     
     
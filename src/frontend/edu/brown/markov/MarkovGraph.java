@@ -9,7 +9,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.collections15.keyvalue.MultiKey;
 import org.apache.log4j.Logger;
@@ -39,6 +41,7 @@ import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.ProjectType;
 import edu.brown.workload.QueryTrace;
 import edu.brown.workload.TransactionTrace;
+import edu.uci.ics.jung.graph.util.EdgeType;
 
 /**
  * Markov Model Graph
@@ -84,7 +87,26 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     /** Percentage of how accurate this graph has been */
     private transient double xact_accuracy = 1.0;
     /** How many times have we recomputed the probabilities for this graph */
-    private transient int recompute_count = 0;
+    private transient volatile int recompute_count = 0;
+    /** Set to true when somebody has asked for this graph's probabilities to be recomputed */
+    private transient final AtomicBoolean recompute_pending = new AtomicBoolean(false);
+    /**
+     * TransactionEstimators hold the read lock while they increment the instance hits for
+     * a finished txn's path. We only need the write lock when we fold the instance hits into
+     * the total hits, so that the vertex counters always agree with their edges' counters
+     */
+    private transient final ReentrantReadWriteLock hits_lock = new ReentrantReadWriteLock();
+    /**
+     * Anybody that adds or removes vertices and edges holds the write lock.
+     * calculateProbabilities() holds the read lock while it walks the graph, as do the
+     * TransactionEstimators while they look for the next vertex for a txn. That way a
+     * txn that follows an existing path never has to wait for a recompute.
+     */
+    private transient final ReentrantReadWriteLock graph_lock = new ReentrantReadWriteLock();
+    /** Incremented whenever the vertices, edges, or probabilities in this graph change */
+    private transient final AtomicInteger version = new AtomicInteger(0);
+    /** The last compiled version of this graph. See getCompiled() */
+    private transient volatile CompiledMarkovGraph compiled = null;
 
     // ----------------------------------------------------------------------------
     // CONSTRUCTORS
@@ -249,13 +271,24 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         assert(dest != null);
         
         MarkovEdge e = null;
-        synchronized (source) {
+        this.graph_lock.readLock().lock();
+        try {
             e = this.findEdge(source, dest);
-            if (e == null) {
-                e = new MarkovEdge(this);
-                this.addEdge(e, source, dest);
+        } finally {
+            this.graph_lock.readLock().unlock();
+        }
+        if (e == null) {
+            this.graph_lock.writeLock().lock();
+            try {
+                e = this.findEdge(source, dest);
+                if (e == null) {
+                    e = new MarkovEdge(this);
+                    this.addEdge(e, source, dest);
+                }
+            } finally {
+                this.graph_lock.writeLock().unlock();
             }
-        } // SYNCH
+        }
         return (e);
     }
     
@@ -265,7 +298,8 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     @Override
     public boolean addVertex(MarkovVertex v) {
         boolean ret;
-        synchronized (v) {
+        this.graph_lock.writeLock().lock();
+        try {
             ret = super.addVertex(v);
             if (ret) {
                 if (v.isQueryVertex()) {
@@ -282,7 +316,104 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
                     this.cache_specialVertices[idx] = v;
                 }
             }
-        } // SYNCH
+            if (ret) this.version.incrementAndGet();
+        } finally {
+            this.graph_lock.writeLock().unlock();
+        }
+        return (ret);
+    }
+    
+    @Override
+    public boolean addEdge(MarkovEdge e, edu.uci.ics.jung.graph.util.Pair<? extends MarkovVertex> endpoints, EdgeType edgeType) {
+        this.graph_lock.writeLock().lock();
+        try {
+            boolean ret = super.addEdge(e, endpoints, edgeType);
+            if (ret) this.version.incrementAndGet();
+            return (ret);
+        } finally {
+            this.graph_lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public boolean removeVertex(MarkovVertex v) {
+        this.graph_lock.writeLock().lock();
+        try {
+            boolean ret = super.removeVertex(v);
+            if (ret) this.version.incrementAndGet();
+            return (ret);
+        } finally {
+            this.graph_lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public boolean removeEdge(MarkovEdge e) {
+        this.graph_lock.writeLock().lock();
+        try {
+            boolean ret = super.removeEdge(e);
+            if (ret) this.version.incrementAndGet();
+            return (ret);
+        } finally {
+            this.graph_lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Return the lock for the structure of this graph. Anybody that walks the vertices and
+     * edges while other threads could be adding to it should hold the read lock. The
+     * write lock is held whenever a vertex or edge is added or removed.
+     * @return
+     */
+    public ReentrantReadWriteLock getLock() {
+        return (this.graph_lock);
+    }
+    
+    /**
+     * Return the version of this graph. This changes whenever a vertex or an edge is added
+     * or removed, or the probabilities are recomputed.
+     * @return
+     */
+    public int getVersion() {
+        return (this.version.get());
+    }
+
+    /**
+     * Return the last CompiledMarkovGraph for this graph. We only compile the graph here
+     * the first time that somebody asks for it. After that calculateProbabilities() will
+     * compile a new one every time that it runs, so the snapshot that we return here will
+     * not include any vertices or edges that were added since the last recompute.
+     * Anybody that uses it has to fall back to the graph itself when it misses.
+     * @return
+     */
+    public CompiledMarkovGraph getCompiled() {
+        CompiledMarkovGraph ret = this.compiled;
+        if (ret == null) {
+            synchronized (this) {
+                ret = this.compiled;
+                if (ret == null) {
+                    this.graph_lock.readLock().lock();
+                    try {
+                        ret = this.compile();
+                    } finally {
+                        this.graph_lock.readLock().unlock();
+                    }
+                }
+            } // SYNCH
+        }
+        return (ret);
+    }
+    
+    /**
+     * Compile a new snapshot of this graph and make it the one that getCompiled() returns.
+     * The caller must hold the graph's read lock so that nobody can add to the graph
+     * while we are walking it.
+     * @return
+     */
+    private CompiledMarkovGraph compile() {
+        CompiledMarkovGraph ret = new CompiledMarkovGraph(this, this.version.get());
+        if (debug.get()) LOG.debug("Compiled " + this + ": " + ret);
+        this.compiled = ret;
         return (ret);
     }
 
@@ -389,21 +520,40 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
 
     /**
      * Calculate the probabilities for this graph.
-     * First we will reset all of the existing probabilities and then apply the instancehits to 
-     * the totalhits for each graph element
+     * First we will apply the instancehits to the totalhits for each graph element.
+     * The new vertex probabilities are computed off to the side and then swapped in,
+     * so anybody reading them while we are running still sees the old ones.
+     * Nobody can add vertices or edges to the graph until we are done.
+     * If anybody has asked for the CompiledMarkovGraph, we will compile a new one too.
      */
     public synchronized void calculateProbabilities() {
-        // Reset all probabilities
-        for (MarkovVertex v : this.getVertices()) {
-            v.resetAllProbabilities();
-        } // FOR
-        
-        this.normalizeTimes();
-        for (MarkovVertex v : this.getVertices()) {
-            v.applyInstanceHitsToTotalHits();
+        this.graph_lock.readLock().lock();
+        try {
+            this.calculateProbabilitiesImpl();
+            this.version.incrementAndGet();
+            
+            // Swap in a new compiled snapshot with the new probabilities if
+            // somebody has been using them
+            if (this.compiled != null) this.compile();
+        } finally {
+            this.graph_lock.readLock().unlock();
         }
-        for (MarkovEdge e : this.getEdges()) {
-            e.applyInstanceHitsToTotalHits();
+        this.recompute_count++;
+        this.recompute_pending.set(false);
+    }
+    
+    private void calculateProbabilitiesImpl() {
+        this.normalizeTimes();
+        this.hits_lock.writeLock().lock();
+        try {
+            for (MarkovVertex v : this.getVertices()) {
+                v.applyInstanceHitsToTotalHits();
+            }
+            for (MarkovEdge e : this.getEdges()) {
+                e.applyInstanceHitsToTotalHits();
+            }
+        } finally {
+            this.hits_lock.writeLock().unlock();
         }
         
         // We first need to calculate the edge probabilities because the probabilities
@@ -412,8 +562,33 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         
         // Then traverse the graph and calculate the vertex probability tables
         this.calculateVertexProbabilities();
-        
-        this.recompute_count++;
+    }
+    
+    /**
+     * Mark this graph as needing to have its probabilities recomputed.
+     * Returns false if it is already waiting for calculateProbabilities() to be invoked,
+     * in which case the caller should not bother to recompute it again. 
+     * @return
+     */
+    public boolean markRecomputePending() {
+        return (this.recompute_pending.compareAndSet(false, true));
+    }
+    
+    /**
+     * Increment the instance hits for the vertices and edges that a txn traversed.
+     * This is safe to call from multiple threads and will only block while
+     * calculateProbabilities() is folding the instance hits into the total hits.
+     * @param vertices
+     * @param edges
+     */
+    public void incrementInstanceHits(Collection<MarkovVertex> vertices, Collection<MarkovEdge> edges) {
+        this.hits_lock.readLock().lock();
+        try {
+            for (MarkovVertex v : vertices) v.incrementInstanceHits();
+            for (MarkovEdge e : edges) e.incrementInstanceHits();
+        } finally {
+            this.hits_lock.readLock().unlock();
+        }
     }
 
     /**
@@ -676,11 +851,16 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
      * other transaction running at the same time
      */
     public synchronized void resetCounters() {
-        for (MarkovVertex v : this.getVertices()) {
-            v.setInstanceHits(0);
-        }
-        for (MarkovEdge e : this.getEdges()) {
-            e.setInstanceHits(0);
+        this.hits_lock.writeLock().lock();
+        try {
+            for (MarkovVertex v : this.getVertices()) {
+                v.setInstanceHits(0);
+            }
+            for (MarkovEdge e : this.getEdges()) {
+                e.setInstanceHits(0);
+            }
+        } finally {
+            this.hits_lock.writeLock().unlock();
         }
     }
     
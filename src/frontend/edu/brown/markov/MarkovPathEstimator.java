@@ -41,6 +41,13 @@ import edu.brown.workload.TransactionTrace;
 
 /**
  * Path Estimator for TransactionEstimator
+ * <p>
+ * When ${site.markov_compiled_graphs} is enabled, picking the next edge at each vertex
+ * only reads the CompiledMarkovGraph's arrays. The traversal itself still goes through
+ * VertexTreeWalker, so each step still allocates a little: the queue nodes for the
+ * pooled Children, the attached_children map entry, and the visited list and stack
+ * growing. estimateStatementPartitions() also allocates a new argument array for each
+ * Statement that it looks at.
  * @author pavlo
  */
 public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEdge> implements Loggable {
@@ -81,6 +88,8 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
     private int base_partition;
     private Object args[];
     private float greatest_abort = MarkovUtil.NULL_MARKER;
+    /** The version of the MarkovGraph when we were initialized */
+    private int markov_version = -1;
 
     private final Collection<Integer> all_partitions;
     private final Set<Integer> touched_partitions = new HashSet<Integer>();
@@ -135,6 +144,18 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
     
     private final transient Map<Statement, Object[]> stmt_param_arrays = new HashMap<Statement, Object[]>();
     
+    /**
+     * The compiled version of the MarkovGraph that we are traversing
+     * This will be null if ${site.markov_compiled_graphs} is disabled
+     */
+    private transient CompiledMarkovGraph compiled = null;
+    
+    /**
+     * Which outgoing edges of the current vertex are candidates when we are using the CompiledMarkovGraph
+     * The offsets are relative to the vertex's first edge
+     */
+    private transient boolean candidate_edges[] = new boolean[0];
+    
     // ----------------------------------------------------------------------------
     // CONSTRUCTORS
     // ----------------------------------------------------------------------------
@@ -186,6 +207,10 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         this.correlations = this.t_estimator.getCorrelations();
         this.base_partition = base_partition;
         this.args = args;
+        this.markov_version = markov.getVersion();
+        if (HStoreConf.singleton().site.markov_compiled_graphs) {
+            this.compiled = markov.getCompiled();
+        }
         
         assert(this.t_estimator.getCorrelations() != null);
         assert(this.base_partition >= 0);
@@ -210,11 +235,13 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         super.finish();
         this.confidence = MarkovUtil.NULL_MARKER;
         this.greatest_abort = MarkovUtil.NULL_MARKER;
+        this.markov_version = -1;
         this.cached = false;
         
         this.t_estimator = null;
         this.p_estimator = null;
         this.correlations = null;
+        this.compiled = null;
         
         this.estimate.finish();
         this.touched_partitions.clear();
@@ -232,6 +259,14 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         return this.cached;
     }
     
+    /**
+     * Return the version of the MarkovGraph that this estimate was made from
+     * @return
+     */
+    public int getMarkovGraphVersion() {
+        return (this.markov_version);
+    }
+    
     public MarkovEstimate getEstimate() {
         return estimate;
     }
@@ -282,7 +317,7 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
             for (StmtParameter catalog_param : catalog_stmt.getParameters()) {
                 arr[catalog_param.getIndex()] = catalog_param;
             }
-            this.stmt_param_arrays.put(catalog_stmt, arr);
+            this.stmt_params.put(catalog_stmt, arr);
         }
         return (arr);
     }
@@ -313,6 +348,19 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         this.past_partitions.addAll(element.getPartitions());
         
         if (t) LOG.trace("Current Vertex: " + element);
+        
+        // Use the compiled version of the graph if we have it. If the vertex was added
+        // to the graph after it was compiled, then we'll just go back to the slow way
+        if (this.compiled != null) {
+            int v_idx = this.compiled.getVertexIndex(element);
+            if (v_idx >= 0) {
+                this.populate_children_compiled(children, element, v_idx);
+                return;
+            }
+            if (d) LOG.debug(String.format("%s is not in %s. Not using it anymore", element, this.compiled));
+            this.compiled = null;
+        }
+        
         Statement cur_catalog_stmt = element.getCatalogItem();
         int cur_catalog_stmt_index = element.getQueryInstanceIndex();
         MarkovGraph markov = (MarkovGraph)this.getGraph();
@@ -364,121 +412,36 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
             Integer catalog_stmt_index = pair.getSecond();
             if (t) LOG.trace("Examining " + pair);
             
-            // Get the correlation objects (if any) for next
-            // This is the only way we can predict what partitions we will touch
-            SortedMap<StmtParameter, SortedSet<ParameterMapping>> param_correlations = this.correlations.get(catalog_stmt, catalog_stmt_index);
-            if (param_correlations == null) {
-                if (t) {
-                    LOG.warn("No parameter correlations for " + pair);
-                    LOG.trace(this.correlations.debug(catalog_stmt));
-                }
-                continue;
+            boolean has_partitions = false;
+            try {
+                has_partitions = this.estimateStatementPartitions(catalog_stmt, catalog_stmt_index.intValue());
+            } catch (Exception ex) {
+                this.stop();
+                return;
             }
             
-            // Go through the StmtParameters and map values from ProcParameters
-            StmtParameter stmt_params[] = this.getStatementParams(catalog_stmt);
-            Object stmt_args[] = new Object[stmt_params.length]; // this.getStatementParamsArray(catalog_stmt);
-            boolean stmt_args_set = false;
-            for (int i = 0; i < stmt_args.length; i++) {
-                StmtParameter catalog_stmt_param = stmt_params[i];
-                assert(catalog_stmt_param != null);
-                if (t) LOG.trace("Examining " + CatalogUtil.getDisplayName(catalog_stmt_param, true));
-                
-                SortedSet<ParameterMapping> correlations = param_correlations.get(catalog_stmt_param);
-                if (correlations == null || correlations.isEmpty()) {
-                    if (t) LOG.trace("No parameter correlations for " + CatalogUtil.getDisplayName(catalog_stmt_param, true) + " from " + pair);
-                    continue;
-                }
-                if (t) LOG.trace("Found " + correlations.size() + " correlation(s) for " + CatalogUtil.getDisplayName(catalog_stmt_param, true));
-        
-                // Special Case:
-                // If the number of possible Statements we could execute next is greater than one,
-                // then we need to prune our list by removing those Statements who have a StmtParameter
-                // that are correlated to a ProcParameter that doesn't exist (such as referencing an
-                // array element that is greater than the size of that current array)
-                // TODO: For now we are just going always pick the first Correlation 
-                // that comes back. Is there any choice that we would need to make in order
-                // to have a better prediction about what the transaction might do?
-                if (correlations.size() > 1) {
-                    if (d) LOG.warn("Multiple parameter correlations for " + CatalogUtil.getDisplayName(catalog_stmt_param, true));
-                    if (t) {
-                        int ctr = 0;
-                        for (ParameterMapping c : correlations) {
-                            LOG.trace("[" + (ctr++) + "] Correlation: " + c);
-                        } // FOR
-                    }
-                }
-                for (ParameterMapping c : correlations) {
-                    if (t) LOG.trace("Correlation: " + c);
-                    ProcParameter catalog_proc_param = c.getProcParameter();
-                    if (catalog_proc_param.getIsarray()) {
-                        Object proc_inner_args[] = (Object[])args[c.getProcParameter().getIndex()];
-                        if (t) LOG.trace(CatalogUtil.getDisplayName(c.getProcParameter(), true) + " is an array: " + Arrays.toString(proc_inner_args));
-                        
-                        // TODO: If this Correlation references an array element that is not available for this
-                        // current transaction, should we just skip this correlation or skip the entire query?
-                        if (proc_inner_args.length <= c.getProcParameterIndex()) {
-                            if (t) LOG.trace("Unable to map parameters: " +
-                                                 "proc_inner_args.length[" + proc_inner_args.length + "] <= " +
-                                                 "c.getProcParameterIndex[" + c.getProcParameterIndex() + "]"); 
+            // Now for this given list of partitions, find a Vertex in our next set
+            // that has the same partitions
+            if (has_partitions) {
+                this.candidate_edge = null;
+                for (MarkovVertex next : next_vertices) {
+                    if (next.isEqual(catalog_stmt, this.stmt_partitions, this.past_partitions, catalog_stmt_index)) {
+                        // BINGO!!!
+                        assert(this.candidate_edge == null);
+                        try {
+                            this.candidate_edge = markov.findEdge(element, next);
+                        } catch (NullPointerException ex) {
                             continue;
                         }
-                        stmt_args[i] = proc_inner_args[c.getProcParameterIndex()];
-                        stmt_args_set = true;
-                        if (t) LOG.trace("Mapped " + CatalogUtil.getDisplayName(c.getProcParameter()) + "[" + c.getProcParameterIndex() + "] to " +
-                                             CatalogUtil.getDisplayName(catalog_stmt_param) + " [value=" + stmt_args[i] + "]");
-                    } else {
-                        stmt_args[i] = args[c.getProcParameter().getIndex()];
-                        stmt_args_set = true;
-                        if (t) LOG.trace("Mapped " + CatalogUtil.getDisplayName(c.getProcParameter()) + " to " +
-                                             CatalogUtil.getDisplayName(catalog_stmt_param) + " [value=" + stmt_args[i] + "]"); 
-                    }
-                    break;
-                } // FOR (Correlation)
-            } // FOR (StmtParameter)
-                
-            // If we set any of the stmt_args in the previous step, then we can throw it
-            // to our good old friend the PartitionEstimator and see whether we can figure
-            // things out for this Statement
-            if (stmt_args_set) {
-                if (t) LOG.trace("Mapped StmtParameters: " + Arrays.toString(stmt_args));
-                this.stmt_partitions.clear();
-                try {
-                    this.p_estimator.getAllPartitions(this.stmt_partitions, catalog_stmt, stmt_args, this.base_partition);
-                } catch (Exception ex) {
-                    String msg = "Failed to calculate partitions for " + catalog_stmt + " using parameters " + Arrays.toString(stmt_args);
-                    LOG.error(msg, ex);
-                    this.stop();
-                    return;
-                }
-                if (t) LOG.trace("Estimated Partitions for " + catalog_stmt + ": " + this.stmt_partitions);
-                
-                // Now for this given list of partitions, find a Vertex in our next set
-                // that has the same partitions
-                if (this.stmt_partitions != null && !this.stmt_partitions.isEmpty()) {
-                    this.candidate_edge = null;
-                    for (MarkovVertex next : next_vertices) {
-                        if (next.isEqual(catalog_stmt, this.stmt_partitions, this.past_partitions, catalog_stmt_index)) {
-                            // BINGO!!!
-                            assert(this.candidate_edge == null);
-                            try {
-                                this.candidate_edge = markov.findEdge(element, next);
-                            } catch (NullPointerException ex) {
-                                continue;
-                            }
-                            assert(this.candidate_edge != null);
+                        assert(this.candidate_edge != null);
 
-                            this.candidates.add(this.candidate_edge);
-                            if (t) LOG.trace("Found candidate edge to " + next + " [" + this.candidate_edge + "]");
-                            break; // ???
-                        }
-                    } // FOR (Vertex
-                    if (candidate_edge == null && t) LOG.trace("Failed to find candidate edge from " + element + " to " + pair);
-                }
-            // Without any stmt_args, there's nothing we can do here...
-            } else {
-                if (t) LOG.trace("No stmt_args for " + pair + ". Skipping...");
-            } // IF
+                        this.candidates.add(this.candidate_edge);
+                        if (t) LOG.trace("Found candidate edge to " + next + " [" + this.candidate_edge + "]");
+                        break; // ???
+                    }
+                } // FOR (Vertex
+                if (candidate_edge == null && t) LOG.trace("Failed to find candidate edge from " + element + " to " + pair);
+            }
         } // FOR
         
         // If we don't have any candidate edges and the FORCE TRAVERSAL flag is set, then we'll just
@@ -509,8 +472,6 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         if (num_candidates > 0) {
             MarkovEdge next_edge = CollectionUtil.first(this.candidates);
             MarkovVertex next_vertex = markov.getOpposite(element, next_edge);
-            children.addAfter(next_vertex);
-            if (was_forced) this.forced_vertices.add(next_vertex);
             
             // Our confidence is based on the total sum of the probabilities for all of the
             // edges that we could have taken in comparison to the one that we did take
@@ -526,73 +487,295 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
                     if (this.candidates.size() > 1) LOG.debug(StringUtil.addSpacers(v.debug()));
                 }
             } // FOR
-            this.confidence *= next_edge.getProbability() / total_probability;
-            
-            // Update our list of partitions touched by this transaction
-            Set<Integer> next_partitions = next_vertex.getPartitions();
-            String orig = next_partitions.toString();
-            float inverse_prob = 1.0f - this.confidence;
-            Statement catalog_stmt = next_vertex.getCatalogItem();
+            this.selectNext(children, next_vertex, next_edge.getProbability(), total_probability, was_forced);
+        } else {
+            if (t) LOG.trace("No matching children found. We have to stop...");
+        }
+    }
+    
+    /**
+     * The same as populate_children() but uses the arrays in the CompiledMarkovGraph
+     * instead of the MarkovGraph. The edges for each vertex in the CompiledMarkovGraph are already
+     * sorted by their probability, so the first candidate edge is the one that we want.
+     * @param children
+     * @param element
+     * @param v_idx
+     */
+    private void populate_children_compiled(Children<MarkovVertex> children, MarkovVertex element, int v_idx) {
+        final CompiledMarkovGraph compiled = this.compiled;
+        final int start = compiled.getEdgeStart(v_idx);
+        final int end = compiled.getEdgeEnd(v_idx);
+        if (this.candidate_edges.length < end - start) {
+            this.candidate_edges = new boolean[compiled.getMaxOutDegree()];
+        }
+        int num_candidates = 0;
+        for (int pos = start; pos < end; pos++) {
+            this.candidate_edges[pos - start] = false;
+        } // FOR
+        
+        for (int pos = start; pos < end; pos++) {
+            MarkovVertex next = compiled.getEdgeDest(pos);
             
-            // READ
-            if (catalog_stmt.getQuerytype() == QueryType.SELECT.getValue()) {
-                for (Integer p : next_partitions) {
-                    if (this.read_partitions.contains(p) == false) {
-                        if (t) LOG.trace(String.format("First time partition %d is read from! Setting read-only probability to %.03f", p, this.confidence));
-                        try {
-                            this.estimate.setReadOnlyProbability(p.intValue(), this.confidence);
-                        } catch (AssertionError ex) {
-                            System.err.println("BUSTED: " + next_vertex);
-                            System.err.println("NEXT PARTITIONS: " + next_partitions);
-                            System.err.println("ORIG PARTITIONS: " + orig);
-                            throw ex;
-                        }
-                        if (this.touched_partitions.contains(p) == false) {
-                            this.estimate.setDoneProbability(p.intValue(), inverse_prob);
-                        }
-                        this.read_partitions.add(p);
-                    }
-                    this.estimate.incrementTouchedCounter(p.intValue());
-                } // FOR
-            // WRITE
-            } else {
-                for (Integer p : next_partitions) {
-                    if (this.write_partitions.contains(p) == false) {
-                        if (t) LOG.trace(String.format("First time partition %d is written to! Setting write probability to %.03f", p, this.confidence));
-                        this.estimate.setReadOnlyProbability(p.intValue(), inverse_prob);
-                        this.estimate.setWriteProbability(p.intValue(), this.confidence);
-                        if (this.touched_partitions.contains(p) == false) {
-                            this.estimate.setDoneProbability(p.intValue(), inverse_prob);
-                        }
-                        this.write_partitions.add(p);
-                    }
-                    this.estimate.incrementTouchedCounter(p.intValue());
-                } // FOR
+            // COMMIT/ABORT are always candidates
+            if (next.isCommitVertex() || next.isAbortVertex()) {
+                this.candidate_edges[pos - start] = true;
+                num_candidates++;
+                continue;
             }
-            this.touched_partitions.addAll(next_partitions);
             
-            // If this is the first time that the path touched more than one partition, then we need to set the single-partition
-            // probability to be the confidence coefficient thus far
-            if (this.touched_partitions.size() > 1 && this.estimate.isSingleSitedProbabilitySet() == false) {
-                if (t) LOG.trace("Setting the single-partition probability to current confidence [" + this.confidence + "]");
-                this.estimate.setSingleSitedProbability(inverse_prob);
-            }
+            // We only need to figure out the partitions for each unique
+            // Statement+StatementIndex pair once
+            if (compiled.isFirstStatementEdge(pos) == false) continue;
+            Statement catalog_stmt = next.getCatalogItem();
+            int catalog_stmt_index = next.getQueryInstanceIndex();
+            if (t) LOG.trace(String.format("Examining %s[#%d]", catalog_stmt.fullName(), catalog_stmt_index));
             
-            // Keep track of the highest abort probability that we've seen thus far
-            if (next_vertex.isQueryVertex() && next_vertex.getAbortProbability() > this.greatest_abort) {
-                this.greatest_abort = next_vertex.getAbortProbability();
+            boolean has_partitions = false;
+            try {
+                has_partitions = this.estimateStatementPartitions(catalog_stmt, catalog_stmt_index);
+            } catch (Exception ex) {
+                this.stop();
+                return;
             }
+            if (has_partitions == false) continue;
             
+            // Now for this given list of partitions, find the edge to the vertex that has the same partitions
+            int candidate = compiled.findEdge(v_idx, catalog_stmt, this.stmt_partitions, this.past_partitions, catalog_stmt_index);
+            if (candidate >= 0) {
+                if (this.candidate_edges[candidate - start] == false) {
+                    this.candidate_edges[candidate - start] = true;
+                    num_candidates++;
+                }
+                if (t) LOG.trace("Found candidate edge to " + compiled.getEdgeDest(candidate) + " [" + compiled.getEdge(candidate) + "]");
+            } else if (t) {
+                LOG.trace(String.format("Failed to find candidate edge from %s to %s[#%d]", element, catalog_stmt.fullName(), catalog_stmt_index));
+            }
+        } // FOR
+        
+        // If we don't have any candidate edges and the FORCE TRAVERSAL flag is set, then we'll just
+        // grab all of the edges from our currect vertex
+        boolean was_forced = false;
+        if (num_candidates == 0 && this.force_traversal) {
+            if (t) LOG.trace("No candidate edges were found. Force travesal flag is set, so taking all");
+            for (int pos = start; pos < end; pos++) {
+                this.candidate_edges[pos - start] = true;
+            } // FOR
+            num_candidates = end - start;
+            was_forced = true;
+        }
+        
+        if (num_candidates > 0) {
+            int next_pos = -1;
+            double total_probability = 0.0;
+            if (was_forced) {
+                next_pos = start;
+                total_probability = compiled.getTotalProbability(v_idx);
+            } else {
+                for (int pos = start; pos < end; pos++) {
+                    if (this.candidate_edges[pos - start] == false) continue;
+                    if (next_pos < 0) next_pos = pos;
+                    total_probability += compiled.getEdgeProbability(pos);
+                } // FOR
+            }
+            MarkovVertex next_vertex = compiled.getEdgeDest(next_pos);
             if (d) {
-                LOG.debug("TOTAL:    " + total_probability);
-                LOG.debug("SELECTED: " + next_vertex + " [confidence=" + this.confidence + "]");
-                LOG.debug(StringUtil.repeat("-", 100));
+                LOG.debug("CANDIDATES:");
+                int i = 0;
+                for (int pos = start; pos < end; pos++) {
+                    if (this.candidate_edges[pos - start] == false) continue;
+                    MarkovVertex v = compiled.getEdgeDest(pos);
+                    LOG.debug(String.format("  [%d] %s  --[%s]--> %s%s",
+                                            i++, element, compiled.getEdge(pos), v, (pos == next_pos ? " <== SELECTED" : "")));
+                    if (num_candidates > 1) LOG.debug(StringUtil.addSpacers(v.debug()));
+                } // FOR
             }
+            this.selectNext(children, next_vertex, compiled.getEdgeProbability(next_pos), total_probability, was_forced);
         } else {
             if (t) LOG.trace("No matching children found. We have to stop...");
         }
     }
     
+    /**
+     * Use the ParameterMappings to map the txn's ProcParameters to the given Statement's
+     * StmtParameters and then figure out which partitions that query will go to.
+     * The partitions are stored in stmt_partitions. Returns false if we are unable
+     * to figure out what partitions the query will touch.
+     * @param catalog_stmt
+     * @param catalog_stmt_index
+     * @return
+     * @throws Exception if the PartitionEstimator fails
+     */
+    private boolean estimateStatementPartitions(Statement catalog_stmt, int catalog_stmt_index) throws Exception {
+        // Get the correlation objects (if any) for next
+        // This is the only way we can predict what partitions we will touch
+        SortedMap<StmtParameter, SortedSet<ParameterMapping>> param_correlations = this.correlations.get(catalog_stmt, catalog_stmt_index);
+        if (param_correlations == null) {
+            if (t) {
+                LOG.warn(String.format("No parameter correlations for %s[#%d]", catalog_stmt.fullName(), catalog_stmt_index));
+                LOG.trace(this.correlations.debug(catalog_stmt));
+            }
+            return (false);
+        }
+        
+        // Go through the StmtParameters and map values from ProcParameters
+        StmtParameter stmt_params[] = this.getStatementParams(catalog_stmt);
+        Object stmt_args[] = new Object[stmt_params.length]; // this.getStatementParamsArray(catalog_stmt);
+        boolean stmt_args_set = false;
+        for (int i = 0; i < stmt_args.length; i++) {
+            StmtParameter catalog_stmt_param = stmt_params[i];
+            assert(catalog_stmt_param != null);
+            if (t) LOG.trace("Examining " + CatalogUtil.getDisplayName(catalog_stmt_param, true));
+            
+            SortedSet<ParameterMapping> correlations = param_correlations.get(catalog_stmt_param);
+            if (correlations == null || correlations.isEmpty()) {
+                if (t) LOG.trace("No parameter correlations for " + CatalogUtil.getDisplayName(catalog_stmt_param, true) + " from " + catalog_stmt.fullName());
+                continue;
+            }
+            if (t) LOG.trace("Found " + correlations.size() + " correlation(s) for " + CatalogUtil.getDisplayName(catalog_stmt_param, true));
+    
+            // Special Case:
+            // If the number of possible Statements we could execute next is greater than one,
+            // then we need to prune our list by removing those Statements who have a StmtParameter
+            // that are correlated to a ProcParameter that doesn't exist (such as referencing an
+            // array element that is greater than the size of that current array)
+            // TODO: For now we are just going always pick the first Correlation 
+            // that comes back. Is there any choice that we would need to make in order
+            // to have a better prediction about what the transaction might do?
+            if (correlations.size() > 1) {
+                if (d) LOG.warn("Multiple parameter correlations for " + CatalogUtil.getDisplayName(catalog_stmt_param, true));
+                if (t) {
+                    int ctr = 0;
+                    for (ParameterMapping c : correlations) {
+                        LOG.trace("[" + (ctr++) + "] Correlation: " + c);
+                    } // FOR
+                }
+            }
+            for (ParameterMapping c : correlations) {
+                if (t) LOG.trace("Correlation: " + c);
+                ProcParameter catalog_proc_param = c.getProcParameter();
+                if (catalog_proc_param.getIsarray()) {
+                    Object proc_inner_args[] = (Object[])args[c.getProcParameter().getIndex()];
+                    if (t) LOG.trace(CatalogUtil.getDisplayName(c.getProcParameter(), true) + " is an array: " + Arrays.toString(proc_inner_args));
+                    
+                    // TODO: If this Correlation references an array element that is not available for this
+                    // current transaction, should we just skip this correlation or skip the entire query?
+                    if (proc_inner_args.length <= c.getProcParameterIndex()) {
+                        if (t) LOG.trace("Unable to map parameters: " +
+                                             "proc_inner_args.length[" + proc_inner_args.length + "] <= " +
+                                             "c.getProcParameterIndex[" + c.getProcParameterIndex() + "]"); 
+                        continue;
+                    }
+                    stmt_args[i] = proc_inner_args[c.getProcParameterIndex()];
+                    stmt_args_set = true;
+                    if (t) LOG.trace("Mapped " + CatalogUtil.getDisplayName(c.getProcParameter()) + "[" + c.getProcParameterIndex() + "] to " +
+                                         CatalogUtil.getDisplayName(catalog_stmt_param) + " [value=" + stmt_args[i] + "]");
+                } else {
+                    stmt_args[i] = args[c.getProcParameter().getIndex()];
+                    stmt_args_set = true;
+                    if (t) LOG.trace("Mapped " + CatalogUtil.getDisplayName(c.getProcParameter()) + " to " +
+                                         CatalogUtil.getDisplayName(catalog_stmt_param) + " [value=" + stmt_args[i] + "]"); 
+                }
+                break;
+            } // FOR (Correlation)
+        } // FOR (StmtParameter)
+            
+        // If we set any of the stmt_args in the previous step, then we can throw it
+        // to our good old friend the PartitionEstimator and see whether we can figure
+        // things out for this Statement
+        // Without any stmt_args, there's nothing we can do here...
+        if (stmt_args_set == false) {
+            if (t) LOG.trace("No stmt_args for " + catalog_stmt.fullName() + ". Skipping...");
+            return (false);
+        }
+        if (t) LOG.trace("Mapped StmtParameters: " + Arrays.toString(stmt_args));
+        this.stmt_partitions.clear();
+        try {
+            this.p_estimator.getAllPartitions(this.stmt_partitions, catalog_stmt, stmt_args, this.base_partition);
+        } catch (Exception ex) {
+            String msg = "Failed to calculate partitions for " + catalog_stmt + " using parameters " + Arrays.toString(stmt_args);
+            LOG.error(msg, ex);
+            throw ex;
+        }
+        if (t) LOG.trace("Estimated Partitions for " + catalog_stmt + ": " + this.stmt_partitions);
+        return (this.stmt_partitions.isEmpty() == false);
+    }
+    
+    /**
+     * Move the traversal to the given vertex and update our MarkovEstimate
+     * @param children
+     * @param next_vertex the vertex that we picked
+     * @param next_probability the probability of the edge to next_vertex
+     * @param total_probability the sum of the probabilities of all of the candidate edges 
+     * @param was_forced
+     */
+    private void selectNext(Children<MarkovVertex> children, MarkovVertex next_vertex, float next_probability, double total_probability, boolean was_forced) {
+        children.addAfter(next_vertex);
+        if (was_forced) this.forced_vertices.add(next_vertex);
+        
+        this.confidence *= next_probability / total_probability;
+        
+        // Update our list of partitions touched by this transaction
+        Set<Integer> next_partitions = next_vertex.getPartitions();
+        String orig = next_partitions.toString();
+        float inverse_prob = 1.0f - this.confidence;
+        Statement catalog_stmt = next_vertex.getCatalogItem();
+        
+        // READ
+        if (catalog_stmt.getQuerytype() == QueryType.SELECT.getValue()) {
+            for (Integer p : next_partitions) {
+                if (this.read_partitions.contains(p) == false) {
+                    if (t) LOG.trace(String.format("First time partition %d is read from! Setting read-only probability to %.03f", p, this.confidence));
+                    try {
+                        this.estimate.setReadOnlyProbability(p.intValue(), this.confidence);
+                    } catch (AssertionError ex) {
+                        System.err.println("BUSTED: " + next_vertex);
+                        System.err.println("NEXT PARTITIONS: " + next_partitions);
+                        System.err.println("ORIG PARTITIONS: " + orig);
+                        throw ex;
+                    }
+                    if (this.touched_partitions.contains(p) == false) {
+                        this.estimate.setDoneProbability(p.intValue(), inverse_prob);
+                    }
+                    this.read_partitions.add(p);
+                }
+                this.estimate.incrementTouchedCounter(p.intValue());
+            } // FOR
+        // WRITE
+        } else {
+            for (Integer p : next_partitions) {
+                if (this.write_partitions.contains(p) == false) {
+                    if (t) LOG.trace(String.format("First time partition %d is written to! Setting write probability to %.03f", p, this.confidence));
+                    this.estimate.setReadOnlyProbability(p.intValue(), inverse_prob);
+                    this.estimate.setWriteProbability(p.intValue(), this.confidence);
+                    if (this.touched_partitions.contains(p) == false) {
+                        this.estimate.setDoneProbability(p.intValue(), inverse_prob);
+                    }
+                    this.write_partitions.add(p);
+                }
+                this.estimate.incrementTouchedCounter(p.intValue());
+            } // FOR
+        }
+        this.touched_partitions.addAll(next_partitions);
+        
+        // If this is the first time that the path touched more than one partition, then we need to set the single-partition
+        // probability to be the confidence coefficient thus far
+        if (this.touched_partitions.size() > 1 && this.estimate.isSingleSitedProbabilitySet() == false) {
+            if (t) LOG.trace("Setting the single-partition probability to current confidence [" + this.confidence + "]");
+            this.estimate.setSingleSitedProbability(inverse_prob);
+        }
+        
+        // Keep track of the highest abort probability that we've seen thus far
+        if (next_vertex.isQueryVertex() && next_vertex.getAbortProbability() > this.greatest_abort) {
+            this.greatest_abort = next_vertex.getAbortProbability();
+        }
+        
+        if (d) {
+            LOG.debug("TOTAL:    " + total_probability);
+            LOG.debug("SELECTED: " + next_vertex + " [confidence=" + this.confidence + "]");
+            LOG.debug(StringUtil.repeat("-", 100));
+        }
+    }
+    
     @Override
     protected void callback(MarkovVertex element) {
         if (element.isQueryVertex() == false) {
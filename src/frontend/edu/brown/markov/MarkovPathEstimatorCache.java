@@ -0,0 +1,282 @@
+package edu.brown.markov;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+
+import edu.brown.hashing.AbstractHasher;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.mappings.ParameterMappingsSet;
+import edu.brown.markov.features.ParamArrayLengthFeature;
+import edu.brown.markov.features.ParamHashPartitionFeature;
+
+/**
+ * A bounded cache of initial path estimates that is shared by all of the threads
+ * using a TransactionEstimator. The estimates are keyed by the MarkovGraph, the base partition,
+ * and a feature vector that is built from the transaction's parameters. The feature vector
+ * has the same information as the {@link ParamArrayLengthFeature} and {@link ParamHashPartitionFeature}
+ * features, but only for the ProcParameters that are mapped to a StmtParameter. These are the
+ * only parameters that the MarkovPathEstimator looks at, so two transactions with the same key
+ * will always get the same path from the same version of the MarkovGraph.
+ * <p>
+ * We only admit a key into the cache the second time that we see it, so transactions with
+ * parameters that never repeat don't push out the ones that do. Once the cache is full,
+ * we will evict any entries that have not been hit since the last time that it was full.
+ * If all of the entries have been hit, then we won't admit anything new.
+ * <p>
+ * See ${site.markov_path_caching}
+ */
+public class MarkovPathEstimatorCache {
+    private static final Logger LOG = Logger.getLogger(MarkovPathEstimatorCache.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Cache Key
+     */
+    public static final class Key {
+        private final MarkovGraph markov;
+        private final int base_partition;
+        private final int features[];
+        private final int hash;
+
+        private Key(MarkovGraph markov, int base_partition, int features[]) {
+            this.markov = markov;
+            this.base_partition = base_partition;
+            this.features = features;
+            this.hash = (31 * (31 * System.identityHashCode(markov) + base_partition)) + Arrays.hashCode(features);
+        }
+        @Override
+        public int hashCode() {
+            return (this.hash);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return (true);
+            if ((obj instanceof Key) == false) return (false);
+            Key other = (Key)obj;
+            return (this.markov == other.markov &&
+                    this.base_partition == other.base_partition &&
+                    Arrays.equals(this.features, other.features));
+        }
+        @Override
+        public String toString() {
+            return (String.format("<%s, %d, %s>", this.markov.getProcedure().getName(),
+                                  this.base_partition, Arrays.toString(this.features)));
+        }
+    } // END CLASS
+
+    /**
+     * Cache Entry
+     */
+    private static final class Entry {
+        private final MarkovPathEstimator estimator;
+        private final int version;
+        private final AtomicInteger hits = new AtomicInteger(0);
+
+        private Entry(MarkovPathEstimator estimator, int version) {
+            this.estimator = estimator;
+            this.version = version;
+        }
+    } // END CLASS
+
+    private final ParameterMappingsSet correlations;
+    private final AbstractHasher hasher;
+    private final int max_size;
+
+    /**
+     * The ProcParameters that are mapped to at least one StmtParameter for each Procedure
+     */
+    private final Map<Procedure, ProcParameter[]> proc_params = new ConcurrentHashMap<Procedure, ProcParameter[]>();
+    private final Map<Key, Entry> cache = new ConcurrentHashMap<Key, Entry>();
+    /**
+     * The keys that we have seen once but have not admitted into the cache yet
+     */
+    private final Map<Key, Boolean> candidates = new ConcurrentHashMap<Key, Boolean>();
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * Constructor
+     * @param correlations
+     * @param hasher
+     * @param max_size - the maximum number of estimates that we will cache
+     */
+    public MarkovPathEstimatorCache(ParameterMappingsSet correlations, AbstractHasher hasher, int max_size) {
+        this.correlations = correlations;
+        this.hasher = hasher;
+        this.max_size = max_size;
+    }
+
+    /**
+     * Build the cache key for a transaction invocation
+     * @param markov
+     * @param base_partition
+     * @param args
+     * @return
+     */
+    public Key getKey(MarkovGraph markov, int base_partition, Object args[]) {
+        ProcParameter params[] = this.getProcParameters(markov.getProcedure());
+        int num_features = 0;
+        for (ProcParameter catalog_param : params) {
+            Object val = args[catalog_param.getIndex()];
+            num_features += (catalog_param.getIsarray() && val != null ? 1 + Array.getLength(val) : 1);
+        } // FOR
+
+        int features[] = new int[num_features];
+        int idx = 0;
+        for (ProcParameter catalog_param : params) {
+            Object val = args[catalog_param.getIndex()];
+            if (catalog_param.getIsarray() && val != null) {
+                int length = Array.getLength(val);
+                features[idx++] = length;
+                for (int i = 0; i < length; i++) {
+                    features[idx++] = this.hash(Array.get(val, i));
+                } // FOR
+            } else {
+                features[idx++] = this.hash(val);
+            }
+        } // FOR
+        return (new Key(markov, base_partition, features));
+    }
+
+    private int hash(Object val) {
+        return (val != null ? this.hasher.hash(val) : -1);
+    }
+
+    private ProcParameter[] getProcParameters(Procedure catalog_proc) {
+        ProcParameter params[] = this.proc_params.get(catalog_proc);
+        if (params == null) {
+            List<ProcParameter> mapped = new ArrayList<ProcParameter>();
+            for (ProcParameter catalog_param : catalog_proc.getParameters()) {
+                if (this.correlations.get(catalog_param).isEmpty() == false) {
+                    mapped.add(catalog_param);
+                }
+            } // FOR
+            params = mapped.toArray(new ProcParameter[mapped.size()]);
+            this.proc_params.put(catalog_proc, params);
+            if (debug.get()) LOG.debug(String.format("Mapped ProcParameters for %s: %s", catalog_proc.getName(), mapped));
+        }
+        return (params);
+    }
+
+    /**
+     * Return the cached MarkovPathEstimator for the given key, or null if there isn't one
+     * for the current version of the key's MarkovGraph.
+     * @param key
+     * @return
+     */
+    public MarkovPathEstimator get(Key key) {
+        Entry entry = this.cache.get(key);
+        if (entry != null) {
+            if (entry.version == key.markov.getVersion()) {
+                entry.hits.incrementAndGet();
+                this.hits.incrementAndGet();
+                return (entry.estimator);
+            }
+            // The graph has changed since we made this estimate
+            if (trace.get()) LOG.trace("Removing stale cached MarkovPathEstimator for " + key);
+            this.cache.remove(key);
+        }
+        this.misses.incrementAndGet();
+        return (null);
+    }
+
+    /**
+     * Offer a MarkovPathEstimator to the cache. We will ignore it if the key's MarkovGraph
+     * has changed since the estimator was initialized. Returns true if it was admitted, in which
+     * case the estimator is marked as cached and must not be returned to its object pool.
+     * @param key
+     * @param estimator
+     * @return
+     */
+    public boolean put(Key key, MarkovPathEstimator estimator) {
+        int version = estimator.getMarkovGraphVersion();
+        if (version != key.markov.getVersion() || this.cache.containsKey(key)) return (false);
+
+        // Don't admit a key until we have seen it before
+        if (this.candidates.remove(key) == null) {
+            if (this.candidates.size() >= this.max_size) this.candidates.clear();
+            this.candidates.put(key, Boolean.TRUE);
+            return (false);
+        }
+        if (this.cache.size() >= this.max_size && this.evict() == 0) {
+            return (false);
+        }
+
+        // Only one thread can win
+        synchronized (this) {
+            if (this.cache.containsKey(key)) return (false);
+            estimator.setCached(true);
+            this.cache.put(key, new Entry(estimator, version));
+        } // SYNCH
+        if (debug.get()) LOG.debug(String.format("Storing cached MarkovPathEstimator for %s [hashCode=%d]", key, estimator.hashCode()));
+        return (true);
+    }
+
+    /**
+     * Remove all of the entries that have not been hit since the last time that
+     * we did this. Returns the number of entries that were removed.
+     * @return
+     */
+    private synchronized int evict() {
+        if (this.cache.size() < this.max_size) return (1);
+        int removed = 0;
+        Iterator<Entry> it = this.cache.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.hits.getAndSet(0) == 0) {
+                it.remove();
+                removed++;
+            }
+        } // WHILE
+        this.evictions.addAndGet(removed);
+        if (debug.get()) LOG.debug(String.format("Evicted %d cached MarkovPathEstimators [size=%d, hitRate=%.02f]",
+                                                 removed, this.cache.size(), this.getHitRate()));
+        return (removed);
+    }
+
+    public int size() {
+        return (this.cache.size());
+    }
+
+    public long getHitCount() {
+        return (this.hits.get());
+    }
+
+    public long getMissCount() {
+        return (this.misses.get());
+    }
+
+    public long getEvictionCount() {
+        return (this.evictions.get());
+    }
+
+    public double getHitRate() {
+        long total = this.hits.get() + this.misses.get();
+        return (total > 0 ? this.hits.get() / (double)total : 0.0d);
+    }
+
+    @Override
+    public String toString() {
+        return (String.format("%s[size=%d, hits=%d, misses=%d, evictions=%d]",
+                              this.getClass().getSimpleName(), this.cache.size(),
+                              this.hits.get(), this.misses.get(), this.evictions.get()));
+    }
+}
@@ -2,6 +2,8 @@ package edu.brown.markov;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -23,6 +25,11 @@ public class MarkovProbabilityCalculator extends VertexTreeWalker<MarkovVertex,
     }
     
     private final Set<MarkovEdge> visited_edges = new HashSet<MarkovEdge>();
+    /**
+     * The new probabilities for each vertex when we are recomputing the entire graph.
+     * These are not visible to anybody else until we are done
+     */
+    private final Map<MarkovVertex, MarkovVertex.ProbabilityTable> tables = new IdentityHashMap<MarkovVertex, MarkovVertex.ProbabilityTable>();
     private final Collection<Integer> all_partitions;
     private MarkovEstimate markov_est;
     
@@ -42,15 +49,34 @@ public class MarkovProbabilityCalculator extends VertexTreeWalker<MarkovVertex,
     }
         
     public void calculate(MarkovEstimate est) {
+        MarkovGraph markov = (MarkovGraph)this.getGraph();
         this.markov_est = est;
-        this.traverse(((MarkovGraph)this.getGraph()).getCommitVertex());
+        this.traverse(markov.getCommitVertex());
+        
+        // If we were recomputing the whole graph, then we can now swap in
+        // the new probabilities at each vertex
+        if (est == null) {
+            for (MarkovVertex v : markov.getVertices()) {
+                v.setProbabilities(this.getTable(v));
+            } // FOR
+            this.tables.clear();
+        }
+    }
+    
+    private MarkovVertex.ProbabilityTable getTable(MarkovVertex v) {
+        MarkovVertex.ProbabilityTable table = this.tables.get(v);
+        if (table == null) {
+            table = v.newProbabilityTable();
+            this.tables.put(v, table);
+        }
+        return (table);
     }
     
     @Override
     protected void callback(MarkovVertex element) {
         MarkovGraph markov = (MarkovGraph)this.getGraph();
         // HACK
-        Estimation est = (this.markov_est != null ? this.markov_est : element);
+        Estimation est = (this.markov_est != null ? this.markov_est : this.getTable(element));
         
         if (trace.get()) LOG.trace("BEFORE: " + element + " => " + est.getSingleSitedProbability());
 //            if (element.isSingleSitedProbablitySet() == false) element.setSingleSitedProbability(0.0);
@@ -96,9 +122,10 @@ public class MarkovProbabilityCalculator extends VertexTreeWalker<MarkovVertex,
             Collection<MarkovEdge> edges = markov.getOutEdges(element);
             for (MarkovEdge e : edges) {
                 if (visited_edges.contains(e)) continue;
-                MarkovVertex successor = markov.getDest(e);
-                assert(successor != null);
-                assert(successor.isSingleSitedProbabilitySet()) : "Setting " + element + " BEFORE " + successor;
+                MarkovVertex successor_v = markov.getDest(e);
+                assert(successor_v != null);
+                Estimation successor = (this.markov_est != null ? successor_v : this.getTable(successor_v));
+                assert(successor.isSingleSitedProbabilitySet()) : "Setting " + element + " BEFORE " + successor_v;
 
                 // Single-Partition Probability
                 // If our vertex only touches the base partition, then we need to calculate the 
@@ -107,7 +134,7 @@ public class MarkovProbabilityCalculator extends VertexTreeWalker<MarkovVertex,
                 if (element_islocalonly) {
                     float prob = e.getProbability() * successor.getSingleSitedProbability();
                     est.addSingleSitedProbability(prob);
-                    if (trace.get()) LOG.trace(element + " --" + e + "--> " + successor + String.format(" [%f * %f = %f]", e.getProbability(), successor.getSingleSitedProbability(), prob) + "\nprob = " + prob);
+                    if (trace.get()) LOG.trace(element + " --" + e + "--> " + successor_v + String.format(" [%f * %f = %f]", e.getProbability(), successor.getSingleSitedProbability(), prob) + "\nprob = " + prob);
                 }
                 
                 // Abort Probability
@@ -121,9 +148,9 @@ public class MarkovProbabilityCalculator extends VertexTreeWalker<MarkovVertex,
                 
                 // Done/Read/Write At Partition Probability
                 for (Integer partition : all_partitions) {
-                    assert(successor.isDoneProbabilitySet(partition)) : "Setting " + element + " BEFORE " + successor;
-                    assert(successor.isReadOnlyProbabilitySet(partition)) : "Setting " + element + " BEFORE " + successor;
-                    assert(successor.isWriteProbabilitySet(partition)) : "Setting " + element + " BEFORE " + successor;
+                    assert(successor.isDoneProbabilitySet(partition)) : "Setting " + element + " BEFORE " + successor_v;
+                    assert(successor.isReadOnlyProbabilitySet(partition)) : "Setting " + element + " BEFORE " + successor_v;
+                    assert(successor.isWriteProbabilitySet(partition)) : "Setting " + element + " BEFORE " + successor_v;
                     
                     // This vertex accesses this partition
                     if (element.getPartitions().contains(partition)) {
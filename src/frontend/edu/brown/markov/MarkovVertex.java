@@ -14,6 +14,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
 import org.apache.log4j.Logger;
@@ -154,8 +155,10 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
 
     /**
      * Mapping from Probability type to another map from partition id
+     * MarkovGraph.calculateProbabilities() fills in a new ProbabilityTable for each vertex
+     * and then swaps it in here, so readers never see a half-computed table
      */
-    public float probabilities[][];
+    public volatile float probabilities[][];
     
     // ----------------------------------------------------------------------------
     // TRANSIENT DATA MEMBERS
@@ -163,8 +166,11 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
 
     /**
      * The number of times this vertex has been touched in the current on-line run
+     * This is updated without locking by the TransactionEstimators. See INSTANCEHITS_UPDATER
      */
-    public transient int instancehits = 0;
+    public transient volatile int instancehits = 0;
+    private static final AtomicIntegerFieldUpdater<MarkovVertex> INSTANCEHITS_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(MarkovVertex.class, "instancehits");
     
     /**
      * The execution times of the transactions in the on-line run
@@ -534,7 +540,10 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
      * @return
      */
     private float getSpecificProbability(MarkovVertex.Probability ptype, int partition) {
-        float value = this.probabilities[ptype.ordinal()][partition];
+        return (this.getSpecificProbability(this.probabilities, ptype, partition));
+    }
+    private float getSpecificProbability(float table[][], MarkovVertex.Probability ptype, int partition) {
+        float value = table[ptype.ordinal()][partition];
         if (value == MarkovUtil.NULL_MARKER) value = ptype.default_value;
         
         // Handle funky rounding error that I think is due to casting
@@ -550,11 +559,14 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
      * @param probability
      */
     private void addToProbability(MarkovVertex.Probability ptype, int partition, float probability) {
+        this.addToProbability(this.probabilities, ptype, partition, probability);
+    }
+    private void addToProbability(float table[][], MarkovVertex.Probability ptype, int partition, float probability) {
         // Important: If the probability is unset, then we need to set its initial value
         // to zero and to the default value
-        float previous = this.probabilities[ptype.ordinal()][partition];
+        float previous = table[ptype.ordinal()][partition];
         if (previous == MarkovUtil.NULL_MARKER) previous = 0.0f;
-        this.setProbability(ptype, partition, previous + probability);
+        this.setProbability(table, ptype, partition, previous + probability);
     }
 
     /**
@@ -564,26 +576,138 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
      * @param probability
      */
     private void setProbability(MarkovVertex.Probability ptype, int partition, float probability) {
+        this.setProbability(this.probabilities, ptype, partition, probability);
+    }
+    private void setProbability(float table[][], MarkovVertex.Probability ptype, int partition, float probability) {
         if (trace.get()) LOG.trace("(" + ptype + ", " + partition + ") => " + probability);
         assert(MathUtil.greaterThanEquals(probability, 0.0f, MarkovGraph.PROBABILITY_EPSILON) &&
                MathUtil.lessThanEquals(probability, 1.0f, MarkovGraph.PROBABILITY_EPSILON)) :
             String.format("%s - Invalid %s probability at partition #%d: %f", this, ptype, partition, probability);
-        this.probabilities[ptype.ordinal()][partition] = probability;
+        table[ptype.ordinal()][partition] = probability;
     }
 
     /**
      * Reset all probabilities. Keeps partitions in maps
      */
     public void resetAllProbabilities() {
-        for (MarkovVertex.Probability ptype : MarkovVertex.Probability.values()) {
-            int i = ptype.ordinal();
-            if (this.probabilities[i] == null) continue;
-            for (int j = 0; j < this.probabilities[i].length; j++) {
-                this.probabilities[i][j] = MarkovUtil.NULL_MARKER;
-            } // FOR
+        this.probabilities = this.newProbabilities();
+    }
+    
+    /**
+     * Return a new probability table that is the same size as this vertex's
+     * current table but where every probability is unset 
+     * @return
+     */
+    private float[][] newProbabilities() {
+        float current[][] = this.probabilities;
+        float table[][] = new float[current.length][];
+        for (int i = 0; i < table.length; i++) {
+            if (current[i] == null) continue;
+            table[i] = new float[current[i].length];
+            Arrays.fill(table[i], MarkovUtil.NULL_MARKER);
         } // FOR
+        return (table);
     }
     
+    /**
+     * Return a new ProbabilityTable for this vertex where every probability is unset.
+     * Nobody else will see what gets written into it until it is passed
+     * to setProbabilities()
+     * @return
+     */
+    public ProbabilityTable newProbabilityTable() {
+        return (new ProbabilityTable(this.newProbabilities()));
+    }
+    
+    /**
+     * Replace all of this vertex's probabilities with the ones in the given ProbabilityTable
+     * @param table
+     */
+    public void setProbabilities(ProbabilityTable table) {
+        assert(table.getVertex() == this);
+        this.probabilities = table.table;
+    }
+    
+    /**
+     * A private set of probabilities for this vertex that are computed off to the side
+     * and then published all at once with setProbabilities() 
+     */
+    public class ProbabilityTable implements Estimation {
+        private final float table[][];
+        
+        private ProbabilityTable(float table[][]) {
+            this.table = table;
+        }
+        public MarkovVertex getVertex() {
+            return (MarkovVertex.this);
+        }
+        
+        public void addSingleSitedProbability(float probability) {
+            addToProbability(this.table, Probability.SINGLE_SITED, DEFAULT_PARTITION_ID, probability);
+        }
+        public void setSingleSitedProbability(float probability) {
+            setProbability(this.table, Probability.SINGLE_SITED, DEFAULT_PARTITION_ID, probability);
+        }
+        public float getSingleSitedProbability() {
+            return (getSpecificProbability(this.table, Probability.SINGLE_SITED, DEFAULT_PARTITION_ID));
+        }
+        public boolean isSingleSitedProbabilitySet() {
+            return (getSpecificProbability(this.table, Probability.SINGLE_SITED, DEFAULT_PARTITION_ID) != MarkovUtil.NULL_MARKER);
+        }
+        
+        public void addReadOnlyProbability(int partition, float probability) {
+            addToProbability(this.table, Probability.READ_ONLY, partition, probability);
+        }
+        public void setReadOnlyProbability(int partition, float probability) {
+            setProbability(this.table, Probability.READ_ONLY, partition, probability);
+        }
+        public float getReadOnlyProbability(int partition) {
+            return (getSpecificProbability(this.table, Probability.READ_ONLY, partition));
+        }
+        public boolean isReadOnlyProbabilitySet(int partition) {
+            return (getSpecificProbability(this.table, Probability.READ_ONLY, partition) != MarkovUtil.NULL_MARKER);
+        }
+        
+        public void addWriteProbability(int partition, float probability) {
+            addToProbability(this.table, Probability.WRITE, partition, probability);
+        }
+        public void setWriteProbability(int partition, float probability) {
+            setProbability(this.table, Probability.WRITE, partition, probability);
+        }
+        public float getWriteProbability(int partition) {
+            return (getSpecificProbability(this.table, Probability.WRITE, partition));
+        }
+        public boolean isWriteProbabilitySet(int partition) {
+            return (getSpecificProbability(this.table, Probability.WRITE, partition) != MarkovUtil.NULL_MARKER);
+        }
+        
+        public void addDoneProbability(int partition, float probability) {
+            addToProbability(this.table, Probability.DONE, partition, probability);
+        }
+        public void setDoneProbability(int partition, float probability) {
+            setProbability(this.table, Probability.DONE, partition, probability);
+        }
+        public float getDoneProbability(int partition) {
+            return (getSpecificProbability(this.table, Probability.DONE, partition));
+        }
+        public boolean isDoneProbabilitySet(int partition) {
+            return (getSpecificProbability(this.table, Probability.DONE, partition) != MarkovUtil.NULL_MARKER);
+        }
+        
+        public void addAbortProbability(float probability) {
+            addToProbability(this.table, Probability.ABORT, DEFAULT_PARTITION_ID, probability);
+        }
+        public void setAbortProbability(float probability) {
+            setProbability(this.table, Probability.ABORT, DEFAULT_PARTITION_ID, probability);
+        }
+        public float getAbortProbability() {
+            return (getSpecificProbability(this.table, Probability.ABORT, DEFAULT_PARTITION_ID));
+        }
+        public boolean isAbortProbabilitySet() {
+            return (getSpecificProbability(this.table, Probability.DONE, DEFAULT_PARTITION_ID) != MarkovUtil.NULL_MARKER);
+        }
+    } // CLASS
+    
     // ----------------------------------------------------------------------------
     // SINGLE-SITED PROBABILITY
     // ----------------------------------------------------------------------------
@@ -756,8 +880,7 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
    
     @Override
     public void applyInstanceHitsToTotalHits() {
-        this.totalhits += this.instancehits;
-        this.instancehits = 0;
+        this.totalhits += INSTANCEHITS_UPDATER.getAndSet(this, 0);
     }
     @Override
     public void incrementTotalHits() {
@@ -777,7 +900,7 @@ public class MarkovVertex extends AbstractVertex implements MarkovHitTrackable,
     }
     @Override
     public int incrementInstanceHits() {
-        return (++this.instancehits);
+        return (INSTANCEHITS_UPDATER.incrementAndGet(this));
     }
     
     // ----------------------------------------------------------------------------
@@ -13,6 +13,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.collections15.map.ListOrderedMap;
 import org.apache.log4j.Logger;
@@ -82,9 +83,10 @@ public class TransactionEstimator implements Loggable {
     private final HStoreConf hstore_conf;
     
     /**
-     * We can maintain a cache of the last successful MarkovPathEstimator per MarkovGraph
+     * We can maintain a cache of successful MarkovPathEstimators that are keyed by
+     * the MarkovGraph, base partition, and the txn's parameters
      */
-    private final Map<MarkovGraph, MarkovPathEstimator> cached_estimators = new HashMap<MarkovGraph, MarkovPathEstimator>();
+    private final MarkovPathEstimatorCache estimator_cache;
     
     private transient boolean enable_recomputes = false;
     
@@ -109,6 +111,7 @@ public class TransactionEstimator implements Loggable {
         private MarkovGraph markov;
         private MarkovPathEstimator initial_estimator;
         private MarkovEstimate initial_estimate;
+        private MarkovPathEstimatorCache.Key cache_key;
         private int num_estimates;
         
         private transient MarkovVertex current;
@@ -141,13 +144,15 @@ public class TransactionEstimator implements Loggable {
             this.num_partitions = num_partitions;
         }
         
-        public void init(long txn_id, int base_partition, MarkovGraph markov, MarkovPathEstimator initial_estimator, long start_time) {
+        public void init(long txn_id, int base_partition, MarkovGraph markov, MarkovPathEstimator initial_estimator,
+                         MarkovPathEstimatorCache.Key cache_key, long start_time) {
             this.txn_id = txn_id;
             this.base_partition = base_partition;
             this.markov = markov;
             this.start_time = start_time;
             this.initial_estimator = initial_estimator;
             this.initial_estimate = initial_estimator.getEstimate();
+            this.cache_key = cache_key;
             this.setCurrent(markov.getStartVertex(), null);
         }
         
@@ -191,6 +196,7 @@ public class TransactionEstimator implements Loggable {
             this.current = null;
             this.initial_estimator = null;
             this.initial_estimate = null;
+            this.cache_key = null;
         }
         
         /**
@@ -337,6 +343,8 @@ public class TransactionEstimator implements Loggable {
         this.correlations = (correlations == null ? new ParameterMappingsSet() : correlations);
         this.hstore_conf = HStoreConf.singleton();
         if (this.markovs != null && this.markovs.getHasher() == null) this.markovs.setHasher(this.p_estimator.getHasher());
+        this.estimator_cache = new MarkovPathEstimatorCache(this.correlations, this.p_estimator.getHasher(),
+                                                           this.hstore_conf.site.markov_path_caching_size);
         
         // HACK: Initialize the STATE_POOL
         synchronized (LOG) {
@@ -390,6 +398,10 @@ public class TransactionEstimator implements Loggable {
         return (this.markovs);
     }
     
+    public MarkovPathEstimatorCache getEstimatorCache() {
+        return (this.estimator_cache);
+    }
+    
     public void addMarkovGraphs(MarkovGraphsContainer markovs) {
         this.markovs.copy(markovs);
     }
@@ -478,12 +490,15 @@ public class TransactionEstimator implements Loggable {
         MarkovVertex start = markov.getStartVertex();
         assert(start != null) : "The start vertex is null. This should never happen!";
         MarkovPathEstimator estimator = null;
+        MarkovPathEstimatorCache.Key cache_key = null;
         
-        // We'll reuse the last MarkovPathEstimator (and it's path) if the graph has been accurate for
-        // other previous transactions. This prevents us from having to recompute the path every single time,
-        // especially for single-partition transactions where the clustered MarkovGraphs are accurate
+        // We'll reuse a previous MarkovPathEstimator (and it's path) for a txn with the same parameter features
+        // if the graph has been accurate for other previous transactions. This prevents us from having to
+        // recompute the path every single time, especially for single-partition transactions where the
+        // clustered MarkovGraphs are accurate
         if (hstore_conf.site.markov_path_caching && markov.getAccuracyRatio() >= hstore_conf.site.markov_path_caching_threshold) {
-            estimator = this.cached_estimators.get(markov);
+            cache_key = this.estimator_cache.getKey(markov, base_partition, args);
+            estimator = this.estimator_cache.get(cache_key);
         }
             
         // Otherwise we have to recalculate everything from scatch again
@@ -543,7 +558,7 @@ public class TransactionEstimator implements Loggable {
             throw new RuntimeException(ex);
         }
         // Calling init() will set the initial MarkovEstimate for the State
-        state.init(txn_id, base_partition, markov, estimator, start_time);
+        state.init(txn_id, base_partition, markov, estimator, cache_key, start_time);
         State old = this.txn_states.put(txn_id, state);
         assert(old == null) : "Duplicate transaction id " + AbstractTransaction.formatTxnName(catalog_proc, txn_id);
 
@@ -640,7 +655,10 @@ public class TransactionEstimator implements Loggable {
         
         // Once the workload shifts we detect it and trigger this method. Recomputes
         // the graph with the data we collected with the current workload method.
-        if (this.enable_recomputes && markov.shouldRecompute(this.txn_count.get(), RECOMPUTE_TOLERANCE)) {
+        // If another thread is already recomputing this graph, then we won't wait for it
+        if (this.enable_recomputes &&
+            markov.shouldRecompute(this.txn_count.get(), RECOMPUTE_TOLERANCE) &&
+            markov.markRecomputePending()) {
             markov.calculateProbabilities();
         }
         return (estimate);
@@ -700,29 +718,21 @@ public class TransactionEstimator implements Loggable {
         assert(next_v != null) : "Missing " + vtype;
         
         // If no edge exists to the next vertex, then we need to create one
-        synchronized (g) {
-            MarkovEdge next_e = g.findEdge(current, next_v);
-            if (next_e == null) next_e = g.addToEdge(current, next_v);
-            s.setCurrent(next_v, next_e); // For post-txn processing...
-
-            // Update counters
-            // We want to update the counters for the entire path right here so that
-            // nobody gets incomplete numbers if they recompute probabilities
-            for (MarkovVertex v : s.actual_path) v.incrementInstanceHits();
-            for (MarkovEdge e : s.actual_path_edges) e.incrementInstanceHits();
-            next_v.addInstanceTime(txn_id, s.getExecutionTimeOffset(timestamp));
-        } // SYNCH
+        // This will wait for any recompute that is running on the graph
+        MarkovEdge next_e = g.addToEdge(current, next_v);
+        s.setCurrent(next_v, next_e); // For post-txn processing...
+
+        // Update counters
+        // We want to update the counters for the entire path right here so that
+        // nobody gets incomplete numbers if they recompute probabilities
+        g.incrementInstanceHits(s.actual_path, s.actual_path_edges);
+        next_v.addInstanceTime(txn_id, s.getExecutionTimeOffset(timestamp));
         
-        // Store this as the last accurate MarkovPathEstimator for this graph
-        if (hstore_conf.site.markov_path_caching && this.cached_estimators.containsKey(s.markov) == false && s.initial_estimate.isValid()) {
-            synchronized (this.cached_estimators) {
-                if (this.cached_estimators.containsKey(s.markov) == false) {
-                    s.initial_estimator.setCached(true);
-                    if (d) LOG.debug(String.format("Storing cached MarkovPathEstimator for %s used by txn #%d [cached=%s, hashCode=%d]",
-                                                   s.markov, txn_id, s.initial_estimator.isCached(), s.initial_estimator.hashCode()));
-                    this.cached_estimators.put(s.markov, s.initial_estimator);
-                }
-            } // SYNCH
+        // Offer this MarkovPathEstimator to the cache so that other txns with the same parameters can reuse it
+        if (s.cache_key != null && s.initial_estimator.isCached() == false && s.initial_estimate.isValid()) {
+            boolean cached = this.estimator_cache.put(s.cache_key, s.initial_estimator);
+            if (d && cached) LOG.debug(String.format("Storing cached MarkovPathEstimator for %s used by txn #%d [hashCode=%d]",
+                                                     s.markov, txn_id, s.initial_estimator.hashCode()));
         }
         return (s);
     }
@@ -754,35 +764,58 @@ public class TransactionEstimator implements Loggable {
         assert(current != null);
         MarkovVertex next_v = null;
         MarkovEdge next_e = null;
+        
+        // Try the compiled version of the graph first. We only have to look at the
+        // graph itself if this is a transition that it doesn't know about yet
+        if (hstore_conf.site.markov_compiled_graphs) {
+            CompiledMarkovGraph compiled = markov.getCompiled();
+            int pos = compiled.findEdge(compiled.getVertexIndex(current), catalog_stmt, partitions, state.touched_partitions, queryInstanceIndex);
+            if (pos >= 0) {
+                if (t) LOG.trace("Found next vertex " + compiled.getEdgeDest(pos) + " in compiled graph for Txn #" + state.txn_id);
+                next_v = compiled.getEdgeDest(pos);
+                next_e = compiled.getEdge(pos);
+            }
+        }
 
-        // Synchronize on the single vertex so that it's more fine-grained than the entire graph
-        synchronized (current) {
-            Collection<MarkovEdge> edges = markov.getOutEdges(current); 
-            if (t) LOG.trace("Examining " + edges.size() + " edges from " + current + " for Txn #" + state.txn_id);
-            for (MarkovEdge e : edges) {
-                MarkovVertex v = markov.getDest(e);
-                if (v.isEqual(catalog_stmt, partitions, state.touched_partitions, queryInstanceIndex)) {
-                    if (t) LOG.trace("Found next vertex " + v + " for Txn #" + state.txn_id);
-                    next_v = v;
-                    next_e = e;
-                    break;
-                }
-            } // FOR
+        // Look for the next vertex while holding the graph's read lock so that nobody can
+        // add to it underneath us. We can still do this while somebody else is recomputing
+        // the graph's probabilities
+        if (next_v == null) {
+            ReentrantReadWriteLock lock = markov.getLock();
+            lock.readLock().lock();
+            try {
+                next_e = this.findNextEdge(state, markov, current, catalog_stmt, partitions, queryInstanceIndex);
+                if (next_e != null) next_v = markov.getDest(next_e);
+            } finally {
+                lock.readLock().unlock();
+            }
         
             // If we fail to find the next vertex, that means we have to dynamically create a new 
             // one. The graph is self-managed, so we don't need to worry about whether 
-            // we need to recompute probabilities.
-            if (next_v == null) {
-                next_v = new MarkovVertex(catalog_stmt,
-                                    MarkovVertex.Type.QUERY,
-                                    queryInstanceIndex,
-                                    partitions,
-                                    state.touched_partitions);
-                markov.addVertex(next_v);
-                next_e = markov.addToEdge(current, next_v);
-                if (t) LOG.trace("Created new edge/vertex from " + state.getCurrent() + " for Txn #" + state.txn_id);
+            // we need to recompute probabilities. We need the write lock for this, which will
+            // wait for any recompute that is running, so we have to check again whether
+            // another txn added it while we were waiting.
+            if (next_e == null) {
+                lock.writeLock().lock();
+                try {
+                    next_e = this.findNextEdge(state, markov, current, catalog_stmt, partitions, queryInstanceIndex);
+                    if (next_e != null) {
+                        next_v = markov.getDest(next_e);
+                    } else {
+                        next_v = new MarkovVertex(catalog_stmt,
+                                            MarkovVertex.Type.QUERY,
+                                            queryInstanceIndex,
+                                            partitions,
+                                            state.touched_partitions);
+                        markov.addVertex(next_v);
+                        next_e = markov.addToEdge(current, next_v);
+                        if (t) LOG.trace("Created new edge/vertex from " + state.getCurrent() + " for Txn #" + state.txn_id);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
             }
-        } // SYNCH
+        }
 
         // Update the counters and other info for the next vertex and edge
         next_v.addInstanceTime(state.txn_id, state.getExecutionTimeOffset());
@@ -793,6 +826,24 @@ public class TransactionEstimator implements Loggable {
 //        CONSUME.stop();
     }
 
+    /**
+     * Return the edge from the current vertex to the vertex for the given Statement
+     * and partitions. Returns null if that vertex doesn't exist yet.
+     * The caller must hold the MarkovGraph's lock.
+     */
+    private MarkovEdge findNextEdge(State state, MarkovGraph markov, MarkovVertex current, Statement catalog_stmt, Collection<Integer> partitions, int queryInstanceIndex) {
+        Collection<MarkovEdge> edges = markov.getOutEdges(current); 
+        if (t) LOG.trace("Examining " + edges.size() + " edges from " + current + " for Txn #" + state.txn_id);
+        for (MarkovEdge e : edges) {
+            MarkovVertex v = markov.getDest(e);
+            if (v.isEqual(catalog_stmt, partitions, state.touched_partitions, queryInstanceIndex)) {
+                if (t) LOG.trace("Found next vertex " + v + " for Txn #" + state.txn_id);
+                return (e);
+            }
+        } // FOR
+        return (null);
+    }
+
     // ----------------------------------------------------------------------------
     // HELPER METHODS
     // ----------------------------------------------------------------------------
@@ -0,0 +1,66 @@
+package edu.brown.protorpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of NIOEventLoops that each need to be run in their own thread.
+ * Channels are hashed onto a loop by some key (e.g., the id of the remote site) so
+ * that all of the I/O for a channel is always handled by the same thread. Each loop
+ * still keeps its own timers, so a timer is always fired in the thread of the loop
+ * that it was registered with.
+ * <p>
+ * A channel has to be registered with its loop either before that loop starts
+ * running or from inside of that loop's thread. Use NIOEventLoop.runInEventThread()
+ * to get into the loop's thread.
+ */
+public class NIOEventLoopPool {
+    private final NIOEventLoop loops[];
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+
+    public NIOEventLoopPool(int numLoops) {
+        assert(numLoops > 0) : "Invalid number of event loops " + numLoops;
+        this.loops = new NIOEventLoop[numLoops];
+        for (int i = 0; i < numLoops; i++) {
+            this.loops[i] = new NIOEventLoop();
+        } // FOR
+    }
+
+    public int size() {
+        return (this.loops.length);
+    }
+
+    public NIOEventLoop get(int idx) {
+        return (this.loops[idx]);
+    }
+
+    public NIOEventLoop[] getLoops() {
+        return (this.loops);
+    }
+
+    /**
+     * Returns the loop that the given key is hashed onto. The same key
+     * will always get back the same loop.
+     * @param key
+     */
+    public NIOEventLoop getLoop(int key) {
+        return (this.loops[(key & Integer.MAX_VALUE) % this.loops.length]);
+    }
+
+    /**
+     * Returns the loops in round-robin order. This is used for channels
+     * that we don't have a key for, such as incoming connections.
+     */
+    public NIOEventLoop nextLoop() {
+        int idx = this.nextLoop.getAndIncrement();
+        return (this.loops[(idx & Integer.MAX_VALUE) % this.loops.length]);
+    }
+
+    /**
+     * Tell all of the loops in the pool to stop running
+     */
+    public void exitLoop() {
+        for (NIOEventLoop loop : this.loops) {
+            loop.exitLoop();
+        } // FOR
+    }
+}
@@ -0,0 +1,202 @@
+package edu.brown.protorpc;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.google.protobuf.Descriptors;
+
+/**
+ * Coalesces the RPCs that are sent on a ProtoRpcChannel so that they get written out
+ * to the socket together instead of one at a time. A channel that has a batcher will
+ * only hold on to the RPCs for the methods that were added to the batcher. The buffered
+ * RPCs are written out once the channel has maxMessages of them or once the first one
+ * has waited for the batch window, whichever comes first. Any other RPC that is sent
+ * on the channel will write out the buffered RPCs along with it, so the order of
+ * the RPCs on the wire does not change. Every RPC still gets its own response and callback.
+ * <p>
+ * One batcher can be shared by all of the channels that use the same EventLoop.
+ * The timer for the batch window needs to be finer than what EventLoop.registerTimer()
+ * gives us, so the batcher has to be run in its own thread.
+ */
+public class ProtoRpcBatcher implements Runnable {
+    private static final Logger LOG = Logger.getLogger(ProtoRpcBatcher.class);
+
+    /**
+     * A batch that was started on a channel and the time that it has to be written out by
+     */
+    private static final class PendingBatch {
+        private final ProtoRpcChannel channel;
+        private final long batchId;
+        private final long deadline;
+
+        private PendingBatch(ProtoRpcChannel channel, long batchId, long deadline) {
+            this.channel = channel;
+            this.batchId = batchId;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long windowNanos;
+    private final int maxMessages;
+    private final Set<String> methods = new HashSet<String>();
+
+    /**
+     * Every batch uses the same window, so the batches in this queue are always
+     * sorted by their deadlines.
+     */
+    private final LinkedBlockingQueue<PendingBatch> queue = new LinkedBlockingQueue<PendingBatch>();
+    private volatile boolean stop = false;
+
+    // Stats
+    private long batchCount = 0;
+    private long messageCount = 0;
+    private int maxBatchSize = 0;
+    private long totalLatency = 0;
+    private long maxLatency = 0;
+
+    /**
+     * Constructor
+     * @param windowMicros the max amount of time in microseconds that an RPC can be buffered
+     * @param maxMessages the max number of RPCs that can be in a single batch
+     */
+    public ProtoRpcBatcher(long windowMicros, int maxMessages) {
+        assert(windowMicros >= 0) : "Invalid batch window " + windowMicros;
+        assert(maxMessages > 0) : "Invalid max batch size " + maxMessages;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Buffer the RPCs for the given method in any channel that uses this batcher.
+     * This must be called before the batcher is given to any channel.
+     * @param method
+     */
+    public ProtoRpcBatcher addMethod(Descriptors.MethodDescriptor method) {
+        this.methods.add(method.getFullName());
+        return (this);
+    }
+
+    public boolean isBatched(Descriptors.MethodDescriptor method) {
+        return (this.methods.contains(method.getFullName()));
+    }
+
+    public int getMaxMessages() {
+        return (this.maxMessages);
+    }
+
+    public long getWindowMicros() {
+        return (TimeUnit.NANOSECONDS.toMicros(this.windowNanos));
+    }
+
+    /**
+     * Called by a channel when it starts a new batch.
+     * @param channel
+     * @param batchId
+     * @param startTime
+     */
+    void schedule(ProtoRpcChannel channel, long batchId, long startTime) {
+        this.queue.offer(new PendingBatch(channel, batchId, startTime + this.windowNanos));
+    }
+
+    /**
+     * Called by a channel when it writes out a batch.
+     * @param size the number of RPCs in the batch
+     * @param latency the total amount of time in nanoseconds that the RPCs were buffered
+     * @param maxLatency the amount of time in nanoseconds that the oldest RPC was buffered
+     */
+    synchronized void recordBatch(int size, long latency, long maxLatency) {
+        this.batchCount++;
+        this.messageCount += size;
+        this.totalLatency += latency;
+        if (size > this.maxBatchSize) this.maxBatchSize = size;
+        if (maxLatency > this.maxLatency) this.maxLatency = maxLatency;
+    }
+
+    @Override
+    public void run() {
+        while (this.stop == false) {
+            PendingBatch next = null;
+            try {
+                next = this.queue.take();
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            // Wait until the window for this batch closes. The channel might have
+            // already written it out if it filled up in the meantime.
+            long wait = next.deadline - System.nanoTime();
+            while (wait > 0 && this.stop == false) {
+                LockSupport.parkNanos(wait);
+                if (Thread.interrupted()) {
+                    this.stop = true;
+                }
+                wait = next.deadline - System.nanoTime();
+            } // WHILE
+            try {
+                next.channel.flushBatch(next.batchId);
+            } catch (RuntimeException ex) {
+                if (this.stop == false) LOG.error("Failed to write out batched RPCs", ex);
+            }
+        } // WHILE
+        if (LOG.isDebugEnabled()) LOG.debug("Stopped " + this);
+    }
+
+    public void stop() {
+        this.stop = true;
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of batches that have been written out
+     */
+    public synchronized long getBatchCount() {
+        return (this.batchCount);
+    }
+
+    /**
+     * Returns the number of RPCs that were sent in a batch
+     */
+    public synchronized long getMessageCount() {
+        return (this.messageCount);
+    }
+
+    public synchronized double getAverageBatchSize() {
+        return (this.batchCount > 0 ? this.messageCount / (double)this.batchCount : 0d);
+    }
+
+    public synchronized int getMaxBatchSize() {
+        return (this.maxBatchSize);
+    }
+
+    /**
+     * Returns the average amount of time in microseconds that an RPC was buffered
+     * before it was written out
+     */
+    public synchronized double getAverageAddedLatency() {
+        return (this.messageCount > 0 ? (this.totalLatency / (double)this.messageCount) / 1000d : 0d);
+    }
+
+    /**
+     * Returns the longest amount of time in microseconds that an RPC was buffered
+     * before it was written out
+     */
+    public synchronized double getMaxAddedLatency() {
+        return (this.maxLatency / 1000d);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s[window=%dus, max=%d, batches=%d, messages=%d, avgSize=%.2f, avgLatency=%.2fus]",
+                             this.getClass().getSimpleName(), this.getWindowMicros(), this.maxMessages,
+                             this.batchCount, this.messageCount, this.getAverageBatchSize(),
+                             this.getAverageAddedLatency());
+    }
+}
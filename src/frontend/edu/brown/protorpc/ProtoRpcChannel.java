@@ -32,6 +32,14 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
             new HashMap<Integer, ProtoRpcController>();
     private int reconnectIntervalSeconds;
 
+    // Batching
+    private ProtoRpcBatcher batcher;
+    private long batchId = 0;
+    private int batchSize = 0;
+    private long batchStartTime;
+    /** The sum of the times that each RPC in the current batch was buffered at */
+    private long batchQueueTimes;
+
     /** A factory interface for connecting to an RPC server. */
     public interface ConnectFactory {
         /** Creates a new connection that is connecting. */
@@ -112,6 +120,15 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         reconnectIntervalSeconds = reconnectSeconds;
     }
 
+    /**
+     * Buffer the RPCs for the methods in the given batcher instead of writing them out right away.
+     * This must be called before any RPCs are sent on this channel.
+     * @param batcher
+     */
+    public void setBatcher(ProtoRpcBatcher batcher) {
+        this.batcher = batcher;
+    }
+
     public void callMethod(Descriptors.MethodDescriptor method,
             RpcController controller, Message request,
             Message responsePrototype, RpcCallback<Message> done) {
@@ -130,7 +147,27 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
             // System.err.println("Sending RPC sequence " + sequence);
             RpcRequest rpcRequest = makeRpcRequest(sequence, method, request);
             sequence += 1;
-            boolean blocked = connection.tryWrite(rpcRequest);
+            boolean blocked;
+            if (batcher != null && batcher.isBatched(method)) {
+                long now = System.nanoTime();
+                connection.bufferWrite(rpcRequest);
+                if (batchSize == 0) {
+                    batchId += 1;
+                    batchStartTime = now;
+                    batcher.schedule(this, batchId, now);
+                }
+                batchSize += 1;
+                batchQueueTimes += now;
+                if (batchSize < batcher.getMaxMessages()) {
+                    if (debug) LOG.debug(String.format("%d: Buffered RPC %s sequence %d [batchSize=%d]", hashCode(), method.getFullName(), sequence, batchSize));
+                    return;
+                }
+                blocked = writeBatch(now);
+            } else {
+                // This will also write out anything that we have buffered
+                blocked = connection.tryWrite(rpcRequest);
+                if (batchSize > 0) finishBatch(System.nanoTime());
+            }
             if (blocked) {
                 // the write blocked: wait for write callbacks
                 if (debug) LOG.debug("registering write with eventLoop: " + eventLoop);
@@ -140,6 +177,36 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         }
     }
 
+    /**
+     * Write out the RPCs in the given batch if they are still buffered.
+     * This is called by the ProtoRpcBatcher once the batch window closes.
+     * @param batchId
+     */
+    void flushBatch(long batchId) {
+        synchronized (this) {
+            if (this.batchSize == 0 || this.batchId != batchId || connection == null) return;
+            boolean blocked = writeBatch(System.nanoTime());
+            if (blocked) {
+                if (LOG.isDebugEnabled()) LOG.debug("registering write with eventLoop: " + eventLoop);
+                eventLoop.registerWrite(connection.getChannel(), this);
+            }
+        }
+    }
+
+    /** Must be called while holding the lock for this channel.
+     *  @return true if the connection blocked and now needs a write callback. */
+    private boolean writeBatch(long now) {
+        boolean blocked = connection.tryFlush();
+        finishBatch(now);
+        return blocked;
+    }
+
+    private void finishBatch(long now) {
+        batcher.recordBatch(batchSize, (batchSize * now) - batchQueueTimes, now - batchStartTime);
+        batchSize = 0;
+        batchQueueTimes = 0;
+    }
+
     public static RpcRequest makeRpcRequest(
             int sequence, Descriptors.MethodDescriptor method, Message request) {
         RpcRequest.Builder requestBuilder = RpcRequest.newBuilder();
@@ -229,6 +296,8 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         if (connection == null) throw new IllegalStateException("connection closed");
         connection.close();
         connection = null;
+        batchSize = 0;
+        batchQueueTimes = 0;
 
         // Fail all pending RPCs
         for (ProtoRpcController rpc : pendingRpcs.values()) {
@@ -245,6 +314,21 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
     }
     
     public static ProtoRpcChannel[] connectParallel(final EventLoop eventLoop, final InetSocketAddress[] addresses, final int total_time) {
+        return connectParallel(eventLoop, addresses, total_time, null);
+    }
+
+    public static ProtoRpcChannel[] connectParallel(final EventLoop eventLoop, final InetSocketAddress[] addresses, final EventLoop[] channelLoops) {
+        return connectParallel(eventLoop, addresses, TOTAL_CONNECT_TIMEOUT_MS, channelLoops);
+    }
+
+    /**
+     * Connects to all of the addresses using eventLoop, which must not already be running.
+     * @param channelLoops the loop that each of the new channels should use afterwards.
+     *          These must not be running either. If this is null, then every channel uses eventLoop.
+     */
+    public static ProtoRpcChannel[] connectParallel(final EventLoop eventLoop, final InetSocketAddress[] addresses,
+                                                    final int total_time, final EventLoop[] channelLoops) {
+        assert channelLoops == null || channelLoops.length == addresses.length;
         class ExitLoopHandler extends AbstractEventHandler {
             @Override
             public void timerCallback() {
@@ -326,7 +410,7 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         if (exitLoopHandler.barrierCount == 0) {
             ProtoRpcChannel[] rpcChannels = new ProtoRpcChannel[addresses.length];
             for (int i = 0; i < channels.length; ++i) {
-                rpcChannels[i] = new ProtoRpcChannel(eventLoop,
+                rpcChannels[i] = new ProtoRpcChannel(channelLoops != null ? channelLoops[i] : eventLoop,
                         new StaticConnectFactory(new NonBlockingConnection(channels[i].channel)));
             }
             return rpcChannels;
@@ -24,7 +24,18 @@ public class ProtoServer extends AbstractEventHandler {
     private static final Logger LOG = Logger.getLogger(ProtoServer.class);
     
     public ProtoServer(EventLoop eventLoop) {
+        this(eventLoop, null);
+    }
+
+    /**
+     * Constructor
+     * @param eventLoop the loop that accepts new connections
+     * @param connectionLoops the pool of loops that the accepted connections are spread
+     *          across. If this is null, then they are all handled by eventLoop
+     */
+    public ProtoServer(EventLoop eventLoop, NIOEventLoopPool connectionLoops) {
         this.eventLoop = eventLoop;
+        this.connectionLoops = connectionLoops;
     }
 
     @Override
@@ -41,16 +52,30 @@ public class ProtoServer extends AbstractEventHandler {
 
         // wrap it in a message connection and register with event loop
         ProtoConnection connection = new ProtoConnection(new NonBlockingConnection(client));
-
-        eventLoop.registerRead(client, new EventCallbackWrapper(connection));
+        final EventLoop loop = (connectionLoops != null ? connectionLoops.nextLoop() : eventLoop);
+        final EventCallbackWrapper wrapper = new EventCallbackWrapper(connection, loop);
+        final SocketChannel registerChannel = client;
+
+        if (loop == eventLoop) {
+            loop.registerRead(client, wrapper);
+        } else {
+            // The other loop is blocked in select(), so we can't register with it from here
+            loop.runInEventThread(new Runnable() {
+                @Override
+                public void run() {
+                    loop.registerRead(registerChannel, wrapper);
+                }
+            });
+        }
 //        SelectionKey clientKey = connection.register(selector);
 //        clientKey.attach(connection);
 //        eventQueue.add(new Event(connection, null));
     }
 
     private class EventCallbackWrapper extends AbstractEventHandler {
-        public EventCallbackWrapper(ProtoConnection connection) {
+        public EventCallbackWrapper(ProtoConnection connection, EventLoop loop) {
             this.connection = connection;
+            this.loop = loop;
         }
 
         @Override
@@ -64,12 +89,13 @@ public class ProtoServer extends AbstractEventHandler {
         }
 
         private final ProtoConnection connection;
+        private final EventLoop loop;
 
         public synchronized void writeResponse(RpcResponse output) {
             boolean blocked = connection.tryWrite(output);
             if (blocked) {
                 // write blocked: wait for the write callback
-                eventLoop.registerWrite(connection.getChannel(), this);
+                loop.registerWrite(connection.getChannel(), this);
             }
         }
     }
@@ -218,6 +244,7 @@ public class ProtoServer extends AbstractEventHandler {
     }
 
     private EventLoop eventLoop;
+    private final NIOEventLoopPool connectionLoops;
     private ServerSocketChannel serverSocket;
     private final ServiceRegistry serviceRegistry = new ServiceRegistry();
 }
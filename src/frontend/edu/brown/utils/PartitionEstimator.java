@@ -95,7 +95,7 @@ public class PartitionEstimator {
     // ----------------------------------------------------------------------------
     private Database catalog_db;
     private final AbstractHasher hasher;
-    private final Set<Integer> all_partitions = new HashSet<Integer>();
+    private final PartitionSet all_partitions = new PartitionSet();
     private int num_partitions;
 
     private final HashMap<Procedure, ProcParameter> cache_procPartitionParameters = new HashMap<Procedure, ProcParameter>();
@@ -117,6 +117,17 @@ public class PartitionEstimator {
      */
     private final Map<String, Set<CacheEntry>> table_cache_xref = new HashMap<String, Set<CacheEntry>>();
 
+    /**
+     * PlanFragment Id -> FragmentRouter
+     * This array is replaced (never modified in place) whenever we need to grow it
+     */
+    private volatile FragmentRouter cache_fragmentRouters[] = new FragmentRouter[0];
+
+    /**
+     * Whether to use the FragmentRouters when we only need the set of all partitions
+     */
+    private boolean enable_routers = true;
+
     /**
      * CacheEntry ColumnKey -> Set<StmtParameterIndex>
      */
@@ -130,7 +141,7 @@ public class PartitionEstimator {
         private transient Table tables[];
         /** Whether the table in the tables array is replicated */
         private transient boolean is_replicated[];
-        private transient boolean is_array[]; // parameters
+        private transient volatile boolean is_array[]; // parameters
         private transient boolean is_valid = true;
         private transient boolean cache_valid = false;
 
@@ -242,35 +253,122 @@ public class PartitionEstimator {
         }
     }; // END CLASS
 
+    // ----------------------------------------------------------------------------
+    // FRAGMENT ROUTERS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Computes the partitions for a single table referenced in a PlanFragment.
+     * These are generated from a CacheEntry so that we don't have to look anything up
+     * when we are invoked at runtime.
+     */
+    private abstract class TableRouter {
+        public abstract void addPartitions(PartitionSet partitions, Object params[], Integer base_partition);
+    }
+
+    /**
+     * Replicated table that is only being read, so it executes at the base partition
+     */
+    private class BasePartitionTableRouter extends TableRouter {
+        @Override
+        public void addPartitions(PartitionSet partitions, Object params[], Integer base_partition) {
+            if (base_partition != null)
+                partitions.add(base_partition.intValue());
+        }
+    }
+
+    /**
+     * Replicated table that is being modified, or a partitioned table that we don't
+     * have a parameter mapping for, so it must be broadcast to all partitions
+     */
+    private class BroadcastTableRouter extends TableRouter {
+        @Override
+        public void addPartitions(PartitionSet partitions, Object params[], Integer base_partition) {
+            partitions.addAll(all_partitions);
+        }
+    }
+
     /**
-     * Set<Integer> pool used by calculatePartitionsForCache
+     * Partitioned table where we hash the parameters that are mapped to its partitioning column
+     */
+    private class ParameterTableRouter extends TableRouter {
+        private final Column catalog_col;
+        private final int param_idxs[];
+
+        public ParameterTableRouter(Column catalog_col, int param_idxs[]) {
+            this.catalog_col = catalog_col;
+            this.param_idxs = param_idxs;
+        }
+        @Override
+        public void addPartitions(PartitionSet partitions, Object params[], Integer base_partition) {
+            for (int param_idx : this.param_idxs) {
+                Object value = params[param_idx];
+                if (value != null && value.getClass().isArray()) {
+                    for (int i = 0, cnt = Array.getLength(value); i < cnt; i++) {
+                        partitions.add(hasher.hash(Array.get(value, i), this.catalog_col));
+                    } // FOR
+                } else {
+                    partitions.add(hasher.hash(value, this.catalog_col));
+                }
+            } // FOR
+        }
+    }
+
+    /**
+     * Pre-computed routing function for a PlanFragment. If the PlanFragment references
+     * a table that we don't have a specialized TableRouter for (e.g., MultiColumn partitioning),
+     * then we will fall back to using the original CacheEntry.
+     */
+    private class FragmentRouter {
+        private final PlanFragment catalog_frag;
+        private final CacheEntry cache_entry;
+        private final TableRouter routers[];
+
+        public FragmentRouter(PlanFragment catalog_frag, CacheEntry cache_entry, TableRouter routers[]) {
+            this.catalog_frag = catalog_frag;
+            this.cache_entry = cache_entry;
+            this.routers = routers;
+        }
+
+        public void addPartitions(PartitionSet partitions, Object params[], Integer base_partition) throws Exception {
+            if (this.routers == null) {
+                calculatePartitionsForCache(null, partitions, this.cache_entry, params, base_partition);
+                return;
+            }
+            for (TableRouter router : this.routers) {
+                router.addPartitions(partitions, params, base_partition);
+                if (partitions.size() == num_partitions) break;
+            } // FOR
+        }
+    }
+
+    /**
+     * PartitionSet pool used by calculatePartitionsForCache
      */
     private final ObjectPool partitionSetPool = new StackObjectPool(new BasePoolableObjectFactory() {
         @Override
         public Object makeObject() throws Exception {
-            return (new HashSet<Integer>());
+            return (new PartitionSet());
         }
 
         public void passivateObject(Object obj) throws Exception {
-            @SuppressWarnings("unchecked")
-            Set<Integer> set = (Set<Integer>) obj;
+            PartitionSet set = (PartitionSet) obj;
             set.clear();
         };
     }, 1000);
 
     /**
-     * Set<Integer>[4] pool used by calculatePartitionsForCache
+     * PartitionSet[4] pool used by calculatePartitionsForCache
      */
     private final ObjectPool mcPartitionSetPool = new StackObjectPool(new BasePoolableObjectFactory() {
         @Override
         public Object makeObject() throws Exception {
-            return (new HashSet[] { new HashSet<Integer>(), new HashSet<Integer>(), new HashSet<Integer>(), new HashSet<Integer>() });
+            return (new PartitionSet[] { new PartitionSet(), new PartitionSet(), new PartitionSet(), new PartitionSet() });
         }
 
         public void passivateObject(Object obj) throws Exception {
-            @SuppressWarnings("unchecked")
-            HashSet<Integer> sets[] = (HashSet<Integer>[]) obj;
-            for (HashSet<Integer> s : sets) {
+            PartitionSet sets[] = (PartitionSet[]) obj;
+            for (PartitionSet s : sets) {
                 s.clear();
             } // FOR
 
@@ -415,6 +513,16 @@ public class PartitionEstimator {
         this.cache_fragmentEntries.clear();
         this.cache_statementEntries.clear();
         this.cache_stmtPartitionParameters.clear();
+        this.cache_fragmentRouters = new FragmentRouter[0];
+    }
+
+    /**
+     * Enable or disable the pre-computed FragmentRouters. If disabled, then all
+     * look-ups will go through the CacheEntries. This is only useful for testing
+     * @param enable
+     */
+    public void setFragmentRoutersEnabled(boolean enable) {
+        this.enable_routers = enable;
     }
 
     // ----------------------------------------------------------------------------
@@ -947,11 +1055,11 @@ public class PartitionEstimator {
      * @throws Exception
      */
     public Set<Integer> getAllPartitions(final TransactionTrace xact) throws Exception {
-        Set<Integer> partitions = new HashSet<Integer>();
+        Set<Integer> partitions = new PartitionSet();
         int base_partition = this.getBasePartition(xact.getCatalogItem(this.catalog_db), xact.getParams(), true);
         partitions.add(base_partition);
 
-        Set<Integer> temp = new HashSet<Integer>();
+        Set<Integer> temp = new PartitionSet();
         for (QueryTrace query : xact.getQueries()) {
             partitions.addAll(this.getAllPartitions(temp, query.getCatalogItem(this.catalog_db), query.getParams(), base_partition));
             temp.clear();
@@ -988,7 +1096,7 @@ public class PartitionEstimator {
      * @return
      */
     public Set<Integer> getAllPartitions(final Statement catalog_stmt, Object params[], int base_partition) throws Exception {
-        return (this.getAllPartitions(new HashSet<Integer>(), catalog_stmt, params, base_partition));
+        return (this.getAllPartitions(new PartitionSet(), catalog_stmt, params, base_partition));
     }
 
     /**
@@ -999,7 +1107,7 @@ public class PartitionEstimator {
      * @throws Exception
      */
     public Set<Integer> getAllPartitions(final Set<Integer> partitions, final Statement catalog_stmt, final Object params[], final int base_partition) throws Exception {
-        Set<Integer> all_partitions = new HashSet<Integer>();
+        Set<Integer> all_partitions = new PartitionSet();
 
         // Note that we will use the single-sited fragments (if available) since
         // they will be
@@ -1145,7 +1253,7 @@ public class PartitionEstimator {
             if (frag_partitions != null) {
                 partitions = frag_partitions.get(catalog_frag);
                 if (partitions == null) {
-                    partitions = new HashSet<Integer>();
+                    partitions = new PartitionSet();
                     frag_partitions.put(catalog_frag, partitions);
                 } else {
                     partitions.clear();
@@ -1183,7 +1291,7 @@ public class PartitionEstimator {
      * @throws Exception
      */
     public Set<Integer> getPartitions(final PlanFragment catalog_frag, Object params[], Integer base_partition) throws Exception {
-        Set<Integer> partitions = new HashSet<Integer>();
+        Set<Integer> partitions = new PartitionSet();
         this.calculatePartitionsForFragment(null, partitions, catalog_frag, params, base_partition);
         return (partitions);
     }
@@ -1203,8 +1311,12 @@ public class PartitionEstimator {
             throws Exception {
         if (trace.get())
             LOG.trace("Estimating partitions for PlanFragment #" + catalog_frag.fullName());
-        PartitionEstimator.CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
-        this.calculatePartitionsForCache(entry_partitions, all_partitions, cache_entry, params, base_partition);
+        if (entry_partitions == null && this.enable_routers && all_partitions instanceof PartitionSet) {
+            this.getFragmentRouter(catalog_frag).addPartitions((PartitionSet)all_partitions, params, base_partition);
+        } else {
+            PartitionEstimator.CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
+            this.calculatePartitionsForCache(entry_partitions, all_partitions, cache_entry, params, base_partition);
+        }
         if (debug.get()) {
             if (entry_partitions != null)
                 LOG.debug(String.format("%s Table Partitions: %s", catalog_frag.fullName(), entry_partitions));
@@ -1235,6 +1347,76 @@ public class PartitionEstimator {
         return (cache_entry);
     }
 
+    private FragmentRouter getFragmentRouter(PlanFragment catalog_frag) throws Exception {
+        int frag_id = catalog_frag.getId();
+        FragmentRouter routers[] = this.cache_fragmentRouters;
+        FragmentRouter router = (frag_id >= 0 && frag_id < routers.length ? routers[frag_id] : null);
+        // We have to check that we got back the router for this exact PlanFragment
+        // in case somebody has two catalogs with overlapping PlanFragment ids
+        if (router == null || router.catalog_frag != catalog_frag) {
+            router = this.generateFragmentRouter(catalog_frag);
+        }
+        return (router);
+    }
+
+    /**
+     * Build the FragmentRouter for the given PlanFragment from its CacheEntry
+     * @param catalog_frag
+     * @return
+     * @throws Exception
+     */
+    private synchronized FragmentRouter generateFragmentRouter(PlanFragment catalog_frag) throws Exception {
+        PartitionEstimator.CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
+        Table tables[] = cache_entry.getTables();
+        TableRouter routers[] = new TableRouter[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            if (cache_entry.is_replicated[i]) {
+                if (cache_entry.query_type == QueryType.SELECT) {
+                    routers[i] = new BasePartitionTableRouter();
+                } else if (cache_entry.query_type == QueryType.INSERT ||
+                           cache_entry.query_type == QueryType.UPDATE ||
+                           cache_entry.query_type == QueryType.DELETE) {
+                    routers[i] = new BroadcastTableRouter();
+                }
+            } else {
+                Column catalog_col = this.cache_tablePartitionColumns.get(tables[i]);
+                if ((catalog_col instanceof MultiColumn) == false) {
+                    int param_idxs[] = cache_entry.get(catalog_col);
+                    if (param_idxs == null || param_idxs.length == 0) {
+                        routers[i] = new BroadcastTableRouter();
+                    } else {
+                        routers[i] = new ParameterTableRouter(catalog_col, param_idxs);
+                    }
+                }
+            }
+            // Let the CacheEntry handle anything that we don't know about
+            if (routers[i] == null) {
+                if (debug.get())
+                    LOG.debug(String.format("Unable to generate TableRouter for %s in %s. Will use CacheEntry",
+                                            tables[i].getName(), catalog_frag.fullName()));
+                routers = null;
+                break;
+            }
+        } // FOR
+        FragmentRouter router = new FragmentRouter(catalog_frag, cache_entry, routers);
+
+        int frag_id = catalog_frag.getId();
+        if (frag_id >= 0) {
+            FragmentRouter cache[] = this.cache_fragmentRouters;
+            if (frag_id >= cache.length) {
+                cache = Arrays.copyOf(cache, Math.max(frag_id + 1, cache.length * 2));
+            } else {
+                cache = cache.clone();
+            }
+            cache[frag_id] = router;
+            this.cache_fragmentRouters = cache;
+        }
+        if (trace.get())
+            LOG.trace(String.format("Generated FragmentRouter for %s [routers=%s]",
+                                    catalog_frag.fullName(), (routers != null ? routers.length : null)));
+        return (router);
+    }
+
     /**
      * @param cache_entry
      * @param params
@@ -1251,15 +1433,17 @@ public class PartitionEstimator {
         QueryType stmt_type = cache_entry.query_type;
 
         // Update cache
+        // Fill in the flags before we hand the array over to the CacheEntry so that
+        // another thread never sees a partially filled one
         if (cache_entry.is_array == null) {
-            cache_entry.is_array = new boolean[params.length];
-            for (int i = 0; i < cache_entry.is_array.length; i++) {
-                cache_entry.is_array[i] = ClassUtil.isArray(params[i]);
+            boolean is_array[] = new boolean[params.length];
+            for (int i = 0; i < is_array.length; i++) {
+                is_array[i] = ClassUtil.isArray(params[i]);
             } // FOR
+            cache_entry.is_array = is_array;
         }
 
-        @SuppressWarnings("unchecked")
-        final Set<Integer> table_partitions = (Set<Integer>) this.partitionSetPool.borrowObject();
+        final PartitionSet table_partitions = (PartitionSet) this.partitionSetPool.borrowObject();
         assert (table_partitions != null);
         table_partitions.clear();
 
@@ -1292,7 +1476,7 @@ public class PartitionEstimator {
                     if (trace.get())
                         LOG.trace("Cache entry " + cache_entry + " will execute on the local partition");
                     if (base_partition != null)
-                        table_partitions.add(base_partition);
+                        table_partitions.add(base_partition.intValue());
                 } else if (stmt_type == QueryType.INSERT || stmt_type == QueryType.UPDATE || stmt_type == QueryType.DELETE) {
                     if (trace.get())
                         LOG.trace("Cache entry " + cache_entry + " must be broadcast to all partitions");
@@ -1319,8 +1503,7 @@ public class PartitionEstimator {
                         table_partitions.addAll(this.all_partitions);
                     } else {
                         MultiColumn mc = (MultiColumn) catalog_col;
-                        @SuppressWarnings("unchecked")
-                        HashSet<Integer> mc_partitions[] = (HashSet<Integer>[]) this.mcPartitionSetPool.borrowObject();
+                        PartitionSet mc_partitions[] = (PartitionSet[]) this.mcPartitionSetPool.borrowObject();
 
                         if (trace.get())
                             LOG.trace("Calculating columns for multi-partition colunmn: " + mc);
@@ -1355,8 +1538,8 @@ public class PartitionEstimator {
                         // We therefore just need to take the cross product of
                         // the two sets and hash them together
                         if (is_valid) {
-                            for (int part0 : mc_partitions[0]) {
-                                for (int part1 : mc_partitions[1]) {
+                            for (int part0 = mc_partitions[0].first(); part0 != -1; part0 = mc_partitions[0].next(part0 + 1)) {
+                                for (int part1 = mc_partitions[1].first(); part1 != -1; part1 = mc_partitions[1].next(part1 + 1)) {
                                     int partition = this.hasher.multiValueHash(part0, part1);
                                     table_partitions.add(partition);
                                     if (trace.get())
@@ -1393,7 +1576,7 @@ public class PartitionEstimator {
                 String table_key = CatalogKey.createKey(catalog_tbl);
                 Set<Integer> table_p = entry_table_partitions.get(table_key);
                 if (table_p == null) {
-                    entry_table_partitions.put(table_key, new HashSet<Integer>(table_partitions));
+                    entry_table_partitions.put(table_key, new PartitionSet(table_partitions));
                 } else {
                     table_p.clear();
                     table_p.addAll(table_partitions);
@@ -1417,7 +1600,7 @@ public class PartitionEstimator {
      * @param param_idxs
      * @param catalog_col
      */
-    private Set<Integer> calculatePartitions(final Set<Integer> partitions, Object params[], boolean is_array[], int param_idxs[], Column catalog_col) {
+    private PartitionSet calculatePartitions(final PartitionSet partitions, Object params[], boolean is_array[], int param_idxs[], Column catalog_col) {
         // Note that we have to go through all of the mappings from the
         // partitioning column
         // to parameters. This can occur when the partitioning column is
@@ -1570,6 +1753,9 @@ public class PartitionEstimator {
                 try {
                     this.generateCache(catalog_stmt);
                     this.getStatementEstimationParameters(catalog_stmt);
+                    for (PlanFragment catalog_frag : CatalogUtil.getAllPlanFragments(catalog_stmt)) {
+                        this.generateFragmentRouter(catalog_frag);
+                    } // FOR
                 } catch (Exception ex) {
                     LOG.fatal("Failed to generate cache for " + catalog_stmt.fullName(), ex);
                     System.exit(1);
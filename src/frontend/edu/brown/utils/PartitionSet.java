@@ -0,0 +1,246 @@
+package edu.brown.utils;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact set of partition ids. The first 64 partitions are stored in a single
+ * long bitmask, and anything larger than that spills over into a BitSet. This implements
+ * Set<Integer> so that it can be passed to anything that expects a regular Collection,
+ * but the hot paths should use the int methods (add(int), contains(int), next(int))
+ * so that we never have to box the partition ids. addAll(), containsAll(), and equals()
+ * avoid boxing whenever the other Collection is also a PartitionSet.
+ */
+public class PartitionSet extends AbstractSet<Integer> {
+    private static final int MASK_SIZE = 64;
+
+    /** Partitions [0, 64) */
+    private long mask = 0;
+    /** Partitions [64, ...) */
+    private BitSet overflow = null;
+    private boolean readonly = false;
+
+    public PartitionSet() {
+        // Nothing to do...
+    }
+
+    public PartitionSet(Collection<Integer> partitions) {
+        this.addAll(partitions);
+    }
+
+    public PartitionSet(int...partitions) {
+        for (int p : partitions) {
+            this.add(p);
+        } // FOR
+    }
+
+    /**
+     * Return a new read-only PartitionSet that only contains the given partition
+     * @param partition
+     * @return
+     */
+    public static PartitionSet singleton(int partition) {
+        PartitionSet ret = new PartitionSet(partition);
+        ret.readonly = true;
+        return (ret);
+    }
+
+    /**
+     * Return a new read-only PartitionSet with all of the given partitions
+     * @param partitions
+     * @return
+     */
+    public static PartitionSet unmodifiable(Collection<Integer> partitions) {
+        PartitionSet ret = new PartitionSet(partitions);
+        ret.readonly = true;
+        return (ret);
+    }
+
+    public boolean isReadOnly() {
+        return (this.readonly);
+    }
+
+    private void checkWritable() {
+        if (this.readonly) throw new UnsupportedOperationException("Trying to modify read-only " + this.getClass().getSimpleName());
+    }
+
+    // ----------------------------------------------------------------------------
+    // PRIMITIVE METHODS
+    // ----------------------------------------------------------------------------
+
+    public boolean add(int partition) {
+        assert(partition >= 0) : "Invalid partition " + partition;
+        this.checkWritable();
+        if (partition < MASK_SIZE) {
+            long bit = (1l << partition);
+            if ((this.mask & bit) != 0) return (false);
+            this.mask |= bit;
+            return (true);
+        }
+        if (this.overflow == null) this.overflow = new BitSet();
+        if (this.overflow.get(partition)) return (false);
+        this.overflow.set(partition);
+        return (true);
+    }
+
+    public boolean contains(int partition) {
+        if (partition < 0) return (false);
+        if (partition < MASK_SIZE) return ((this.mask & (1l << partition)) != 0);
+        return (this.overflow != null && this.overflow.get(partition));
+    }
+
+    public boolean remove(int partition) {
+        this.checkWritable();
+        if (this.contains(partition) == false) return (false);
+        if (partition < MASK_SIZE) {
+            this.mask &= ~(1l << partition);
+        } else {
+            this.overflow.clear(partition);
+        }
+        return (true);
+    }
+
+    /**
+     * Returns the smallest partition in this set that is greater than or equal to
+     * the given partition, or -1 if there isn't one. The way to loop over the set
+     * without boxing is:
+     * <pre>
+     * for (int p = set.next(0); p != -1; p = set.next(p+1)) { ... }
+     * </pre>
+     * @param from
+     * @return
+     */
+    public int next(int from) {
+        if (from < MASK_SIZE) {
+            long m = this.mask & (-1l << from);
+            if (m != 0) return (Long.numberOfTrailingZeros(m));
+            from = MASK_SIZE;
+        }
+        if (this.overflow == null) return (-1);
+        return (this.overflow.nextSetBit(from));
+    }
+
+    /**
+     * Returns the smallest partition in this set, or -1 if it is empty
+     * @return
+     */
+    public int first() {
+        return (this.next(0));
+    }
+
+    // ----------------------------------------------------------------------------
+    // SET METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public int size() {
+        return (Long.bitCount(this.mask) + (this.overflow != null ? this.overflow.cardinality() : 0));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (this.mask == 0 && (this.overflow == null || this.overflow.isEmpty()));
+    }
+
+    @Override
+    public void clear() {
+        this.checkWritable();
+        this.mask = 0;
+        if (this.overflow != null) this.overflow.clear();
+    }
+
+    @Override
+    public boolean add(Integer partition) {
+        return (this.add(partition.intValue()));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return (o instanceof Integer && this.contains(((Integer)o).intValue()));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return (o instanceof Integer && this.remove(((Integer)o).intValue()));
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Integer> c) {
+        if ((c instanceof PartitionSet) == false) return (super.addAll(c));
+        this.checkWritable();
+        PartitionSet other = (PartitionSet)c;
+        long orig_mask = this.mask;
+        this.mask |= other.mask;
+        boolean changed = (orig_mask != this.mask);
+        if (other.overflow != null && other.overflow.isEmpty() == false) {
+            if (this.overflow == null) this.overflow = new BitSet();
+            int orig_size = this.overflow.cardinality();
+            this.overflow.or(other.overflow);
+            changed = changed || (orig_size != this.overflow.cardinality());
+        }
+        return (changed);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if ((c instanceof PartitionSet) == false) return (super.containsAll(c));
+        PartitionSet other = (PartitionSet)c;
+        if ((other.mask & ~this.mask) != 0) return (false);
+        if (other.overflow == null || other.overflow.isEmpty()) return (true);
+        if (this.overflow == null) return (false);
+        BitSet missing = (BitSet)other.overflow.clone();
+        missing.andNot(this.overflow);
+        return (missing.isEmpty());
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            private int next = PartitionSet.this.first();
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return (this.next != -1);
+            }
+            @Override
+            public Integer next() {
+                if (this.next == -1) throw new NoSuchElementException();
+                this.last = this.next;
+                this.next = PartitionSet.this.next(this.next + 1);
+                return (this.last);
+            }
+            @Override
+            public void remove() {
+                if (this.last == -1) throw new IllegalStateException();
+                PartitionSet.this.remove(this.last);
+                this.last = -1;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return (true);
+        if ((obj instanceof PartitionSet) == false) return (super.equals(obj));
+        PartitionSet other = (PartitionSet)obj;
+        if (this.mask != other.mask) return (false);
+        boolean this_empty = (this.overflow == null || this.overflow.isEmpty());
+        boolean other_empty = (other.overflow == null || other.overflow.isEmpty());
+        if (this_empty || other_empty) return (this_empty == other_empty);
+        return (this.overflow.equals(other.overflow));
+    }
+
+    @Override
+    public int hashCode() {
+        // Same as AbstractSet.hashCode() but without boxing anything
+        int hash = 0;
+        for (int p = this.next(0); p != -1; p = this.next(p + 1)) {
+            hash += p;
+        } // FOR
+        return (hash);
+    }
+}
@@ -0,0 +1,304 @@
+package edu.brown.workload;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.voltdb.VoltType;
+import org.voltdb.messaging.FastDeserializer;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.workload.filters.Filter;
+import edu.brown.workload.filters.Filter.FilterResult;
+
+/**
+ * Memory-mapped reader for workload trace files written by {@link BinaryWorkloadWriter}.
+ * The TransactionTraces are only deserialized when they are requested, so iterating
+ * over the reader only needs enough memory for the trace that is currently being processed.
+ * We can also look up a single TransactionTrace by its txn id using the index at the end of the file.
+ * <p>
+ * The file is mapped in segments of at most SEGMENT_SIZE bytes. Each segment overlaps the next
+ * one by the size of the largest record so that every record is contained in a single segment.
+ * The reader is safe to use from multiple threads.
+ */
+public class BinaryWorkloadReader implements Iterable<TransactionTrace> {
+    private static final Logger LOG = Logger.getLogger(BinaryWorkloadReader.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /** 'HSTW' */
+    public static final int MAGIC = 0x48535457;
+    public static final int VERSION = 1;
+    protected static final int HEADER_SIZE = 8;
+    protected static final int FOOTER_SIZE = 12;
+    protected static final byte ARRAY = -99;
+    protected static final long NULL_TIMESTAMP = Long.MIN_VALUE;
+    private static final long SEGMENT_SIZE = 1l << 30;
+
+    private final File input_path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long index_offset;
+    private final MappedByteBuffer segments[];
+
+    /** The index sorted by txn id */
+    private final long txn_ids[];
+    private final long offsets[];
+
+    /**
+     * Constructor
+     * @param input_path
+     * @throws IOException
+     */
+    public BinaryWorkloadReader(File input_path) throws IOException {
+        this.input_path = input_path;
+        this.file = new RandomAccessFile(input_path, "r");
+        this.channel = this.file.getChannel();
+        long size = this.channel.size();
+        if (size < HEADER_SIZE + FOOTER_SIZE || this.file.readInt() != MAGIC) {
+            this.file.close();
+            throw new IOException("'" + input_path + "' is not a binary workload trace file");
+        }
+        int version = this.file.readInt();
+        if (version != VERSION) {
+            this.file.close();
+            throw new IOException(String.format("Unsupported binary workload trace version %d in '%s'", version, input_path));
+        }
+
+        // Footer
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        this.channel.read(footer, size - FOOTER_SIZE);
+        footer.flip();
+        this.index_offset = footer.getLong();
+        if (footer.getInt() != MAGIC) {
+            this.file.close();
+            throw new IOException("Missing index in binary workload trace file '" + input_path + "'. Was it closed properly?");
+        }
+
+        // Index
+        MappedByteBuffer index = this.channel.map(FileChannel.MapMode.READ_ONLY, this.index_offset, size - FOOTER_SIZE - this.index_offset);
+        int num_txns = index.getInt();
+        this.txn_ids = new long[num_txns];
+        this.offsets = new long[num_txns];
+        int max_length = 0;
+        for (int i = 0; i < num_txns; i++) {
+            this.txn_ids[i] = index.getLong();
+            this.offsets[i] = index.getLong();
+            max_length = Math.max(max_length, index.getInt());
+        } // FOR
+
+        // Records
+        int num_segments = (int)((this.index_offset + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        this.segments = new MappedByteBuffer[num_segments];
+        for (int i = 0; i < num_segments; i++) {
+            long start = i * SEGMENT_SIZE;
+            long length = Math.min(this.index_offset - start, SEGMENT_SIZE + 4 + max_length);
+            this.segments[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        } // FOR
+        if (debug.get()) LOG.debug(String.format("Opened '%s' [txns=%d, segments=%d, bytes=%d]",
+                                                 input_path, num_txns, num_segments, size));
+    }
+
+    /**
+     * Returns true if the given file is a binary workload trace file
+     * @param path
+     * @return
+     */
+    public static boolean isBinaryFile(File path) {
+        if (path.isFile() == false || path.length() < HEADER_SIZE + FOOTER_SIZE) return (false);
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(path));
+            try {
+                return (in.readInt() == MAGIC);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return (false);
+        }
+    }
+
+    public File getInputPath() {
+        return (this.input_path);
+    }
+
+    public int getTransactionCount() {
+        return (this.txn_ids.length);
+    }
+
+    /**
+     * Return the TransactionTrace for the given txn id. Returns null if
+     * it is not in the file.
+     * @param txn_id
+     * @return
+     */
+    public TransactionTrace getTransaction(long txn_id) {
+        int idx = Arrays.binarySearch(this.txn_ids, txn_id);
+        if (idx < 0) return (null);
+        return (this.read(this.offsets[idx]));
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+        this.file.close();
+    }
+
+    // ----------------------------------------------------------------------------
+    // ITERATORS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Iterates over the TransactionTraces in the order that they were written to the file
+     */
+    @Override
+    public Iterator<TransactionTrace> iterator() {
+        return (this.iterator(null));
+    }
+
+    /**
+     * Iterates over the TransactionTraces in the order that they were written to the file,
+     * but only returns the ones that the given Filter allows
+     * @param filter
+     * @return
+     */
+    public Iterator<TransactionTrace> iterator(final Filter filter) {
+        return new Iterator<TransactionTrace>() {
+            private long offset = HEADER_SIZE;
+            private TransactionTrace next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null && this.offset < index_offset) {
+                    TransactionTrace txn_trace = read(this.offset);
+                    this.offset += 4 + getLength(this.offset);
+                    if (filter != null) {
+                        FilterResult result = filter.apply(txn_trace);
+                        if (trace.get()) LOG.trace(txn_trace + " Filter Result: " + result);
+                        if (result == FilterResult.HALT) {
+                            this.offset = index_offset;
+                            break;
+                        }
+                        else if (result == FilterResult.SKIP) continue;
+                    }
+                    this.next = txn_trace;
+                } // WHILE
+                return (this.next != null);
+            }
+            @Override
+            public TransactionTrace next() {
+                if (this.hasNext() == false) throw new NoSuchElementException();
+                TransactionTrace ret = this.next;
+                this.next = null;
+                return (ret);
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // ----------------------------------------------------------------------------
+    // DESERIALIZATION
+    // ----------------------------------------------------------------------------
+
+    private int getLength(long offset) {
+        int seg_idx = (int)(offset / SEGMENT_SIZE);
+        return (this.segments[seg_idx].getInt((int)(offset - seg_idx * SEGMENT_SIZE)));
+    }
+
+    private TransactionTrace read(long offset) {
+        int seg_idx = (int)(offset / SEGMENT_SIZE);
+        int position = (int)(offset - seg_idx * SEGMENT_SIZE);
+        ByteBuffer buffer = this.segments[seg_idx].duplicate();
+        int length = buffer.getInt(position);
+        buffer.limit(position + 4 + length);
+        buffer.position(position + 4);
+        try {
+            return (deserialize(new FastDeserializer(buffer.slice())));
+        } catch (IOException ex) {
+            throw new RuntimeException(String.format("Failed to read TransactionTrace at offset %d of '%s'", offset, this.input_path), ex);
+        }
+    }
+
+    protected static TransactionTrace deserialize(FastDeserializer fds) throws IOException {
+        TransactionTrace txn_trace = new TransactionTrace();
+        txn_trace.txn_id = fds.readLong();
+        deserializeElement(fds, txn_trace);
+        int num_queries = fds.readInt();
+        for (int i = 0; i < num_queries; i++) {
+            QueryTrace query_trace = new QueryTrace();
+            deserializeElement(fds, query_trace);
+            query_trace.batch_id = fds.readInt();
+            txn_trace.addQuery(query_trace);
+        } // FOR
+        return (txn_trace);
+    }
+
+    private static void deserializeElement(FastDeserializer fds, AbstractTraceElement<?> element) throws IOException {
+        element.catalog_item_name = fds.readString();
+        long start = fds.readLong();
+        long stop = fds.readLong();
+        element.start_timestamp = (start != NULL_TIMESTAMP ? start : null);
+        element.stop_timestamp = (stop != NULL_TIMESTAMP ? stop : null);
+        element.aborted = fds.readBoolean();
+        element.weight = fds.readShort();
+
+        int num_params = fds.readShort();
+        element.params = new Object[num_params];
+        for (int i = 0; i < num_params; i++) {
+            element.params[i] = deserializeValue(fds);
+        } // FOR
+    }
+
+    private static Object deserializeValue(FastDeserializer fds) throws IOException {
+        byte type_val = fds.readByte();
+        if (type_val == ARRAY) {
+            Object inner[] = new Object[fds.readInt()];
+            for (int i = 0; i < inner.length; i++) {
+                inner[i] = deserializeValue(fds);
+            } // FOR
+            return (inner);
+        }
+
+        VoltType type = VoltType.get(type_val);
+        switch (type) {
+            case NULL:
+                return (null);
+            case TINYINT:
+                return (fds.readByte());
+            case SMALLINT:
+                return (fds.readShort());
+            case INTEGER:
+                return (fds.readInt());
+            case BIGINT:
+                return (fds.readLong());
+            case FLOAT:
+                return (fds.readDouble());
+            case STRING:
+                return (fds.readString());
+            case TIMESTAMP:
+                return (fds.readTimestamp());
+            case DECIMAL:
+                return (new BigDecimal(fds.readString()));
+            case BOOLEAN:
+                return (fds.readBoolean());
+            default:
+                throw new IOException("Unsupported trace parameter type " + type);
+        } // SWITCH
+    }
+}
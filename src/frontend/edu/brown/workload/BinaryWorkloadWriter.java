@@ -0,0 +1,252 @@
+package edu.brown.workload;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Database;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.TimestampType;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ArgumentsParser;
+import edu.brown.utils.FileUtil;
+
+/**
+ * Writes TransactionTraces out in the compact binary workload trace format that is read
+ * back by {@link BinaryWorkloadReader}. The file has the following layout:
+ * <pre>
+ * [MAGIC:int][VERSION:int]
+ * [LENGTH:int][TXN RECORD:byte[LENGTH]] ...
+ * [NUM_ENTRIES:int]([TXN_ID:long][OFFSET:long][LENGTH:int]) ...   &lt;-- Index sorted by txn id
+ * [INDEX_OFFSET:long][MAGIC:int]
+ * </pre>
+ * The output tables of the TransactionTraces and QueryTraces are not stored.
+ */
+public class BinaryWorkloadWriter {
+    private static final Logger LOG = Logger.getLogger(BinaryWorkloadWriter.class);
+    private static final LoggerBoolean debug = new LoggerBoolean(LOG.isDebugEnabled());
+    private static final LoggerBoolean trace = new LoggerBoolean(LOG.isTraceEnabled());
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    private final File output_path;
+    private final DataOutputStream out;
+    private final FastSerializer fs = new FastSerializer();
+    /** <TxnId, Offset, Length> */
+    private final List<long[]> index = new ArrayList<long[]>();
+    private long offset = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     * @param output_path
+     * @throws IOException
+     */
+    public BinaryWorkloadWriter(File output_path) throws IOException {
+        this.output_path = output_path;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output_path), 65536));
+        this.out.writeInt(BinaryWorkloadReader.MAGIC);
+        this.out.writeInt(BinaryWorkloadReader.VERSION);
+        this.offset = BinaryWorkloadReader.HEADER_SIZE;
+    }
+
+    /**
+     * Append a TransactionTrace to the output file
+     * @param txn_trace
+     * @throws IOException
+     */
+    public void write(TransactionTrace txn_trace) throws IOException {
+        assert(this.closed == false);
+        this.fs.clear();
+        serialize(this.fs, txn_trace);
+        ByteBuffer b = this.fs.getBBContainer().b;
+        int length = b.remaining();
+
+        this.out.writeInt(length);
+        this.out.write(b.array(), b.arrayOffset() + b.position(), length);
+        this.index.add(new long[]{ txn_trace.getTransactionId(), this.offset, length });
+        this.offset += 4 + length;
+        if (trace.get()) LOG.trace(String.format("Wrote %s [offset=%d, length=%d]", txn_trace, this.offset, length));
+    }
+
+    /**
+     * Write out the txn id index and close the output file
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (this.closed) return;
+        Collections.sort(this.index, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] o1, long[] o2) {
+                return (o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1));
+            }
+        });
+        long index_offset = this.offset;
+        this.out.writeInt(this.index.size());
+        for (long entry[] : this.index) {
+            this.out.writeLong(entry[0]);
+            this.out.writeLong(entry[1]);
+            this.out.writeInt((int)entry[2]);
+        } // FOR
+        this.out.writeLong(index_offset);
+        this.out.writeInt(BinaryWorkloadReader.MAGIC);
+        this.out.close();
+        this.closed = true;
+        if (debug.get()) LOG.debug(String.format("Wrote %d txns to '%s'", this.index.size(), this.output_path));
+    }
+
+    public int getTransactionCount() {
+        return (this.index.size());
+    }
+
+    // ----------------------------------------------------------------------------
+    // SERIALIZATION
+    // ----------------------------------------------------------------------------
+
+    protected static void serialize(FastSerializer fs, TransactionTrace txn_trace) throws IOException {
+        fs.writeLong(txn_trace.getTransactionId());
+        serializeElement(fs, txn_trace);
+        List<QueryTrace> queries = txn_trace.getQueries();
+        fs.writeInt(queries.size());
+        for (QueryTrace query_trace : queries) {
+            serializeElement(fs, query_trace);
+            fs.writeInt(query_trace.getBatchId());
+        } // FOR
+    }
+
+    private static void serializeElement(FastSerializer fs, AbstractTraceElement<?> element) throws IOException {
+        fs.writeString(element.catalog_item_name);
+        fs.writeLong(element.start_timestamp != null ? element.start_timestamp : BinaryWorkloadReader.NULL_TIMESTAMP);
+        fs.writeLong(element.stop_timestamp != null ? element.stop_timestamp : BinaryWorkloadReader.NULL_TIMESTAMP);
+        fs.writeBoolean(element.aborted);
+        fs.writeShort(element.weight);
+
+        Object params[] = element.params;
+        fs.writeShort(params.length);
+        for (Object param : params) {
+            serializeValue(fs, param, true);
+        } // FOR
+    }
+
+    private static void serializeValue(FastSerializer fs, Object val, boolean allow_arrays) throws IOException {
+        if (val == null) {
+            fs.writeByte(VoltType.NULL.getValue());
+            return;
+        }
+        Class<?> cls = val.getClass();
+        if (cls.isArray()) {
+            assert(allow_arrays) : "Unexpected nested array " + val;
+            int length = Array.getLength(val);
+            fs.writeByte(BinaryWorkloadReader.ARRAY);
+            fs.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                serializeValue(fs, Array.get(val, i), false);
+            } // FOR
+            return;
+        }
+
+        VoltType type = VoltType.typeFromClass(cls);
+        fs.writeByte(type.getValue());
+        switch (type) {
+            case TINYINT:
+                fs.writeByte((Byte)val);
+                break;
+            case SMALLINT:
+                fs.writeShort((Short)val);
+                break;
+            case INTEGER:
+                fs.writeInt((Integer)val);
+                break;
+            case BIGINT:
+                fs.writeLong((Long)val);
+                break;
+            case FLOAT:
+                fs.writeDouble(((Number)val).doubleValue());
+                break;
+            case STRING:
+                fs.writeString(val.toString());
+                break;
+            case TIMESTAMP:
+                fs.writeTimestamp((TimestampType)val);
+                break;
+            case DECIMAL:
+                fs.writeString(((BigDecimal)val).toString());
+                break;
+            case BOOLEAN:
+                fs.writeBoolean((Boolean)val);
+                break;
+            default:
+                throw new IOException("Unsupported trace parameter type " + type + " [" + val + "]");
+        } // SWITCH
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONVERSION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Convert a JSON workload trace file into the binary format. The input file is
+     * processed one txn at a time, so this never needs to hold the whole workload in memory.
+     * Returns the number of txns that were written out.
+     * @param input_path
+     * @param output_path
+     * @param catalog_db
+     * @return
+     * @throws Exception
+     */
+    public static int convert(File input_path, File output_path, Database catalog_db) throws Exception {
+        BufferedReader in = FileUtil.getReader(input_path);
+        BinaryWorkloadWriter writer = new BinaryWorkloadWriter(output_path);
+        int line_ctr = 0;
+        try {
+            while (in.ready()) {
+                String line = in.readLine().trim();
+                line_ctr++;
+                if (line.isEmpty()) continue;
+                TransactionTrace txn_trace = null;
+                try {
+                    txn_trace = TransactionTrace.loadFromJSONObject(new JSONObject(line), catalog_db);
+                } catch (Exception ex) {
+                    throw new Exception("Error on line " + line_ctr + " of workload trace file '" + input_path.getAbsolutePath() + "'", ex);
+                }
+                writer.write(txn_trace);
+                if (debug.get() && writer.getTransactionCount() % 10000 == 0)
+                    LOG.debug(String.format("Converted %d txns from '%s'", writer.getTransactionCount(), input_path.getName()));
+            } // WHILE
+        } finally {
+            in.close();
+            writer.close();
+        }
+        return (writer.getTransactionCount());
+    }
+
+    public static void main(String[] vargs) throws Exception {
+        ArgumentsParser args = ArgumentsParser.load(vargs);
+        args.require(ArgumentsParser.PARAM_CATALOG, ArgumentsParser.PARAM_WORKLOAD_OUTPUT);
+        assert(args.getOptParamCount() > 0) : "Missing input workload trace file";
+
+        File input_path = new File(args.getOptParam(0));
+        File output_path = new File(args.getParam(ArgumentsParser.PARAM_WORKLOAD_OUTPUT));
+        long start = System.currentTimeMillis();
+        int num_txns = convert(input_path, output_path, args.catalog_db);
+        LOG.info(String.format("Converted %d txns from '%s' to '%s' in %.1f seconds [%d -> %d bytes]",
+                               num_txns, input_path, output_path, (System.currentTimeMillis() - start) / 1000d,
+                               input_path.length(), output_path.length()));
+    }
+}
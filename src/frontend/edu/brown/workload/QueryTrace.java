@@ -48,7 +48,7 @@ public class QueryTrace extends AbstractTraceElement<Statement> {
         BATCH_ID,
     };
     
-    private int batch_id;
+    protected int batch_id;
     
     public QueryTrace() {
         super();
@@ -350,6 +350,28 @@ public class Workload implements WorkloadTrace, Iterable<TransactionTrace> {
         this.input_path = new File(input_path);
         long start = System.currentTimeMillis();
         
+        // Binary trace files are already compact enough that we can just stream them in
+        if (BinaryWorkloadReader.isBinaryFile(this.input_path)) {
+            BinaryWorkloadReader reader = new BinaryWorkloadReader(this.input_path);
+            int query_ctr = 0;
+            try {
+                Iterator<TransactionTrace> it = reader.iterator(filter);
+                while (it.hasNext()) {
+                    TransactionTrace txn_trace = it.next();
+                    query_ctr += txn_trace.getQueryCount();
+                    this.addTransaction(txn_trace.getCatalogItem(catalog_db), txn_trace, true);
+                } // WHILE
+            } finally {
+                reader.close();
+            }
+            VerifyWorkload.verify(catalog_db, this);
+            
+            long stop = System.currentTimeMillis();
+            LOG.info(String.format("Loaded %d txns / %d queries from binary trace '%s' in %.1f seconds",
+                                   this.xact_trace.size(), query_ctr, this.input_path.getName(), (stop - start) / 1000d));
+            return;
+        }
+        
         // HACK: Throw out traces unless they have the procedures that we're looking for
         Pattern temp_pattern = null;
         if (filter != null) {
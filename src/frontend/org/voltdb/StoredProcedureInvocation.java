@@ -26,12 +26,15 @@ import java.util.Set;
 
 import org.voltdb.messaging.*;
 
+import edu.brown.utils.Poolable;
+
 /**
  * Represents a serializeable bundle of procedure name and parameters. This
  * is the object that is sent by the client library to call a stored procedure.
- *
+ * The HStoreSite borrows these from HStoreObjectPools and deserializes each
+ * new request into one, so readExternal() has to reset all of our state.
  */
-public class StoredProcedureInvocation implements FastSerializable {
+public class StoredProcedureInvocation implements FastSerializable, Poolable {
 
     String procName = null;
     boolean sysproc = false;
@@ -48,6 +51,9 @@ public class StoredProcedureInvocation implements FastSerializable {
     /** What partitions this invocation will touch **/
     Set<Integer> partitions = null;
     
+    /** The set that we reuse for partitions when we are deserialized more than once **/
+    private Set<Integer> partitionsCache = null;
+    
     public StoredProcedureInvocation() {
         super();
     }
@@ -138,11 +144,24 @@ public class StoredProcedureInvocation implements FastSerializable {
      * (which require concurrent access to the task).
      */
      public void buildParameterSet() {
+        if (unserializedParams != null) {
+            this.buildParameterSet(new FastDeserializer(unserializedParams));
+        }
+    }
+
+    /**
+     * Deserialize the ParameterSet using the given FastDeserializer. Its buffer
+     * will be replaced with our unserialized parameters, which lets the caller reuse
+     * the same FastDeserializer for every request.
+     * @param fds
+     */
+    public void buildParameterSet(FastDeserializer fds) {
         if (unserializedParams != null) {
             assert (params == null);
             try {
-                FastDeserializer fds = new FastDeserializer(unserializedParams);
-                params = fds.readObject(ParameterSet.class);
+                fds.setBuffer(unserializedParams);
+                params = new ParameterSet();
+                params.readExternal(fds);
                 unserializedParams = null;
             }
             catch (IOException ex) {
@@ -171,10 +190,17 @@ public class StoredProcedureInvocation implements FastSerializable {
         
         int num_partitions = in.readShort();
         if (num_partitions > 0) {
-            this.partitions = new HashSet<Integer>();
+            if (this.partitionsCache == null) {
+                this.partitionsCache = new HashSet<Integer>();
+            } else {
+                this.partitionsCache.clear();
+            }
+            this.partitions = this.partitionsCache;
             for (int i = 0; i < num_partitions; i++) {
                 this.partitions.add((int)in.readShort());
             } // FOR
+        } else {
+            this.partitions = null;
         }
         
         // do not deserialize parameters in ClientInterface context
@@ -266,6 +292,22 @@ public class StoredProcedureInvocation implements FastSerializable {
         return (buffer.getLong(3));
     }
 
+    @Override
+    public boolean isInitialized() {
+        return (this.procName != null);
+    }
+
+    @Override
+    public void finish() {
+        this.procName = null;
+        this.sysproc = false;
+        this.params = null;
+        this.unserializedParams = null;
+        this.clientHandle = -1;
+        this.base_partition = -1;
+        this.partitions = null;
+    }
+
     @Override
     public String toString() {
         String retval = "Invocation: " + procName + "(";
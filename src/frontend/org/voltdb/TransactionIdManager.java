@@ -19,6 +19,7 @@ package org.voltdb;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -35,6 +36,10 @@ import org.apache.log4j.Logger;
  * txn ids created at the same time on different machines will be reasonably
  * close in value. Thus transaction ids can be used for a global ordering.</p>
  *
+ * <p>Generating a new id does not take a lock or allocate anything. The last id
+ * that we handed out already has the timestamp and counter packed into it, so
+ * we just compute the next one from it and swap it in with a CAS.</p>
+ *
  */
 public class TransactionIdManager {
     private static final Logger LOG = Logger.getLogger(TransactionIdManager.class);
@@ -70,17 +75,17 @@ public class TransactionIdManager {
     static final long INITIATORID_MAX_VALUE = (1L << INITIATORID_BITS) - 1L;
 
     // the local siteid
-    long initiatorId;
-    // the time of the previous txn id generation
-    long lastUsedTime = -1;
-    // the number of txns generated during the same value
-    // for System.currentTimeMillis()
-    long counterValue = 0;
+    final long initiatorId;
 
     // remembers the last txn generated
-    Long lastTxnId = 0l;
+    // The timestamp and counter of this id are the only state that we need
+    // to generate the next one, so everything is done with a CAS on this
+    final AtomicLong lastTxnId = new AtomicLong(0l);
+    
+    // whether we already complained that the clock is behind the last txn id
+    volatile boolean clockBehind = false;
     
-    long time_delta = 0L;
+    volatile long time_delta = 0L;
 
     /**
      * Initialize the TransactionIdManager for this site
@@ -93,62 +98,51 @@ public class TransactionIdManager {
     /**
      * Generate a unique id that contains a timestamp, a counter
      * and a siteid packed into a 64-bit long value. Subsequent calls
-     * to this method will return strictly larger long values.
+     * to this method will return strictly larger long values, even
+     * if they are made from different threads.
+     * <p>
+     * If we run out of counter values for a millisecond, then we will borrow
+     * the next millisecond instead of spinning. If the clock moves backwards
+     * (or the time delta from HStoreCoordinator.syncClusterTimes() gets smaller),
+     * then we will keep counting from the timestamp of the last id until
+     * the clock catches up with it.
      * @return The newly generated transaction id.
      */
-    public synchronized Long getNextUniqueTransactionId() {
-        long currentTime = System.currentTimeMillis();
-//        boolean new_time = true;
-        if (currentTime == lastUsedTime) {
-//            new_time = false;
-            // increment the counter for this millisecond
-            counterValue++;
-
-            // handle the case where we've run out of counter values
-            // for this particular millisecond (feels unlikely)
-            if (counterValue > COUNTER_MAX_VALUE) {
-                LOG.warn("TOO MANY TXNS! SPIN LOCK!!!");
-                // spin until the next millisecond
-                while (currentTime == lastUsedTime)
-                    currentTime = System.currentTimeMillis();
-                // reset the counter and lastUsedTime for the new millisecond
-                lastUsedTime = currentTime;
-                counterValue = 0;
+    public long getNextUniqueTransactionId() {
+        while (true) {
+            long lastId = this.lastTxnId.get();
+            long lastTime = getTimestampFromTransactionId(lastId);
+            long currentTime = System.currentTimeMillis() + this.time_delta;
+            long nextId;
+            if (currentTime > lastTime) {
+                nextId = makeIdFromComponents(currentTime, 0, this.initiatorId);
             }
-        }
-        else {
-            // reset the counter and lastUsedTime for the new millisecond
-            if (currentTime < lastUsedTime) {
-                LOG.warn(String.format("Initiator time moved backwards from %d to %d by %d ms!!!",
-                                        lastUsedTime, currentTime, (lastUsedTime - currentTime)));
-                // if the diff is less than 5 ms, wait a bit
-                if ((lastUsedTime - currentTime) < DRIFT_CHECK) {
-                    int count = 1000;
-                    // note, the loop should stop once lastUsedTime is PASSED, not current
-                    while ((currentTime <= lastUsedTime) && (count-- > 0)) {
-                        try {
-                            Thread.sleep(lastUsedTime - currentTime + 1);
-                        } catch (InterruptedException e) {}
-                        currentTime = System.currentTimeMillis();
-                    }
-                    // if the loop above ended because it ran too much
-                    if (count < 0) {
-                        LOG.error("H-Store was unable to recover after the system time was externally negatively adusted. " +
-                                  "It is possible that there is a serious system time or NTP error. ");
-                        VoltDB.crashVoltDB();
-                    }
+            else {
+                // increment the counter for the last id's millisecond
+                long counterValue = getSequenceNumberFromTransactionId(lastId) + 1;
+                
+                // handle the case where we've run out of counter values
+                // for this particular millisecond (feels unlikely)
+                if (counterValue > COUNTER_MAX_VALUE) {
+                    lastTime++;
+                    counterValue = 0;
+                }
+                nextId = makeIdFromComponents(lastTime, counterValue, this.initiatorId);
+            }
+            
+            if (this.lastTxnId.compareAndSet(lastId, nextId)) {
+                if (currentTime > lastTime) {
+                    if (this.clockBehind) this.clockBehind = false;
                 }
-                // crash immediately if time has gone backwards by too much
-                else {
-                    VoltDB.crashVoltDB();
+                else if ((lastTime - currentTime) > DRIFT_CHECK && this.clockBehind == false) {
+                    this.clockBehind = true;
+                    LOG.warn(String.format("Initiator time moved backwards from %d to %d by %d ms!!! " +
+                                           "Using the last txn id's timestamp until the clock catches up",
+                                           lastTime, currentTime, (lastTime - currentTime)));
                 }
+                return (nextId);
             }
-            lastUsedTime = currentTime;
-            counterValue = 0;
-        }
-
-        this.lastTxnId = Long.valueOf(makeIdFromComponents(currentTime + time_delta, counterValue, initiatorId));
-        return (this.lastTxnId);
+        } // WHILE
     }
 
     public static long makeIdFromComponents(long ts, long seqNo, long initiatorId) {
@@ -214,12 +208,19 @@ public class TransactionIdManager {
      * Get the last txn id generated.
      * @return The last txn id generated.
      */
-    public Long getLastTxnId() {
-        return lastTxnId;
+    public long getLastTxnId() {
+        return (this.lastTxnId.get());
     }
 
+    /**
+     * Get the time (without the time delta) that is embedded in the last
+     * txn id that we generated, or -1 if we haven't generated any yet.
+     * @return
+     */
     public long getLastUsedTime() {
-        return lastUsedTime;
+        long lastId = this.lastTxnId.get();
+        if (lastId == 0) return (-1);
+        return (getTimestampFromTransactionId(lastId) - this.time_delta);
     }
 
     /**
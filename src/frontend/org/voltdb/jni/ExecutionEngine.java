@@ -245,16 +245,15 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
     public byte[] nextDependencyAsBytes(final int dependencyId) {
         final VoltTable vt =  m_dependencyTracker.nextDependency(dependencyId);
         if (vt != null) {
-            ByteBuffer buffer = vt.getDirectDataReference();
+            byte bytes[] = getTableBytes(vt);
             if (d) LOG.debug(String.format("Passing Dependency %d to EE [rows=%d, cols=%d, bytes=%d/%d]\n%s",
                                            dependencyId,
                                            vt.getRowCount(),
                                            vt.getColumnCount(),
                                            vt.getUnderlyingBufferSize(),
-                                           buffer.array().length,
+                                           bytes.length,
                                            vt.toString()));
-            assert(buffer.hasArray());
-            return (buffer.array());
+            return (bytes);
         }
         // Note that we will hit this after retrieving all the VoltTables for the given dependencyId
         // It does not mean that there were no VoltTables at all, it just means that 
@@ -269,6 +268,26 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
         return null;
     }
 
+    /**
+     * Returns a byte array with the serialized contents of the given VoltTable that
+     * we can pass into the EE. If the table's buffer starts at the beginning of its
+     * backing array, then we just return that array. Otherwise the table is a read-only
+     * or direct buffer (e.g., a zero-copy table) or a slice of a larger array,
+     * so we have to copy its bytes out into a new array.
+     * @param vt
+     * @return
+     */
+    protected static byte[] getTableBytes(VoltTable vt) {
+        ByteBuffer buffer = vt.getDirectDataReference();
+        if (buffer.hasArray() && buffer.arrayOffset() == 0) {
+            return (buffer.array());
+        }
+        byte bytes[] = new byte[vt.getUnderlyingBufferSize()];
+        ByteBuffer dup = vt.getTableDataReference();
+        dup.get(bytes);
+        return (bytes);
+    }
+
     /*
      * Interface frontend invokes to communicate to CPP execution engine.
      */
@@ -324,7 +343,31 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
 //            int numParameterSets,
 //            long txnId, long lastCommittedTxnId,
 //            long undoQuantumToken) throws EEException;
-    
+
+    /**
+     * Run multiple query plan fragments. If zeroCopyResults is true, then the engine is
+     * allowed to return read-only output dependency tables that are views over its own
+     * result buffer instead of copies. The caller must be completely done with these
+     * tables (i.e., it has serialized them or thrown them away) before it makes another
+     * call into this ExecutionEngine, because that call will overwrite them.
+     * Engines that don't support this will just return copies.
+     */
+    public DependencySet executeQueryPlanFragmentsAndGetDependencySet(long[] planFragmentIds,
+                                                                       int numFragmentIds,
+                                                                       int[] input_depIds,
+                                                                       int[] output_depIds,
+                                                                       ParameterSet[] parameterSets,
+                                                                       int numParameterSets,
+                                                                       long txnId, long lastCommittedTxnId,
+                                                                       long undoQuantumToken,
+                                                                       boolean zeroCopyResults) throws EEException {
+        return this.executeQueryPlanFragmentsAndGetDependencySet(
+                planFragmentIds, numFragmentIds,
+                input_depIds,
+                output_depIds,
+                parameterSets, numParameterSets, txnId, lastCommittedTxnId, undoQuantumToken);
+    }
+
     /** Run multiple query plan fragments */
     public VoltTable[] executeQueryPlanFragmentsAndGetResults(long[] planFragmentIds,
                                                                        int numFragmentIds,
@@ -308,6 +308,27 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             ParameterSet[] parameterSets,
             int numParameterSets,
             long txnId, long lastCommittedTxnId, long undoToken) throws EEException {
+        return this.executeQueryPlanFragmentsAndGetDependencySet(planFragmentIds, numFragmentIds,
+                                                                  input_depIds, output_depIds,
+                                                                  parameterSets, numParameterSets,
+                                                                  txnId, lastCommittedTxnId, undoToken, false);
+    }
+    
+    /**
+     * @param undoToken Token identifying undo quantum for generated undo info
+     * @param zeroCopyResults If true, the output tables are read-only views of the shared result buffer
+     * Wrapper for {@link #nativeExecuteQueryPlanFragmentsAndGetResults(long, int[], int, long, long, long)}.
+     */
+    @Override
+    public DependencySet executeQueryPlanFragmentsAndGetDependencySet(
+            long[] planFragmentIds,
+            int numFragmentIds,
+            int[] input_depIds,
+            int[] output_depIds,
+            ParameterSet[] parameterSets,
+            int numParameterSets,
+            long txnId, long lastCommittedTxnId, long undoToken,
+            boolean zeroCopyResults) throws EEException {
         
         assert(parameterSets != null) : "Null ParameterSets for txn #" + txnId;
         assert(planFragmentIds.length == parameterSets.length);
@@ -323,7 +344,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             throw new RuntimeException(exception); // can't happen
         }
         
-        return _executeQueryPlanFragmentsAndGetDependencySet(planFragmentIds, numFragmentIds, input_depIds, output_depIds, txnId, lastCommittedTxnId, undoToken);
+        return _executeQueryPlanFragmentsAndGetDependencySet(planFragmentIds, numFragmentIds, input_depIds, output_depIds, txnId, lastCommittedTxnId, undoToken, zeroCopyResults);
     }
     
 //    @Override
@@ -346,7 +367,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
 //            if (t) LOG.trace("Batch Executing planfragment:" + planFragmentIds[i] + ", params=" + parameterSets[i].toString());
 //        }
 //        
-//        return _executeQueryPlanFragmentsAndGetDependencySet(planFragmentIds, numFragmentIds, input_depIds, output_depIds, txnId, lastCommittedTxnId, undoToken);
+//        return _executeQueryPlanFragmentsAndGetDependencySet(planFragmentIds, numFragmentIds, input_depIds, output_depIds, txnId, lastCommittedTxnId, undoToken, false);
 //    }
     
 
@@ -359,7 +380,8 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             int numFragmentIds,
             int[] input_depIds,
             int[] output_depIds,
-            long txnId, long lastCommittedTxnId, long undoToken) throws EEException {
+            long txnId, long lastCommittedTxnId, long undoToken,
+            boolean zeroCopyResults) throws EEException {
         
         assert(planFragmentIds != null) : "Null PlanFragments for txn #" + txnId;
         
@@ -379,62 +401,86 @@ public class ExecutionEngineJNI extends ExecutionEngine {
                 txnId, lastCommittedTxnId, undoToken);
         checkErrorCode(errorCode);
 
-        // get a copy of the result buffers and make the tables
-        // use the copy
         ByteBuffer fullBacking = deserializer.buffer();
         try {
             // read the complete size of the buffer used
             fullBacking.getInt();
             // check if anything was changed
             m_dirty = (fullBacking.get() == 1 ? true : false);
-
-            // get a copy of the buffer
-            // Because this is a copy, that means we don't have to worry about the EE overwriting us
-            // Not sure of the implications for performance.
-             // deserializer.readBuffer(totalSize);
-            
-            // At this point we don't know how many dependencies we expect to get back from our fragments.
-            // We're just going to assume that each PlanFragment generated one and only one output dependency
-            VoltTable results[] = new VoltTable[numFragmentIds];
-            int dependencies[] = new int[numFragmentIds];
-            int dep_ctr = 0;
-            for (int i = 0; i < numFragmentIds; ++i) {
-                int numDependencies = fullBacking.getInt(); // number of dependencies for this frag
-                assert(numDependencies == 1) :
-                    "Unexpected multiple output dependencies from PlanFragment #" + planFragmentIds[i];
-                
-                // PAVLO: Since we can't pass the dependency ids using nativeExecuteQueryPlanFragmentsAndGetResults(),
-                // the results will come back without a dependency id. So we have to just assume
-                // that the frags were executed in the order that we passed to the EE and that we
-                // can just use the list of output_depIds that we have 
-                for (int ii = 0; ii < numDependencies; ++ii) {
-                    assert(dep_ctr < output_depIds.length) : 
-                        "Trying to get depId #" + dep_ctr + ": " + Arrays.toString(output_depIds);
-                    fullBacking.getInt(); // IGNORE 
-                    int depid = output_depIds[dep_ctr];
-                    assert(depid >= 0);
-                    
-                    int tableSize = fullBacking.getInt();
-                    assert(tableSize < 10000000);
-                    byte tableBytes[] = new byte[tableSize];
-                    fullBacking.get(tableBytes, 0, tableSize);
-                    final ByteBuffer tableBacking = ByteBuffer.wrap(tableBytes);
-//                    fullBacking.position(fullBacking.position() + tableSize);
-                    
-                    results[dep_ctr] = PrivateVoltTableFactory.createVoltTableFromBuffer(tableBacking, true);
-                    dependencies[dep_ctr] = depid;
-                    if (d) LOG.debug(String.format("%d - New output VoltTable for DependencyId %d [origTableSize=%d]\n%s",
-                                                   txnId, depid, tableSize, results[dep_ctr].toString())); 
-                    dep_ctr++;
-                } // FOR
-            } // FOR
             
-            return (new DependencySet(dependencies, results));
+            return (readDependencySet(fullBacking, planFragmentIds, numFragmentIds, output_depIds, txnId, zeroCopyResults));
         } catch (Throwable ex) {
             LOG.error("Failed to deserialze result table" + ex);
             throw new EEException(ERRORCODE_WRONG_SERIALIZED_BYTES);
         }
     }
+    
+    /**
+     * Read the output dependency tables that the EE wrote into the given buffer.
+     * The buffer's position must be at the start of the first fragment's results.
+     * Each table gets its own copy of its bytes, since the EE is going to overwrite
+     * the buffer the next time that we call into it. If zeroCopyResults is true, then
+     * each table is instead a read-only view over its part of the buffer, so the caller
+     * has to be done with them before it calls into the EE again.
+     * @param fullBacking
+     * @param planFragmentIds
+     * @param numFragmentIds
+     * @param output_depIds
+     * @param txnId
+     * @param zeroCopyResults
+     * @return
+     */
+    static DependencySet readDependencySet(ByteBuffer fullBacking,
+                                           long[] planFragmentIds,
+                                           int numFragmentIds,
+                                           int[] output_depIds,
+                                           long txnId,
+                                           boolean zeroCopyResults) {
+        // At this point we don't know how many dependencies we expect to get back from our fragments.
+        // We're just going to assume that each PlanFragment generated one and only one output dependency
+        VoltTable results[] = new VoltTable[numFragmentIds];
+        int dependencies[] = new int[numFragmentIds];
+        int dep_ctr = 0;
+        for (int i = 0; i < numFragmentIds; ++i) {
+            int numDependencies = fullBacking.getInt(); // number of dependencies for this frag
+            assert(numDependencies == 1) :
+                "Unexpected multiple output dependencies from PlanFragment #" + planFragmentIds[i];
+            
+            // PAVLO: Since we can't pass the dependency ids using nativeExecuteQueryPlanFragmentsAndGetResults(),
+            // the results will come back without a dependency id. So we have to just assume
+            // that the frags were executed in the order that we passed to the EE and that we
+            // can just use the list of output_depIds that we have 
+            for (int ii = 0; ii < numDependencies; ++ii) {
+                assert(dep_ctr < output_depIds.length) : 
+                    "Trying to get depId #" + dep_ctr + ": " + Arrays.toString(output_depIds);
+                fullBacking.getInt(); // IGNORE 
+                int depid = output_depIds[dep_ctr];
+                assert(depid >= 0);
+                
+                int tableSize = fullBacking.getInt();
+                assert(tableSize < 10000000);
+                ByteBuffer tableBacking = null;
+                if (zeroCopyResults) {
+                    tableBacking = fullBacking.asReadOnlyBuffer();
+                    tableBacking.limit(tableBacking.position() + tableSize);
+                    tableBacking = tableBacking.slice();
+                    fullBacking.position(fullBacking.position() + tableSize);
+                } else {
+                    byte tableBytes[] = new byte[tableSize];
+                    fullBacking.get(tableBytes, 0, tableSize);
+                    tableBacking = ByteBuffer.wrap(tableBytes);
+                }
+                
+                results[dep_ctr] = PrivateVoltTableFactory.createVoltTableFromBuffer(tableBacking, true);
+                dependencies[dep_ctr] = depid;
+                if (d) LOG.debug(String.format("%d - New output VoltTable for DependencyId %d [origTableSize=%d, zeroCopy=%s]\n%s",
+                                               txnId, depid, tableSize, zeroCopyResults, results[dep_ctr].toString())); 
+                dep_ctr++;
+            } // FOR
+        } // FOR
+        
+        return (new DependencySet(dependencies, results));
+    }
 
     /**
      * Wrapper for {@link #nativeSerializeTable(long, int, ByteBuffer, int)}.
@@ -463,7 +509,7 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         final long txnId, final long lastCommittedTxnId,
         final long undoToken, boolean allowELT) throws EEException
     {
-        byte[] serialized_table = table.getTableDataReference().array();
+        byte[] serialized_table = getTableBytes(table);
         if (t) LOG.trace(String.format("Passing table into EE [id=%d, bytes=%s]", tableId, serialized_table.length));
 
         final int errorCode = nativeLoadTable(pointer, tableId, serialized_table,
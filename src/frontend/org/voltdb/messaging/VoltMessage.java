@@ -56,6 +56,10 @@ public abstract class VoltMessage {
     protected ByteBuffer m_buffer = null;
     protected byte m_subject;
 
+    // When this message was added to a PartitionExecutor's work queue (System.nanoTime)
+    // This is only set when profiling is enabled
+    protected long m_enqueueTime = -1;
+
     public static VoltMessage createNewMessage(byte messageType) {
         // instantiate a new message instance according to the type
         VoltMessage message = instantiate(messageType);
@@ -205,4 +209,12 @@ public abstract class VoltMessage {
     public byte getSubject() {
         return m_subject;
     }
+
+    public void setEnqueueTime(long time) {
+        m_enqueueTime = time;
+    }
+
+    public long getEnqueueTime() {
+        return m_enqueueTime;
+    }
 }
@@ -0,0 +1,165 @@
+package edu.brown.costmodel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Table;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+import edu.brown.BaseTestCase;
+import edu.brown.catalog.CatalogCloner;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.Workload;
+import edu.brown.workload.filters.ProcedureLimitFilter;
+
+/**
+ * Japex drivers that mimic the inner loop of the partitioners' search. Each run
+ * moves the partitioning column of the next non-replicated table, invalidates the
+ * SingleSitedCostModel's cache for that table, and then estimates the cost of the
+ * entire workload. The serial drivers update the cost model one txn at a time, while
+ * the parallel drivers first ask the PartitionEstimator about the invalidated txns
+ * using the global thread pool.
+ */
+public abstract class SingleSitedCostModelBenchmark extends JapexDriverBase {
+    private static final int WORKLOAD_XACT_LIMIT = 10000;
+    private static final int NUM_PARTITIONS = 10;
+
+    private Database catalog_db;
+    private Workload workload;
+    private SingleSitedCostModel cost_model;
+    private final List<Table> tables = new ArrayList<Table>();
+    private final List<Column> orig_columns = new ArrayList<Column>();
+    private int run_ctr = 0;
+    protected double checksum = 0;
+
+    protected abstract ProjectType getProjectType();
+
+    protected abstract boolean useParallel();
+
+    /**
+     * Loads the catalog and workload the same way that the test cases do
+     */
+    private static class Loader extends BaseTestCase {
+        private Database clone_db;
+        private Workload workload;
+
+        private void load(ProjectType type) throws Exception {
+            super.setUp(type);
+            this.addPartitions(NUM_PARTITIONS);
+
+            File file = this.getWorkloadFile(type);
+            this.workload = new Workload(catalog);
+            this.workload.load(file.getAbsolutePath(), catalog_db, new ProcedureLimitFilter(WORKLOAD_XACT_LIMIT));
+            this.clone_db = CatalogCloner.cloneDatabase(catalog_db);
+        }
+    }
+
+    @Override
+    public void initializeDriver() {
+        Loader loader = new Loader();
+        try {
+            loader.load(this.getProjectType());
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        this.catalog_db = loader.clone_db;
+        this.workload = loader.workload;
+        for (Table catalog_tbl : this.catalog_db.getTables()) {
+            if (catalog_tbl.getSystable() || catalog_tbl.getIsreplicated() || catalog_tbl.getColumns().size() < 2)
+                continue;
+            this.tables.add(catalog_tbl);
+            this.orig_columns.add(catalog_tbl.getPartitioncolumn());
+        } // FOR
+        assert(this.tables.isEmpty() == false);
+
+        this.cost_model = new SingleSitedCostModel(this.catalog_db);
+        this.cost_model.setParallelEnabled(this.useParallel(), 1);
+        try {
+            // Warm up the cache so that each run only has to deal with the invalidated txns
+            this.cost_model.estimateWorkloadCost(this.catalog_db, this.workload);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        int idx = this.run_ctr++ % this.tables.size();
+        Table catalog_tbl = this.tables.get(idx);
+        Column orig_col = this.orig_columns.get(idx);
+
+        // Flip between the original partitioning column and the first column that isn't it
+        if (catalog_tbl.getPartitioncolumn().equals(orig_col)) {
+            for (Column catalog_col : catalog_tbl.getColumns()) {
+                if (catalog_col.equals(orig_col) == false) {
+                    catalog_tbl.setPartitioncolumn(catalog_col);
+                    break;
+                }
+            } // FOR
+        } else {
+            catalog_tbl.setPartitioncolumn(orig_col);
+        }
+        this.cost_model.invalidateCache(catalog_tbl);
+        try {
+            this.checksum += this.cost_model.estimateWorkloadCost(this.catalog_db, this.workload);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void terminateDriver() {
+        for (int i = 0, cnt = this.tables.size(); i < cnt; i++) {
+            this.tables.get(i).setPartitioncolumn(this.orig_columns.get(i));
+        } // FOR
+    }
+
+    public static class SerialTPCE extends SingleSitedCostModelBenchmark {
+        @Override
+        protected ProjectType getProjectType() {
+            return (ProjectType.TPCE);
+        }
+        @Override
+        protected boolean useParallel() {
+            return (false);
+        }
+    }
+
+    public static class ParallelTPCE extends SingleSitedCostModelBenchmark {
+        @Override
+        protected ProjectType getProjectType() {
+            return (ProjectType.TPCE);
+        }
+        @Override
+        protected boolean useParallel() {
+            return (true);
+        }
+    }
+
+    public static class SerialAuctionMark extends SingleSitedCostModelBenchmark {
+        @Override
+        protected ProjectType getProjectType() {
+            return (ProjectType.AUCTIONMARK);
+        }
+        @Override
+        protected boolean useParallel() {
+            return (false);
+        }
+    }
+
+    public static class ParallelAuctionMark extends SingleSitedCostModelBenchmark {
+        @Override
+        protected ProjectType getProjectType() {
+            return (ProjectType.AUCTIONMARK);
+        }
+        @Override
+        protected boolean useParallel() {
+            return (true);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import edu.brown.utils.ThreadUtil;
 import edu.brown.workload.Workload;
 import edu.brown.workload.QueryTrace;
 import edu.brown.workload.TransactionTrace;
+import edu.brown.workload.filters.ProcedureLimitFilter;
 import edu.brown.workload.filters.ProcedureNameFilter;
 
 public class TestSingleSitedCostModel extends BaseTestCase {
@@ -56,6 +57,9 @@ public class TestSingleSitedCostModel extends BaseTestCase {
     };
     
     private static final int NUM_PARTITIONS = 10;
+    private static final int PARALLEL_NUM_THREADS = 16;
+    private static final long PARALLEL_TXN_COUNT = 5000;
+    private static final int PARALLEL_COLD_TRIALS = 5;
     
     // Reading the workload takes a long time, so we only want to do it once
     private static Workload workload;
@@ -638,6 +642,76 @@ public class TestSingleSitedCostModel extends BaseTestCase {
         assertEquals(xacts.size(), query_partitions.getSampleCount());
     }
     
+    /**
+     * testParallelEstimation
+     */
+    public void testParallelEstimation() throws Exception {
+        // We need a lot more txns than the other tests so that the threads actually
+        // end up hitting the PartitionEstimator at the same time
+        Workload parallel_workload = new Workload(catalog);
+        parallel_workload.load(this.getWorkloadFile(ProjectType.TM1).getAbsolutePath(), catalog_db, new ProcedureLimitFilter(PARALLEL_TXN_COUNT));
+        assert(parallel_workload.getTransactionCount() > PARALLEL_NUM_THREADS * 10) : parallel_workload.getTransactionCount();
+        
+        Database clone_db = CatalogCloner.cloneDatabase(catalog_db);
+        SingleSitedCostModel serial_model = new SingleSitedCostModel(clone_db);
+        serial_model.setParallelEnabled(false, 0);
+        SingleSitedCostModel parallel_model = new SingleSitedCostModel(clone_db);
+        parallel_model.setParallelEnabled(true, 1);
+        
+        // Each round after the first will move a table's partitioning column so that
+        // the cost models have to recalculate the queries that touch it
+        String partition_cols[][] = {
+            { TM1Constants.TABLENAME_CALL_FORWARDING, "START_TIME" },
+            { TM1Constants.TABLENAME_SPECIAL_FACILITY, "SF_TYPE" },
+            { TM1Constants.TABLENAME_ACCESS_INFO, "AI_TYPE" },
+        };
+        
+        ThreadUtil.setMaxGlobalThreads(PARALLEL_NUM_THREADS);
+        try {
+            // The threads only race on the PartitionEstimator's caches while they are still
+            // empty, so try it a few times with new cost models that haven't seen anything yet
+            SingleSitedCostModel expected_model = new SingleSitedCostModel(clone_db);
+            expected_model.setParallelEnabled(false, 0);
+            double expected = expected_model.estimateWorkloadCost(clone_db, parallel_workload);
+            for (int trial = 0; trial < PARALLEL_COLD_TRIALS; trial++) {
+                SingleSitedCostModel cold_model = new SingleSitedCostModel(clone_db);
+                cold_model.setParallelEnabled(true, 1);
+                assertEquals(expected, cold_model.estimateWorkloadCost(clone_db, parallel_workload));
+            } // FOR
+            
+            for (int i = 0; i <= partition_cols.length; i++) {
+                if (i > 0) {
+                    Table catalog_tbl = clone_db.getTables().get(partition_cols[i-1][0]);
+                    catalog_tbl.setPartitioncolumn(catalog_tbl.getColumns().get(partition_cols[i-1][1]));
+                    serial_model.invalidateCache(catalog_tbl);
+                    parallel_model.invalidateCache(catalog_tbl);
+                }
+                
+                double serial_cost = serial_model.estimateWorkloadCost(clone_db, parallel_workload);
+                double parallel_cost = parallel_model.estimateWorkloadCost(clone_db, parallel_workload);
+                assertEquals(serial_cost, parallel_cost);
+                
+                Map<Field, Histogram<?>> serial_histograms = getHistograms(serial_model);
+                Map<Field, Histogram<?>> parallel_histograms = getHistograms(parallel_model);
+                for (Field f : serial_histograms.keySet()) {
+                    assertEquals(f.getName(), serial_histograms.get(f), parallel_histograms.get(f));
+                } // FOR
+                
+                for (TransactionTrace txn_trace : parallel_workload) {
+                    TransactionCacheEntry serial_entry = serial_model.getTransactionCacheEntry(txn_trace);
+                    TransactionCacheEntry parallel_entry = parallel_model.getTransactionCacheEntry(txn_trace);
+                    assertNotNull(serial_entry);
+                    assertNotNull(parallel_entry);
+                    assertEquals(serial_entry.isSinglePartitioned(), parallel_entry.isSinglePartitioned());
+                    assertEquals(serial_entry.getExecutionPartition(), parallel_entry.getExecutionPartition());
+                    assertEquals(serial_entry.getAllTouchedPartitionsHistogram(), parallel_entry.getAllTouchedPartitionsHistogram());
+                } // FOR
+            } // FOR
+        } finally {
+            ThreadUtil.setMaxGlobalThreads(1);
+        }
+    }
+    
     /**
      * testProcParameterEstimate
      */
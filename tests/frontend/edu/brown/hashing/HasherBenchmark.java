@@ -0,0 +1,99 @@
+package edu.brown.hashing;
+
+import org.apache.commons.collections15.map.LRUMap;
+import org.voltdb.catalog.Database;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+/**
+ * Japex drivers that compare the DefaultHasher, the old CachedHasher that used a
+ * commons LRUMap, and the current CachedHasher. Each run hashes a batch of
+ * partitioning values, most of which are Strings drawn from a small working set
+ * with a few Longs mixed in. When the driver finishes, the CachedHasher's hits,
+ * misses, and hit ratio are added to the test case's results.
+ */
+public abstract class HasherBenchmark extends JapexDriverBase {
+    private static final int NUM_PARTITIONS = 64;
+    private static final int NUM_KEYS = 1000;
+    private static final int BATCH_SIZE = 10000;
+    private static final int LONG_RATIO = 10;
+
+    protected final Object values[] = new Object[BATCH_SIZE];
+    protected AbstractHasher hasher;
+    protected int checksum = 0;
+
+    protected abstract AbstractHasher createHasher();
+
+    @Override
+    public void initializeDriver() {
+        this.hasher = this.createHasher();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int key = (i * 7919) % NUM_KEYS;
+            if (i % LONG_RATIO == 0) {
+                this.values[i] = Long.valueOf(key);
+            } else {
+                // Make a new String each time, just like what we get from a ParameterSet
+                this.values[i] = new String("SUBSCRIBER-" + key);
+            }
+        } // FOR
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            this.checksum += this.hasher.hash(this.values[i]);
+        } // FOR
+    }
+
+    @Override
+    public void finish(TestCase testCase) {
+        if (this.hasher instanceof CachedHasher) {
+            CachedHasher cached = (CachedHasher)this.hasher;
+            testCase.setLongParam("cacheHits", cached.getCacheHits());
+            testCase.setLongParam("cacheMisses", cached.getCacheMisses());
+            testCase.setDoubleParam("cacheHitRatio", cached.getCacheHitRatio());
+        }
+    }
+
+    /**
+     * The CachedHasher before it was changed to the lock-free cache
+     */
+    private static class LRUMapCachedHasher extends DefaultHasher {
+        private final LRUMap<Object, Integer> cache = new LRUMap<Object, Integer>(2048);
+
+        public LRUMapCachedHasher(Database catalog_db, int num_partitions) {
+            super(catalog_db, num_partitions);
+        }
+        @Override
+        public int hash(Object value, int num_partitions) {
+            Integer hash = this.cache.get(value);
+            if (hash == null) {
+                hash = super.hash(value, num_partitions);
+                this.cache.put(value, hash);
+            }
+            return (hash.intValue());
+        }
+    }
+
+    public static class Default extends HasherBenchmark {
+        @Override
+        protected AbstractHasher createHasher() {
+            return new DefaultHasher(null, NUM_PARTITIONS);
+        }
+    }
+
+    public static class LRUMapCached extends HasherBenchmark {
+        @Override
+        protected AbstractHasher createHasher() {
+            return new LRUMapCachedHasher(null, NUM_PARTITIONS);
+        }
+    }
+
+    public static class Cached extends HasherBenchmark {
+        @Override
+        protected AbstractHasher createHasher() {
+            return new CachedHasher(null, NUM_PARTITIONS, 2048);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package edu.brown.hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.brown.BaseTestCase;
+
+public class TestCachedHasher extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 64;
+    private static final int CACHE_SIZE = 128;
+
+    private DefaultHasher expected;
+    private CachedHasher hasher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.expected = new DefaultHasher(null, NUM_PARTITIONS);
+        this.hasher = new CachedHasher(null, NUM_PARTITIONS, CACHE_SIZE);
+    }
+
+    /**
+     * testHash
+     */
+    public void testHash() throws Exception {
+        // We have to get back the same thing as the DefaultHasher whether
+        // or not the value is in the cache
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < CACHE_SIZE * 4; i++) {
+                String s = "key-" + i;
+                assertEquals(s, this.expected.hash(s), this.hasher.hash(s));
+                assertEquals(s, this.expected.hash(s, 7), this.hasher.hash(s, 7));
+                assertEquals(this.expected.hash((long)i), this.hasher.hash((long)i));
+                assertEquals(this.expected.hash(i), this.hasher.hash(i));
+            } // FOR
+        } // FOR
+    }
+
+    /**
+     * testCacheHits
+     */
+    public void testCacheHits() throws Exception {
+        assertEquals(CACHE_SIZE, this.hasher.getCacheSize());
+        int num_keys = CACHE_SIZE / 4;
+        for (int i = 0; i < num_keys; i++) {
+            this.hasher.hash("key-" + i);
+        } // FOR
+        assertEquals(0, this.hasher.getCacheHits());
+        assertEquals(num_keys, this.hasher.getCacheMisses());
+
+        // A new String with the same value has to hit the cache. Some of the
+        // keys might have ended up in the same slot, so we can't expect all of them to
+        for (int i = 0; i < num_keys; i++) {
+            this.hasher.hash("key-" + i);
+        } // FOR
+        assertTrue(this.hasher.getCacheHits() > 0);
+        assertEquals(num_keys * 2, this.hasher.getCacheHits() + this.hasher.getCacheMisses());
+        assertTrue(this.hasher.getCacheHitRatio() > 0);
+
+        // Numeric values and other partition counts never touch the cache
+        this.hasher.hash(1234l);
+        this.hasher.hash("key-0", 7);
+        assertEquals(num_keys * 2, this.hasher.getCacheHits() + this.hasher.getCacheMisses());
+
+        // Reinitializing the hasher clears out everything
+        this.hasher.init(null);
+        assertEquals(0, this.hasher.getCacheHits());
+        assertEquals(0, this.hasher.getCacheMisses());
+    }
+
+    /**
+     * testConcurrentHash
+     */
+    public void testConcurrentHash() throws Exception {
+        final int num_keys = CACHE_SIZE * 2;
+        final String keys[] = new String[num_keys];
+        final int partitions[] = new int[num_keys];
+        for (int i = 0; i < num_keys; i++) {
+            keys[i] = "key-" + i;
+            partitions[i] = this.expected.hash(keys[i]);
+        } // FOR
+
+        final AtomicInteger errors = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        int idx = (i * 7 + offset) % num_keys;
+                        if (hasher.hash(keys[idx]) != partitions[idx]) errors.incrementAndGet();
+                    } // FOR
+                }
+            });
+        } // FOR
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        assertEquals(0, errors.get());
+    }
+}
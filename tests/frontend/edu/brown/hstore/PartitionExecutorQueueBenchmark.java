@@ -0,0 +1,96 @@
+package edu.brown.hstore;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.voltdb.messaging.FragmentTaskMessage;
+import org.voltdb.messaging.InitiateTaskMessage;
+import org.voltdb.messaging.TransactionInfoBaseMessage;
+import org.voltdb.messaging.VoltMessage;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+/**
+ * Japex drivers that compare the PriorityBlockingQueue-based PartitionExecutorQueue
+ * against the PartitionExecutorLaneQueue. Each run has several producer threads push
+ * a batch of mixed InitiateTaskMessages and FragmentTaskMessages into the queue at
+ * the same time while a single consumer drains it, which is roughly what a
+ * PartitionExecutor sees under a single-partition heavy workload.
+ */
+public abstract class PartitionExecutorQueueBenchmark extends JapexDriverBase {
+    private static final int NUM_PRODUCERS = 4;
+    private static final int BATCH_SIZE = 128;
+    private static final int FRAGMENT_RATIO = 8;
+
+    private final VoltMessage messages[][] = new VoltMessage[NUM_PRODUCERS][BATCH_SIZE];
+    private BlockingQueue<VoltMessage> queue;
+    private ExecutorService producers;
+
+    protected abstract BlockingQueue<VoltMessage> createQueue();
+
+    @Override
+    public void initializeDriver() {
+        this.producers = Executors.newFixedThreadPool(NUM_PRODUCERS);
+    }
+
+    @Override
+    public void terminateDriver() {
+        this.producers.shutdownNow();
+    }
+
+    @Override
+    public void prepare(TestCase testCase) {
+        this.queue = this.createQueue();
+        for (int p = 0; p < NUM_PRODUCERS; p++) {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                TransactionInfoBaseMessage msg = null;
+                if (i % FRAGMENT_RATIO == 0) {
+                    msg = new FragmentTaskMessage();
+                } else {
+                    msg = new InitiateTaskMessage();
+                }
+                // Shuffle the txnIds a bit so that the queue has to sort them
+                msg.setTxnId((long)(((i * 7919) % BATCH_SIZE) * NUM_PRODUCERS + p));
+                this.messages[p][i] = msg;
+            } // FOR
+        } // FOR
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        for (int p = 0; p < NUM_PRODUCERS; p++) {
+            final VoltMessage batch[] = this.messages[p];
+            this.producers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        queue.offer(batch[i]);
+                    } // FOR
+                }
+            });
+        } // FOR
+        try {
+            for (int i = 0, cnt = NUM_PRODUCERS * BATCH_SIZE; i < cnt; i++) {
+                this.queue.take();
+            } // FOR
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static class PriorityQueue extends PartitionExecutorQueueBenchmark {
+        @Override
+        protected BlockingQueue<VoltMessage> createQueue() {
+            return new PartitionExecutorQueue();
+        }
+    }
+
+    public static class LaneQueue extends PartitionExecutorQueueBenchmark {
+        @Override
+        protected BlockingQueue<VoltMessage> createQueue() {
+            return new PartitionExecutorLaneQueue();
+        }
+    }
+}
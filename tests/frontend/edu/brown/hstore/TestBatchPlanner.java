@@ -333,6 +333,51 @@ public class TestBatchPlanner extends BaseTestCase {
         assertEquals(NUM_PARTITIONS-1, remote_frags);
     }
     
+    /**
+     * testMultiSitedPlanCaching
+     */
+    public void testMultiSitedPlanCaching() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        boolean orig = hstore_conf.site.planner_caching;
+        hstore_conf.site.planner_caching = true;
+
+        try {
+            this.init(MULTISITE_PROCEDURE, MULTISITE_STATEMENT, MULTISITE_PROCEDURE_ARGS);
+            BatchPlanner planner = new BatchPlanner(batch, this.catalog_proc, p_estimator);
+            BatchPlanner.BatchPlan plan0 = planner.plan(TXN_ID, CLIENT_HANDLE, LOCAL_PARTITION, this.all_partitions, false, this.touched_partitions, this.args);
+            assertNotNull(plan0);
+            assertFalse(plan0.hasMisprediction());
+            assertFalse(plan0.isSingleSited());
+            assertTrue(plan0.isCached());
+            assertEquals(0, planner.getDistributedCacheHits());
+            assertEquals(1, planner.getDistributedCacheMisses());
+            plan0.getWorkFragments(TXN_ID, fragments);
+            List<WorkFragment> fragments0 = new ArrayList<WorkFragment>(fragments);
+
+            // Same partitions, so we should get back the same plan and WorkFragments
+            BatchPlanner.BatchPlan plan1 = planner.plan(TXN_ID+1, CLIENT_HANDLE, LOCAL_PARTITION, this.all_partitions, false, this.touched_partitions, this.args);
+            assert(plan0 == plan1);
+            assertEquals(1, planner.getDistributedCacheHits());
+            assertEquals(1, planner.getDistributedCacheMisses());
+            assertEquals(NUM_PARTITIONS * 2, this.touched_partitions.getSampleCount());
+            fragments.clear();
+            plan1.getWorkFragments(TXN_ID+1, fragments);
+            assertEquals(fragments0, fragments);
+
+            // Different base partition, so it has to be a new plan
+            BatchPlanner.BatchPlan plan2 = planner.plan(TXN_ID+2, CLIENT_HANDLE, REMOTE_PARTITION, this.all_partitions, false, this.touched_partitions, this.args);
+            assertNotSame(plan0, plan2);
+            assertEquals(1, planner.getDistributedCacheHits());
+            assertEquals(2, planner.getDistributedCacheMisses());
+            fragments.clear();
+            plan2.getWorkFragments(TXN_ID+2, fragments);
+            assertEquals(1, getLocalFragmentCount(fragments, LOCAL_PARTITION));
+            assertEquals(NUM_PARTITIONS, getRemoteFragmentCount(fragments, LOCAL_PARTITION));
+        } finally {
+            hstore_conf.site.planner_caching = orig;
+        }
+    }
+
     /**
      * testMultiSitedRemotePlan
      */
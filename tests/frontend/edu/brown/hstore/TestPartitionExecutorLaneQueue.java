@@ -0,0 +1,245 @@
+package edu.brown.hstore;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.voltdb.messaging.FinishTaskMessage;
+import org.voltdb.messaging.FragmentTaskMessage;
+import org.voltdb.messaging.InitiateTaskMessage;
+import org.voltdb.messaging.PotentialSnapshotWorkMessage;
+import org.voltdb.messaging.TransactionInfoBaseMessage;
+import org.voltdb.messaging.VoltMessage;
+
+public class TestPartitionExecutorLaneQueue extends TestCase {
+
+    private PartitionExecutorLaneQueue queue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.queue = new PartitionExecutorLaneQueue();
+    }
+
+    private static <T extends TransactionInfoBaseMessage> T txnMessage(T msg, long txnId, boolean sysproc) {
+        msg.setTxnId(txnId);
+        msg.setSysProc(sysproc);
+        return (msg);
+    }
+
+    private static FinishTaskMessage newFinishTaskMessage() throws Exception {
+        // The empty constructor is only meant for de-serialization
+        Constructor<FinishTaskMessage> c = FinishTaskMessage.class.getDeclaredConstructor();
+        c.setAccessible(true);
+        return (c.newInstance());
+    }
+
+    /**
+     * testPriorityOrder
+     */
+    public void testPriorityOrder() throws Exception {
+        List<VoltMessage> expected = new ArrayList<VoltMessage>();
+        VoltMessage utility = new PotentialSnapshotWorkMessage();
+        VoltMessage sysproc = txnMessage(new InitiateTaskMessage(), 1000l, true);
+        VoltMessage work0 = txnMessage(new FragmentTaskMessage(), 500l, false);
+        VoltMessage work1 = txnMessage(new FragmentTaskMessage(), 400l, false);
+        VoltMessage init0 = txnMessage(new InitiateTaskMessage(), 300l, false);
+        VoltMessage init1 = txnMessage(new InitiateTaskMessage(), 200l, false);
+        expected.add(utility);
+        expected.add(sysproc);
+        expected.add(work1);
+        expected.add(work0);
+        expected.add(init1);
+        expected.add(init0);
+
+        // Everything but the utility messages should get sorted by txnId
+        VoltMessage added[] = { init0, work0, init1, sysproc, work1, utility };
+        for (VoltMessage msg : added) {
+            assertTrue(this.queue.offer(msg));
+        } // FOR
+        assertEquals(expected.size(), this.queue.size());
+        assertEquals(utility, this.queue.peek());
+
+        for (VoltMessage msg : expected) {
+            assertEquals(msg, this.queue.poll());
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+        assertNull(this.queue.poll());
+    }
+
+    /**
+     * testFinishAndFragmentOrder
+     */
+    public void testFinishAndFragmentOrder() throws Exception {
+        // FinishTaskMessages come out in the order that they arrived, but
+        // out-of-order FragmentTaskMessages still come out by txnId
+        VoltMessage finish0 = txnMessage(newFinishTaskMessage(), 300l, false);
+        VoltMessage finish1 = txnMessage(newFinishTaskMessage(), 100l, false);
+        VoltMessage work0 = txnMessage(new FragmentTaskMessage(), 250l, false);
+        VoltMessage work1 = txnMessage(new FragmentTaskMessage(), 150l, false);
+        VoltMessage added[] = { work0, finish0, work1, finish1 };
+        for (VoltMessage msg : added) {
+            assertTrue(this.queue.offer(msg));
+        } // FOR
+
+        VoltMessage expected[] = { finish0, finish1, work1, work0 };
+        for (VoltMessage msg : expected) {
+            assertEquals(msg, this.queue.poll());
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+    }
+
+    /**
+     * testRemove
+     */
+    public void testRemove() throws Exception {
+        VoltMessage utility = new PotentialSnapshotWorkMessage();
+        VoltMessage finish = txnMessage(newFinishTaskMessage(), 100l, false);
+        VoltMessage sysproc = txnMessage(new FragmentTaskMessage(), 100l, true);
+        VoltMessage work = txnMessage(new FragmentTaskMessage(), 100l, false);
+        VoltMessage init = txnMessage(new InitiateTaskMessage(), 100l, false);
+        VoltMessage added[] = { utility, finish, sysproc, work, init };
+        for (VoltMessage msg : added) {
+            assertTrue(this.queue.offer(msg));
+        } // FOR
+
+        // A message with the same txnId in a different lane is not the same message
+        assertFalse(this.queue.remove(txnMessage(new InitiateTaskMessage(), 100l, false)));
+        for (int i = added.length - 1; i >= 0; i--) {
+            assertTrue(this.queue.remove(added[i]));
+            assertFalse(this.queue.remove(added[i]));
+            assertEquals(i, this.queue.size());
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+        assertNull(this.queue.poll());
+    }
+
+    /**
+     * testConcurrentProducers
+     */
+    public void testConcurrentProducers() throws Exception {
+        final int num_threads = 4;
+        final int num_messages = 5000;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int i = 0; i < num_threads; i++) {
+            final long base = i * num_messages;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int j = 0; j < num_messages; j++) {
+                        queue.offer(txnMessage(new InitiateTaskMessage(), base + j, false));
+                    } // FOR
+                }
+            };
+            t.start();
+            producers.add(t);
+        } // FOR
+
+        // The consumer should never see a negative size while the producers race with it
+        start.countDown();
+        int ctr = 0;
+        while (ctr < num_threads * num_messages) {
+            assertTrue(this.queue.size() >= 0);
+            if (this.queue.poll(1, TimeUnit.SECONDS) != null) ctr++;
+        } // WHILE
+        for (Thread t : producers) {
+            t.join();
+        } // FOR
+        assertEquals(0, this.queue.size());
+        assertNull(this.queue.poll());
+    }
+
+    /**
+     * testSameTxnId
+     */
+    public void testSameTxnId() throws Exception {
+        // Different messages for the same txn should never be treated as duplicates,
+        // and they should come out in the order that they were added
+        List<VoltMessage> expected = new ArrayList<VoltMessage>();
+        for (int i = 0; i < 1000; i++) {
+            VoltMessage msg = txnMessage(new FragmentTaskMessage(), 100l, false);
+            expected.add(msg);
+            assertTrue(this.queue.offer(msg));
+        } // FOR
+        assertEquals(expected.size(), this.queue.size());
+
+        // Removing one from the middle shouldn't take anything else with it
+        VoltMessage removed = expected.remove(500);
+        assertTrue(this.queue.remove(removed));
+        assertFalse(this.queue.remove(removed));
+        assertEquals(expected.size(), this.queue.size());
+
+        for (VoltMessage msg : expected) {
+            assertSame(msg, this.queue.poll());
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+    }
+
+    /**
+     * testDrainTo
+     */
+    public void testDrainTo() throws Exception {
+        VoltMessage work = txnMessage(new FragmentTaskMessage(), 100l, false);
+        VoltMessage init0 = txnMessage(new InitiateTaskMessage(), 200l, false);
+        VoltMessage init1 = txnMessage(new InitiateTaskMessage(), 300l, true);
+        this.queue.add(work);
+        this.queue.add(init0);
+        this.queue.add(init1);
+
+        // Only the InitiateTaskMessages should get removed
+        List<VoltMessage> drained = new ArrayList<VoltMessage>();
+        assertEquals(2, this.queue.drainTo(drained));
+        assertEquals(2, drained.size());
+        assertTrue(drained.contains(init0));
+        assertTrue(drained.contains(init1));
+        assertEquals(1, this.queue.size());
+        assertEquals(work, this.queue.poll());
+    }
+
+    /**
+     * testTake
+     */
+    public void testTake() throws Exception {
+        final VoltMessage expected = txnMessage(new InitiateTaskMessage(), 100l, false);
+        final List<VoltMessage> result = new ArrayList<VoltMessage>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    result.add(queue.take());
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+                latch.countDown();
+            }
+        };
+        t.start();
+        Thread.sleep(100);
+        assertEquals(1, latch.getCount());
+
+        this.queue.add(expected);
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals(1, result.size());
+        assertEquals(expected, result.get(0));
+        assertTrue(this.queue.isEmpty());
+    }
+
+    /**
+     * testPollTimeout
+     */
+    public void testPollTimeout() throws Exception {
+        assertNull(this.queue.poll(10, TimeUnit.MILLISECONDS));
+        VoltMessage expected = new PotentialSnapshotWorkMessage();
+        this.queue.add(expected);
+        assertEquals(expected, this.queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+}
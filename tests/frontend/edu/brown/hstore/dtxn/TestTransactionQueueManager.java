@@ -1,8 +1,12 @@
 package edu.brown.hstore.dtxn;
 
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.voltdb.catalog.Site;
@@ -18,6 +22,7 @@ import edu.brown.hstore.MockHStoreSite;
 import edu.brown.hstore.callbacks.TransactionInitQueueCallback;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProjectType;
 import edu.brown.utils.ThreadUtil;
 
@@ -59,7 +64,7 @@ public class TestTransactionQueueManager extends BaseTestCase {
     @Test
     public void testSingleTransaction() throws InterruptedException {
         long txn_id = 1000;
-        Collection<Integer> partitions = CatalogUtil.getAllPartitionIds(catalog_db);
+        PartitionSet partitions = new PartitionSet(CatalogUtil.getAllPartitionIds(catalog_db));
         
         MockCallback inner_callback = new MockCallback();
         TransactionInitQueueCallback outer_callback = new TransactionInitQueueCallback(hstore_site);
@@ -89,8 +94,8 @@ public class TestTransactionQueueManager extends BaseTestCase {
     public void testTwoTransactions() throws InterruptedException {
         final long txn_id0 = 1000;
         final long txn_id1 = 2000;
-        Collection<Integer> partitions0 = CatalogUtil.getAllPartitionIds(catalog_db);
-        Collection<Integer> partitions1 = CatalogUtil.getAllPartitionIds(catalog_db);
+        PartitionSet partitions0 = new PartitionSet(CatalogUtil.getAllPartitionIds(catalog_db));
+        PartitionSet partitions1 = new PartitionSet(CatalogUtil.getAllPartitionIds(catalog_db));
         
         final MockCallback inner_callback0 = new MockCallback();
         TransactionInitQueueCallback outer_callback0 = new TransactionInitQueueCallback(hstore_site);
@@ -144,13 +149,13 @@ public class TestTransactionQueueManager extends BaseTestCase {
         final long txn_id0 = 1000;
         final long txn_id1 = 2000;
         final long txn_id2 = 3000;
-        Collection<Integer> partitions0 = new HashSet<Integer>();
+        PartitionSet partitions0 = new PartitionSet();
         partitions0.add(0);
         partitions0.add(2);
-        Collection<Integer> partitions1 = new HashSet<Integer>();
+        PartitionSet partitions1 = new PartitionSet();
         partitions1.add(1);
         partitions1.add(3);
-        Collection<Integer> partitions2 = CatalogUtil.getAllPartitionIds(catalog_db);
+        PartitionSet partitions2 = new PartitionSet(CatalogUtil.getAllPartitionIds(catalog_db));
         
         final MockCallback inner_callback0 = new MockCallback();
         TransactionInitQueueCallback outer_callback0 = new TransactionInitQueueCallback(hstore_site);
@@ -220,11 +225,11 @@ public class TestTransactionQueueManager extends BaseTestCase {
     public void testOverlappingTransactions() throws InterruptedException {
         final long txn_id0 = 1000;
         final long txn_id1 = 2000;
-        Collection<Integer> partitions0 = new HashSet<Integer>();
+        PartitionSet partitions0 = new PartitionSet();
         partitions0.add(0);
         partitions0.add(1);
         partitions0.add(2);
-        Collection<Integer> partitions1 = new HashSet<Integer>();
+        PartitionSet partitions1 = new PartitionSet();
         partitions1.add(2);
         partitions1.add(3);
         
@@ -272,4 +277,87 @@ public class TestTransactionQueueManager extends BaseTestCase {
         // wait for all the locks to be acquired
         t.join();
     }
+    
+    /**
+     * Push a bunch of distributed txns through a queue manager that has multiple
+     * lock queue shards and make sure that every one of them gets released
+     * @throws InterruptedException 
+     */
+    @Test
+    public void testShardedLockQueues() throws InterruptedException {
+        final int num_txns = 500;
+        HStoreConf hstore_conf = hstore_site.getHStoreConf();
+        hstore_conf.site.queue_lock_shards = 2;
+        // Make sure that the partitions' queues can hold all of our txns at once,
+        // otherwise lockInsert() will start throttling them
+        int orig_max = hstore_conf.site.queue_dtxn_max_per_partition;
+        hstore_conf.site.queue_dtxn_max_per_partition = num_txns;
+        try {
+            final TransactionQueueManager queue = new TransactionQueueManager(hstore_site);
+            assertEquals(2, queue.getDebugContext().getLockQueueShardCount());
+            Thread t = new Thread(queue);
+            t.setDaemon(true);
+            t.setUncaughtExceptionHandler(this);
+            t.start();
+            
+            // Once a txn gets all of its locks, we will mark it as finished
+            // at all of its partitions from a separate thread
+            final BlockingQueue<Long> released = new LinkedBlockingQueue<Long>();
+            final Map<Long, PartitionSet> txn_partitions = new ConcurrentHashMap<Long, PartitionSet>();
+            final Semaphore finished = new Semaphore(0);
+            Thread finisher = new Thread() {
+                public void run() {
+                    for (int i = 0; i < num_txns; i++) {
+                        Long txn_id = null;
+                        try {
+                            txn_id = released.take();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int partition : txn_partitions.get(txn_id)) {
+                            queue.lockFinished(txn_id, Status.OK, partition);
+                        } // FOR
+                        finished.release();
+                    } // FOR
+                }
+            };
+            finisher.setDaemon(true);
+            finisher.setUncaughtExceptionHandler(this);
+            finisher.start();
+            
+            Random rand = new Random(0);
+            int num_locks = 0;
+            for (int i = 0; i < num_txns; i++) {
+                final Long txn_id = Long.valueOf(1000 + i);
+                PartitionSet partitions = new PartitionSet();
+                while (partitions.size() < 2) {
+                    partitions.add(rand.nextInt(NUM_PARTITONS));
+                } // WHILE
+                num_locks += partitions.size();
+                txn_partitions.put(txn_id, partitions);
+                
+                TransactionInitQueueCallback outer_callback = new TransactionInitQueueCallback(hstore_site);
+                outer_callback.init(txn_id, partitions, new RpcCallback<TransactionInitResponse>() {
+                    @Override
+                    public void run(TransactionInitResponse parameter) {
+                        released.add(txn_id);
+                    }
+                });
+                assertTrue(queue.lockInsert(txn_id, partitions, outer_callback));
+            } // FOR
+            assertTrue(finished.tryAcquire(num_txns, 30, TimeUnit.SECONDS));
+            
+            long total = 0;
+            for (int partition = 0; partition < NUM_PARTITONS; partition++) {
+                total += queue.getLockReleasedCount(partition);
+                assertEquals(0, queue.getLockRejectedCount(partition));
+            } // FOR
+            assertEquals(num_locks, total);
+            assertTrue(queue.isLockQueuesEmpty());
+            queue.shutdown();
+        } finally {
+            hstore_conf.site.queue_lock_shards = 0;
+            hstore_conf.site.queue_dtxn_max_per_partition = orig_max;
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package edu.brown.hstore.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+/**
+ * Japex drivers that compare the ConcurrentHashMap that HStoreSite used to use
+ * for its in-flight txns against the ConcurrentLongHashMap. Each run inserts,
+ * looks up and then removes a batch of txn ids, which is what happens to every
+ * txn at the HStoreSite. When the driver finishes, it prints out how many bytes
+ * the benchmark thread allocated per operation.
+ */
+public abstract class ConcurrentLongHashMapBenchmark extends JapexDriverBase {
+    private static final int BATCH_SIZE = 1000;
+    private static final int LOOKUPS_PER_TXN = 4;
+
+    protected final long txnIds[] = new long[BATCH_SIZE];
+    protected final Long boxedTxnIds[] = new Long[BATCH_SIZE];
+    protected final Object value = new Object();
+    private long operations = 0;
+    private long startBytes = 0;
+
+    protected abstract void runBatch();
+
+    @Override
+    public void prepare(TestCase testCase) {
+        // Txn ids have the base partition in the lower bits and a timestamp above that
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            this.txnIds[i] = ((1000000l + i) << 20) | (i % 16);
+            this.boxedTxnIds[i] = Long.valueOf(this.txnIds[i]);
+        } // FOR
+        this.operations = 0;
+        this.startBytes = getAllocatedBytes();
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        this.runBatch();
+        this.operations += BATCH_SIZE * (LOOKUPS_PER_TXN + 2);
+    }
+
+    @Override
+    public void finish(TestCase testCase) {
+        long bytes = getAllocatedBytes() - this.startBytes;
+        if (bytes >= 0 && this.operations > 0) {
+            System.err.printf("%s: %.2f bytes allocated per operation\n",
+                              this.getClass().getSimpleName(), bytes / (double)this.operations);
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return (-1);
+    }
+
+    public static class JavaConcurrentHashMap extends ConcurrentLongHashMapBenchmark {
+        private final ConcurrentHashMap<Long, Object> map = new ConcurrentHashMap<Long, Object>();
+
+        @Override
+        protected void runBatch() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                this.map.put(this.boxedTxnIds[i], this.value);
+            } // FOR
+            for (int j = 0; j < LOOKUPS_PER_TXN; j++) {
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    this.map.get(this.boxedTxnIds[i]);
+                } // FOR
+            } // FOR
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                this.map.remove(this.boxedTxnIds[i]);
+            } // FOR
+        }
+    }
+
+    public static class LongHashMap extends ConcurrentLongHashMapBenchmark {
+        private final ConcurrentLongHashMap<Object> map = new ConcurrentLongHashMap<Object>();
+
+        @Override
+        protected void runBatch() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                this.map.put(this.txnIds[i], this.value);
+            } // FOR
+            for (int j = 0; j < LOOKUPS_PER_TXN; j++) {
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    this.map.get(this.txnIds[i]);
+                } // FOR
+            } // FOR
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                this.map.remove(this.txnIds[i]);
+            } // FOR
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package edu.brown.hstore.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TestConcurrentLongHashMap extends TestCase {
+
+    private ConcurrentLongHashMap<Long> map;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.map = new ConcurrentLongHashMap<Long>(4, 16);
+    }
+
+    /**
+     * testPutGetRemove
+     */
+    public void testPutGetRemove() throws Exception {
+        assertTrue(this.map.isEmpty());
+        assertNull(this.map.get(1000l));
+        assertNull(this.map.put(1000l, 1l));
+        assertEquals(Long.valueOf(1l), this.map.get(1000l));
+        assertEquals(Long.valueOf(1l), this.map.put(1000l, 2l));
+        assertEquals(Long.valueOf(2l), this.map.get(1000l));
+        assertEquals(1, this.map.size());
+
+        assertEquals(Long.valueOf(2l), this.map.remove(1000l));
+        assertNull(this.map.remove(1000l));
+        assertNull(this.map.get(1000l));
+        assertTrue(this.map.isEmpty());
+    }
+
+    /**
+     * testCompareWithHashMap
+     */
+    public void testCompareWithHashMap() throws Exception {
+        // Keep adding and removing keys so that the segments have to resize
+        // and clean up their tombstones
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random rand = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            long key = rand.nextInt(5000) << 20;
+            if (rand.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), this.map.remove(key));
+            } else {
+                Long value = Long.valueOf(i);
+                assertEquals(expected.put(key, value), this.map.put(key, value));
+            }
+            assertEquals(expected.size(), this.map.size());
+        } // FOR
+        for (Long key : expected.keySet()) {
+            assertEquals(expected.get(key), this.map.get(key.longValue()));
+        } // FOR
+        assertEquals(expected.size(), this.map.values().size());
+        assertTrue(this.map.values().containsAll(expected.values()));
+    }
+
+    /**
+     * testConcurrentAccess
+     */
+    public void testConcurrentAccess() throws Exception {
+        final int num_threads = 4;
+        final int num_keys = 20000;
+        final AtomicInteger errors = new AtomicInteger(0);
+        Thread threads[] = new Thread[num_threads];
+        for (int i = 0; i < num_threads; i++) {
+            final long offset = i * (long)num_keys;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (long key = offset; key < offset + num_keys; key++) {
+                        map.put(key, key);
+                        Long value = map.get(key);
+                        if (value == null || value.longValue() != key) errors.incrementAndGet();
+                        if (key % 2 == 0) map.remove(key);
+                    } // FOR
+                }
+            };
+            threads[i].start();
+        } // FOR
+        for (Thread t : threads) t.join();
+        assertEquals(0, errors.get());
+        assertEquals(num_threads * num_keys / 2, this.map.size());
+        for (long key = 0; key < num_threads * (long)num_keys; key++) {
+            Long value = this.map.get(key);
+            if (key % 2 == 0) {
+                assertNull(value);
+            } else {
+                assertEquals(Long.valueOf(key), value);
+            }
+        } // FOR
+    }
+}
@@ -10,11 +10,16 @@ import org.voltdb.ParameterSet;
 import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
+import org.voltdb.catalog.PlanFragment;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Statement;
 
 import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
 import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.ProjectType;
 
 /**
@@ -23,7 +28,7 @@ import edu.brown.utils.ProjectType;
  */
 public class TestQueryCache extends BaseTestCase {
 
-    private static final int globalBufferSize = 10;
+    private static final long globalCacheSize = 1024 * 1024;
     private static final int txnBufferSize = 10;
     private static Class<? extends VoltProcedure> TARGET_PROCEDURE = DeleteCallForwarding.class;
     private static String TARGET_STATEMENT = "query";
@@ -40,7 +45,7 @@ public class TestQueryCache extends BaseTestCase {
     protected void setUp() throws Exception {
         super.setUp(ProjectType.TM1);
         
-        this.cache = new QueryCache(globalBufferSize, txnBufferSize);
+        this.cache = new QueryCache(txnBufferSize);
         this.catalog_proc = this.getProcedure(TARGET_PROCEDURE);
         this.catalog_stmt = this.getStatement(catalog_proc, TARGET_STATEMENT);
     }
@@ -103,6 +108,111 @@ public class TestQueryCache extends BaseTestCase {
         
     }
     
+    private VoltTable makeResult(long value) {
+        VoltTable result = new VoltTable(TARGET_RESULT);
+        result.addRow(value);
+        return (result);
+    }
     
+    /**
+     * testGlobalCacheGet
+     */
+    public void testGlobalCacheGet() throws Exception {
+        QueryCache cache = new QueryCache(catalog_db, globalCacheSize, QueryCachePolicy.Type.WTINYLFU, txnBufferSize);
+        assertTrue(cache.isGlobalCacheEnabled());
+        
+        Statement select = this.getStatement(this.getProcedure(GetSubscriberData.class), "GetData");
+        long fragmentIds[] = { CollectionUtil.first(select.getFragments()).getId() };
+        assertTrue(cache.areFragmentsCacheable(fragmentIds, 1));
+        
+        // Write queries should never be cached
+        Statement update = this.getStatement(this.getProcedure(UpdateSubscriberData.class), "update1");
+        long updateIds[] = { CollectionUtil.first(update.getFragments()).getId() };
+        assertFalse(cache.areFragmentsCacheable(updateIds, 1));
+        
+        ParameterSet params = new ParameterSet(1234l);
+        assertNull(cache.getGlobalCachedResult(fragmentIds[0], params));
+        cache.addGlobalQueryResult(fragmentIds[0], params, this.makeResult(9999));
+        
+        // We should get back the same result with an equivalent ParameterSet,
+        // but not with a different one
+        VoltTable result = cache.getGlobalCachedResult(fragmentIds[0], new ParameterSet(1234l));
+        assertNotNull(result);
+        assertEquals(9999, result.asScalarLong());
+        assertNull(cache.getGlobalCachedResult(fragmentIds[0], new ParameterSet(4321l)));
+        
+        // Each lookup gets its own copy that we can iterate over
+        VoltTable result2 = cache.getGlobalCachedResult(fragmentIds[0], params);
+        assertNotSame(result, result2);
+        assertEquals(9999, result2.asScalarLong());
+        assertEquals(2, cache.getGlobalHits());
+        assertEquals(2, cache.getGlobalMisses());
+    }
+    
+    /**
+     * testGlobalCacheInvalidate
+     */
+    public void testGlobalCacheInvalidate() throws Exception {
+        QueryCache cache = new QueryCache(catalog_db, globalCacheSize, QueryCachePolicy.Type.LRU, txnBufferSize);
+        Statement select = this.getStatement(this.getProcedure(GetSubscriberData.class), "GetData");
+        long fragmentId = CollectionUtil.first(select.getFragments()).getId();
+        Statement update = this.getStatement(this.getProcedure(UpdateSubscriberData.class), "update2");
+        long otherIds[] = { CollectionUtil.first(update.getFragments()).getId() };
+        update = this.getStatement(this.getProcedure(UpdateSubscriberData.class), "update1");
+        long updateIds[] = { CollectionUtil.first(update.getFragments()).getId() };
+        ParameterSet params = new ParameterSet(1234l);
+        
+        // Modifying a table that the query doesn't read from shouldn't do anything
+        cache.addGlobalQueryResult(fragmentId, params, this.makeResult(1));
+        cache.invalidateFragments(1000l, otherIds, 1);
+        cache.finishTransaction(1000l, true);
+        assertNotNull(cache.getGlobalCachedResult(fragmentId, params));
+        
+        // But modifying SUBSCRIBER should
+        cache.invalidateFragments(1001l, updateIds, 1);
+        assertNull(cache.getGlobalCachedResult(fragmentId, params));
+        assertEquals(1, cache.getGlobalInvalidations());
+        
+        // If the txn that modified SUBSCRIBER aborts, then anything that we
+        // cached while it was still running has to go too
+        cache.addGlobalQueryResult(fragmentId, params, this.makeResult(2));
+        assertNotNull(cache.getGlobalCachedResult(fragmentId, params));
+        cache.finishTransaction(1001l, false);
+        assertNull(cache.getGlobalCachedResult(fragmentId, params));
+        
+        // Loading data into the table invalidates it as well
+        cache.addGlobalQueryResult(fragmentId, params, this.makeResult(3));
+        cache.invalidateTable(1002l, this.getTable(TM1Constants.TABLENAME_SUBSCRIBER).getRelativeIndex());
+        assertNull(cache.getGlobalCachedResult(fragmentId, params));
+    }
     
+    /**
+     * testGlobalCacheEviction
+     */
+    public void testGlobalCacheEviction() throws Exception {
+        Statement select = this.getStatement(this.getProcedure(GetSubscriberData.class), "GetData");
+        PlanFragment catalog_frag = CollectionUtil.first(select.getFragments());
+        long entrySize = QueryCache.getGlobalEntrySize(this.makeResult(0).getUnderlyingBufferSize(), 1);
+        int capacity = 10;
+        
+        for (QueryCachePolicy.Type type : QueryCachePolicy.Type.values()) {
+            QueryCache cache = new QueryCache(catalog_db, entrySize * capacity, type, txnBufferSize);
+            for (long i = 0; i < capacity * 10; i++) {
+                cache.addGlobalQueryResult(catalog_frag.getId(), new ParameterSet(i), this.makeResult(i));
+            } // FOR
+            assertTrue(type.toString(), cache.getGlobalSize() <= entrySize * capacity);
+            assertTrue(type.toString(), cache.getGlobalEvictions() > 0);
+            
+            int found = 0;
+            for (long i = 0; i < capacity * 10; i++) {
+                VoltTable result = cache.getGlobalCachedResult(catalog_frag.getId(), new ParameterSet(i));
+                if (result != null) {
+                    assertEquals(i, result.asScalarLong());
+                    found++;
+                }
+            } // FOR
+            assertTrue(type.toString(), found > 0);
+            assertTrue(type.toString(), found <= capacity);
+        } // FOR
+    }
 }
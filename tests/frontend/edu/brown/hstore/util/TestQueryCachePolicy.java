@@ -0,0 +1,106 @@
+package edu.brown.hstore.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestQueryCachePolicy extends TestCase {
+
+    private static final int ENTRY_SIZE = 100;
+
+    private final List<QueryCachePolicy.Entry> evicted = new ArrayList<QueryCachePolicy.Entry>();
+
+    private QueryCachePolicy.Entry makeEntry(int key) {
+        QueryCachePolicy.Entry entry = new QueryCachePolicy.Entry();
+        entry.keyHash = key;
+        entry.size = ENTRY_SIZE;
+        return (entry);
+    }
+
+    /**
+     * testLRU
+     */
+    public void testLRU() throws Exception {
+        QueryCachePolicy policy = QueryCachePolicy.create(QueryCachePolicy.Type.LRU, ENTRY_SIZE * 3);
+        QueryCachePolicy.Entry entries[] = new QueryCachePolicy.Entry[4];
+        for (int i = 0; i < 3; i++) {
+            entries[i] = this.makeEntry(i);
+            policy.add(entries[i], this.evicted);
+        } // FOR
+        assertTrue(this.evicted.isEmpty());
+        assertEquals(ENTRY_SIZE * 3, policy.getSize());
+
+        // Touch the first one so that the second one is the oldest
+        policy.recordAccess(entries[0]);
+        entries[3] = this.makeEntry(3);
+        policy.add(entries[3], this.evicted);
+        assertEquals(1, this.evicted.size());
+        assertSame(entries[1], this.evicted.get(0));
+        assertEquals(ENTRY_SIZE * 3, policy.getSize());
+
+        // Removing an entry frees up its space
+        policy.remove(entries[0]);
+        assertEquals(ENTRY_SIZE * 2, policy.getSize());
+    }
+
+    /**
+     * testLFU
+     */
+    public void testLFU() throws Exception {
+        QueryCachePolicy policy = QueryCachePolicy.create(QueryCachePolicy.Type.LFU, ENTRY_SIZE * 3);
+        QueryCachePolicy.Entry entries[] = new QueryCachePolicy.Entry[4];
+        for (int i = 0; i < 3; i++) {
+            entries[i] = this.makeEntry(i);
+            policy.add(entries[i], this.evicted);
+        } // FOR
+        // The last one that we added is the only one that nobody has used
+        for (int i = 0; i < 2; i++) {
+            policy.recordAccess(entries[i]);
+            policy.recordAccess(entries[i]);
+        } // FOR
+        entries[3] = this.makeEntry(3);
+        policy.add(entries[3], this.evicted);
+        assertEquals(1, this.evicted.size());
+        assertSame(entries[2], this.evicted.get(0));
+        assertEquals(3, entries[0].getFrequency());
+    }
+
+    /**
+     * testWTinyLFU
+     */
+    public void testWTinyLFU() throws Exception {
+        int capacity = 1000;
+        QueryCachePolicy policy = QueryCachePolicy.create(QueryCachePolicy.Type.WTINYLFU, ENTRY_SIZE * capacity);
+
+        // Fill up the cache with a set of popular entries
+        QueryCachePolicy.Entry popular[] = new QueryCachePolicy.Entry[capacity / 2];
+        for (int i = 0; i < popular.length; i++) {
+            popular[i] = this.makeEntry(i);
+            policy.add(popular[i], this.evicted);
+        } // FOR
+        for (int round = 0; round < 5; round++) {
+            for (QueryCachePolicy.Entry e : popular) {
+                policy.recordAccess(e);
+            } // FOR
+        } // FOR
+        assertTrue(this.evicted.isEmpty());
+
+        // Then scan through a bunch of entries that are only used once while
+        // the popular ones keep getting used. None of the one-hit wonders
+        // should be able to push out the popular entries
+        for (int i = 0; i < capacity * 10; i++) {
+            policy.add(this.makeEntry(capacity + i), this.evicted);
+            policy.recordAccess(popular[i % popular.length]);
+            assertTrue(policy.getSize() <= policy.getCapacity());
+        } // FOR
+        assertFalse(this.evicted.isEmpty());
+        for (QueryCachePolicy.Entry e : popular) {
+            assertFalse(this.evicted.contains(e));
+        } // FOR
+
+        // Everything is removed when we clear the policy
+        policy.clear();
+        assertEquals(0, policy.getSize());
+    }
+}
@@ -0,0 +1,103 @@
+package edu.brown.hstore.util;
+
+import java.nio.ByteBuffer;
+
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.jni.ExecutionEngine;
+import org.voltdb.jni.MockExecutionEngine;
+import org.voltdb.messaging.FastSerializer;
+
+import com.google.protobuf.ByteString;
+
+import junit.framework.TestCase;
+
+public class TestVoltTableTransport extends TestCase {
+
+    private static final int NUM_ROWS = 100;
+
+    private VoltTable table;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.table = new VoltTable(new VoltTable.ColumnInfo("ID", VoltType.BIGINT),
+                                   new VoltTable.ColumnInfo("NAME", VoltType.STRING));
+        for (int i = 0; i < NUM_ROWS; i++) {
+            this.table.addRow(i, "row" + i);
+        } // FOR
+    }
+
+    private void checkTable(VoltTable vt) {
+        assertNotNull(vt);
+        assertEquals(this.table.getColumnCount(), vt.getColumnCount());
+        assertEquals(NUM_ROWS, vt.getRowCount());
+        this.table.resetRowPosition();
+        vt.resetRowPosition();
+        while (this.table.advanceRow()) {
+            assertTrue(vt.advanceRow());
+            assertEquals(this.table.getLong(0), vt.getLong(0));
+            assertEquals(this.table.getString(1), vt.getString(1));
+        } // WHILE
+        assertFalse(vt.advanceRow());
+    }
+
+    /**
+     * testSerialized
+     */
+    public void testSerialized() throws Exception {
+        FastSerializer fs = new FastSerializer();
+        ByteString bs = VoltTableTransport.toByteString(this.table, fs, false);
+        this.checkTable(VoltTableTransport.toVoltTable(bs, false));
+
+        // Reusing the FastSerializer should give us back the same bytes
+        assertEquals(bs, VoltTableTransport.toByteString(this.table, fs, false));
+        assertEquals(bs, VoltTableTransport.toByteString(this.table, null, false));
+
+        // We should still be able to change the table that we get back
+        VoltTable vt = VoltTableTransport.toVoltTable(bs, false);
+        vt.addRow(NUM_ROWS, "new");
+        assertEquals(NUM_ROWS + 1, vt.getRowCount());
+    }
+
+    /**
+     * testZeroCopy
+     */
+    public void testZeroCopy() throws Exception {
+        ByteString bs = VoltTableTransport.toByteString(this.table, null, true);
+        assertEquals(this.table.getUnderlyingBufferSize(), bs.size());
+        VoltTable vt = VoltTableTransport.toVoltTable(bs, true);
+        this.checkTable(vt);
+
+        // The table is a view over the message's bytes so we can't change it
+        try {
+            vt.addRow(NUM_ROWS, "new");
+            fail("Modified a read-only VoltTable");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+
+        // And we can send it along to somebody else
+        this.checkTable(VoltTableTransport.toVoltTable(VoltTableTransport.toByteString(vt, null, true), true));
+    }
+
+    /**
+     * testZeroCopyDependency
+     */
+    public void testZeroCopyDependency() throws Exception {
+        // A zero-copy table doesn't have a backing array, so the EE should
+        // get a copy of its bytes when we pass it in as an input dependency
+        ByteString bs = VoltTableTransport.toByteString(this.table, null, true);
+        VoltTable vt = VoltTableTransport.toVoltTable(bs, true);
+        int depId = 1234;
+        ExecutionEngine ee = new MockExecutionEngine();
+        ee.stashDependency(depId, vt);
+
+        byte bytes[] = ee.nextDependencyAsBytes(depId);
+        assertNotNull(bytes);
+        assertEquals(bs.size(), bytes.length);
+        this.checkTable(PrivateVoltTableFactory.createVoltTableFromBuffer(ByteBuffer.wrap(bytes), true));
+        assertNull(ee.nextDependencyAsBytes(depId));
+    }
+}
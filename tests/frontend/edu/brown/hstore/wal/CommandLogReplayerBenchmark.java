@@ -0,0 +1,204 @@
+package edu.brown.hstore.wal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.CompressionService;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+import edu.brown.utils.FileUtil;
+
+/**
+ * Japex drivers that compare reading a group commit log back with the sequential
+ * CommandLogReader against replaying it with the CommandLogReplayer. Every run
+ * goes through the same log of NUM_ENTRIES entries, so the entries/sec for each
+ * driver is NUM_ENTRIES times the number of runs per second.
+ */
+public abstract class CommandLogReplayerBenchmark extends JapexDriverBase {
+    public static final int NUM_ENTRIES = 100000;
+    private static final int NUM_PARTITIONS = 8;
+    private static final int BLOCK_SIZE = 50;
+    private static final int MULTIPARTITION_RATIO = 100;
+
+    protected final AtomicLong replayed = new AtomicLong(0);
+    protected final CommandLogReplayer.Handler handler = new CommandLogReplayer.Handler() {
+        @Override
+        public void replay(LogEntry entry) {
+            replayed.incrementAndGet();
+        }
+    };
+    protected CommandLogReader reader;
+    private File outputFile;
+
+    /**
+     * Write out a segmented group commit log. Each record is a compressed block of
+     * blockSize entries for a single partition, and we cycle through the partitions
+     * in order. Every mpRatio-th entry is marked as multi-partitioned.
+     * Returns the list of entries in the order that they were written.
+     * @param outputFile
+     * @param num_entries
+     * @param num_partitions
+     * @param blockSize
+     * @param mpRatio
+     * @return
+     * @throws IOException
+     */
+    public static List<LogEntry> writeLog(File outputFile, int num_entries, int num_partitions, int blockSize, int mpRatio) throws IOException {
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        List<List<LogEntry>> records = new ArrayList<List<LogEntry>>();
+        long txnId = 1000;
+        int partition = 0;
+        while (entries.size() < num_entries) {
+            List<LogEntry> record = new ArrayList<LogEntry>();
+            for (int i = 0; i < blockSize && entries.size() < num_entries; i++) {
+                LogEntry entry = makeEntry(txnId++, partition, (entries.size() % mpRatio != mpRatio - 1));
+                record.add(entry);
+                entries.add(entry);
+            } // FOR
+            records.add(record);
+            partition = (partition + 1) % num_partitions;
+        } // WHILE
+        writeLog(outputFile, records);
+        return (entries);
+    }
+
+    /**
+     * Write out a segmented group commit log where each list of entries
+     * is compressed into a separate record
+     * @param outputFile
+     * @param records
+     * @throws IOException
+     */
+    public static void writeLog(File outputFile, List<List<LogEntry>> records) throws IOException {
+        List<LogSegment> segments = new ArrayList<LogSegment>();
+
+        FastSerializer fs = new FastSerializer();
+        CommandLogWriter.writeHeader(fs, true, Collections.<Procedure>emptyList());
+        ByteBuffer header = fs.getBuffer();
+
+        LogSegment segment = null;
+        for (List<LogEntry> entries : records) {
+            fs = new FastSerializer();
+            long maxTxnId = -1;
+            for (LogEntry entry : entries) {
+                fs.writeObject(entry);
+                maxTxnId = Math.max(maxTxnId, entry.getTransactionId().longValue());
+            } // FOR
+            ByteBuffer record = compress(fs);
+            if (segment == null || segment.hasRoom(record.remaining()) == false) {
+                if (segment != null) segment.close();
+                segment = LogSegment.create(outputFile, segments.size(), 1048576);
+                segment.writeHeader(header.duplicate());
+                segments.add(segment);
+            }
+            segment.append(record, maxTxnId);
+        } // FOR
+        segment.force();
+        segment.close();
+        LogSegment.writeIndex(outputFile, segments);
+    }
+
+    /**
+     * Create a LogEntry for a fake txn
+     * @param txnId
+     * @param partition
+     * @param singlePartitioned
+     * @return
+     */
+    public static LogEntry makeEntry(long txnId, int partition, boolean singlePartitioned) {
+        LogEntry entry = new LogEntry();
+        entry.txnId = Long.valueOf(txnId);
+        entry.basePartition = partition;
+        entry.singlePartitioned = singlePartitioned;
+        entry.procId = 1;
+        entry.procParams = new ParameterSet(new Object[]{ entry.txnId, "ABCDEF" });
+        return (entry);
+    }
+
+    /**
+     * Compress everything in the serializer into a record with its length in front
+     * @param fs
+     * @return
+     * @throws IOException
+     */
+    public static ByteBuffer compress(FastSerializer fs) throws IOException {
+        ByteBuffer b = fs.getBBContainer().b;
+        byte compressed[] = CompressionService.compressBytes(b.array(), b.arrayOffset() + b.position(), b.remaining());
+        ByteBuffer record = ByteBuffer.allocate(4 + compressed.length);
+        record.putInt(compressed.length);
+        record.put(compressed);
+        record.flip();
+        return (record);
+    }
+
+    /**
+     * Remove all of the files for a log written by writeLog()
+     * @param outputFile
+     * @throws IOException
+     */
+    public static void deleteLog(File outputFile) throws IOException {
+        List<File> segments = LogSegment.readIndex(outputFile);
+        if (segments != null) {
+            for (File f : segments) f.delete();
+            LogSegment.getIndexFile(outputFile).delete();
+        }
+        if (outputFile.exists()) outputFile.delete();
+    }
+
+    @Override
+    public void initializeDriver() {
+        this.outputFile = FileUtil.getTempFile("log");
+        try {
+            writeLog(this.outputFile, NUM_ENTRIES, NUM_PARTITIONS, BLOCK_SIZE, MULTIPARTITION_RATIO);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        this.reader = new CommandLogReader(this.outputFile.getAbsolutePath());
+    }
+
+    @Override
+    public void terminateDriver() {
+        try {
+            deleteLog(this.outputFile);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static class SequentialReader extends CommandLogReplayerBenchmark {
+        @Override
+        public void run(TestCase testCase) {
+            for (LogEntry entry : this.reader) {
+                this.handler.replay(entry);
+            } // FOR
+        }
+    }
+
+    public static class ParallelReplayer extends CommandLogReplayerBenchmark {
+        private CommandLogReplayer replayer;
+
+        @Override
+        public void prepare(TestCase testCase) {
+            this.replayer = new CommandLogReplayer(this.reader, Runtime.getRuntime().availableProcessors());
+        }
+
+        @Override
+        public void run(TestCase testCase) {
+            try {
+                this.replayer.replay(this.handler);
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package edu.brown.hstore.wal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.TransactionIdManager;
+import org.voltdb.messaging.FastSerializer;
+
+import edu.brown.utils.FileUtil;
+
+public class TestCommandLogReplayer extends TestCase {
+
+    private static final int NUM_ENTRIES = 2000;
+    private static final int NUM_PARTITIONS = 4;
+    private static final int BLOCK_SIZE = 10;
+    private static final int MULTIPARTITION_RATIO = 50;
+
+    private File outputFile;
+    private List<LogEntry> expected;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.outputFile = FileUtil.getTempFile("log");
+        this.expected = CommandLogReplayerBenchmark.writeLog(this.outputFile, NUM_ENTRIES, NUM_PARTITIONS,
+                                                              BLOCK_SIZE, MULTIPARTITION_RATIO);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CommandLogReplayerBenchmark.deleteLog(this.outputFile);
+    }
+
+    /**
+     * testSequentialReader
+     */
+    public void testSequentialReader() throws Exception {
+        CommandLogReader reader = new CommandLogReader(this.outputFile.getAbsolutePath());
+        assertTrue(reader.isGroupCommit());
+        int ctr = 0;
+        for (LogEntry entry : reader) {
+            LogEntry expected = this.expected.get(ctr++);
+            assertEquals(expected.getTransactionId(), entry.getTransactionId());
+            assertEquals(expected.getBasePartition(), entry.getBasePartition());
+            assertEquals(expected.isSinglePartitioned(), entry.isSinglePartitioned());
+        } // FOR
+        assertEquals(NUM_ENTRIES, ctr);
+    }
+
+    /**
+     * testReplay
+     */
+    public void testReplay() throws Exception {
+        final Map<Integer, List<Long>> partitionTxns = new HashMap<Integer, List<Long>>();
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            partitionTxns.put(p, Collections.synchronizedList(new ArrayList<Long>()));
+        } // FOR
+        final List<Long> allTxns = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger barrierViolations = new AtomicInteger(0);
+
+        CommandLogReader reader = new CommandLogReader(this.outputFile.getAbsolutePath());
+        CommandLogReplayer replayer = new CommandLogReplayer(reader, 4);
+        long replayed = replayer.replay(new CommandLogReplayer.Handler() {
+            @Override
+            public void replay(LogEntry entry) {
+                if (entry.isSinglePartitioned()) {
+                    running.incrementAndGet();
+                    partitionTxns.get(entry.getBasePartition()).add(entry.getTransactionId());
+                    running.decrementAndGet();
+                } else if (running.get() != 0) {
+                    barrierViolations.incrementAndGet();
+                }
+                allTxns.add(entry.getTransactionId());
+            }
+        });
+        assertEquals(NUM_ENTRIES, replayed);
+        assertEquals(NUM_ENTRIES, allTxns.size());
+        assertEquals(0, barrierViolations.get());
+
+        // Every partition has to see its entries in the same order as the log,
+        // and nothing can be replayed before the multi-partition txn in front of it
+        Map<Integer, List<Long>> expectedTxns = new HashMap<Integer, List<Long>>();
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            expectedTxns.put(p, new ArrayList<Long>());
+        } // FOR
+        Long lastMulti = null;
+        for (LogEntry entry : this.expected) {
+            if (entry.isSinglePartitioned()) {
+                expectedTxns.get(entry.getBasePartition()).add(entry.getTransactionId());
+                if (lastMulti != null) {
+                    assertTrue(allTxns.indexOf(lastMulti) < allTxns.indexOf(entry.getTransactionId()));
+                }
+            } else {
+                lastMulti = entry.getTransactionId();
+            }
+        } // FOR
+        assertEquals(expectedTxns, partitionTxns);
+
+        // We should be able to replay the same log again
+        replayed = replayer.replay(new CommandLogReplayer.Handler() {
+            @Override
+            public void replay(LogEntry entry) {
+                // Nothing to do...
+            }
+        });
+        assertEquals(NUM_ENTRIES, replayed);
+    }
+
+    /**
+     * testBackpressure
+     */
+    public void testBackpressure() throws Exception {
+        // Two partitions without any multi-partition txns, so nothing but
+        // the bounded queues can hold back the dispatcher
+        final int num_entries = 4000;
+        File logFile = FileUtil.getTempFile("log");
+        CommandLogReplayerBenchmark.writeLog(logFile, num_entries, 2, BLOCK_SIZE, Integer.MAX_VALUE);
+        try {
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final AtomicInteger partition1 = new AtomicInteger(0);
+            final CommandLogReplayer replayer = new CommandLogReplayer(new CommandLogReader(logFile.getAbsolutePath()), 1);
+            final AtomicLong replayed = new AtomicLong(-1);
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        replayed.set(replayer.replay(new CommandLogReplayer.Handler() {
+                            @Override
+                            public void replay(LogEntry entry) {
+                                if (entry.getBasePartition() == 0) {
+                                    try {
+                                        blocked.await();
+                                    } catch (InterruptedException ex) {
+                                        throw new RuntimeException(ex);
+                                    }
+                                } else {
+                                    partition1.incrementAndGet();
+                                }
+                            }
+                        }));
+                    } catch (InterruptedException ex) {
+                        // Ignore
+                    }
+                }
+            };
+            t.start();
+
+            // Wait until partition 1 stops making progress. The dispatcher
+            // should be stuck on partition 0's full queue long before the end
+            int last = -1;
+            while (last != partition1.get()) {
+                last = partition1.get();
+                Thread.sleep(200);
+            } // WHILE
+            assertTrue(Integer.toString(last), last < num_entries / 2);
+            assertEquals(-1, replayed.get());
+
+            blocked.countDown();
+            t.join(TimeUnit.SECONDS.toMillis(30));
+            assertEquals(num_entries, replayed.get());
+            assertEquals(num_entries / 2, partition1.get());
+        } finally {
+            CommandLogReplayerBenchmark.deleteLog(logFile);
+        }
+    }
+
+    /**
+     * testReplayError
+     */
+    public void testReplayError() throws Exception {
+        CommandLogReader reader = new CommandLogReader(this.outputFile.getAbsolutePath());
+        CommandLogReplayer replayer = new CommandLogReplayer(reader, 2);
+        try {
+            replayer.replay(new CommandLogReplayer.Handler() {
+                @Override
+                public void replay(LogEntry entry) {
+                    if (entry.getBasePartition() == 1) throw new IllegalStateException("Fake error");
+                }
+            });
+            fail("Expected replay to fail");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * testReplayInterleavedBatch
+     */
+    public void testReplayInterleavedBatch() throws Exception {
+        // Each group commit batch has one record per partition, so partition 0's
+        // later txns come before the multi-partition txn at partition 1 in the file
+        List<List<LogEntry>> records = new ArrayList<List<LogEntry>>();
+        records.add(Arrays.asList(CommandLogReplayerBenchmark.makeEntry(1001, 0, true),
+                                  CommandLogReplayerBenchmark.makeEntry(1004, 0, true)));
+        records.add(Arrays.asList(CommandLogReplayerBenchmark.makeEntry(1002, 1, true),
+                                  CommandLogReplayerBenchmark.makeEntry(1003, 1, false),
+                                  CommandLogReplayerBenchmark.makeEntry(1005, 1, true)));
+        records.add(Arrays.asList(CommandLogReplayerBenchmark.makeEntry(1006, 0, true)));
+        records.add(Arrays.asList(CommandLogReplayerBenchmark.makeEntry(1007, 1, false)));
+        File logFile = FileUtil.getTempFile("log");
+        CommandLogReplayerBenchmark.writeLog(logFile, records);
+        try {
+            final List<Long> allTxns = Collections.synchronizedList(new ArrayList<Long>());
+            CommandLogReplayer replayer = new CommandLogReplayer(new CommandLogReader(logFile.getAbsolutePath()), 2);
+            long replayed = replayer.replay(new CommandLogReplayer.Handler() {
+                @Override
+                public void replay(LogEntry entry) {
+                    allTxns.add(entry.getTransactionId());
+                }
+            });
+            assertEquals(7, replayed);
+            assertEquals(7, allTxns.size());
+            
+            int multi = allTxns.indexOf(1003L);
+            for (long txnId = 1001; txnId <= 1007; txnId++) {
+                int idx = allTxns.indexOf(txnId);
+                assertTrue(Long.toString(txnId), idx >= 0);
+                if (txnId < 1003) assertTrue(allTxns.toString(), idx < multi);
+                if (txnId > 1003) assertTrue(allTxns.toString(), idx > multi);
+            } // FOR
+            assertEquals(Long.valueOf(1007L), allTxns.get(allTxns.size()-1));
+        } finally {
+            CommandLogReplayerBenchmark.deleteLog(logFile);
+        }
+    }
+
+    /**
+     * testReplayLegacyLog
+     */
+    public void testReplayLegacyLog() throws Exception {
+        for (boolean groupCommit : new boolean[]{ false, true }) {
+            List<Long> txnIds = new ArrayList<Long>();
+            for (int i = 0; i < 20; i++) {
+                txnIds.add(TransactionIdManager.makeIdFromComponents(TransactionIdManager.getEpoch() + 1000 + i, 0, i % 2));
+            } // FOR
+            File logFile = FileUtil.getTempFile("log");
+            this.writeLegacyLog(logFile, groupCommit, txnIds);
+            try {
+                CommandLogReader reader = new CommandLogReader(logFile.getAbsolutePath());
+                assertEquals(LogEntry.LEGACY_VERSION, reader.getVersion());
+                assertEquals(groupCommit, reader.isGroupCommit());
+                assertEquals("LegacyProc", reader.getProcedures().get(1));
+                
+                final List<LogEntry> entries = Collections.synchronizedList(new ArrayList<LogEntry>());
+                long replayed = new CommandLogReplayer(reader, 2).replay(new CommandLogReplayer.Handler() {
+                    @Override
+                    public void replay(LogEntry entry) {
+                        entries.add(entry);
+                    }
+                });
+                assertEquals(txnIds.size(), replayed);
+                assertEquals(txnIds.size(), entries.size());
+                for (int i = 0; i < txnIds.size(); i++) {
+                    LogEntry entry = entries.get(i);
+                    assertEquals(txnIds.get(i), entry.getTransactionId());
+                    assertEquals(i % 2, entry.getBasePartition());
+                    assertFalse(entry.isSinglePartitioned());
+                    assertEquals(1, entry.getProcedureId());
+                    assertEquals(txnIds.get(i), entry.getProcedureParams().toArray()[0]);
+                } // FOR
+            } finally {
+                logFile.delete();
+            }
+        } // FOR
+    }
+
+    /**
+     * Write out a single log file the same way that the CommandLogWriter did
+     * before LogEntries had a version. Group commit logs have all of the entries 
+     * in one compressed block.
+     */
+    private void writeLegacyLog(File logFile, boolean groupCommit, List<Long> txnIds) throws Exception {
+        FastSerializer fs = new FastSerializer();
+        fs.writeBoolean(groupCommit);
+        fs.writeInt(1);
+        fs.writeInt(1);
+        fs.writeString("LegacyProc");
+        ByteBuffer header = fs.getBuffer();
+        
+        fs = new FastSerializer();
+        for (Long txnId : txnIds) {
+            fs.writeLong(txnId.longValue());
+            fs.writeLong(System.currentTimeMillis());
+            fs.writeInt(1);
+            fs.writeObject(new ParameterSet(new Object[]{ txnId, "ABCDEF" }));
+        } // FOR
+        ByteBuffer body = (groupCommit ? CommandLogReplayerBenchmark.compress(fs) : fs.getBuffer());
+        
+        FileOutputStream out = new FileOutputStream(logFile);
+        try {
+            out.getChannel().write(header);
+            out.getChannel().write(body);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -26,7 +26,11 @@
 package edu.brown.hstore.wal;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
@@ -35,6 +39,8 @@ import org.voltdb.VoltProcedure;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
 
+import com.google.protobuf.RpcCallback;
+
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
 import edu.brown.catalog.CatalogUtil;
@@ -57,6 +63,7 @@ public class TestCommandLogger extends BaseTestCase {
     static final int BASE_PARTITION = 0;
     static final Class<? extends VoltProcedure> TARGET_PROC = UpdateLocation.class;
     static final Object TARGET_PARAMS[] = new Object[]{ 12345l, "ABCDEF" };
+    static final long SEGMENT_SIZE = 1048576; // 1MB
     
     HStoreSite hstore_site; 
     CommandLogWriter logger;
@@ -75,18 +82,25 @@ public class TestCommandLogger extends BaseTestCase {
         hstore_site = new MockHStoreSite(catalog_site, hstore_conf);
         
         outputFile = FileUtil.getTempFile("log");
-        logger = new CommandLogWriter(hstore_site, outputFile);
+        logger = new CommandLogWriter(hstore_site, outputFile, SEGMENT_SIZE);
     }
 
     @Override
     public void tearDown() throws Exception {
-        if (outputFile != null && outputFile.exists())
-            outputFile.delete();
+        if (outputFile != null) {
+            List<File> segments = LogSegment.readIndex(outputFile);
+            if (segments != null) {
+                for (File f : segments) f.delete();
+                LogSegment.getIndexFile(outputFile).delete();
+            }
+            if (outputFile.exists()) outputFile.delete();
+        }
     }
     
-    @Test
-    public void testSimpleTest() {
-        // Write out a new txn invocation to the log
+    /**
+     * Write out a new txn invocation to the log and return its txnId
+     */
+    private long writeEntry() {
         LocalTransaction ts = new LocalTransaction(hstore_site);
         long txnId = TXN_ID.incrementAndGet(); 
         ts.testInit(new Long(txnId),
@@ -102,6 +116,12 @@ public class TestCommandLogger extends BaseTestCase {
                                                               "");
         boolean ret = logger.appendToLog(ts, cresponse);
         assertTrue(ret);
+        return (txnId);
+    }
+    
+    @Test
+    public void testSimpleTest() {
+        long txnId = this.writeEntry();
         logger.shutdown(); // This closes the file
         
         // Now read in the file back in and check to see that we have one
@@ -126,7 +146,115 @@ public class TestCommandLogger extends BaseTestCase {
     }
     
     @Test
-    public void testSiteWithGroupCommitTest() {
+    public void testSegmentRollover() throws Exception {
+        // Use tiny segments so that we have to roll over a bunch of times
+        logger.shutdown();
+        logger = new CommandLogWriter(hstore_site, outputFile, 4096);
+        
+        int num_entries = 500;
+        long txnIds[] = new long[num_entries];
+        for (int i = 0; i < num_entries; i++) {
+            txnIds[i] = this.writeEntry();
+        } // FOR
+        
+        List<LogSegment> segments = logger.getSegments();
+        assertTrue(segments.toString(), segments.size() > 1);
+        for (LogSegment s : segments) {
+            assertTrue(s.toString(), s.getPosition() <= s.getCapacity());
+            assertEquals(4096, s.getFile().length());
+        } // FOR
         
+        // Truncating should remove all of the segments whose txns come
+        // before the first txn in the last segment
+        long lastMaxTxnId = segments.get(segments.size()-2).getMaxTxnId();
+        int removed = logger.truncate(lastMaxTxnId + 1);
+        assertEquals(segments.size() - 1, removed);
+        assertEquals(1, logger.getSegments().size());
+        assertFalse(segments.get(0).getFile().exists());
+        logger.shutdown();
+        
+        // Everything that's left should come back out in order
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        long expected = lastMaxTxnId + 1;
+        for (LogEntry entry : reader) {
+            assertEquals(expected++, entry.txnId.longValue());
+            assertEquals(catalog_proc.getId(), entry.procId);
+        } // FOR
+        assertEquals(txnIds[num_entries-1] + 1, expected);
+    }
+    
+    @Test
+    public void testSiteWithGroupCommitTest() throws Exception {
+        this.runGroupCommit(false);
+    }
+    
+    @Test
+    public void testAdaptiveGroupCommit() throws Exception {
+        this.runGroupCommit(true);
+    }
+    
+    private void runGroupCommit(boolean adaptive) throws Exception {
+        final int num_entries = 10;
+        final CountDownLatch latch = new CountDownLatch(num_entries);
+        final List<Long> responses = Collections.synchronizedList(new ArrayList<Long>());
+        logger.shutdown();
+        hstore_site = new MockHStoreSite(hstore_site.getSite(), hstore_site.getHStoreConf()) {
+            @Override
+            public void sendClientResponse(ClientResponseImpl cresponse, RpcCallback<byte[]> clientCallback, long initiateTime, int restartCounter) {
+                responses.add(cresponse.getTransactionId());
+                latch.countDown();
+            }
+        };
+        HStoreConf hstore_conf = hstore_site.getHStoreConf();
+        hstore_conf.site.exec_command_logging_group_commit = 4;
+        hstore_conf.site.exec_command_logging_group_commit_timeout = 100;
+        hstore_conf.site.exec_command_logging_group_commit_adaptive = adaptive;
+        try {
+            logger = new CommandLogWriter(hstore_site, outputFile, SEGMENT_SIZE);
+            GroupCommitController controller = logger.getGroupCommitController();
+            assertNotNull(controller);
+            assertEquals(adaptive, controller.isAdaptive());
+            
+            // The writer thread should send out all of the responses after they are written.
+            // The last two entries will only get flushed once the group commit times out
+            long txnIds[] = new long[num_entries];
+            for (int i = 0; i < num_entries; i++) {
+                LocalTransaction ts = new LocalTransaction(hstore_site);
+                txnIds[i] = TXN_ID.incrementAndGet();
+                ts.testInit(new Long(txnIds[i]),
+                            BASE_PARTITION,
+                            Collections.singleton(BASE_PARTITION),
+                            catalog_proc,
+                            TARGET_PARAMS);
+                ClientResponseImpl cresponse = new ClientResponseImpl(txnIds[i],
+                                                                      12345l,
+                                                                      BASE_PARTITION,
+                                                                      Status.OK,
+                                                                      HStoreConstants.EMPTY_RESULT,
+                                                                      "");
+                assertFalse(logger.appendToLog(ts, cresponse));
+            } // FOR
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(num_entries, responses.size());
+            assertTrue(controller.getSyncCount() > 0);
+            assertTrue(controller.getBatchSize() <= controller.getMaxBatchSize());
+            logger.prepareShutdown(false);
+            logger.shutdown();
+            
+            CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+            int ctr = 0;
+            for (LogEntry entry : reader) {
+                assertEquals(txnIds[ctr], entry.txnId.longValue());
+                assertEquals(catalog_proc.getId(), entry.procId);
+                Object[] entryParams = entry.procParams.toArray();
+                assertEquals(TARGET_PARAMS.length, entryParams.length);
+                ctr++;
+            } // FOR
+            assertEquals(num_entries, ctr);
+        } finally {
+            hstore_conf.site.exec_command_logging_group_commit = 0;
+            hstore_conf.site.exec_command_logging_group_commit_timeout = 1000;
+            hstore_conf.site.exec_command_logging_group_commit_adaptive = false;
+        }
     }
 }
@@ -0,0 +1,47 @@
+package edu.brown.hstore.wal;
+
+import junit.framework.TestCase;
+
+public class TestGroupCommitController extends TestCase {
+
+    private static final int MAX_SIZE = 100;
+
+    /**
+     * testStatic
+     */
+    public void testStatic() throws Exception {
+        GroupCommitController controller = new GroupCommitController(1, MAX_SIZE, false);
+        assertEquals(MAX_SIZE, controller.getBatchSize());
+        controller.recordBatch(10, 1000000l);
+        controller.recordSync(10000000l);
+        assertEquals(MAX_SIZE, controller.getBatchSize());
+        assertEquals(1, controller.getSyncCount());
+    }
+
+    /**
+     * testAdaptive
+     */
+    public void testAdaptive() throws Exception {
+        GroupCommitController controller = new GroupCommitController(1, MAX_SIZE, true);
+        assertEquals(1, controller.getBatchSize());
+
+        // One entry arrives every 0.1ms and the disk takes 2ms to sync,
+        // so we want to collect 20 entries per batch
+        controller.recordBatch(10, 1000000l);
+        controller.recordSync(2000000l);
+        assertEquals(20, controller.getBatchSize());
+        assertEquals(2.0, controller.getAverageSyncTime(), 0.001);
+
+        // If the disk gets really slow, then we should never go past the max
+        for (int i = 0; i < 100; i++) {
+            controller.recordSync(1000000000l);
+        } // FOR
+        assertEquals(MAX_SIZE, controller.getBatchSize());
+
+        // And if it becomes really fast, then we should go back down to one
+        for (int i = 0; i < 100; i++) {
+            controller.recordSync(1000l);
+        } // FOR
+        assertEquals(1, controller.getBatchSize());
+    }
+}
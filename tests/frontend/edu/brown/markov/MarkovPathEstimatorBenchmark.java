@@ -0,0 +1,132 @@
+package edu.brown.markov;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.Procedure;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.mappings.ParameterMappingsSet;
+import edu.brown.markov.containers.MarkovGraphContainersUtil;
+import edu.brown.markov.containers.MarkovGraphsContainer;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.TransactionTrace;
+import edu.brown.workload.Workload;
+import edu.brown.workload.filters.BasePartitionTxnFilter;
+import edu.brown.workload.filters.Filter;
+import edu.brown.workload.filters.NoAbortFilter;
+import edu.brown.workload.filters.ProcedureLimitFilter;
+import edu.brown.workload.filters.ProcedureNameFilter;
+
+/**
+ * Japex drivers that compare the MarkovPathEstimator walking the MarkovGraph
+ * directly against walking its CompiledMarkovGraph. Each run estimates the
+ * path of every TPC-C neworder trace in the workload, so the estimates/sec for
+ * each driver is the number of traces times the number of runs per second.
+ * See ${site.markov_compiled_graphs}
+ */
+public abstract class MarkovPathEstimatorBenchmark extends JapexDriverBase {
+    private static final int WORKLOAD_XACT_LIMIT = 100;
+    private static final int BASE_PARTITION = 1;
+    private static final int NUM_PARTITIONS = 10;
+
+    private final MarkovPathEstimator estimator = new MarkovPathEstimator(NUM_PARTITIONS);
+    private final List<Object[]> params = new ArrayList<Object[]>();
+    private MarkovGraph markov;
+    private TransactionEstimator t_estimator;
+    private boolean orig_compiled;
+    protected int checksum = 0;
+
+    protected abstract boolean useCompiledGraphs();
+
+    /**
+     * Loads the catalog, workload, and MarkovGraphs the same way that
+     * TestMarkovPathEstimator does.
+     */
+    private static class Loader extends BaseTestCase {
+        private MarkovGraph markov;
+        private TransactionEstimator t_estimator;
+        private final List<Object[]> params = new ArrayList<Object[]>();
+
+        private void load() throws Exception {
+            super.setUp(ProjectType.TPCC);
+            this.addPartitions(NUM_PARTITIONS);
+            Procedure catalog_proc = this.getProcedure(neworder.class);
+
+            File file = this.getParameterMappingsFile(ProjectType.TPCC);
+            ParameterMappingsSet correlations = new ParameterMappingsSet();
+            correlations.load(file.getAbsolutePath(), catalog_db);
+
+            Filter filter = new ProcedureNameFilter(false)
+                  .include(neworder.class.getSimpleName())
+                  .attach(new NoAbortFilter())
+                  .attach(new BasePartitionTxnFilter(p_estimator, BASE_PARTITION))
+                  .attach(new ProcedureLimitFilter(WORKLOAD_XACT_LIMIT));
+            file = this.getWorkloadFile(ProjectType.TPCC);
+            Workload workload = new Workload(catalog);
+            workload.load(file.getAbsolutePath(), catalog_db, filter);
+
+            MarkovGraphsContainer markovs = MarkovGraphContainersUtil.createBasePartitionMarkovGraphsContainer(catalog_db, workload, p_estimator);
+            this.markov = markovs.get(BASE_PARTITION, catalog_proc);
+            this.t_estimator = new TransactionEstimator(p_estimator, correlations, markovs);
+            for (TransactionTrace xact : workload.getTransactions()) {
+                this.params.add(xact.getParams());
+            } // FOR
+        }
+    }
+
+    @Override
+    public void initializeDriver() {
+        Loader loader = new Loader();
+        try {
+            loader.load();
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        this.markov = loader.markov;
+        this.t_estimator = loader.t_estimator;
+        this.params.addAll(loader.params);
+        assert(this.params.isEmpty() == false);
+
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        this.orig_compiled = hstore_conf.site.markov_compiled_graphs;
+        hstore_conf.site.markov_compiled_graphs = this.useCompiledGraphs();
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        MarkovVertex start = this.markov.getStartVertex();
+        for (Object args[] : this.params) {
+            this.estimator.init(this.markov, this.t_estimator, BASE_PARTITION, args);
+            this.estimator.enableForceTraversal(true);
+            this.estimator.traverse(start);
+            this.checksum += this.estimator.getVisitPath().size();
+            this.estimator.finish();
+        } // FOR
+    }
+
+    @Override
+    public void terminateDriver() {
+        HStoreConf.singleton().site.markov_compiled_graphs = this.orig_compiled;
+    }
+
+    public static class Walker extends MarkovPathEstimatorBenchmark {
+        @Override
+        protected boolean useCompiledGraphs() {
+            return (false);
+        }
+    }
+
+    public static class Compiled extends MarkovPathEstimatorBenchmark {
+        @Override
+        protected boolean useCompiledGraphs() {
+            return (true);
+        }
+    }
+}
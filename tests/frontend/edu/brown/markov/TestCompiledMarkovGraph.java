@@ -0,0 +1,144 @@
+package edu.brown.markov;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.ProjectType;
+
+public class TestCompiledMarkovGraph extends BaseTestCase {
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_VERTICES = 6;
+
+    private Procedure catalog_proc;
+    private Statement catalog_stmt;
+    private MarkovGraph markov;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+        this.catalog_proc = this.getProcedure(neworder.class);
+        this.catalog_stmt = CollectionUtil.first(this.catalog_proc.getStatements());
+
+        // START -> QUERY[i] -> COMMIT
+        // The START vertex goes to the lower partitions more often
+        // Each QUERY vertex needs its own counter+partitions, otherwise findEdge() can't tell them apart
+        this.markov = new MarkovGraph(this.catalog_proc).initialize();
+        MarkovVertex start = this.markov.getStartVertex();
+        MarkovVertex commit = this.markov.getCommitVertex();
+        for (int i = 0; i < NUM_VERTICES; i++) {
+            Set<Integer> partitions = new HashSet<Integer>();
+            partitions.add(i % NUM_PARTITIONS);
+            MarkovVertex v = new MarkovVertex(this.catalog_stmt, MarkovVertex.Type.QUERY, i / NUM_PARTITIONS, partitions, new HashSet<Integer>());
+            this.markov.addVertex(v);
+            MarkovEdge e0 = this.markov.addToEdge(start, v);
+            MarkovEdge e1 = this.markov.addToEdge(v, commit);
+            for (int j = 0; j < NUM_VERTICES - i; j++) {
+                start.incrementInstanceHits();
+                v.incrementInstanceHits();
+                commit.incrementInstanceHits();
+                e0.incrementInstanceHits();
+                e1.incrementInstanceHits();
+            } // FOR
+        } // FOR
+        this.markov.calculateProbabilities();
+    }
+
+    /**
+     * testEdges
+     */
+    public void testEdges() throws Exception {
+        CompiledMarkovGraph compiled = this.markov.getCompiled();
+        assertNotNull(compiled);
+        assertEquals(NUM_VERTICES, compiled.getMaxOutDegree());
+
+        for (MarkovVertex v : this.markov.getVertices()) {
+            int v_idx = compiled.getVertexIndex(v);
+            assert(v_idx >= 0) : v;
+            assertSame(v, compiled.getVertex(v_idx));
+
+            // The edges should be the same as in the graph, with the most likely one first
+            Set<MarkovEdge> expected = new HashSet<MarkovEdge>(this.markov.getOutEdges(v));
+            Set<MarkovEdge> actual = new HashSet<MarkovEdge>();
+            float total = 0.0f;
+            for (int pos = compiled.getEdgeStart(v_idx), end = compiled.getEdgeEnd(v_idx); pos < end; pos++) {
+                MarkovEdge e = compiled.getEdge(pos);
+                assertSame(this.markov.getDest(e), compiled.getEdgeDest(pos));
+                assertEquals(e.getProbability(), compiled.getEdgeProbability(pos));
+                if (pos > compiled.getEdgeStart(v_idx)) {
+                    assert(compiled.getEdgeProbability(pos - 1) >= compiled.getEdgeProbability(pos));
+                }
+                actual.add(e);
+                total += e.getProbability();
+            } // FOR
+            assertEquals(expected, actual);
+            assertEquals(total, compiled.getTotalProbability(v_idx), MarkovGraph.PROBABILITY_EPSILON);
+        } // FOR
+
+        // All of the START vertex's edges go to the same Statement, so only the first one
+        // for each StatementInstanceIndex should be flagged as the first edge for that Statement
+        int start_idx = compiled.getVertexIndex(this.markov.getStartVertex());
+        int start_pos = compiled.getEdgeStart(start_idx);
+        assertTrue(compiled.isFirstStatementEdge(start_pos));
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int pos = start_pos; pos < compiled.getEdgeEnd(start_idx); pos++) {
+            boolean first = seen.add(compiled.getEdgeDest(pos).getQueryInstanceIndex());
+            assertEquals(first, compiled.isFirstStatementEdge(pos));
+        } // FOR
+        assertEquals((NUM_VERTICES - 1) / NUM_PARTITIONS + 1, seen.size());
+    }
+
+    /**
+     * testFindEdge
+     */
+    public void testFindEdge() throws Exception {
+        CompiledMarkovGraph compiled = this.markov.getCompiled();
+        MarkovVertex start = this.markov.getStartVertex();
+        int start_idx = compiled.getVertexIndex(start);
+        for (MarkovVertex v : this.markov.getSuccessors(start)) {
+            int pos = compiled.findEdge(start_idx, this.catalog_stmt, v.getPartitions(), v.getPastPartitions(), v.getQueryInstanceIndex());
+            assert(pos >= 0) : v;
+            assertSame(v, compiled.getEdgeDest(pos));
+            assertSame(this.markov.findEdge(start, v), compiled.getEdge(pos));
+        } // FOR
+
+        Set<Integer> partitions = new HashSet<Integer>();
+        partitions.add(NUM_PARTITIONS + 1);
+        assertEquals(-1, compiled.findEdge(start_idx, this.catalog_stmt, partitions, new HashSet<Integer>(), 0));
+        assertEquals(-1, compiled.findEdge(-1, this.catalog_stmt, partitions, new HashSet<Integer>(), 0));
+    }
+
+    /**
+     * testRecompile
+     */
+    public void testRecompile() throws Exception {
+        CompiledMarkovGraph compiled = this.markov.getCompiled();
+        assertSame(compiled, this.markov.getCompiled());
+
+        // Adding a new vertex and edge should not make us compile the graph again
+        Set<Integer> partitions = new HashSet<Integer>();
+        partitions.add(0);
+        partitions.add(1);
+        MarkovVertex v = new MarkovVertex(this.catalog_stmt, MarkovVertex.Type.QUERY, 0, partitions, new HashSet<Integer>());
+        this.markov.addVertex(v);
+        this.markov.addToEdge(this.markov.getStartVertex(), v);
+        assertSame(compiled, this.markov.getCompiled());
+        assertEquals(-1, compiled.getVertexIndex(v));
+        int start_idx = compiled.getVertexIndex(this.markov.getStartVertex());
+        assertEquals(-1, compiled.findEdge(start_idx, this.catalog_stmt, partitions, new HashSet<Integer>(), 0));
+
+        // But recomputing the probabilities should give us a new one
+        this.markov.calculateProbabilities();
+        CompiledMarkovGraph next = this.markov.getCompiled();
+        assertNotSame(compiled, next);
+        assert(next.getVertexIndex(v) >= 0);
+        assert(next.getVersion() > compiled.getVersion());
+        assertSame(v, next.getEdgeDest(next.findEdge(next.getVertexIndex(this.markov.getStartVertex()), this.catalog_stmt, partitions, new HashSet<Integer>(), 0)));
+    }
+}
@@ -4,9 +4,11 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.json.JSONObject;
 import org.junit.Before;
@@ -233,7 +235,166 @@ public class TestMarkovGraph extends BaseTestCase {
         testGraph.validate();
     }
 
-        
+    /**
+     * testIncrementInstanceHits
+     */
+    @Test
+    public void testIncrementInstanceHits() throws Exception {
+        final int num_threads = 4;
+        final int num_txns = 1000;
+
+        final MarkovGraph testGraph = new MarkovGraph(this.catalog_proc);
+        testGraph.initialize();
+        MarkovVertex start = testGraph.getStartVertex();
+        MarkovVertex stop = testGraph.getCommitVertex();
+
+        Statement catalog_stmt = CollectionUtil.first(this.catalog_proc.getStatements());
+        Set<Integer> partitions = new HashSet<Integer>();
+        partitions.add(BASE_PARTITION);
+        MarkovVertex current = new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, 0, partitions, new HashSet<Integer>());
+        testGraph.addVertex(current);
+
+        final List<MarkovVertex> path = new ArrayList<MarkovVertex>();
+        path.add(start);
+        path.add(current);
+        path.add(stop);
+        final List<MarkovEdge> path_edges = new ArrayList<MarkovEdge>();
+        path_edges.add(testGraph.addToEdge(start, current));
+        path_edges.add(testGraph.addToEdge(current, stop));
+
+        // Have a bunch of threads update the counters at the same time and make
+        // sure that we don't lose any of them
+        Thread threads[] = new Thread[num_threads];
+        for (int i = 0; i < num_threads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < num_txns; j++) {
+                        testGraph.incrementInstanceHits(path, path_edges);
+                    } // FOR
+                }
+            };
+            threads[i].start();
+        } // FOR
+        for (Thread t : threads) t.join();
+
+        for (MarkovVertex v : path) {
+            assertEquals(v.toString(), num_threads * num_txns, v.getInstanceHits());
+        } // FOR
+        for (MarkovEdge e : path_edges) {
+            assertEquals(e.toString(), num_threads * num_txns, e.getInstanceHits());
+        } // FOR
+
+        // Only the first caller should be told to recompute the graph
+        assertTrue(testGraph.markRecomputePending());
+        assertFalse(testGraph.markRecomputePending());
+        int recompute_count = testGraph.getRecomputeCount();
+        testGraph.calculateProbabilities();
+        assertEquals(recompute_count + 1, testGraph.getRecomputeCount());
+        assertTrue(testGraph.markRecomputePending());
+
+        for (MarkovVertex v : path) {
+            assertEquals(v.toString(), 0, v.getInstanceHits());
+            assertEquals(v.toString(), num_threads * num_txns, v.getTotalHits());
+        } // FOR
+        testGraph.validate();
+    }
+
+    /**
+     * testConcurrentRecompute
+     */
+    @Test
+    public void testConcurrentRecompute() throws Exception {
+        final int num_vertices = 10;
+        final int num_recomputes = 50;
+        final int num_new_vertices = 200;
+
+        // START -> QUERY[i] -> COMMIT
+        final MarkovGraph testGraph = new MarkovGraph(this.catalog_proc);
+        testGraph.initialize();
+        final MarkovVertex start = testGraph.getStartVertex();
+        final MarkovVertex commit = testGraph.getCommitVertex();
+        final Statement catalog_stmt = CollectionUtil.first(this.catalog_proc.getStatements());
+        final List<MarkovVertex> vertices = new ArrayList<MarkovVertex>();
+        for (int i = 0; i < num_vertices; i++) {
+            Set<Integer> partitions = new HashSet<Integer>();
+            partitions.add(i % NUM_PARTITIONS);
+            MarkovVertex v = new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, i, partitions, new HashSet<Integer>());
+            testGraph.addVertex(v);
+            MarkovEdge e0 = testGraph.addToEdge(start, v);
+            MarkovEdge e1 = testGraph.addToEdge(v, commit);
+            for (int j = 0; j <= i; j++) {
+                testGraph.incrementInstanceHits(CollectionUtil.addAll(new ArrayList<MarkovVertex>(), start, v, commit),
+                                                CollectionUtil.addAll(new ArrayList<MarkovEdge>(), e0, e1));
+            } // FOR
+            vertices.add(v);
+        } // FOR
+        vertices.add(start);
+        vertices.add(commit);
+        testGraph.calculateProbabilities();
+
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread threads[] = new Thread[] {
+            // Keep recomputing the graph
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < num_recomputes; i++) {
+                            testGraph.calculateProbabilities();
+                        } // FOR
+                    } catch (Throwable ex) {
+                        synchronized (errors) { errors.add(ex); }
+                    } finally {
+                        stop.set(true);
+                    }
+                }
+            },
+            // Keep adding new vertices and edges like the TransactionEstimator does
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < num_new_vertices && stop.get() == false; i++) {
+                            Set<Integer> partitions = new HashSet<Integer>();
+                            partitions.add(i % NUM_PARTITIONS);
+                            MarkovVertex v = new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, num_vertices + i, partitions, new HashSet<Integer>());
+                            testGraph.addVertex(v);
+                            testGraph.addToEdge(v, commit);
+                            testGraph.addToEdge(start, v);
+                        } // FOR
+                    } catch (Throwable ex) {
+                        synchronized (errors) { errors.add(ex); }
+                    }
+                }
+            },
+            // The probabilities of the vertices that we computed above should
+            // never be unset while the graph is being recomputed
+            new Thread() {
+                public void run() {
+                    try {
+                        while (stop.get() == false) {
+                            for (MarkovVertex v : vertices) {
+                                float probabilities[][] = v.probabilities;
+                                for (int i = 0; i < probabilities.length; i++) {
+                                    for (int j = 0; j < probabilities[i].length; j++) {
+                                        assertFalse(v + " " + MarkovVertex.Probability.values()[i] + " #" + j,
+                                                    probabilities[i][j] == MarkovUtil.NULL_MARKER);
+                                    } // FOR
+                                } // FOR
+                            } // FOR
+                        } // WHILE
+                    } catch (Throwable ex) {
+                        synchronized (errors) { errors.add(ex); }
+                    }
+                }
+            },
+        };
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(num_recomputes + 1, testGraph.getRecomputeCount());
+    }
+
+
      /**
      * testGraphSerialization
      */
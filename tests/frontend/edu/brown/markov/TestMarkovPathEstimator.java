@@ -15,6 +15,7 @@ import org.voltdb.types.ExpressionType;
 
 import edu.brown.BaseTestCase;
 import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.mappings.ParameterMappingsSet;
 import edu.brown.markov.containers.MarkovGraphContainersUtil;
 import edu.brown.markov.containers.MarkovGraphsContainer;
@@ -245,4 +246,38 @@ public class TestMarkovPathEstimator extends BaseTestCase {
 //        this.writeGraphviz(path);
 //        assertEquals(multip_partitions, touched_partitions);
     }
+    
+    /**
+     * testCompiledGraph
+     */
+    public void testCompiledGraph() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        boolean orig = hstore_conf.site.markov_compiled_graphs;
+        for (TransactionTrace trace : new TransactionTrace[]{ singlep_trace, multip_trace }) {
+            hstore_conf.site.markov_compiled_graphs = false;
+            MarkovPathEstimator walker = new MarkovPathEstimator(this.graph, this.t_estimator, BASE_PARTITION, trace.getParams());
+            walker.enableForceTraversal(true);
+            walker.traverse(this.graph.getStartVertex());
+            
+            hstore_conf.site.markov_compiled_graphs = true;
+            MarkovPathEstimator compiled = new MarkovPathEstimator(this.graph, this.t_estimator, BASE_PARTITION, trace.getParams());
+            compiled.enableForceTraversal(true);
+            compiled.traverse(this.graph.getStartVertex());
+            
+            // Both of them should come up with the same thing
+            assertEquals(walker.getVisitPath(), compiled.getVisitPath());
+            assertEquals(walker.getConfidence(), compiled.getConfidence(), MarkovGraph.PROBABILITY_EPSILON);
+            assertEquals(walker.getTouchedPartitions(), compiled.getTouchedPartitions());
+            assertEquals(walker.getForcedVertices(), compiled.getForcedVertices());
+            MarkovEstimate expected = walker.getEstimate();
+            MarkovEstimate actual = compiled.getEstimate();
+            assertEquals(expected.getSingleSitedProbability(), actual.getSingleSitedProbability(), MarkovGraph.PROBABILITY_EPSILON);
+            for (int p : CatalogUtil.getAllPartitionIds(catalog_proc)) {
+                assertEquals(expected.getDoneProbability(p), actual.getDoneProbability(p), MarkovGraph.PROBABILITY_EPSILON);
+                assertEquals(expected.getWriteProbability(p), actual.getWriteProbability(p), MarkovGraph.PROBABILITY_EPSILON);
+                assertEquals(expected.getTouchedCounter(p), actual.getTouchedCounter(p));
+            } // FOR
+        } // FOR
+        hstore_conf.site.markov_compiled_graphs = orig;
+    }
 }
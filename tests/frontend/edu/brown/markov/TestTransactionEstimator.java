@@ -186,6 +186,40 @@ public class TestTransactionEstimator extends BaseTestCase {
         } // FOR
     }
     
+    /**
+     * testEstimatorCache
+     */
+    @Test
+    public void testEstimatorCache() throws Exception {
+        MarkovPathEstimatorCache cache = this.t_estimator.getEstimatorCache();
+        TransactionTrace txn_trace = CollectionUtil.first(workload.getTransactions());
+        assertNotNull(txn_trace);
+        
+        // The first time that we see these parameters we shouldn't cache anything
+        State s = this.t_estimator.processTransactionTrace(txn_trace);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+        
+        // But the second time we should
+        s = this.t_estimator.processTransactionTrace(txn_trace);
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getHitCount());
+        List<MarkovVertex> expected = new ArrayList<MarkovVertex>(s.getInitialPath());
+        
+        // And then the third time we should get back the same path without estimating it again
+        s = this.t_estimator.processTransactionTrace(txn_trace);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(expected, s.getInitialPath());
+        
+        // A different MarkovGraph version should give us a miss
+        MarkovGraph markov = s.getMarkovGraph();
+        markov.calculateProbabilities();
+        long misses = cache.getMissCount();
+        s = this.t_estimator.startTransaction(XACT_ID++, this.catalog_proc, txn_trace.getParams());
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+    
     /**
      * testProcessTransactionTrace
      */
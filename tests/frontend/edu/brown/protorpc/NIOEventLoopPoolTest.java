@@ -0,0 +1,142 @@
+package edu.brown.protorpc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ca.evanjones.protorpc.Counter.CounterService;
+import ca.evanjones.protorpc.Counter.GetRequest;
+import ca.evanjones.protorpc.Counter.Value;
+
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
+
+public class NIOEventLoopPoolTest {
+    private static final int NUM_LOOPS = 2;
+    private static final int NUM_CHANNELS = 4;
+    private static final int NUM_RPCS = 100;
+
+    /** A CounterService that remembers which threads invoked it */
+    private static final class ThreadCounter extends CounterService {
+        private final AtomicInteger counter = new AtomicInteger(0);
+        private final Set<Thread> threads = new HashSet<Thread>();
+
+        @Override
+        public void add(RpcController controller, Value request, RpcCallback<Value> done) {
+            synchronized (threads) {
+                threads.add(Thread.currentThread());
+            }
+            int value = counter.addAndGet(request.getValue());
+            done.run(Value.newBuilder().setValue(value).build());
+        }
+
+        @Override
+        public void get(RpcController controller, GetRequest request, RpcCallback<Value> done) {
+            done.run(Value.newBuilder().setValue(counter.get()).build());
+        }
+    }
+
+    private static List<Thread> startLoops(NIOEventLoopPool pool) {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final NIOEventLoop loop : pool.getLoops()) {
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    loop.run();
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        return threads;
+    }
+
+    private static void stopLoops(NIOEventLoopPool pool, List<Thread> threads) throws InterruptedException {
+        pool.exitLoop();
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    @Test
+    public void testGetLoop() {
+        NIOEventLoopPool pool = new NIOEventLoopPool(3);
+        assertEquals(3, pool.size());
+        for (int i = 0; i < 10; i++) {
+            assertSame(pool.get(i % 3), pool.getLoop(i));
+            assertSame(pool.getLoop(i), pool.getLoop(i));
+        }
+        assertNotNull(pool.getLoop(-1));
+
+        // Keyless channels are spread across all of the loops
+        Set<NIOEventLoop> loops = new HashSet<NIOEventLoop>();
+        for (int i = 0; i < pool.size(); i++) {
+            loops.add(pool.nextLoop());
+        }
+        assertEquals(pool.size(), loops.size());
+    }
+
+    @Test(timeout=10000)
+    public void testProtoServer() throws Exception {
+        ServerSocket tmp = new ServerSocket(0);
+        int port = tmp.getLocalPort();
+        tmp.close();
+
+        NIOEventLoopPool serverLoops = new NIOEventLoopPool(NUM_LOOPS);
+        ProtoServer server = new ProtoServer(serverLoops.get(0), serverLoops);
+        ThreadCounter counter = new ThreadCounter();
+        server.register(counter);
+        server.bind(port);
+        List<Thread> serverThreads = startLoops(serverLoops);
+
+        // Each of the channels goes to its own loop on the client side
+        NIOEventLoopPool clientLoops = new NIOEventLoopPool(NUM_LOOPS);
+        InetSocketAddress addresses[] = new InetSocketAddress[NUM_CHANNELS];
+        EventLoop channelLoops[] = new EventLoop[NUM_CHANNELS];
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+            addresses[i] = new InetSocketAddress("localhost", port);
+            channelLoops[i] = clientLoops.getLoop(i);
+        }
+        ProtoRpcChannel channels[] = ProtoRpcChannel.connectParallel(clientLoops.get(0), addresses, channelLoops);
+        List<Thread> clientThreads = startLoops(clientLoops);
+
+        final CountDownLatch latch = new CountDownLatch(NUM_CHANNELS * NUM_RPCS);
+        RpcCallback<Value> callback = new RpcCallback<Value>() {
+            @Override
+            public void run(Value parameter) {
+                assertNotNull(parameter);
+                latch.countDown();
+            }
+        };
+        for (int i = 0; i < NUM_RPCS; i++) {
+            for (ProtoRpcChannel channel : channels) {
+                CounterService.newStub(channel).add(new ProtoRpcController(),
+                        Value.newBuilder().setValue(1).build(), callback);
+            }
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(NUM_CHANNELS * NUM_RPCS, counter.counter.get());
+
+        // The incoming connections were spread across all of the server's loops
+        assertEquals(NUM_LOOPS, counter.threads.size());
+
+        stopLoops(clientLoops, clientThreads);
+        stopLoops(serverLoops, serverThreads);
+        for (ProtoRpcChannel channel : channels) {
+            channel.close();
+        }
+        server.close();
+    }
+}
@@ -0,0 +1,191 @@
+package edu.brown.protorpc;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.evanjones.protorpc.Counter;
+import ca.evanjones.protorpc.Counter.CounterService;
+import ca.evanjones.protorpc.Protocol;
+import ca.evanjones.protorpc.Protocol.RpcRequest;
+import ca.evanjones.protorpc.Protocol.RpcResponse;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+
+import edu.brown.net.MockByteChannel;
+import edu.brown.net.NonBlockingConnection;
+
+public class ProtoRpcBatcherTest {
+    private static final MethodDescriptor ADD_METHOD =
+            CounterService.getDescriptor().findMethodByName("Add");
+    private static final MethodDescriptor GET_METHOD =
+            CounterService.getDescriptor().findMethodByName("Get");
+    private static final int MAX_MESSAGES = 3;
+
+    private MockEventLoop eventLoop;
+    private MockByteChannel channel;
+    private ProtoRpcChannel rpcChannel;
+    private ProtoRpcBatcher batcher;
+
+    @Before
+    public void setUp() {
+        eventLoop = new MockEventLoop();
+        channel = new MockByteChannel();
+        rpcChannel = new ProtoRpcChannel(eventLoop, new ProtoRpcChannel.ConnectFactory() {
+            @Override
+            public NonBlockingConnection startNewConnection() {
+                return new NonBlockingConnection(null, channel);
+            }
+        });
+
+        // Use a huge window so that only the tests flush the batches
+        batcher = new ProtoRpcBatcher(Integer.MAX_VALUE, MAX_MESSAGES);
+        batcher.addMethod(ADD_METHOD);
+        rpcChannel.setBatcher(batcher);
+    }
+
+    private void callAdd(int value, StoreResultCallback<Message> callback) {
+        rpcChannel.callMethod(ADD_METHOD, new ProtoRpcController(),
+                Counter.Value.newBuilder().setValue(value).build(),
+                Counter.Value.getDefaultInstance(), callback);
+    }
+
+    private void callGet(StoreResultCallback<Message> callback) {
+        rpcChannel.callMethod(GET_METHOD, new ProtoRpcController(),
+                Counter.GetRequest.getDefaultInstance(),
+                Counter.Value.getDefaultInstance(), callback);
+    }
+
+    /** Returns all of the RpcRequests that were written to the channel, in order. */
+    private RpcRequest[] readRequests(int expected) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] write : channel.lastWrites) {
+            out.write(write);
+        }
+        channel.clear();
+        CodedInputStream codedInput = CodedInputStream.newInstance(out.toByteArray());
+        RpcRequest[] requests = new RpcRequest[expected];
+        for (int i = 0; i < expected; i++) {
+            int length = codedInput.readRawLittleEndian32();
+            int oldLimit = codedInput.pushLimit(length);
+            requests[i] = RpcRequest.newBuilder().mergeFrom(codedInput).build();
+            codedInput.popLimit(oldLimit);
+        }
+        assertTrue(codedInput.isAtEnd());
+        return requests;
+    }
+
+    private void respond(int sequence, int value) throws IOException {
+        RpcResponse response = RpcResponse.newBuilder()
+                .setSequenceNumber(sequence)
+                .setStatus(Protocol.Status.OK)
+                .setResponse(Counter.Value.newBuilder().setValue(value).build().toByteString())
+                .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CodedOutputStream codedOutput = CodedOutputStream.newInstance(out);
+        codedOutput.writeRawLittleEndian32(response.getSerializedSize());
+        response.writeTo(codedOutput);
+        codedOutput.flush();
+        channel.setNextRead(out.toByteArray());
+        rpcChannel.readCallback(null);
+    }
+
+    /** The batch is written out as soon as it is full, and every RPC gets its own response. */
+    @Test
+    public void testMaxMessages() throws IOException {
+        List<StoreResultCallback<Message>> callbacks = new ArrayList<StoreResultCallback<Message>>();
+        for (int i = 0; i < MAX_MESSAGES; i++) {
+            callbacks.add(new StoreResultCallback<Message>());
+            callAdd(i, callbacks.get(i));
+            assertEquals(i < MAX_MESSAGES - 1, channel.lastWrites.isEmpty());
+        }
+        RpcRequest[] requests = readRequests(MAX_MESSAGES);
+        for (int i = 0; i < MAX_MESSAGES; i++) {
+            assertEquals(i, requests[i].getSequenceNumber());
+            assertEquals(i, Counter.Value.parseFrom(requests[i].getRequest()).getValue());
+        }
+        assertEquals(1, batcher.getBatchCount());
+        assertEquals(MAX_MESSAGES, batcher.getMessageCount());
+        assertEquals(MAX_MESSAGES, batcher.getMaxBatchSize());
+
+        // Answer them out of order
+        for (int i = MAX_MESSAGES - 1; i >= 0; i--) {
+            respond(i, 100 + i);
+            assertEquals(100 + i, ((Counter.Value) callbacks.get(i).getResult()).getValue());
+        }
+    }
+
+    /** The batcher writes out a batch when its window closes, but only if it's still buffered. */
+    @Test
+    public void testFlushBatch() throws IOException {
+        StoreResultCallback<Message> callback = new StoreResultCallback<Message>();
+        callAdd(42, callback);
+        assertTrue(channel.lastWrites.isEmpty());
+
+        // A batch that was already written out is ignored
+        rpcChannel.flushBatch(0);
+        assertTrue(channel.lastWrites.isEmpty());
+
+        rpcChannel.flushBatch(1);
+        assertEquals(42, Counter.Value.parseFrom(readRequests(1)[0].getRequest()).getValue());
+        assertEquals(1, batcher.getBatchCount());
+        assertTrue(batcher.getAverageAddedLatency() >= 0);
+
+        rpcChannel.flushBatch(1);
+        assertTrue(channel.lastWrites.isEmpty());
+        assertEquals(1, batcher.getBatchCount());
+    }
+
+    /** RPCs for other methods are not buffered and write out the current batch with them. */
+    @Test
+    public void testUnbatchedMethod() throws IOException {
+        StoreResultCallback<Message> callback = new StoreResultCallback<Message>();
+        callAdd(42, callback);
+        callGet(callback);
+        RpcRequest[] requests = readRequests(2);
+        assertEquals(ADD_METHOD.getFullName(), requests[0].getMethodName());
+        assertEquals(GET_METHOD.getFullName(), requests[1].getMethodName());
+        assertEquals(1, batcher.getBatchCount());
+        assertEquals(1, batcher.getMessageCount());
+
+        // Nothing is buffered, so this just goes out by itself
+        callGet(callback);
+        assertEquals(GET_METHOD.getFullName(), readRequests(1)[0].getMethodName());
+        assertEquals(1, batcher.getBatchCount());
+    }
+
+    /** The batcher thread writes out the batch after the window closes. */
+    @Test(timeout=10000)
+    public void testBatcherThread() throws Exception {
+        batcher = new ProtoRpcBatcher(1000, MAX_MESSAGES);
+        batcher.addMethod(ADD_METHOD);
+        rpcChannel.setBatcher(batcher);
+        Thread thread = new Thread(batcher);
+        thread.start();
+        try {
+            StoreResultCallback<Message> callback = new StoreResultCallback<Message>();
+            callAdd(42, callback);
+            while (true) {
+                synchronized (rpcChannel) {
+                    if (channel.lastWrites.isEmpty() == false) break;
+                }
+                Thread.sleep(1);
+            }
+            assertEquals(1, batcher.getBatchCount());
+            assertTrue(batcher.getMaxAddedLatency() >= 1000);
+        } finally {
+            batcher.stop();
+            thread.interrupt();
+            thread.join();
+        }
+    }
+}
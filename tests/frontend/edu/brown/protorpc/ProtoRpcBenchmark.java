@@ -0,0 +1,162 @@
+package edu.brown.protorpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import ca.evanjones.protorpc.Counter.CounterService;
+import ca.evanjones.protorpc.Counter.GetRequest;
+import ca.evanjones.protorpc.Counter.Value;
+
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+/**
+ * Japex drivers that measure the RPC throughput of a ProtoServer when all of its
+ * connections are handled by one NIOEventLoop versus when they are spread across
+ * a NIOEventLoopPool. This is the same setup as the CounterExample, except that there
+ * are several client channels (one per remote site) and each request has a payload that
+ * the server has to look at, like a TransactionWorkRequest. Each run sends a batch of
+ * RPCs on every channel and waits for all of the responses.
+ */
+public abstract class ProtoRpcBenchmark extends JapexDriverBase {
+    private static final int NUM_CHANNELS = 8;
+    private static final int RPCS_PER_CHANNEL = 1000;
+    private static final int PAYLOAD_SIZE = 1024;
+
+    /** A CounterService that doesn't print out anything */
+    private static final class QuietCounter extends CounterService {
+        @Override
+        public void add(RpcController controller, Value request, RpcCallback<Value> done) {
+            String name = request.getName();
+            int hash = 0;
+            for (int i = 0, cnt = name.length(); i < cnt; i++) {
+                hash = 31 * hash + name.charAt(i);
+            } // FOR
+            done.run(Value.newBuilder().setValue(hash).build());
+        }
+
+        @Override
+        public void get(RpcController controller, GetRequest request, RpcCallback<Value> done) {
+            done.run(Value.newBuilder().setValue(0).build());
+        }
+    }
+
+    private NIOEventLoopPool serverLoops;
+    private NIOEventLoopPool clientLoops;
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private ProtoServer server;
+    private CounterService.Stub stubs[];
+    private Value request;
+    private CountDownLatch latch;
+
+    private final RpcCallback<Value> callback = new RpcCallback<Value>() {
+        @Override
+        public void run(Value parameter) {
+            latch.countDown();
+        }
+    };
+
+    protected abstract int getNumLoops();
+
+    private void startLoops(NIOEventLoopPool pool) {
+        for (final NIOEventLoop loop : pool.getLoops()) {
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    loop.run();
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+            this.threads.add(t);
+        } // FOR
+    }
+
+    @Override
+    public void initializeDriver() {
+        int port;
+        try {
+            ServerSocket tmp = new ServerSocket(0);
+            port = tmp.getLocalPort();
+            tmp.close();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        this.serverLoops = new NIOEventLoopPool(this.getNumLoops());
+        this.server = new ProtoServer(this.serverLoops.get(0), this.serverLoops);
+        this.server.register(new QuietCounter());
+        this.server.bind(port);
+        this.startLoops(this.serverLoops);
+
+        this.clientLoops = new NIOEventLoopPool(this.getNumLoops());
+        InetSocketAddress addresses[] = new InetSocketAddress[NUM_CHANNELS];
+        EventLoop channelLoops[] = new EventLoop[NUM_CHANNELS];
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+            addresses[i] = new InetSocketAddress("localhost", port);
+            channelLoops[i] = this.clientLoops.getLoop(i);
+        } // FOR
+        ProtoRpcChannel channels[] = ProtoRpcChannel.connectParallel(this.clientLoops.get(0), addresses, channelLoops);
+        this.startLoops(this.clientLoops);
+
+        this.stubs = new CounterService.Stub[NUM_CHANNELS];
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+            this.stubs[i] = CounterService.newStub(channels[i]);
+        } // FOR
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < PAYLOAD_SIZE; i++) {
+            sb.append((char)('a' + (i % 26)));
+        } // FOR
+        this.request = Value.newBuilder().setValue(1).setName(sb.toString()).build();
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        this.latch = new CountDownLatch(NUM_CHANNELS * RPCS_PER_CHANNEL);
+        for (int i = 0; i < RPCS_PER_CHANNEL; i++) {
+            for (CounterService.Stub stub : this.stubs) {
+                stub.add(new ProtoRpcController(), this.request, this.callback);
+            } // FOR
+        } // FOR
+        try {
+            this.latch.await();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void terminateDriver() {
+        this.clientLoops.exitLoop();
+        this.serverLoops.exitLoop();
+        try {
+            for (Thread t : this.threads) {
+                t.join();
+            } // FOR
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+        this.server.close();
+    }
+
+    public static class SingleLoop extends ProtoRpcBenchmark {
+        @Override
+        protected int getNumLoops() {
+            return (1);
+        }
+    }
+
+    public static class LoopPool extends ProtoRpcBenchmark {
+        @Override
+        protected int getNumLoops() {
+            return (4);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package edu.brown.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.PlanFragment;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+import org.voltdb.utils.VoltTypeUtil;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+import edu.brown.BaseTestCase;
+
+/**
+ * Japex drivers that compare estimating the partitions of PlanFragments with the
+ * pre-computed FragmentRouters against looking up the CacheEntries. Each run
+ * estimates every single-partition Statement in the catalog once with random
+ * parameters, the same way that the BatchPlanner does.
+ */
+public abstract class PartitionEstimatorBenchmark extends JapexDriverBase {
+    private static final int NUM_PARTITIONS = 16;
+    private static final int NUM_INVOCATIONS = 100;
+    private static final int BASE_PARTITION = 1;
+
+    private PartitionEstimator p_estimator;
+    private final List<PlanFragment[]> fragments = new ArrayList<PlanFragment[]>();
+    private final List<Object[]> params = new ArrayList<Object[]>();
+    private final Map<PlanFragment, Set<Integer>> frag_partitions = new HashMap<PlanFragment, Set<Integer>>();
+    private final PartitionSet all_partitions = new PartitionSet();
+    protected int checksum = 0;
+
+    protected abstract ProjectType getProjectType();
+
+    protected abstract boolean useRouters();
+
+    /**
+     * Loads the catalog the same way that the test cases do
+     */
+    private static class Loader extends BaseTestCase {
+        private Database load(ProjectType type) throws Exception {
+            super.setUp(type);
+            this.addPartitions(NUM_PARTITIONS);
+            return (catalog_db);
+        }
+    }
+
+    @Override
+    public void initializeDriver() {
+        Database catalog_db = null;
+        try {
+            catalog_db = new Loader().load(this.getProjectType());
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        this.p_estimator = new PartitionEstimator(catalog_db);
+        this.p_estimator.preload();
+        this.p_estimator.setFragmentRoutersEnabled(this.useRouters());
+
+        Random rand = new Random(0);
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            if (catalog_proc.getSystemproc()) continue;
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                if (catalog_stmt.getHas_singlesited() == false) continue;
+                PlanFragment stmt_fragments[] = catalog_stmt.getFragments().values();
+                for (int i = 0; i < NUM_INVOCATIONS; i++) {
+                    Object stmt_params[] = new Object[catalog_stmt.getParameters().size()];
+                    for (int ii = 0; ii < stmt_params.length; ii++) {
+                        StmtParameter catalog_param = catalog_stmt.getParameters().get(ii);
+                        VoltType type = VoltType.get((byte)catalog_param.getJavatype());
+                        stmt_params[ii] = VoltTypeUtil.getRandomValue(type, rand);
+                    } // FOR
+                    this.fragments.add(stmt_fragments);
+                    this.params.add(stmt_params);
+                } // FOR
+            } // FOR
+        } // FOR
+        assert(this.fragments.isEmpty() == false);
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        try {
+            for (int i = 0, cnt = this.fragments.size(); i < cnt; i++) {
+                this.all_partitions.clear();
+                this.p_estimator.getAllFragmentPartitions(this.frag_partitions, this.all_partitions,
+                                                          this.fragments.get(i), this.params.get(i), BASE_PARTITION);
+                this.checksum += this.all_partitions.first();
+            } // FOR
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static class RoutersTPCC extends PartitionEstimatorBenchmark {
+        @Override
+        protected ProjectType getProjectType() {
+            return (ProjectType.TPCC);
+        }
+        @Override
+        protected boolean useRouters() {
+            return (true);
+        }
+    }
+
+    public static class CacheEntryTPCC extends PartitionEstimatorBenchmark {
+        @Override
+        protected ProjectType getProjectType() {
+            return (ProjectType.TPCC);
+        }
+        @Override
+        protected boolean useRouters() {
+            return (false);
+        }
+    }
+
+    public static class RoutersSEATS extends PartitionEstimatorBenchmark {
+        @Override
+        protected ProjectType getProjectType() {
+            return (ProjectType.SEATS);
+        }
+        @Override
+        protected boolean useRouters() {
+            return (true);
+        }
+    }
+
+    public static class CacheEntrySEATS extends PartitionEstimatorBenchmark {
+        @Override
+        protected ProjectType getProjectType() {
+            return (ProjectType.SEATS);
+        }
+        @Override
+        protected boolean useRouters() {
+            return (false);
+        }
+    }
+}
@@ -242,6 +242,37 @@ public class TestPartitionEstimator extends BaseTestCase {
         
     }
     
+    /**
+     * testFragmentRouters
+     */
+    public void testFragmentRouters() throws Exception {
+        // Check that the FragmentRouters give us back the same partitions as the CacheEntries
+        PartitionEstimator estimator = new PartitionEstimator(catalog_db, hasher);
+        estimator.preload();
+        Random rand = new Random(0);
+        for (Procedure catalog_proc : catalog_db.getProcedures()) {
+            if (catalog_proc.getSystemproc()) continue;
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                for (int i = 0; i < 10; i++) {
+                    Object params[] = new Object[catalog_stmt.getParameters().size()];
+                    for (int ii = 0; ii < params.length; ii++) {
+                        StmtParameter catalog_param = catalog_stmt.getParameters().get(ii);
+                        VoltType type = VoltType.get((byte)catalog_param.getJavatype());
+                        params[ii] = VoltTypeUtil.getRandomValue(type, rand);
+                    } // FOR
+                    int base_partition = rand.nextInt(NUM_PARTITIONS);
+
+                    estimator.setFragmentRoutersEnabled(true);
+                    Set<Integer> actual = estimator.getAllPartitions(catalog_stmt, params, base_partition);
+                    estimator.setFragmentRoutersEnabled(false);
+                    Set<Integer> expected = estimator.getAllPartitions(catalog_stmt, params, base_partition);
+                    assertFalse(catalog_stmt.fullName(), actual.isEmpty());
+                    assertEquals(catalog_stmt.fullName(), expected, actual);
+                } // FOR
+            } // FOR
+        } // FOR
+    }
+
     /**
      * testSelect
      */
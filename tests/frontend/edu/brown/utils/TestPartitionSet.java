@@ -0,0 +1,145 @@
+package edu.brown.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class TestPartitionSet extends TestCase {
+
+    private static final int NUM_PARTITIONS = 200;
+    private final Random rand = new Random(0);
+
+    /**
+     * testAddContainsRemove
+     */
+    public void testAddContainsRemove() {
+        PartitionSet pset = new PartitionSet();
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            int p = rand.nextInt(NUM_PARTITIONS);
+            if (rand.nextBoolean()) {
+                assertEquals(expected.add(p), pset.add(p));
+            } else {
+                assertEquals(expected.remove(p), pset.remove(p));
+            }
+            assertEquals(expected.size(), pset.size());
+            assertEquals(expected.isEmpty(), pset.isEmpty());
+        } // FOR
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            assertEquals(Integer.toString(p), expected.contains(p), pset.contains(p));
+            assertEquals(Integer.toString(p), expected.contains(p), pset.contains(Integer.valueOf(p)));
+        } // FOR
+        assertFalse(pset.contains(-1));
+        assertFalse(pset.contains("1"));
+
+        pset.clear();
+        assertTrue(pset.isEmpty());
+        assertEquals(-1, pset.first());
+    }
+
+    /**
+     * testIterator
+     */
+    public void testIterator() {
+        int partitions[] = { 0, 3, 63, 64, 65, 127, 199 };
+        PartitionSet pset = new PartitionSet(partitions);
+        assertEquals(partitions.length, pset.size());
+
+        // The primitive loop and the Iterator should both go in ascending order
+        int i = 0;
+        for (int p = pset.first(); p != -1; p = pset.next(p + 1)) {
+            assertEquals(partitions[i++], p);
+        } // FOR
+        assertEquals(partitions.length, i);
+
+        List<Integer> actual = new ArrayList<Integer>(pset);
+        assertEquals(partitions.length, actual.size());
+        for (i = 0; i < partitions.length; i++) {
+            assertEquals(partitions[i], actual.get(i).intValue());
+        } // FOR
+
+        // Remove everything on the other side of the mask boundary
+        Iterator<Integer> it = pset.iterator();
+        while (it.hasNext()) {
+            if (it.next() >= 64) it.remove();
+        } // WHILE
+        assertEquals(3, pset.size());
+        assertEquals(-1, pset.next(64));
+    }
+
+    /**
+     * testAddAll
+     */
+    public void testAddAll() {
+        PartitionSet pset0 = new PartitionSet(1, 2, 100);
+        PartitionSet pset1 = new PartitionSet(2, 3, 150);
+        Set<Integer> expected = new HashSet<Integer>(pset0);
+        expected.addAll(pset1);
+
+        assertTrue(pset0.addAll(pset1));
+        assertEquals(expected, pset0);
+        assertFalse(pset0.addAll(pset1));
+        assertFalse(pset0.addAll(new HashSet<Integer>(pset1)));
+        assertTrue(pset0.containsAll(pset1));
+        assertTrue(pset0.containsAll(expected));
+        assertFalse(pset1.containsAll(pset0));
+        assertFalse(pset1.containsAll(expected));
+    }
+
+    /**
+     * testEquals
+     */
+    public void testEquals() {
+        for (int i = 0; i < 100; i++) {
+            Set<Integer> expected = new HashSet<Integer>();
+            int cnt = rand.nextInt(10);
+            for (int ii = 0; ii < cnt; ii++) {
+                expected.add(rand.nextInt(NUM_PARTITIONS));
+            } // FOR
+            PartitionSet pset = new PartitionSet(expected);
+            assertEquals(expected, pset);
+            assertEquals(pset, expected);
+            assertEquals(expected.hashCode(), pset.hashCode());
+            assertEquals(pset, new PartitionSet(expected));
+        } // FOR
+
+        // An empty overflow BitSet shouldn't matter
+        PartitionSet pset0 = new PartitionSet(1, 100);
+        pset0.remove(100);
+        assertEquals(new PartitionSet(1), pset0);
+        assertEquals(pset0, new PartitionSet(1));
+        assertFalse(pset0.equals(new PartitionSet(1, 100)));
+    }
+
+    /**
+     * testReadOnly
+     */
+    public void testReadOnly() {
+        PartitionSet pset = PartitionSet.singleton(5);
+        assertTrue(pset.isReadOnly());
+        assertEquals(1, pset.size());
+        assertTrue(pset.contains(5));
+        try {
+            pset.add(6);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // Expected
+        }
+
+        pset = PartitionSet.unmodifiable(new PartitionSet(1, 2, 3));
+        assertTrue(pset.isReadOnly());
+        try {
+            pset.clear();
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // Expected
+        }
+        assertEquals(3, pset.size());
+        assertFalse(new PartitionSet(pset).isReadOnly());
+    }
+}
@@ -0,0 +1,146 @@
+package edu.brown.workload;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.brown.BaseTestCase;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.ProjectType;
+import edu.brown.workload.filters.ProcedureLimitFilter;
+
+public class TestBinaryWorkload extends BaseTestCase {
+
+    protected static final int WORKLOAD_XACT_LIMIT = 1000;
+    protected static final Random rand = new Random();
+
+    // Reading the workload takes a long time, so we only want to do it once
+    protected static Workload workload;
+    protected static File binary_file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+
+        if (workload == null) {
+            File workload_file = this.getWorkloadFile(ProjectType.TPCC);
+            workload = new Workload(catalog);
+            workload.load(workload_file.getAbsolutePath(), catalog_db, new ProcedureLimitFilter(WORKLOAD_XACT_LIMIT));
+            assertEquals(WORKLOAD_XACT_LIMIT, workload.getTransactionCount());
+
+            binary_file = FileUtil.getTempFile("trace", true);
+            BinaryWorkloadWriter writer = new BinaryWorkloadWriter(binary_file);
+            for (TransactionTrace txn_trace : workload.getTransactions()) {
+                writer.write(txn_trace);
+            } // FOR
+            writer.close();
+            assertEquals(WORKLOAD_XACT_LIMIT, writer.getTransactionCount());
+        }
+        assertTrue(BinaryWorkloadReader.isBinaryFile(binary_file));
+    }
+
+    private void compareParams(Object expected[], Object actual[]) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != null && expected[i].getClass().isArray()) {
+                assertNotNull(actual[i]);
+                int length = Array.getLength(expected[i]);
+                assertEquals(length, Array.getLength(actual[i]));
+                for (int ii = 0; ii < length; ii++) {
+                    assertEquals(Array.get(expected[i], ii), Array.get(actual[i], ii));
+                } // FOR
+            } else {
+                assertEquals(expected[i], actual[i]);
+            }
+        } // FOR
+    }
+
+    private void compareTransaction(TransactionTrace expected, TransactionTrace actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getTransactionId(), actual.getTransactionId());
+        assertEquals(expected.getCatalogItemName(), actual.getCatalogItemName());
+        assertEquals(expected.getStartTimestamp(), actual.getStartTimestamp());
+        assertEquals(expected.getStopTimestamp(), actual.getStopTimestamp());
+        assertEquals(expected.isAborted(), actual.isAborted());
+        assertEquals(expected.getWeight(), actual.getWeight());
+        this.compareParams(expected.getParams(), actual.getParams());
+
+        List<QueryTrace> expected_queries = expected.getQueries();
+        List<QueryTrace> actual_queries = actual.getQueries();
+        assertEquals(expected_queries.size(), actual_queries.size());
+        for (int i = 0, cnt = expected_queries.size(); i < cnt; i++) {
+            QueryTrace expected_query = expected_queries.get(i);
+            QueryTrace actual_query = actual_queries.get(i);
+            assertEquals(expected_query.getCatalogItemName(), actual_query.getCatalogItemName());
+            assertEquals(expected_query.getBatchId(), actual_query.getBatchId());
+            this.compareParams(expected_query.getParams(), actual_query.getParams());
+        } // FOR
+    }
+
+    /**
+     * testIterator
+     */
+    @Test
+    public void testIterator() throws Exception {
+        BinaryWorkloadReader reader = new BinaryWorkloadReader(binary_file);
+        assertEquals(WORKLOAD_XACT_LIMIT, reader.getTransactionCount());
+
+        Iterator<TransactionTrace> it = reader.iterator();
+        for (TransactionTrace expected : workload.getTransactions()) {
+            assertTrue(it.hasNext());
+            this.compareTransaction(expected, it.next());
+        } // FOR
+        assertFalse(it.hasNext());
+        reader.close();
+    }
+
+    /**
+     * testIteratorFilter
+     */
+    @Test
+    public void testIteratorFilter() throws Exception {
+        int limit = WORKLOAD_XACT_LIMIT / 10;
+        BinaryWorkloadReader reader = new BinaryWorkloadReader(binary_file);
+        List<TransactionTrace> txns = new ArrayList<TransactionTrace>();
+        Iterator<TransactionTrace> it = reader.iterator(new ProcedureLimitFilter(limit));
+        while (it.hasNext()) {
+            txns.add(it.next());
+        } // WHILE
+        assertEquals(limit, txns.size());
+        reader.close();
+    }
+
+    /**
+     * testGetTransaction
+     */
+    @Test
+    public void testGetTransaction() throws Exception {
+        BinaryWorkloadReader reader = new BinaryWorkloadReader(binary_file);
+        List<TransactionTrace> txns = new ArrayList<TransactionTrace>(workload.getTransactions());
+        for (int i = 0; i < 100; i++) {
+            TransactionTrace expected = txns.get(rand.nextInt(txns.size()));
+            this.compareTransaction(expected, reader.getTransaction(expected.getTransactionId()));
+        } // FOR
+        assertNull(reader.getTransaction(-1l));
+        reader.close();
+    }
+
+    /**
+     * testLoad
+     */
+    @Test
+    public void testLoad() throws Exception {
+        Workload binary_workload = new Workload(catalog);
+        binary_workload.load(binary_file.getAbsolutePath(), catalog_db);
+        assertEquals(workload.getTransactionCount(), binary_workload.getTransactionCount());
+        assertEquals(workload.getQueryCount(), binary_workload.getQueryCount());
+        for (TransactionTrace expected : workload.getTransactions()) {
+            this.compareTransaction(expected, binary_workload.getTransaction(expected.getTransactionId()));
+        } // FOR
+    }
+}
@@ -171,4 +171,51 @@ public class TestStoredProcedureInvocation extends BaseTestCase {
         assert(partitions.containsAll(clone.getPartitions()));
         
     }
+    
+    /**
+     * testReuse
+     */
+    public void testReuse() throws Exception {
+        StoredProcedureInvocation invocation0 = new StoredProcedureInvocation(CLIENT_HANDLE, TARGET_PROCEDURE, PARAMS);
+        final Set<Integer> partitions = new HashSet<Integer>();
+        partitions.add(19);
+        partitions.add(85);
+        invocation0.addPartitions(partitions);
+        invocation0.setBasePartition(7);
+        StoredProcedureInvocation invocation1 = new StoredProcedureInvocation(CLIENT_HANDLE + 1, "@DatabaseDump", PARAMS[0]);
+        
+        // Deserialize both requests into the same object, just like the HStoreSite
+        // does with the StoredProcedureInvocations in its pool
+        FastDeserializer fds = new FastDeserializer(new byte[0]);
+        StoredProcedureInvocation clone = new StoredProcedureInvocation();
+        assertFalse(clone.isInitialized());
+        
+        fds.setBuffer(ByteBuffer.wrap(FastSerializer.serialize(invocation0)));
+        clone.readExternal(fds);
+        clone.buildParameterSet(fds);
+        assertTrue(clone.isInitialized());
+        assertEquals(TARGET_PROCEDURE, clone.getProcName());
+        assertEquals(7, clone.getBasePartition());
+        assertEquals(partitions, clone.getPartitions());
+        assertArrayEquals(PARAMS, clone.getParams().toArray());
+        ParameterSet params0 = clone.getParams();
+        
+        clone.finish();
+        assertFalse(clone.isInitialized());
+        assertNull(clone.getParams());
+        
+        fds.setBuffer(ByteBuffer.wrap(FastSerializer.serialize(invocation1)));
+        clone.readExternal(fds);
+        clone.buildParameterSet(fds);
+        assertEquals(invocation1.getClientHandle(), clone.getClientHandle());
+        assertEquals("@DatabaseDump", clone.getProcName());
+        assertTrue(clone.isSysProc());
+        assertFalse(clone.hasBasePartition());
+        assertFalse(clone.hasPartitions());
+        assertArrayEquals(invocation1.getParams().toArray(), clone.getParams().toArray());
+        
+        // The first request's parameters must not be touched
+        assertNotSame(params0, clone.getParams());
+        assertArrayEquals(PARAMS, params0.toArray());
+    }
 }
@@ -23,7 +23,12 @@
 
 package org.voltdb;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import junit.framework.TestCase;
 
@@ -72,6 +77,58 @@ public class TestTransactionIdManager extends TestCase {
         }
     }
 
+    /** ids from different threads sharing the same manager must all be unique */
+    public void testConcurrentNextUniqueId() throws Exception {
+        final int numThreads = 32;
+        final int numIds = 10000;
+        final Set<Long> generatedIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException ex) {
+                        failed.set(true);
+                    }
+                    long lastid = 0;
+                    for (int ii = 0; ii < numIds; ii++) {
+                        long id = tim.getNextUniqueTransactionId();
+                        // Each thread should see its own ids going up
+                        if (id <= lastid || generatedIds.add(id) == false) {
+                            failed.set(true);
+                        }
+                        lastid = id;
+                    }
+                    doneLatch.countDown();
+                }
+            };
+            thread.start();
+        }
+        startLatch.countDown();
+        doneLatch.await();
+        assertFalse(failed.get());
+        assertEquals(numThreads * numIds, generatedIds.size());
+    }
+
+    /** ids must keep going up even if the clock moves backwards */
+    public void testClockMovesBackwards() {
+        long lastid = tim.getNextUniqueTransactionId();
+        tim.setTimeDelta(-10000);
+        for (int i = 0; i < 1000; i++) {
+            long id = tim.getNextUniqueTransactionId();
+            assertTrue(id > lastid);
+            assertEquals(VoltDB.INITIATOR_SITE_ID, TransactionIdManager.getInitiatorIdFromTransactionId(id));
+            lastid = id;
+        }
+        tim.setTimeDelta(0);
+        long id = tim.getNextUniqueTransactionId();
+        assertTrue(id > lastid);
+    }
+
     public void testSiteIdFromTransactionId() {
         long siteid = TransactionIdManager.getInitiatorIdFromTransactionId(tim.getNextUniqueTransactionId());
         assertEquals(siteid, VoltDB.INITIATOR_SITE_ID);
@@ -87,11 +144,11 @@ public class TestTransactionIdManager extends TestCase {
         for (int i = 0; i < 1000; i++) {
             Long id = tim.getNextUniqueTransactionId();
             assertNotNull(id);
-            assertEquals(id, tim.getLastTxnId());
+            assertEquals(id.longValue(), tim.getLastTxnId());
 
             Long id2 = tim.getNextUniqueTransactionId();
             assertNotNull(id2);
-            assertEquals(id2, tim.getLastTxnId());
+            assertEquals(id2.longValue(), tim.getLastTxnId());
 
             assertTrue(id2 > id);
         }
@@ -0,0 +1,78 @@
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+/**
+ * Japex drivers for generating txn ids with 32 concurrent submitters. The shared
+ * driver has every submitter use the same TransactionIdManager, which is what
+ * HStoreSite does when it doesn't have one per partition. The per-partition driver
+ * gives each submitter its own TransactionIdManager.
+ */
+public abstract class TransactionIdManagerBenchmark extends JapexDriverBase {
+    private static final int NUM_SUBMITTERS = 32;
+    private static final int IDS_PER_SUBMITTER = 10000;
+
+    private ExecutorService pool;
+    private final List<Callable<Long>> submitters = new ArrayList<Callable<Long>>();
+    protected long checksum = 0;
+
+    protected abstract TransactionIdManager getTransactionIdManager(int submitter);
+
+    @Override
+    public void initializeDriver() {
+        this.pool = Executors.newFixedThreadPool(NUM_SUBMITTERS);
+        for (int i = 0; i < NUM_SUBMITTERS; i++) {
+            final TransactionIdManager idManager = this.getTransactionIdManager(i);
+            this.submitters.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long last = 0;
+                    for (int ii = 0; ii < IDS_PER_SUBMITTER; ii++) {
+                        last = idManager.getNextUniqueTransactionId();
+                    } // FOR
+                    return (last);
+                }
+            });
+        } // FOR
+    }
+
+    @Override
+    public void run(TestCase testCase) {
+        try {
+            for (Future<Long> f : this.pool.invokeAll(this.submitters)) {
+                this.checksum += f.get().longValue();
+            } // FOR
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void terminateDriver() {
+        this.pool.shutdown();
+    }
+
+    public static class Shared extends TransactionIdManagerBenchmark {
+        private final TransactionIdManager idManager = new TransactionIdManager(0);
+
+        @Override
+        protected TransactionIdManager getTransactionIdManager(int submitter) {
+            return (this.idManager);
+        }
+    }
+
+    public static class PerPartition extends TransactionIdManagerBenchmark {
+        @Override
+        protected TransactionIdManager getTransactionIdManager(int submitter) {
+            return (new TransactionIdManager(submitter));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.voltdb.jni;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.voltdb.DependencySet;
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+/**
+ * Checks the output dependencies that ExecutionEngineJNI reads out of the EE's shared
+ * result buffer for a multi-fragment WorkFragment, and then feeds them back
+ * into the EE as the input dependencies for the next WorkFragment.
+ */
+public class TestDependencySetResults extends TestCase {
+
+    private static final int NUM_FRAGMENTS = 4;
+    private static final int BASE_DEPENDENCY_ID = 1000;
+
+    private final long fragmentIds[] = new long[NUM_FRAGMENTS];
+    private final int outputDepIds[] = new int[NUM_FRAGMENTS];
+    private final VoltTable tables[] = new VoltTable[NUM_FRAGMENTS];
+    private ByteBuffer fullBacking;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < NUM_FRAGMENTS; i++) {
+            this.fragmentIds[i] = i;
+            this.outputDepIds[i] = BASE_DEPENDENCY_ID + i;
+            this.tables[i] = new VoltTable(new VoltTable.ColumnInfo("FRAGMENT", VoltType.INTEGER),
+                                           new VoltTable.ColumnInfo("VALUE", VoltType.STRING));
+            // Give each fragment a different number of rows so that the
+            // tables are all different sizes
+            for (int row = 0; row <= i * 10; row++) {
+                this.tables[i].addRow(i, "frag" + i + "-row" + row);
+            } // FOR
+        } // FOR
+
+        // Lay out the results the way that the EE writes them into the shared buffer
+        this.fullBacking = ByteBuffer.allocateDirect(1024 * 1024);
+        for (int i = 0; i < NUM_FRAGMENTS; i++) {
+            ByteBuffer tableBytes = this.tables[i].getTableDataReference();
+            tableBytes.limit(this.tables[i].getUnderlyingBufferSize());
+            this.fullBacking.putInt(1);
+            this.fullBacking.putInt(this.outputDepIds[i]);
+            this.fullBacking.putInt(tableBytes.remaining());
+            this.fullBacking.put(tableBytes);
+        } // FOR
+        this.fullBacking.flip();
+    }
+
+    private void checkTable(VoltTable expected, VoltTable vt) {
+        assertNotNull(vt);
+        assertEquals(expected.getColumnCount(), vt.getColumnCount());
+        assertEquals(expected.getRowCount(), vt.getRowCount());
+        expected.resetRowPosition();
+        vt.resetRowPosition();
+        while (expected.advanceRow()) {
+            assertTrue(vt.advanceRow());
+            assertEquals(expected.getLong(0), vt.getLong(0));
+            assertEquals(expected.getString(1), vt.getString(1));
+        } // WHILE
+        assertFalse(vt.advanceRow());
+    }
+
+    /**
+     * Stash the output dependencies as the input dependencies for the next WorkFragment
+     * and then pull them back out the same way that the EE does
+     */
+    private void checkInputDependencies(DependencySet result) {
+        Map<Integer, List<VoltTable>> inputs = new HashMap<Integer, List<VoltTable>>();
+        for (int i = 0; i < result.size(); i++) {
+            List<VoltTable> l = new ArrayList<VoltTable>();
+            l.add(result.dependencies[i]);
+            inputs.put(result.depIds[i], l);
+        } // FOR
+        ExecutionEngine ee = new MockExecutionEngine();
+        ee.stashWorkUnitDependencies(inputs);
+
+        for (int i = 0; i < NUM_FRAGMENTS; i++) {
+            byte bytes[] = ee.nextDependencyAsBytes(this.outputDepIds[i]);
+            assertNotNull(bytes);
+            assertEquals(this.tables[i].getUnderlyingBufferSize(), bytes.length);
+            this.checkTable(this.tables[i], PrivateVoltTableFactory.createVoltTableFromBuffer(ByteBuffer.wrap(bytes), true));
+            assertNull(ee.nextDependencyAsBytes(this.outputDepIds[i]));
+        } // FOR
+    }
+
+    /**
+     * testCopiedResults
+     */
+    public void testCopiedResults() throws Exception {
+        DependencySet result = ExecutionEngineJNI.readDependencySet(this.fullBacking, this.fragmentIds, NUM_FRAGMENTS,
+                                                                    this.outputDepIds, 0, false);
+        assertEquals(NUM_FRAGMENTS, result.size());
+        assertFalse(this.fullBacking.hasRemaining());
+
+        // The next EE call is going to overwrite the shared buffer
+        this.fullBacking.clear();
+        while (this.fullBacking.hasRemaining()) {
+            this.fullBacking.put((byte)0xFF);
+        } // WHILE
+
+        for (int i = 0; i < NUM_FRAGMENTS; i++) {
+            assertEquals(this.outputDepIds[i], result.depIds[i]);
+            this.checkTable(this.tables[i], result.dependencies[i]);
+        } // FOR
+        this.checkInputDependencies(result);
+    }
+
+    /**
+     * testZeroCopyResults
+     */
+    public void testZeroCopyResults() throws Exception {
+        DependencySet result = ExecutionEngineJNI.readDependencySet(this.fullBacking, this.fragmentIds, NUM_FRAGMENTS,
+                                                                    this.outputDepIds, 0, true);
+        assertEquals(NUM_FRAGMENTS, result.size());
+        assertFalse(this.fullBacking.hasRemaining());
+
+        for (int i = 0; i < NUM_FRAGMENTS; i++) {
+            assertEquals(this.outputDepIds[i], result.depIds[i]);
+            assertFalse(result.dependencies[i].getDirectDataReference().hasArray());
+            this.checkTable(this.tables[i], result.dependencies[i]);
+        } // FOR
+        this.checkInputDependencies(result);
+    }
+}